@@ -1,6 +1,7 @@
 package com.chatprivate.auth;
 
 import com.chatprivate.exception.RateLimitExceededException;
+import com.chatprivate.monitoring.ChatMetrics;
 import com.chatprivate.security.RateLimitService;
 import com.chatprivate.security.SecurityAuditLogger;
 import com.chatprivate.user.UserService;
@@ -29,6 +30,7 @@ public class AuthController {
     private final UserService userService;
     private final RateLimitService rateLimitService;
     private final SecurityAuditLogger auditLogger;
+    private final ChatMetrics chatMetrics;
     /**
      * Endpoint de registro de nuevos usuarios.
      *
@@ -57,6 +59,7 @@ public class AuthController {
 
             log.warn(" REGISTRO BLOQUEADO: IP {} ha excedido el límite (intentos restantes: {})",
                     clientIp, remaining);
+            chatMetrics.recordRateLimitRejection("register");
 
             throw new RateLimitExceededException(
                     "Has excedido el límite de registros. " +
@@ -103,6 +106,7 @@ public class AuthController {
 
             log.warn("LOGIN BLOQUEADO: IP {} ha excedido el límite (intentos restantes: {})",
                     clientIp, remaining);
+            chatMetrics.recordRateLimitRejection("login");
 
             throw new RateLimitExceededException(
                     "Has excedido el límite de intentos de login. " +
@@ -1,25 +1,26 @@
 package com.chatprivate.auth;
 
+import com.chatprivate.user.UserDirectoryPage;
+import com.chatprivate.user.UserDirectoryService;
 import com.chatprivate.user.UserDto;
-import com.chatprivate.user.UserRepository;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import com.chatprivate.user.CustomUserDetails;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/users")
 public class UserController {
 
-    private final UserRepository userRepository;
+    private final UserDirectoryService userDirectoryService;
 
-    public UserController(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    public UserController(UserDirectoryService userDirectoryService) {
+        this.userDirectoryService = userDirectoryService;
     }
 
     @GetMapping("/me")
@@ -27,17 +28,43 @@ public class UserController {
         // Obtenemos el UserDetails completo de la autenticación
         CustomUserDetails userDetails = (CustomUserDetails) authentication.getPrincipal();
         // Creamos y devolvemos un DTO con el ID y el username
-        return ResponseEntity.ok(new UserDto(userDetails.getUser().getId(), userDetails.getUsername()));
+        return ResponseEntity.ok(new UserDto(userDetails.getUserId(), userDetails.getUsername()));
     }
 
+    /**
+     * Listado completo de usuarios (menos el actual).
+     *
+     * Se mantiene por compatibilidad, pero ya no carga entidades User:
+     * usa una proyección (id, username). Para "nuevo chat" usar /directory.
+     */
     @GetMapping
     public ResponseEntity<List<UserDto>> getAllUsers(Authentication authentication) {
-        String currentUsername = authentication.getName();
-        List<UserDto> users = userRepository.findAll()
-                .stream()
-                .filter(user -> !user.getUsername().equals(currentUsername))
-                .map(user -> new UserDto(user.getId(), user.getUsername()))
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(users);
+        return ResponseEntity.ok(userDirectoryService.listAll(currentUserId(authentication)));
     }
-}
\ No newline at end of file
+
+    /**
+     * Directorio de usuarios paginado con búsqueda por prefijo.
+     *
+     * USO:
+     * GET /api/users/directory?prefix=ana&limit=20
+     * GET /api/users/directory?prefix=ana&limit=20&after=ana_lopez   (siguiente página)
+     *
+     * PARÁMETROS:
+     * - prefix: Inicio del username (opcional)
+     * - after: Cursor devuelto como nextCursor en la página anterior (opcional)
+     * - limit: Tamaño de página (default: 50, máximo 100)
+     */
+    @GetMapping("/directory")
+    public ResponseEntity<UserDirectoryPage> getDirectory(
+            Authentication authentication,
+            @RequestParam(required = false) String prefix,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(userDirectoryService.search(prefix, after, limit, currentUserId(authentication)));
+    }
+
+    private static Long currentUserId(Authentication authentication) {
+        CustomUserDetails userDetails = (CustomUserDetails) authentication.getPrincipal();
+        return userDetails.getUserId();
+    }
+}
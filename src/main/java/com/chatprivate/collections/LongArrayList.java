@@ -0,0 +1,86 @@
+package com.chatprivate.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Lista de longs sobre un long[] que crece (sin un Long por elemento).
+ *
+ * Los repositorios reciben Collection<Long>: {@link #asList()} es una vista
+ * de solo lectura que encaja un valor únicamente cuando Hibernate lo lee al
+ * enlazar el parámetro, en vez de guardar una lista de Long entera.
+ */
+public class LongArrayList {
+
+    private long[] elements;
+    private int size;
+
+    public LongArrayList(int initialCapacity) {
+        this.elements = new long[Math.max(4, initialCapacity)];
+    }
+
+    public void add(long value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, elements.length * 2);
+        }
+        elements[size++] = value;
+    }
+
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Índice " + index + ", tamaño " + size);
+        }
+        return elements[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Ordena y quita repetidos (en el mismo array).
+     *
+     * @return this
+     */
+    public LongArrayList sortDistinct() {
+        Arrays.sort(elements, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || elements[i] != elements[distinct - 1]) {
+                elements[distinct++] = elements[i];
+            }
+        }
+        size = distinct;
+        return this;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * Vista de solo lectura como List<Long> (para los parámetros IN de las queries).
+     */
+    public List<Long> asList() {
+        return new BoxedView();
+    }
+
+    private final class BoxedView extends AbstractList<Long> implements RandomAccess {
+
+        @Override
+        public Long get(int index) {
+            return LongArrayList.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
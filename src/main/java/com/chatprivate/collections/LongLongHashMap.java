@@ -0,0 +1,170 @@
+package com.chatprivate.collections;
+
+import java.util.Arrays;
+
+/**
+ * Mapa long -> long sin objetos por entrada (ni Long ni HashMap.Node).
+ *
+ * Direccionamiento abierto con sondeo lineal sobre dos arrays paralelos.
+ * Al borrar desplazo hacia atrás las entradas siguientes del mismo grupo,
+ * así que no hay "lápidas" y las búsquedas no se degradan con el tiempo.
+ *
+ * La clave 0 está reservada (marca hueco libre); los IDs de la BD empiezan en 1.
+ * NO es thread-safe: quien lo use tiene que sincronizar.
+ */
+public class LongLongHashMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return El valor, o {@code missing} si la clave no está
+     */
+    public long get(long key, long missing) {
+        checkKey(key);
+        int slot = find(key);
+        return slot >= 0 ? values[slot] : missing;
+    }
+
+    public boolean containsKey(long key) {
+        checkKey(key);
+        return find(key) >= 0;
+    }
+
+    public void put(long key, long value) {
+        checkKey(key);
+        int slot = slotOf(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Borra la clave solo si su valor sigue siendo {@code expected}.
+     *
+     * @return true si la borró
+     */
+    public boolean remove(long key, long expected) {
+        checkKey(key);
+        int slot = find(key);
+        if (slot < 0 || values[slot] != expected) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * @return true si la clave estaba
+     */
+    public boolean remove(long key) {
+        checkKey(key);
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    private int find(long key) {
+        int slot = slotOf(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Borrado con desplazamiento hacia atrás: cada entrada posterior del grupo
+     * que quedaría inalcanzable se mueve al hueco.
+     */
+    private void removeAt(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != 0) {
+            int home = slotOf(keys[next]);
+            // ¿El hueco está entre su posición ideal y la actual (circularmente)?
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = 0;
+        size--;
+    }
+
+    private int slotOf(long key) {
+        // Mezclo los bits: los IDs son consecutivos y caerían en huecos vecinos
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slotOf(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static void checkKey(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("La clave 0 está reservada");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.chatprivate.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Marca cada frame SEND con el instante (System.nanoTime) en que llegó del socket.
+ *
+ * PROBLEMA:
+ * Medir el envío desde que empieza StompChatController deja fuera la espera
+ * en la cola de clientInboundChannel, que es justo lo que crece bajo carga.
+ *
+ * SOLUCIÓN:
+ * preSend corre en el hilo del WebSocket, ANTES de encolar el frame. El
+ * controlador lee el header y mide hasta la confirmación (chat.message.ack).
+ */
+@Component
+public class InboundFrameTimestampInterceptor implements ChannelInterceptor {
+
+    public static final String RECEIVED_AT_HEADER = "chatReceivedAtNanos";
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+
+        if (accessor != null && accessor.isMutable() && StompCommand.SEND.equals(accessor.getCommand())) {
+            accessor.setHeader(RECEIVED_AT_HEADER, System.nanoTime());
+        }
+        return message;
+    }
+}
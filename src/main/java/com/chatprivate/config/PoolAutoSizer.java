@@ -0,0 +1,102 @@
+package com.chatprivate.config;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.List;
+
+/**
+ * Ajusta el tamaño máximo de cada pool según su saturación.
+ *
+ * En cada ciclo, por pool:
+ * - Hay hilos ESPERANDO conexión y no llegué al techo -> crezco (uno por hilo esperando)
+ * - Uso menos de la mitad durante SHRINK_AFTER_CYCLES ciclos seguidos -> bajo 1 (nunca por
+ *   debajo del tamaño configurado)
+ *
+ * Hikari permite cambiar maximumPoolSize en caliente (HikariConfigMXBean).
+ * Publica chat.datasource.pool.saturation (activas / máximo) por pool.
+ */
+@Slf4j
+public class PoolAutoSizer implements MeterBinder {
+
+    static final int SHRINK_AFTER_CYCLES = 3;
+
+    /**
+     * Un pool con sus límites: floor = tamaño configurado, ceiling = máximo adaptativo.
+     */
+    public static final class ManagedPool {
+        private final String name;
+        private final HikariDataSource dataSource;
+        private final int floor;
+        private final int ceiling;
+        private int idleCycles = 0;
+
+        public ManagedPool(String name, HikariDataSource dataSource, int ceiling) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.floor = dataSource.getMaximumPoolSize();
+            this.ceiling = Math.max(floor, ceiling);
+        }
+    }
+
+    private final List<ManagedPool> pools;
+
+    public PoolAutoSizer(List<ManagedPool> pools) {
+        this.pools = pools;
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasource.workload-pools.adaptive.interval-ms:5000}")
+    public void resize() {
+        for (ManagedPool pool : pools) {
+            HikariPoolMXBean stats = pool.dataSource.getHikariPoolMXBean();
+            if (stats == null) {
+                continue; // Pool todavía sin arrancar
+            }
+            HikariConfigMXBean config = pool.dataSource.getHikariConfigMXBean();
+            int max = config.getMaximumPoolSize();
+            int waiting = stats.getThreadsAwaitingConnection();
+
+            if (waiting > 0 && max < pool.ceiling) {
+                int newMax = Math.min(pool.ceiling, max + waiting);
+                config.setMaximumPoolSize(newMax);
+                pool.idleCycles = 0;
+                log.warn("📈 Pool '{}' saturado ({} hilos esperando): máximo {} -> {}", pool.name, waiting, max, newMax);
+            } else if (stats.getActiveConnections() < max / 2.0 && max > pool.floor) {
+                if (++pool.idleCycles >= SHRINK_AFTER_CYCLES) {
+                    config.setMaximumPoolSize(max - 1);
+                    if (config.getMinimumIdle() > max - 1) {
+                        config.setMinimumIdle(max - 1);
+                    }
+                    pool.idleCycles = 0;
+                    log.info("📉 Pool '{}' infrautilizado: máximo {} -> {}", pool.name, max, max - 1);
+                }
+            } else {
+                pool.idleCycles = 0;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (ManagedPool pool : pools) {
+            Gauge.builder("chat.datasource.pool.saturation", pool, PoolAutoSizer::saturation)
+                    .description("Conexiones activas / máximo del pool")
+                    .tag("pool", pool.name)
+                    .register(registry);
+        }
+    }
+
+    private static double saturation(ManagedPool pool) {
+        HikariPoolMXBean stats = pool.dataSource.getHikariPoolMXBean();
+        if (stats == null) {
+            return 0;
+        }
+        return stats.getActiveConnections() / (double) pool.dataSource.getHikariConfigMXBean().getMaximumPoolSize();
+    }
+}
@@ -0,0 +1,66 @@
+package com.chatprivate.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+
+/**
+ * Lecturas a una réplica de MySQL (opcional: app.datasource.replica.enabled).
+ *
+ * PROBLEMA:
+ * getMessageHistory, getMessageHistoryPaged y getUserConversations ya son
+ * @Transactional(readOnly = true), pero todo iba a la primaria con un pool
+ * de 10 conexiones.
+ *
+ * SOLUCIÓN:
+ * - Un pool Hikari "replica" (app.datasource.replica)
+ * - WorkloadRoutingDataSource (ver WorkloadDataSourceConfig) manda las
+ *   transacciones readOnly a la réplica
+ * - ReplicaLagMonitor: si la réplica se retrasa más de max-lag-ms, las lecturas
+ *   vuelven a la primaria (pool READ) hasta que se ponga al día
+ *
+ * NOTA: Con la réplica dentro del lag permitido, una lectura justo después de
+ * escribir puede no ver todavía lo escrito (como máximo max-lag-ms).
+ *
+ * Si está desactivado, las lecturas van al pool READ de la primaria.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "app.datasource.replica.enabled", havingValue = "true")
+public class ReadReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("app.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(@Value("${app.datasource.replica.url}") String url,
+                                              @Value("${app.datasource.replica.username}") String username,
+                                              @Value("${app.datasource.replica.password:}") String password,
+                                              @Value("${app.datasource.replica.driver-class-name:}") String driverClassName) {
+        DataSourceBuilder<HikariDataSource> builder = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(url)
+                .username(username)
+                .password(password);
+        if (!driverClassName.isEmpty()) {
+            builder.driverClassName(driverClassName);
+        }
+        HikariDataSource dataSource = builder.build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                               @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                               @Value("${app.datasource.replica.max-lag-ms:2000}") long maxLagMs) {
+        return new ReplicaLagMonitor(primaryDataSource, replicaDataSource, maxLagMs);
+    }
+}
@@ -0,0 +1,123 @@
+package com.chatprivate.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+
+/**
+ * Mide el retraso (lag) de la réplica con un "latido".
+ *
+ * CÓMO FUNCIONA:
+ * 1. Cada heartbeat-interval-ms escribo la hora actual en la tabla
+ *    replica_heartbeat de la PRIMARIA
+ * 2. La replicación la copia a la réplica
+ * 3. Leo esa hora en la RÉPLICA: lag = ahora - hora leída
+ *
+ * Si el lag supera max-lag-ms (o la réplica no responde), las lecturas
+ * vuelven a la primaria hasta que se ponga al día.
+ *
+ * No depende de privilegios de MySQL (SHOW REPLICA STATUS) y funciona con
+ * cualquier BD, también con dos H2 en los tests.
+ */
+@Slf4j
+public class ReplicaLagMonitor implements MeterBinder {
+
+    static final String HEARTBEAT_TABLE = "replica_heartbeat";
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final long maxLagMs;
+
+    private volatile boolean replicaUsable = false;
+    private volatile long lastLagMs = -1;
+
+    public ReplicaLagMonitor(DataSource primaryDataSource, DataSource replicaDataSource, long maxLagMs) {
+        this.primary = new JdbcTemplate(primaryDataSource);
+        this.replica = new JdbcTemplate(replicaDataSource);
+        this.maxLagMs = maxLagMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        primary.execute("CREATE TABLE IF NOT EXISTS " + HEARTBEAT_TABLE +
+                " (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)");
+        tick();
+    }
+
+    /**
+     * Latido + comprobación del lag.
+     */
+    @Scheduled(fixedDelayString = "${app.datasource.replica.heartbeat-interval-ms:1000}")
+    public void tick() {
+        beat();
+        refresh();
+    }
+
+    /**
+     * Escribe el latido en la primaria.
+     */
+    void beat() {
+        long now = System.currentTimeMillis();
+        try {
+            int updated = primary.update("UPDATE " + HEARTBEAT_TABLE + " SET beat_at = ? WHERE id = 1", now);
+            if (updated == 0) {
+                primary.update("INSERT INTO " + HEARTBEAT_TABLE + " (id, beat_at) VALUES (1, ?)", now);
+            }
+        } catch (DataAccessException e) {
+            log.warn("⚠️ No se pudo escribir el latido de la réplica: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Lee el latido en la réplica y decide si se puede usar.
+     */
+    public void refresh() {
+        boolean usable;
+        try {
+            Long beatAt = replica.queryForObject(
+                    "SELECT beat_at FROM " + HEARTBEAT_TABLE + " WHERE id = 1", Long.class);
+            lastLagMs = beatAt == null ? -1 : Math.max(0, System.currentTimeMillis() - beatAt);
+            usable = beatAt != null && lastLagMs <= maxLagMs;
+        } catch (DataAccessException e) {
+            lastLagMs = -1;
+            usable = false;
+        }
+
+        if (usable != replicaUsable) {
+            if (usable) {
+                log.info("✅ Réplica al día (lag={}ms): las lecturas readOnly vuelven a la réplica", lastLagMs);
+            } else {
+                log.warn("🐢 Réplica no disponible o con retraso (lag={}ms, máximo={}ms): lecturas a la primaria",
+                        lastLagMs, maxLagMs);
+            }
+        }
+        replicaUsable = usable;
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    public long getLastLagMs() {
+        return lastLagMs;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.datasource.replica.lag", this, ReplicaLagMonitor::getLastLagMs)
+                .description("Retraso de la réplica medido con el latido (-1 = no disponible)")
+                .baseUnit("milliseconds")
+                .register(registry);
+
+        Gauge.builder("chat.datasource.replica.usable", this, m -> m.isReplicaUsable() ? 1 : 0)
+                .description("1 si las lecturas readOnly van a la réplica")
+                .register(registry);
+    }
+}
@@ -1,6 +1,7 @@
 package com.chatprivate.config;
 
 import com.chatprivate.security.JwtAuthFilter;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
@@ -98,6 +99,10 @@ public class SecurityConfig {
                         // Permito el acceso público a mis endpoints de autenticación,
                         // a la documentación de la API (swagger) y al endpoint de WebSocket (/ws).
                         .requestMatchers("/api/auth/**", "/v3/api-docs/**", "/swagger-ui/**", "/ws/**").permitAll()
+                        // Health y scrape de Prometheus: públicos SOLO en el puerto de management
+                        // (management.server.port, red interna). EndpointRequest no casa en el
+                        // puerto de la API, así que allí /actuator/** pide autenticación.
+                        .requestMatchers(EndpointRequest.to("health", "prometheus")).permitAll()
                         // Cualquier otra petición debe estar autenticada.
                         .anyRequest().authenticated()
                 )
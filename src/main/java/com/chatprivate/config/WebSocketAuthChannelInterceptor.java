@@ -1,6 +1,8 @@
 package com.chatprivate.config;
 
+import com.chatprivate.monitoring.ChatMetrics;
 import com.chatprivate.security.JwtService;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
@@ -22,6 +24,7 @@ public class WebSocketAuthChannelInterceptor implements ChannelInterceptor {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final ChatMetrics chatMetrics;
 
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
@@ -34,13 +37,16 @@ public class WebSocketAuthChannelInterceptor implements ChannelInterceptor {
 
             if (authHeader != null && authHeader.startsWith("Bearer ")) {
                 String token = authHeader.substring(7);
+                Timer.Sample sample = chatMetrics.start();
+                boolean valid = false;
                 try {
                     String username = jwtService.extractUsername(token);
 
                     if (username != null) {
                         UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+                        valid = jwtService.isTokenValid(token, userDetails);
 
-                        if (jwtService.isTokenValid(token, userDetails)) {
+                        if (valid) {
 
                             // Creamos el token de autenticación de Spring Security
                             UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
@@ -56,6 +62,8 @@ public class WebSocketAuthChannelInterceptor implements ChannelInterceptor {
                     }
                 } catch (Exception ex) {
                     log.warn("Error autenticando token WebSocket: {}", ex.getMessage());
+                } finally {
+                    chatMetrics.recordJwtValidation(sample, "websocket", valid);
                 }
             } else {
                 log.warn("WebSocket CONNECT - Cabecera Authorization ausente o inválida.");
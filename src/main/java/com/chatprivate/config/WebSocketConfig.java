@@ -1,19 +1,25 @@
 package com.chatprivate.config;
 
 
+import com.chatprivate.messaging.service.ChatSendPayloadConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.MessageChannel; // <-- ESTA IMPORTACIÓN YA NO SE NECESITA
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.SimpMessagingTemplate; // <-- ESTA IMPORTACIÓN YA NO SE NECESITA
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+import java.util.List;
+
 
 /**
  * Configuración de mis WebSockets usando STOMP.
@@ -26,9 +32,19 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     // Mi interceptor personalizado para autenticar conexiones WebSocket
     private final WebSocketAuthChannelInterceptor webSocketAuthChannelInterceptor;
 
+    // Lectura por streaming de los frames de /app/chat.send
+    private final ChatSendPayloadConverter chatSendPayloadConverter;
+
+    // Hora de llegada de cada SEND (para medir hasta la confirmación)
+    private final InboundFrameTimestampInterceptor inboundFrameTimestampInterceptor;
+
     @Autowired
-    public WebSocketConfig(WebSocketAuthChannelInterceptor webSocketAuthChannelInterceptor) {
+    public WebSocketConfig(WebSocketAuthChannelInterceptor webSocketAuthChannelInterceptor,
+                           ChatSendPayloadConverter chatSendPayloadConverter,
+                           InboundFrameTimestampInterceptor inboundFrameTimestampInterceptor) {
         this.webSocketAuthChannelInterceptor = webSocketAuthChannelInterceptor;
+        this.chatSendPayloadConverter = chatSendPayloadConverter;
+        this.inboundFrameTimestampInterceptor = inboundFrameTimestampInterceptor;
     }
 
     /**
@@ -71,7 +87,38 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
      */
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(webSocketAuthChannelInterceptor);
+        registration.interceptors(inboundFrameTimestampInterceptor, webSocketAuthChannelInterceptor);
+    }
+
+    /**
+     * Configuro el canal de salida (frames que se escriben a los sockets).
+     *
+     * Uso mi propio executor (mismos tamaños que el de Spring) para añadirle
+     * un ContextPropagatingTaskDecorator: la escritura al socket corre en otro
+     * hilo y así sigue dentro de la traza del mensaje que la originó.
+     */
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 2);
+        executor.setMaxPoolSize(Integer.MAX_VALUE);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setKeepAliveSeconds(60);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("clientOutboundChannel-");
+        executor.setTaskDecorator(new ContextPropagatingTaskDecorator());
+        registration.taskExecutor(executor);
+    }
+
+    /**
+     * Pongo mi conversor de StompMessagePayload delante de los de Spring.
+     * Devuelvo true: los conversores por defecto (Jackson, String...) se
+     * añaden detrás para el resto de payloads.
+     */
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(chatSendPayloadConverter);
+        return true;
     }
 
     /**
@@ -0,0 +1,12 @@
+package com.chatprivate.config;
+
+/**
+ * Tipos de tráfico a la BD, cada uno con su propio pool (bulkhead).
+ *
+ * - AUTH:  login y carga del usuario del JWT (muchas, cortas, críticas)
+ * - WRITE: envío de mensajes, altas/bajas... (y todo lo no clasificado)
+ * - READ:  transacciones readOnly (historial, lista de conversaciones)
+ */
+public enum Workload {
+    AUTH, WRITE, READ
+}
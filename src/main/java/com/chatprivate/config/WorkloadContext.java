@@ -0,0 +1,52 @@
+package com.chatprivate.config;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+/**
+ * Guarda (por hilo) el tipo de tráfico marcado con @WorkloadPool.
+ *
+ * Lo lee WorkloadRoutingDataSource cuando se pide la conexión real
+ * (gracias al LazyConnectionDataSourceProxy, en la primera query).
+ */
+@Aspect
+@Component
+public class WorkloadContext {
+
+    private static final ThreadLocal<Workload> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Tipo marcado en el hilo actual (null = sin marcar).
+     */
+    public static Workload current() {
+        return CURRENT.get();
+    }
+
+    // Dos advices (método y clase): con "||" AspectJ deja el parámetro a null
+    // en la rama que no coincide. Si están los dos, el del método va por dentro y gana.
+    @Around("@within(pool) && execution(* *(..))")
+    public Object withTypeWorkload(ProceedingJoinPoint pjp, WorkloadPool pool) throws Throwable {
+        return proceedWith(pjp, pool.value());
+    }
+
+    @Around("@annotation(pool)")
+    public Object withMethodWorkload(ProceedingJoinPoint pjp, WorkloadPool pool) throws Throwable {
+        return proceedWith(pjp, pool.value());
+    }
+
+    private static Object proceedWith(ProceedingJoinPoint pjp, Workload workload) throws Throwable {
+        Workload previous = CURRENT.get();
+        CURRENT.set(workload);
+        try {
+            return pjp.proceed();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.chatprivate.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pools separados por tipo de tráfico (bulkheads) sobre la BD primaria.
+ *
+ * PROBLEMA:
+ * Un único pool de 10 conexiones para todo: un historial completo lento
+ * dejaba sin conexiones a los logins.
+ *
+ * SOLUCIÓN (app.datasource.workload-pools.enabled):
+ * - Pool "auth":  login y carga del usuario del JWT (pequeño, timeout corto)
+ * - Pool "write": envío de mensajes y demás escrituras
+ * - Pool "read":  transacciones readOnly (o la réplica, si está configurada)
+ *
+ * Cada pool parte de spring.datasource.hikari y sobrescribe lo suyo en
+ * app.datasource.workload-pools.{auth,write,read}.hikari. Los repositorios no
+ * cambian: WorkloadRoutingDataSource elige el pool en cada conexión.
+ *
+ * Con adaptive.enabled, PoolAutoSizer sube el máximo de un pool saturado
+ * (hasta su adaptive-max) y lo vuelve a bajar cuando se desocupa.
+ *
+ * Si solo está activa la réplica, hay un único pool primario para todo.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnExpression("${app.datasource.workload-pools.enabled:false} or ${app.datasource.replica.enabled:false}")
+public class WorkloadDataSourceConfig {
+
+    private static final String POOLS_PREFIX = "app.datasource.workload-pools.";
+
+    /**
+     * Pool de escrituras. Se llama también "primaryDataSource": es el que usan
+     * el latido de la réplica y todo lo no clasificado.
+     */
+    @Bean(name = {"primaryDataSource", "writeDataSource"})
+    public HikariDataSource primaryDataSource(DataSourceProperties properties, Environment environment,
+                                              @Value("${app.datasource.workload-pools.enabled:false}") boolean workloadPools) {
+        return pool(properties, environment, workloadPools ? "write" : "primary", workloadPools);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.datasource.workload-pools.enabled", havingValue = "true")
+    public HikariDataSource authDataSource(DataSourceProperties properties, Environment environment) {
+        return pool(properties, environment, "auth", true);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.datasource.workload-pools.enabled", havingValue = "true")
+    public HikariDataSource readDataSource(DataSourceProperties properties, Environment environment) {
+        return pool(properties, environment, "read", true);
+    }
+
+    /**
+     * El DataSource que usa toda la app (JPA, Flyway...).
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                 @Qualifier("authDataSource") ObjectProvider<DataSource> authDataSource,
+                                 @Qualifier("readDataSource") ObjectProvider<DataSource> readDataSource,
+                                 @Qualifier("replicaDataSource") ObjectProvider<DataSource> replicaDataSource,
+                                 ObjectProvider<ReplicaLagMonitor> replicaLagMonitor) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Workload.WRITE, primaryDataSource);
+        targets.put(Workload.AUTH, authDataSource.getIfAvailable(() -> primaryDataSource));
+        targets.put(Workload.READ, readDataSource.getIfAvailable(() -> primaryDataSource));
+
+        DataSource replica = replicaDataSource.getIfAvailable();
+        if (replica != null) {
+            targets.put(WorkloadRoutingDataSource.REPLICA, replica);
+        }
+
+        WorkloadRoutingDataSource routing = new WorkloadRoutingDataSource(replicaLagMonitor.getIfAvailable());
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(primaryDataSource);
+        routing.afterPropertiesSet();
+
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @Bean
+    @ConditionalOnExpression("${app.datasource.workload-pools.enabled:false} and ${app.datasource.workload-pools.adaptive.enabled:false}")
+    public PoolAutoSizer poolAutoSizer(@Qualifier("authDataSource") HikariDataSource authDataSource,
+                                       @Qualifier("writeDataSource") HikariDataSource writeDataSource,
+                                       @Qualifier("readDataSource") HikariDataSource readDataSource,
+                                       Environment environment) {
+        return new PoolAutoSizer(List.of(
+                managed("auth", authDataSource, environment),
+                managed("write", writeDataSource, environment),
+                managed("read", readDataSource, environment)
+        ));
+    }
+
+    /**
+     * Crea un pool: URL/usuario de spring.datasource, base spring.datasource.hikari
+     * y, si es un pool de tipo de tráfico, sus propios valores encima.
+     */
+    private static HikariDataSource pool(DataSourceProperties properties, Environment environment,
+                                         String name, boolean workloadOverrides) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+
+        Binder binder = Binder.get(environment);
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        if (workloadOverrides) {
+            binder.bind(POOLS_PREFIX + name + ".hikari", Bindable.ofInstance(dataSource));
+        }
+        dataSource.setPoolName(name);
+        return dataSource;
+    }
+
+    private static PoolAutoSizer.ManagedPool managed(String name, HikariDataSource dataSource, Environment environment) {
+        int ceiling = environment.getProperty(POOLS_PREFIX + name + ".adaptive-max", Integer.class,
+                dataSource.getMaximumPoolSize());
+        return new PoolAutoSizer.ManagedPool(name, dataSource, ceiling);
+    }
+}
@@ -0,0 +1,21 @@
+package com.chatprivate.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marca un método (o todos los de una clase) para que sus queries usen el
+ * pool de ese tipo de tráfico, sin tocar los repositorios.
+ *
+ * USO:
+ * {@code @WorkloadPool(Workload.AUTH)}
+ *
+ * Los métodos sin marcar van a READ si la transacción es readOnly, y a WRITE si no.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface WorkloadPool {
+    Workload value();
+}
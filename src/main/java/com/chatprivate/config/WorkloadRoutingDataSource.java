@@ -0,0 +1,48 @@
+package com.chatprivate.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * DataSource que elige el pool en cada conexión.
+ *
+ * 1. Método marcado con @WorkloadPool           -> ese pool (p. ej. AUTH).
+ *    Con READ es la primaria aunque la réplica esté al día
+ * 2. Transacción readOnly = true                -> READ (o la RÉPLICA si está al día)
+ * 3. Cualquier otro caso (escrituras, sin tx)   -> WRITE
+ *
+ * IMPORTANTE: Va envuelto en un LazyConnectionDataSourceProxy. JPA pide la
+ * conexión al EMPEZAR la transacción, antes de que Spring marque el flag
+ * readOnly; con el proxy, la conexión real se pide en la primera query.
+ */
+public class WorkloadRoutingDataSource extends AbstractRoutingDataSource {
+
+    // Clave extra para la réplica (las de los pools son los valores de Workload)
+    public static final String REPLICA = "REPLICA";
+
+    // null si no hay réplica configurada
+    private final ReplicaLagMonitor lagMonitor;
+
+    public WorkloadRoutingDataSource(ReplicaLagMonitor lagMonitor) {
+        this.lagMonitor = lagMonitor;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return currentTarget();
+    }
+
+    /**
+     * Pool que usaría una conexión pedida ahora mismo en este hilo.
+     */
+    Object currentTarget() {
+        Workload marked = WorkloadContext.current();
+        if (marked != null) {
+            return marked;
+        }
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return lagMonitor != null && lagMonitor.isReplicaUsable() ? REPLICA : Workload.READ;
+        }
+        return Workload.WRITE;
+    }
+}
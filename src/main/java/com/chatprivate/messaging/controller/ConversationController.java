@@ -2,13 +2,17 @@ package com.chatprivate.messaging.controller;
 
 import com.chatprivate.messaging.dto.*;
 import com.chatprivate.messaging.service.ConversationService;
+import com.chatprivate.messaging.service.ConversationVersionTracker;
 import com.chatprivate.security.PermissionService;
-import com.chatprivate.user.User;
+import com.chatprivate.user.CustomUserDetails;
 import com.chatprivate.user.UserRepository;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -31,36 +35,56 @@ public class ConversationController {
     private final ConversationService conversationService;
     private final UserRepository userRepository;
     private final PermissionService permissionService;
+    private final ConversationVersionTracker versionTracker;
 
     /**
      * Crea una nueva conversación.
+     *
+     * CHATS 1-A-1 SIMULTÁNEOS:
+     * Si los dos usuarios crean su chat a la vez, los dos ven que no existe
+     * y el índice único uk_direct_pair rechaza el segundo INSERT (su
+     * transacción se deshace entera). Reintento una vez: ahora la búsqueda
+     * encuentra el chat que creó la otra petición y lo devuelve.
      */
     @PostMapping
     public ResponseEntity<ConversationResponse> createConversation(
             Authentication authentication,
             @Valid @RequestBody CreateConversationRequest req) {
 
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
-
-        Long creatorId = user.getId();
-
-        return ResponseEntity.ok(conversationService.createConversation(req, creatorId));
+        Long creatorId = currentUserId(authentication);
+
+        try {
+            return ResponseEntity.ok(conversationService.createConversation(req, creatorId));
+        } catch (DataIntegrityViolationException e) {
+            if (!"direct".equalsIgnoreCase(req.getType())) {
+                throw e;
+            }
+            log.info("↪️ Chat 1-a-1 creado a la vez por otra petición, devolviendo el existente");
+            return ResponseEntity.ok(conversationService.createConversation(req, creatorId));
+        }
     }
 
     /**
      * Obtiene todas las conversaciones del usuario autenticado.
+     *
+     * PETICIÓN CONDICIONAL:
+     * Si el cliente manda If-None-Match con el ETag de su último poll y
+     * nada cambió, respondo 304 sin llamar a ConversationService.
+     * El ETag se lee ANTES de calcular la respuesta (si algo cambia en medio,
+     * el siguiente poll simplemente recibe la lista completa).
      */
     @GetMapping
-    public ResponseEntity<List<ConversationResponse>> getUserConversations(Authentication authentication) {
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
+    public ResponseEntity<List<ConversationResponse>> getUserConversations(
+            Authentication authentication,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Long userId = currentUserId(authentication);
 
-        Long userId = user.getId();
+        String etag = versionTracker.userETag(userId);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
 
-        return ResponseEntity.ok(conversationService.getUserConversations(userId));
+        return ResponseEntity.ok().eTag(etag).body(conversationService.getUserConversations(userId));
     }
 
     /**
@@ -73,11 +97,7 @@ public class ConversationController {
             @PathVariable("id") Long conversationId,
             @Valid @RequestBody AddParticipantRequest req) {
 
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
-
-        Long requesterId = user.getId();
+        Long requesterId = currentUserId(authentication);
 
         conversationService.addParticipant(conversationId, requesterId, req);
 
@@ -95,11 +115,7 @@ public class ConversationController {
             @PathVariable("id") Long conversationId,
             @PathVariable("userId") Long userId) {
 
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
-
-        Long requesterId = user.getId();
+        Long requesterId = currentUserId(authentication);
 
         conversationService.removeParticipant(conversationId, requesterId, userId);
 
@@ -111,24 +127,30 @@ public class ConversationController {
      *
      * SEGURIDAD (ACTUALIZADA):
      * - Solo los participantes pueden ver la lista
+     *
+     * PETICIÓN CONDICIONAL:
+     * Con If-None-Match respondo 304 si los participantes no cambiaron
+     * (la validación de permisos se hace SIEMPRE antes).
      */
     @GetMapping("/{id}/participants")
     public ResponseEntity<List<ParticipantDto>> getParticipants(
             Authentication authentication,
-            @PathVariable("id") Long conversationId) {
+            @PathVariable("id") Long conversationId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 
         // Obtengo el ID del usuario autenticado
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
-
-        Long userId = user.getId();
+        Long userId = currentUserId(authentication);
 
         //VALIDACIÓN DE SEGURIDAD
         // Solo los participantes pueden ver quiénes son los otros participantes
         permissionService.validateIsParticipant(userId, conversationId);
 
-        return ResponseEntity.ok(conversationService.getParticipants(conversationId));
+        String etag = versionTracker.conversationETag(conversationId);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        return ResponseEntity.ok().eTag(etag).body(conversationService.getParticipants(conversationId));
     }
 
     /**
@@ -140,11 +162,7 @@ public class ConversationController {
             Authentication authentication,
             @PathVariable("id") Long conversationId) {
 
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
-
-        Long userId = user.getId();
+        Long userId = currentUserId(authentication);
 
         List<MessageHistoryDto> history = conversationService.getMessageHistory(conversationId, userId);
 
@@ -175,11 +193,7 @@ public class ConversationController {
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size) {
 
-        String username = authentication.getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
-
-        Long userId = user.getId();
+        Long userId = currentUserId(authentication);
 
         // Validación de parámetros
         if (page < 0) page = 0;
@@ -190,4 +204,112 @@ public class ConversationController {
 
         return ResponseEntity.ok(history);
     }
-}
\ No newline at end of file
+
+    /**
+     * Mensajes posteriores a una secuencia (sincronización por cursor).
+     *
+     * USO:
+     * GET /api/conversations/5/messages/sync?afterSeq=120&limit=100
+     *
+     * PARÁMETROS:
+     * - afterSeq: Último seq que tiene el cliente (0 = desde el principio)
+     * - limit: Máximo de mensajes (default: 100, máximo 200)
+     *
+     * Si vuelven 'limit' mensajes, el cliente repite con el seq del último.
+     *
+     * Los mensajes sin clave para el usuario (p. ej. anteriores a su alta en
+     * el grupo) no vienen: esos seq que faltan NO son huecos.
+     */
+    @GetMapping("/{id}/messages/sync")
+    public ResponseEntity<List<MessageHistoryDto>> getMessagesAfterSeq(
+            Authentication authentication,
+            @PathVariable("id") Long conversationId,
+            @RequestParam(defaultValue = "0") long afterSeq,
+            @RequestParam(defaultValue = "100") int limit) {
+
+        Long userId = currentUserId(authentication);
+
+        // Validación de parámetros
+        if (afterSeq < 0) afterSeq = 0;
+        if (limit < 1 || limit > 200) limit = 100;
+
+        return ResponseEntity.ok(conversationService.getMessagesAfterSeq(conversationId, userId, afterSeq, limit));
+    }
+
+    /**
+     * Mensajes anteriores a una secuencia (paginación hacia atrás por cursor).
+     *
+     * USO:
+     * GET /api/conversations/5/messages/before?beforeSeq=120&limit=50
+     *
+     * PARÁMETROS:
+     * - beforeSeq: seq del mensaje más viejo que tiene el cliente
+     * - limit: Máximo de mensajes (default: 50, máximo 200)
+     *
+     * Vienen del más nuevo al más viejo; para la siguiente página, el cliente
+     * repite con el seq del último. A diferencia de /messages/paged no se
+     * desplaza cuando llegan mensajes nuevos.
+     */
+    @GetMapping("/{id}/messages/before")
+    public ResponseEntity<List<MessageHistoryDto>> getMessagesBeforeSeq(
+            Authentication authentication,
+            @PathVariable("id") Long conversationId,
+            @RequestParam long beforeSeq,
+            @RequestParam(defaultValue = "50") int limit) {
+
+        Long userId = currentUserId(authentication);
+
+        // Validación de parámetros
+        if (limit < 1 || limit > 200) limit = 50;
+
+        return ResponseEntity.ok(conversationService.getMessagesBeforeSeq(conversationId, userId, beforeSeq, limit));
+    }
+
+    /**
+     * Distribuye la clave de grupo de la época actual (conversaciones "sender_key").
+     *
+     * USO:
+     * POST /api/conversations/5/epoch-keys
+     * { "epoch": 2, "encryptedKeys": { "1": "...", "7": "..." } }
+     */
+    @PostMapping("/{id}/epoch-keys")
+    public ResponseEntity<?> distributeEpochKeys(
+            Authentication authentication,
+            @PathVariable("id") Long conversationId,
+            @Valid @RequestBody EpochKeyDistributionRequest req) {
+
+        Long userId = currentUserId(authentication);
+
+        conversationService.distributeEpochKeys(conversationId, userId, req);
+
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Obtiene las claves de grupo (todas las épocas) del usuario autenticado.
+     */
+    @GetMapping("/{id}/epoch-keys")
+    public ResponseEntity<List<EpochKeyDto>> getEpochKeys(
+            Authentication authentication,
+            @PathVariable("id") Long conversationId) {
+
+        Long userId = currentUserId(authentication);
+
+        return ResponseEntity.ok(conversationService.getEpochKeys(conversationId, userId));
+    }
+
+    /**
+     * ID del usuario autenticado.
+     *
+     * Sale del principal que ya cargó JwtAuthFilter (CustomUserDetails), así que
+     * no hace otra query. Si el principal es de otro tipo, busco solo el ID.
+     */
+    private Long currentUserId(Authentication authentication) {
+        if (authentication.getPrincipal() instanceof CustomUserDetails userDetails) {
+            return userDetails.getUserId();
+        }
+        String username = authentication.getName();
+        return userRepository.findIdByUsername(username)
+                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
+    }
+}
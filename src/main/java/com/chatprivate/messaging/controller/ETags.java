@@ -0,0 +1,37 @@
+package com.chatprivate.messaging.controller;
+
+/**
+ * Utilidades para peticiones condicionales (ETag / If-None-Match).
+ */
+final class ETags {
+
+    private ETags() {}
+
+    /**
+     * ETag fuerte a partir de un valor (ya entre comillas, como pide HTTP).
+     */
+    static String of(String value) {
+        return "\"" + value + "\"";
+    }
+
+    /**
+     * ¿El If-None-Match del cliente incluye este ETag?
+     *
+     * Acepta listas ("a", "b"), ETags débiles (W/"a") y el comodín "*".
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
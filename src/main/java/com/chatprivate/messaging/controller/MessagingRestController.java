@@ -1,27 +1,37 @@
 package com.chatprivate.messaging.controller;
 
-import com.chatprivate.messaging.repository.UserPublicKeyRepository;
+import com.chatprivate.messaging.dto.PublicKeyBatchRequest;
+import com.chatprivate.messaging.dto.PublicKeyDto;
 import com.chatprivate.messaging.service.MessageService;
+import com.chatprivate.messaging.service.PublicKeyDirectory;
 import com.chatprivate.user.UserRepository;
 import com.chatprivate.user.UserService;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/messaging")
 public class MessagingRestController {
 
-    private final UserPublicKeyRepository userPublicKeyRepository;
+    // Header con la versión de la clave pública (updatedAt en milisegundos)
+    static final String KEY_VERSION_HEADER = "X-Public-Key-Version";
+
+    private final PublicKeyDirectory publicKeyDirectory;
     private final UserRepository userRepository;
     private final MessageService messageService;
     private final UserService userService; // ¡AÑADIR!
 
-    public MessagingRestController(UserPublicKeyRepository userPublicKeyRepository,
+    public MessagingRestController(PublicKeyDirectory publicKeyDirectory,
                                    MessageService messageService,
                                    UserRepository userRepository,
                                    UserService userService) {
-        this.userPublicKeyRepository = userPublicKeyRepository;
+        this.publicKeyDirectory = publicKeyDirectory;
         this.messageService = messageService;
         this.userRepository = userRepository;
         this.userService = userService;
@@ -35,11 +45,68 @@ public class MessagingRestController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Clave pública de un usuario (PEM en texto plano, como siempre).
+     *
+     * Lleva ETag y X-Public-Key-Version: si el cliente manda If-None-Match
+     * con el ETag que ya tiene, respondo 304 sin cuerpo.
+     */
     @GetMapping("/public-key/{userId}")
-    public ResponseEntity<?> getPublicKey(@PathVariable Long userId) {
-        return userPublicKeyRepository.findById(userId)
-                .map(u -> ResponseEntity.ok(u.getPublicKeyPem()))
+    public ResponseEntity<?> getPublicKey(@PathVariable Long userId,
+                                          @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return publicKeyDirectory.getKey(userId)
+                .<ResponseEntity<?>>map(key -> {
+                    String etag = ETags.of(key.getUserId() + "-" + key.getVersion());
+                    String version = Long.toString(key.getVersion());
+
+                    if (ETags.matches(ifNoneMatch, etag)) {
+                        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                                .eTag(etag)
+                                .header(KEY_VERSION_HEADER, version)
+                                .build();
+                    }
+                    return ResponseEntity.ok()
+                            .eTag(etag)
+                            .header(KEY_VERSION_HEADER, version)
+                            .body(key.getPublicKeyPem());
+                })
                 .orElse(ResponseEntity.notFound().build());
     }
 
-}
\ No newline at end of file
+    /**
+     * Claves públicas de varios usuarios en UN solo request.
+     *
+     * USO:
+     * POST /api/messaging/public-keys
+     * { "userIds": [1, 7, 9] }
+     *
+     * Cada clave lleva su versión. El ETag de la respuesta cambia si cambia
+     * cualquiera de las claves, así que con If-None-Match el cliente recibe
+     * 304 cuando no hay nada nuevo. Los usuarios sin clave no aparecen.
+     */
+    @PostMapping("/public-keys")
+    public ResponseEntity<List<PublicKeyDto>> getPublicKeys(
+            @Valid @RequestBody PublicKeyBatchRequest req,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+        List<PublicKeyDto> keys = publicKeyDirectory.getKeys(req.getUserIds());
+        String etag = ETags.of(batchVersion(keys));
+
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(keys);
+    }
+
+    /**
+     * Versión combinada de un lote: hash de (userId, versión) de cada clave.
+     */
+    private static String batchVersion(List<PublicKeyDto> keys) {
+        long hash = 1125899906842597L;
+        for (PublicKeyDto key : keys) {
+            hash = 31 * hash + key.getUserId();
+            hash = 31 * hash + key.getVersion();
+        }
+        return keys.size() + "-" + Long.toHexString(hash);
+    }
+}
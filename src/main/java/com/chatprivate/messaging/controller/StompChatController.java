@@ -1,13 +1,23 @@
 package com.chatprivate.messaging.controller;
 
+import com.chatprivate.config.InboundFrameTimestampInterceptor;
+import com.chatprivate.messaging.dto.MessageReceiptDto;
 import com.chatprivate.messaging.dto.StompMessagePayload;
 import com.chatprivate.messaging.service.MessageService;
+import com.chatprivate.monitoring.ChatMetrics;
 import com.chatprivate.user.CustomUserDetails;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 
@@ -16,13 +26,26 @@ import org.springframework.stereotype.Controller;
  *
  * - Mejor manejo de errores (delegado a WebSocketExceptionHandler)
  * - Logging mejorado
+ * - Traza por frame (chat.stomp.receive): es el span raíz del que cuelgan
+ *   permisos, queries y envíos por socket
+ * - Confirmación por mensaje en /user/queue/receipts (solo a la sesión que
+ *   lo envió): el cliente puede mandar varios seguidos sin esperar al historial
  */
 @Controller
 @RequiredArgsConstructor
 @Slf4j
 public class StompChatController {
 
+    // Nombre del span raíz de cada frame /app/chat.send
+    public static final String RECEIVE_OBSERVATION = "chat.stomp.receive";
+
+    // Destino (relativo al usuario) de las confirmaciones de envío
+    public static final String RECEIPTS_DESTINATION = "/queue/receipts";
+
     private final MessageService messageService;
+    private final ObservationRegistry observationRegistry;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ChatMetrics chatMetrics;
 
     /**
      * Maneja los mensajes enviados por los clientes al destino "/app/chat.send".
@@ -32,13 +55,22 @@ public class StompChatController {
      * 2. Extrae el usuario autenticado del Authentication
      * 3. Delega al MessageService, que valida permisos y guarda el mensaje
      * 4. Si hay algún error, WebSocketExceptionHandler lo captura y notifica al cliente
+     * 5. Ya guardado, confirma al remitente en /user/queue/receipts
      *
      * @param payload El DTO del mensaje (validado automáticamente por @Valid)
      * @param authentication El objeto de autenticación del usuario (inyectado por Spring)
+     * @param receivedAtNanos Cuándo llegó el frame del socket (InboundFrameTimestampInterceptor)
+     * @param sessionId Sesión STOMP que envió el frame (la única que recibe la confirmación)
      */
     @MessageMapping("/chat.send")
     public void receiveMessage(@Valid @Payload StompMessagePayload payload,
-                               Authentication authentication) {
+                               Authentication authentication,
+                               @Header(name = InboundFrameTimestampInterceptor.RECEIVED_AT_HEADER, required = false)
+                               Long receivedAtNanos,
+                               @Header(name = SimpMessageHeaderAccessor.SESSION_ID_HEADER, required = false)
+                               String sessionId) {
+
+        long startNanos = receivedAtNanos != null ? receivedAtNanos : System.nanoTime();
 
         // ============================================
         // VALIDACIÓN DE AUTENTICACIÓN
@@ -52,17 +84,17 @@ public class StompChatController {
 
         // Extraigo el ID del usuario autenticado
         CustomUserDetails userDetails = (CustomUserDetails) authentication.getPrincipal();
-        Long senderId = userDetails.getUser().getId();
+        Long senderId = userDetails.getUserId();
 
         // ============================================
         // LOGGING DE AUDITORÍA
         // ============================================
 
-        log.info("📨 WebSocket - Mensaje recibido: senderId={}, conversationId={}, tamañoCiphertext={}, destinatarios={}",
+        log.debug("📨 WebSocket - Mensaje recibido: senderId={}, conversationId={}, tamañoCiphertext={}, destinatarios={}",
                 senderId,
                 payload.getConversationId(),
                 payload.getCiphertext() != null ? payload.getCiphertext().length() : 0,
-                payload.getEncryptedKeys() != null ? payload.getEncryptedKeys().size() : 0
+                payload.getRecipientKeys() != null ? payload.getRecipientKeys().size() : 0
         );
 
         // ============================================
@@ -83,16 +115,79 @@ public class StompChatController {
         // DELEGACIÓN AL SERVICIO
         // ============================================
 
-        // Delego toda la lógica de guardado y reenvío al MessageService
-        // Si el usuario NO es participante, MessageService lanzará AccessDeniedException
-        // que será capturada por WebSocketExceptionHandler
-        messageService.sendAndStoreMessage(
+        // Todo el envío (permisos, INSERTs, commit y fan-out) cuelga de este span.
+        // Si falla, el error queda registrado en la traza y la excepción sigue su camino.
+        String keyMode = payload.getKeyEpoch() != null ? "sender_key" : "pairwise";
+        MessageReceiptDto receipt = Observation.createNotStarted(RECEIVE_OBSERVATION, observationRegistry)
+                .contextualName("stomp /app/chat.send")
+                .lowCardinalityKeyValue("mode", keyMode)
+                .highCardinalityKeyValue("conversation.id", String.valueOf(payload.getConversationId()))
+                .highCardinalityKeyValue("sender.id", String.valueOf(senderId))
+                .observe(() -> dispatch(senderId, payload));
+
+        // ============================================
+        // CONFIRMACIÓN AL REMITENTE
+        // ============================================
+
+        // La transacción ya confirmó: el mensaje está guardado
+        sendReceipt(userDetails.getUsername(), sessionId, receipt);
+        chatMetrics.recordSendAck(keyMode, System.nanoTime() - startNanos);
+
+        log.debug("✅ Mensaje {} procesado exitosamente para conversationId={}",
+                receipt.getMessageId(), payload.getConversationId());
+    }
+
+    /**
+     * Manda la confirmación solo a la sesión que envió el frame (igual que
+     * @SendToUser con broadcast = false). Sin sesión, va a todas las del usuario.
+     */
+    private void sendReceipt(String username, String sessionId, MessageReceiptDto receipt) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        if (sessionId != null) {
+            accessor.setSessionId(sessionId);
+        }
+        accessor.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(username, RECEIPTS_DESTINATION, receipt, accessor.getMessageHeaders());
+    }
+
+    /**
+     * Delego toda la lógica de guardado y reenvío al MessageService.
+     * Si el usuario NO es participante, MessageService lanzará AccessDeniedException
+     * que será capturada por WebSocketExceptionHandler.
+     *
+     * @return La confirmación del mensaje (la del original, si era un reenvío)
+     */
+    private MessageReceiptDto dispatch(Long senderId, StompMessagePayload payload) {
+        try {
+            return send(senderId, payload);
+        } catch (DataIntegrityViolationException e) {
+            // Reenvío que SendDeduplicator ya no recordaba (reinicio, otra instancia):
+            // el índice único deshizo el INSERT y el mensaje original ya estaba entregado
+            if (payload.getClientMessageId() == null) {
+                throw e;
+            }
+            return messageService.resolveDuplicate(senderId, payload.getClientMessageId())
+                    .orElseThrow(() -> e);
+        }
+    }
+
+    private MessageReceiptDto send(Long senderId, StompMessagePayload payload) {
+        if (payload.getKeyEpoch() != null) {
+            // Modo "sender_key": el mensaje va cifrado con la clave de grupo de la época
+            return messageService.sendSenderKeyMessage(
+                    senderId,
+                    payload.getConversationId(),
+                    payload.getCiphertext(),
+                    payload.getKeyEpoch(),
+                    payload.getClientMessageId()
+            );
+        }
+        return messageService.sendAndStoreMessage(
                 senderId,
                 payload.getConversationId(),
                 payload.getCiphertext(),
-                payload.getEncryptedKeys()
+                payload.getRecipientKeys(),
+                payload.getClientMessageId()
         );
-
-        log.debug("✅ Mensaje procesado exitosamente para conversationId={}", payload.getConversationId());
     }
 }
\ No newline at end of file
@@ -13,6 +13,10 @@ public class ConversationResponse {
 
     private LastMessageDto lastMessage;
 
+    // Modo de claves ("pairwise" o "sender_key") y época de membresía actual
+    private String keyMode;
+    private int keyEpoch;
+
 
     public ConversationResponse() {}
 
@@ -35,4 +39,10 @@ public class ConversationResponse {
     public LastMessageDto getLastMessage() { return lastMessage; }
     public void setLastMessage(LastMessageDto lastMessage) { this.lastMessage = lastMessage; }
 
+    public String getKeyMode() { return keyMode; }
+    public void setKeyMode(String keyMode) { this.keyMode = keyMode; }
+
+    public int getKeyEpoch() { return keyEpoch; }
+    public void setKeyEpoch(int keyEpoch) { this.keyEpoch = keyEpoch; }
+
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ public class CreateConversationRequest {
     private String type;
     private String title;
     private List<Long> participantIds;
+    private String keyMode; // "pairwise" (por defecto) o "sender_key"
 
     public CreateConversationRequest() {}
 
@@ -17,4 +18,7 @@ public class CreateConversationRequest {
 
     public List<Long> getParticipantIds() { return participantIds; }
     public void setParticipantIds(List<Long> participantIds) { this.participantIds = participantIds; }
+
+    public String getKeyMode() { return keyMode; }
+    public void setKeyMode(String keyMode) { this.keyMode = keyMode; }
 }
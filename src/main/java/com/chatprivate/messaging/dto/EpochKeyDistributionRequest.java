@@ -0,0 +1,32 @@
+package com.chatprivate.messaging.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.Map;
+
+/**
+ * Petición para distribuir la clave de grupo de una época (modo "sender_key").
+ *
+ * El cliente genera una clave AES nueva y la cifra con la clave pública RSA
+ * de CADA participante actual. El servidor solo almacena los resultados.
+ */
+public class EpochKeyDistributionRequest {
+
+    @NotNull(message = "La época (epoch) es obligatoria")
+    private Integer epoch;
+
+    // Formato: { "recipientId": "clave_de_grupo_cifrada_con_RSA_del_recipient" }
+    @NotEmpty(message = "El mapa de claves cifradas (encryptedKeys) es obligatorio y no puede estar vacío")
+    @Size(max = 100, message = "Demasiados destinatarios (máximo 100)")
+    private Map<String, String> encryptedKeys;
+
+    public EpochKeyDistributionRequest() {}
+
+    public Integer getEpoch() { return epoch; }
+    public void setEpoch(Integer epoch) { this.epoch = epoch; }
+
+    public Map<String, String> getEncryptedKeys() { return encryptedKeys; }
+    public void setEncryptedKeys(Map<String, String> encryptedKeys) { this.encryptedKeys = encryptedKeys; }
+}
@@ -0,0 +1,18 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Clave de grupo de una época, cifrada para el usuario que la pide.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EpochKeyDto {
+
+    private int epoch;
+    private String encryptedKey;
+    private Long distributorId;
+}
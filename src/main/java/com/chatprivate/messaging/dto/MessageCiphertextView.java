@@ -0,0 +1,17 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Proyección (ID del mensaje, ciphertext).
+ *
+ * Para recuperar de la BD los ciphertexts que ya no están en
+ * OffHeapCiphertextCache, sin cargar las entidades Message.
+ */
+@Data
+@AllArgsConstructor
+public class MessageCiphertextView {
+    private Long messageId;
+    private String ciphertext;
+}
@@ -0,0 +1,21 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Proyección con lo que hace falta para repartir un mensaje por WebSocket.
+ *
+ * La usa MessageOutboxRelay para cargar cada lote sin cargar las
+ * entidades Message (ni meterlas en el contexto de persistencia).
+ */
+@Data
+@AllArgsConstructor
+public class MessageDeliveryView {
+    private Long messageId;
+    private Long conversationId;
+    private Long senderId;
+    private String ciphertext;
+    private Integer keyEpoch; // null = "pairwise"
+    private Long seq;
+}
@@ -15,4 +15,6 @@ public class MessageHistoryDto {
     private String ciphertext;
     private String encryptedKey; // La clave AES cifrada, específica para el usuario que pide el historial
     private Instant createdAt;
+    private Integer keyEpoch; // Solo en modo "sender_key": época de la clave de grupo usada
+    private Long seq; // Secuencia en la conversación (null en mensajes anteriores a la columna)
 }
\ No newline at end of file
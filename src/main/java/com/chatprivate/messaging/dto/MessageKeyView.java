@@ -0,0 +1,17 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Proyección mínima de una fila de message_keys: (ID del mensaje, clave cifrada).
+ *
+ * Es todo lo que necesita el historial. Cargar la entidad MessageKey
+ * obligaba a cargar también su Message (y este su Conversation).
+ */
+@Data
+@AllArgsConstructor
+public class MessageKeyView {
+    private Long messageId;
+    private String encryptedKey;
+}
@@ -0,0 +1,24 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Proyección de una entrega pendiente del outbox (fila de message_outbox).
+ *
+ * MessageOutboxRelay la lee en cada sondeo: como proyección no carga
+ * entidades ni las deja en el contexto de persistencia.
+ */
+@Data
+@AllArgsConstructor
+public class MessageOutboxView {
+    private Long id;
+    private Long messageId;
+    private Instant createdAt;
+    // Repartos fallidos hasta ahora (para decidir si se aparca)
+    private int attempts;
+    // Traza del envío (W3C traceparent) o null
+    private String traceparent;
+}
@@ -0,0 +1,29 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Confirmación de envío que recibe el remitente en /user/queue/receipts.
+ *
+ * Llega cuando el mensaje ya está guardado (después del commit). Con el
+ * clientMessageId el cliente sabe qué mensaje pendiente se confirmó, así que
+ * puede mandar varios seguidos sin esperar a cada uno.
+ *
+ * Un reenvío (mismo clientMessageId) recibe la misma confirmación que el original.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MessageReceiptDto {
+    private String clientMessageId;
+    private Long messageId;
+    private Long conversationId;
+    // Hora del servidor (createdAt del mensaje)
+    private Instant serverTimestamp;
+    // Secuencia del mensaje dentro de la conversación (null si aún no tiene)
+    private Long sequence;
+}
@@ -0,0 +1,21 @@
+package com.chatprivate.messaging.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Request para pedir las claves públicas de varios usuarios a la vez.
+ */
+public class PublicKeyBatchRequest {
+
+    @NotEmpty(message = "La lista de usuarios no puede estar vacía")
+    @Size(max = 100, message = "Demasiados usuarios (máximo 100)")
+    private List<Long> userIds;
+
+    public PublicKeyBatchRequest() {}
+
+    public List<Long> getUserIds() { return userIds; }
+    public void setUserIds(List<Long> userIds) { this.userIds = userIds; }
+}
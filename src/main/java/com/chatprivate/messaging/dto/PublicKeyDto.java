@@ -0,0 +1,21 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Clave pública de un usuario con su versión.
+ *
+ * La versión es el updatedAt de la clave (en milisegundos): si no cambió,
+ * el cliente puede seguir usando la que ya tiene.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PublicKeyDto {
+
+    private Long userId;
+    private String publicKeyPem;
+    private long version;
+}
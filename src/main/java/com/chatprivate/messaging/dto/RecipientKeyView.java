@@ -0,0 +1,19 @@
+package com.chatprivate.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Proyección de una fila de message_keys con su destinatario:
+ * (ID del mensaje, ID del destinatario, clave cifrada).
+ *
+ * La uso para sembrar RecentMessageBuffer, que guarda las claves de TODOS
+ * los destinatarios de cada mensaje.
+ */
+@Data
+@AllArgsConstructor
+public class RecipientKeyView {
+    private Long messageId;
+    private Long recipientId;
+    private String encryptedKey;
+}
@@ -0,0 +1,115 @@
+package com.chatprivate.messaging.dto;
+
+import com.chatprivate.collections.LongArrayList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Claves cifradas de un mensaje por destinatario, en dos arrays paralelos
+ * (IDs como long y claves).
+ *
+ * Sustituye al Map<String, String> del frame y a la copia Map<Long, String>
+ * que hacía MessageService: sin un String por ID, sin Long ni nodos por entrada.
+ * Lo rellena ChatSendPayloadConverter mientras lee el JSON.
+ *
+ * Un ID repetido sustituye la clave anterior (como el mapa JSON de antes).
+ * NO es thread-safe: vive lo que dura un envío.
+ */
+public final class RecipientKeys {
+
+    /**
+     * Máximo de destinatarios por mensaje (para prevenir ataques DoS).
+     */
+    public static final int MAX_RECIPIENTS = 100;
+
+    private final LongArrayList recipientIds;
+    private String[] keys;
+
+    public RecipientKeys(int expectedSize) {
+        this.recipientIds = new LongArrayList(expectedSize);
+        this.keys = new String[Math.max(4, expectedSize)];
+    }
+
+    /**
+     * Convierte el mapa { "recipientId": "clave" } del JSON.
+     *
+     * @throws IllegalArgumentException Si algún ID no es un número
+     */
+    public static RecipientKeys fromMap(Map<String, String> encryptedKeys) {
+        RecipientKeys result = new RecipientKeys(encryptedKeys.size());
+        for (Map.Entry<String, String> entry : encryptedKeys.entrySet()) {
+            result.put(parseRecipientId(entry.getKey()), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @throws IllegalArgumentException Si el ID no es un número positivo
+     */
+    public static long parseRecipientId(String value) {
+        try {
+            long id = Long.parseLong(value);
+            if (id > 0) {
+                return id;
+            }
+        } catch (NumberFormatException ignored) {
+            // Mismo error que un ID negativo
+        }
+        throw new IllegalArgumentException("ID de destinatario inválido: " + value);
+    }
+
+    public void put(long recipientId, String encryptedKey) {
+        // Con como mucho MAX_RECIPIENTS, buscar en el array es más barato que un hash
+        for (int i = 0; i < recipientIds.size(); i++) {
+            if (recipientIds.get(i) == recipientId) {
+                keys[i] = encryptedKey;
+                return;
+            }
+        }
+        if (recipientIds.size() == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[recipientIds.size()] = encryptedKey;
+        recipientIds.add(recipientId);
+    }
+
+    public int size() {
+        return recipientIds.size();
+    }
+
+    public boolean isEmpty() {
+        return recipientIds.isEmpty();
+    }
+
+    public long recipientId(int index) {
+        return recipientIds.get(index);
+    }
+
+    public String key(int index) {
+        if (index >= recipientIds.size()) {
+            throw new IndexOutOfBoundsException("Índice " + index + ", tamaño " + recipientIds.size());
+        }
+        return keys[index];
+    }
+
+    /**
+     * Los IDs como List<Long> de solo lectura (para el IN de las queries).
+     */
+    public List<Long> recipientIdList() {
+        return recipientIds.asList();
+    }
+
+    /**
+     * Copia como mapa (RecentMessageBuffer guarda las claves así).
+     */
+    public Map<Long, String> toMap() {
+        Map<Long, String> map = new HashMap<>(size() * 2);
+        for (int i = 0; i < size(); i++) {
+            map.put(recipientIds.get(i), keys[i]);
+        }
+        return map;
+    }
+}
@@ -1,7 +1,9 @@
 package com.chatprivate.messaging.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.validation.constraints.AssertTrue;
 import jakarta.validation.constraints.NotBlank;
-import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import lombok.Data;
@@ -54,16 +56,51 @@ public class StompMessagePayload {
      * Formato: { "recipientId": "clave_AES_cifrada_con_RSA_del_recipient" }
      *
      * VALIDACIONES:
-     * - No puede estar vacío (cada mensaje necesita al menos un destinatario)
+     * - No puede estar vacío en modo "pairwise" (ver isKeyMaterialPresent)
      * - Máximo 100 destinatarios (para prevenir ataques DoS)
      *
      * IMPORTANTE: El servidor validará que TODOS los destinatarios
      * sean participantes de la conversación.
      */
-    @NotEmpty(message = "Debe haber al menos un destinatario para el mensaje")
     @Size(max = 100, message = "Demasiados destinatarios (máximo 100)")
     private Map<String, String> encryptedKeys;
 
+    /**
+     * Época de la clave de grupo (solo conversaciones en modo "sender_key").
+     *
+     * Si viene informada, el mensaje NO lleva encryptedKeys: cada destinatario
+     * descifra con la clave de grupo que recibió para esa época.
+     */
+    private Integer keyEpoch;
+
+    /**
+     * ID que genera el cliente para este mensaje (opcional, p. ej. un UUID).
+     *
+     * Si el cliente reenvía el mensaje tras reconectar con el mismo ID, el
+     * servidor no lo guarda ni lo reparte otra vez (SendDeduplicator).
+     */
+    @Size(max = 64, message = "clientMessageId demasiado largo (máximo 64)")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String clientMessageId;
+
+    /**
+     * Secuencia del mensaje en la conversación (Message.seq).
+     *
+     * Solo en los frames que manda el servidor; si el cliente la envía se
+     * ignora. Con ella el cliente detecta huecos (5 -> 7) y pide lo que falta.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long seq;
+
+    /**
+     * Las mismas claves en formato compacto (IDs como long).
+     *
+     * Las rellena ChatSendPayloadConverter al leer el frame de /app/chat.send;
+     * en ese caso encryptedKeys queda a null. No se serializa.
+     */
+    @JsonIgnore
+    private RecipientKeys recipientKeys;
+
     /**
      * Constructor completo (útil para tests).
      */
@@ -74,4 +111,34 @@ public class StompMessagePayload {
         this.senderId = senderId;
         this.encryptedKeys = encryptedKeys;
     }
+
+    /**
+     * Un mensaje necesita material de claves: o el mapa de claves por
+     * destinatario (pairwise) o la época de la clave de grupo (sender_key).
+     */
+    @JsonIgnore
+    @AssertTrue(message = "Debe haber al menos un destinatario para el mensaje")
+    public boolean isKeyMaterialPresent() {
+        return keyEpoch != null
+                || (recipientKeys != null && !recipientKeys.isEmpty())
+                || (encryptedKeys != null && !encryptedKeys.isEmpty());
+    }
+
+    public void setEncryptedKeys(Map<String, String> encryptedKeys) {
+        this.encryptedKeys = encryptedKeys;
+        this.recipientKeys = null; // Se vuelve a calcular desde el mapa nuevo
+    }
+
+    /**
+     * Claves por destinatario en formato compacto: las del conversor, o las
+     * de encryptedKeys si el payload se construyó con el mapa (tests, Jackson).
+     *
+     * @throws IllegalArgumentException Si algún ID del mapa no es un número
+     */
+    public RecipientKeys getRecipientKeys() {
+        if (recipientKeys == null && encryptedKeys != null) {
+            recipientKeys = RecipientKeys.fromMap(encryptedKeys);
+        }
+        return recipientKeys;
+    }
 }
\ No newline at end of file
@@ -1,14 +1,45 @@
 package com.chatprivate.messaging.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Entidad JPA para la tabla 'conversations'.
+ *
+ * Está en la caché de segundo nivel (región "conversations"): el tipo, el
+ * título y la membresía cambian poco y se leen en cada alta/consulta.
+ */
 @Entity
-@Table(name = "conversations")
+@Table(
+        name = "conversations",
+        uniqueConstraints = {
+                // Un solo chat 1-a-1 por pareja de usuarios. También evita que dos
+                // peticiones simultáneas creen el mismo chat dos veces.
+                // Los NULL (grupos) no cuentan como duplicados.
+                @UniqueConstraint(name = "uk_direct_pair", columnNames = {"direct_user_low", "direct_user_high"})
+        }
+)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "conversations")
 public class Conversation {
 
+    /**
+     * Modo de claves "pairwise" (el original): cada mensaje lleva una clave AES
+     * cifrada para CADA destinatario (una fila en message_keys por destinatario).
+     */
+    public static final String KEY_MODE_PAIRWISE = "pairwise";
+
+    /**
+     * Modo "sender_key": la conversación tiene una clave simétrica por época de
+     * membresía, distribuida una sola vez (tabla conversation_epoch_keys).
+     * Los mensajes solo indican la época con la que fueron cifrados.
+     */
+    public static final String KEY_MODE_SENDER_KEY = "sender_key";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -22,7 +53,38 @@ public class Conversation {
     @Column(nullable = false)
     private Instant createdAt = Instant.now();
 
+    /**
+     * Modo de claves de la conversación ("pairwise" o "sender_key").
+     * Nullable para las conversaciones antiguas: null equivale a "pairwise".
+     */
+    @Column(name = "key_mode", length = 20)
+    private String keyMode = KEY_MODE_PAIRWISE;
+
+    /**
+     * Época de membresía actual. Solo se usa en modo "sender_key":
+     * cada alta o baja de participante la incrementa y obliga a los
+     * clientes a distribuir una clave de grupo nueva.
+     */
+    @Column(name = "key_epoch", nullable = false)
+    private int keyEpoch = 0;
+
+    /**
+     * Clave canónica del chat 1-a-1: (menor userId, mayor userId).
+     * Solo se rellena en chats "direct" con exactamente dos participantes;
+     * se borra mientras la membresía sea otra y vuelve si se quedan dos
+     * (ver ConversationService.syncDirectPair).
+     * Buscar el chat entre A y B es una sola consulta sobre uk_direct_pair.
+     */
+    @Column(name = "direct_user_low")
+    private Long directUserLow;
+
+    @Column(name = "direct_user_high")
+    private Long directUserHigh;
+
+    // La colección también se cachea (solo guarda los IDs; las entidades
+    // ConversationParticipant salen de su propia región)
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "conversations.participants")
     private Set<ConversationParticipant> participants = new HashSet<>();
 
     public Conversation() {}
@@ -45,6 +107,32 @@ public class Conversation {
     public Instant getCreatedAt() { return createdAt; }
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
 
+    public String getKeyMode() { return keyMode == null ? KEY_MODE_PAIRWISE : keyMode; }
+    public void setKeyMode(String keyMode) { this.keyMode = keyMode; }
+
+    public int getKeyEpoch() { return keyEpoch; }
+    public void setKeyEpoch(int keyEpoch) { this.keyEpoch = keyEpoch; }
+
+    public boolean isSenderKeyMode() { return KEY_MODE_SENDER_KEY.equals(keyMode); }
+
+    public Long getDirectUserLow() { return directUserLow; }
+    public Long getDirectUserHigh() { return directUserHigh; }
+
+    /**
+     * Marca la conversación como el chat 1-a-1 entre dos usuarios (en cualquier orden).
+     */
+    public void setDirectPair(Long userId1, Long userId2) {
+        this.directUserLow = Math.min(userId1, userId2);
+        this.directUserHigh = Math.max(userId1, userId2);
+    }
+
+    public void clearDirectPair() {
+        this.directUserLow = null;
+        this.directUserHigh = null;
+    }
+
+    public boolean hasDirectPair() { return directUserLow != null; }
+
     public Set<ConversationParticipant> getParticipants() { return participants; }
     public void setParticipants(Set<ConversationParticipant> participants) { this.participants = participants; }
 }
\ No newline at end of file
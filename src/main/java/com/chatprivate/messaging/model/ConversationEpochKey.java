@@ -0,0 +1,133 @@
+package com.chatprivate.messaging.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Entidad JPA para la tabla 'conversation_epoch_keys'.
+ *
+ * Guarda la clave de grupo (sender key) de una conversación en modo
+ * "sender_key", cifrada con la clave pública RSA de cada participante.
+ *
+ * Se escribe UNA vez por época de membresía (O(miembros) filas por cada
+ * alta/baja), en lugar de O(miembros) filas en message_keys por CADA mensaje.
+ */
+@Entity
+@Table(
+        name = "conversation_epoch_keys",
+        uniqueConstraints = {
+                // Restricción: Un destinatario solo tiene una clave por época
+                @UniqueConstraint(columnNames = {"conversation_id", "epoch", "recipient_id"})
+        },
+        indexes = {
+                // Índice compuesto: conversación + destinatario
+                // Usado en: findByConversationIdAndRecipientId
+                // Optimiza: Cargar todas las claves de época de un usuario para el historial
+                @Index(
+                        name = "idx_epoch_key_conversation_recipient",
+                        columnList = "conversation_id, recipient_id"
+                )
+        }
+)
+public class ConversationEpochKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * ID de la conversación. Solo guardo el ID (no la relación JPA)
+     * porque nunca necesito cargar la Conversation desde aquí.
+     */
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    /**
+     * Época de membresía a la que pertenece esta clave.
+     */
+    @Column(nullable = false)
+    private int epoch;
+
+    /**
+     * ID del usuario al que pertenece esta copia de la clave de grupo.
+     */
+    @Column(name = "recipient_id", nullable = false)
+    private Long recipientId;
+
+    /**
+     * Clave de grupo cifrada con la clave pública RSA del destinatario (Base64).
+     */
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String encryptedKey;
+
+    /**
+     * ID del participante que generó y distribuyó la clave de esta época.
+     */
+    @Column(name = "distributor_id", nullable = false)
+    private Long distributorId;
+
+    @Column(nullable = false)
+    private Instant createdAt = Instant.now();
+
+    public ConversationEpochKey() {}
+
+    // ============================================
+    // GETTERS Y SETTERS
+    // ============================================
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(Long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(int epoch) {
+        this.epoch = epoch;
+    }
+
+    public Long getRecipientId() {
+        return recipientId;
+    }
+
+    public void setRecipientId(Long recipientId) {
+        this.recipientId = recipientId;
+    }
+
+    public String getEncryptedKey() {
+        return encryptedKey;
+    }
+
+    public void setEncryptedKey(String encryptedKey) {
+        this.encryptedKey = encryptedKey;
+    }
+
+    public Long getDistributorId() {
+        return distributorId;
+    }
+
+    public void setDistributorId(Long distributorId) {
+        this.distributorId = distributorId;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -1,10 +1,15 @@
 package com.chatprivate.messaging.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.time.Instant;
 
 /**
  * Entidad JPA para la tabla 'conversation_participants'.
+ *
+ * En la caché de segundo nivel (región "conversation-participants").
  */
 @Entity
 @Table(
@@ -39,6 +44,8 @@ import java.time.Instant;
                 )
         }
 )
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "conversation-participants")
 public class ConversationParticipant {
 
     @Id
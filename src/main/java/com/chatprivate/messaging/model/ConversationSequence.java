@@ -0,0 +1,80 @@
+package com.chatprivate.messaging.model;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * Entidad JPA para la tabla 'conversation_sequences'.
+ *
+ * Último número de secuencia asignado en cada conversación (ver Message.seq).
+ *
+ * Está en su propia tabla y no en 'conversations' a propósito:
+ * - Conversation vive en la caché de segundo nivel; tocarla en cada mensaje
+ *   invalidaría esa entrada sin parar
+ * - El UPDATE de cada envío bloquea solo esta fila pequeña, no la conversación
+ *
+ * Implementa Persistable: el ID lo pongo yo, y sin esto save() haría un merge
+ * (SELECT y, si otro la creó a la vez, pisaría su contador en vez de fallar).
+ */
+@Entity
+@Table(name = "conversation_sequences")
+public class ConversationSequence implements Persistable<Long> {
+
+    /**
+     * ID de la conversación. Solo guardo el ID (no la relación JPA),
+     * como en ConversationEpochKey.
+     */
+    @Id
+    @Column(name = "conversation_id")
+    private Long conversationId;
+
+    @Column(name = "last_seq", nullable = false)
+    private long lastSeq;
+
+    @Transient
+    private boolean isNew = true;
+
+    // Constructor por defecto (requerido por JPA)
+    public ConversationSequence() {}
+
+    public ConversationSequence(Long conversationId, long lastSeq) {
+        this.conversationId = conversationId;
+        this.lastSeq = lastSeq;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    @Override
+    public Long getId() {
+        return conversationId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    // ============================================
+    // GETTERS Y SETTERS
+    // ============================================
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(Long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
+}
@@ -10,9 +10,21 @@ import java.time.Instant;
 @Entity
 @Table(
         name = "messages",
+        uniqueConstraints = {
+                // Un clientMessageId no se repite para el mismo remitente.
+                // Respaldo de SendDeduplicator (reintentos tras reiniciar o en otra instancia).
+                // Los mensajes sin clientMessageId (NULL) no chocan entre sí.
+                @UniqueConstraint(name = "uk_sender_client_message", columnNames = {"sender_id", "client_message_id"}),
+
+                // Índice único: conversación + secuencia
+                // Usado en: findAfterSeq / findBeforeSeq (cursores) y en el orden del historial
+                // (ORDER BY seq, id: en InnoDB el índice ya lleva el ID detrás)
+                // Garantiza: Dos mensajes de un chat nunca comparten número
+                @UniqueConstraint(name = "uk_conversation_seq", columnNames = {"conversation_id", "seq"})
+        },
         indexes = {
                 // Índice compuesto: conversación + fecha
-                // Usado en: findByConversationIdOrderByCreatedAtAsc
+                // Usado en: findLastMessages (último mensaje de cada chat)
                 // Optimiza: Buscar mensajes de un chat ordenados por fecha
                 @Index(
                         name = "idx_conversation_created",
@@ -46,8 +58,11 @@ public class Message {
      *
      * IMPORTANTE: Esta columna está indexada (idx_conversation_created)
      * porque es la columna más usada en las búsquedas.
+     *
+     * LAZY: el historial no necesita la conversación (ya la conoce).
+     * getConversation().getId() no dispara ninguna query.
      */
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "conversation_id", nullable = false)
     private Conversation conversation;
 
@@ -74,6 +89,34 @@ public class Message {
     @Column(nullable = false)
     private Instant createdAt = Instant.now();
 
+    /**
+     * Época de la clave de grupo con la que se cifró el mensaje.
+     *
+     * Solo se rellena en conversaciones en modo "sender_key". En ese caso
+     * NO hay filas en message_keys: la clave de cada destinatario está en
+     * conversation_epoch_keys (una vez por época, no una vez por mensaje).
+     * Null = mensaje "pairwise" (claves en message_keys).
+     */
+    @Column(name = "key_epoch")
+    private Integer keyEpoch;
+
+    /**
+     * ID que genera el cliente para el mensaje (opcional). Si reenvía el
+     * mismo mensaje tras reconectar, el servidor no lo guarda dos veces.
+     */
+    @Column(name = "client_message_id", length = 64)
+    private String clientMessageId;
+
+    /**
+     * Número del mensaje dentro de su conversación (1, 2, 3...), sin huecos.
+     *
+     * Lo asigna MessageSequenceAllocator al guardar. A diferencia de createdAt
+     * (reloj de la JVM que creó el objeto), no empata ni depende del reloj de
+     * cada nodo. Null en mensajes anteriores a la columna.
+     */
+    @Column(name = "seq")
+    private Long seq;
+
     // Constructor por defecto (requerido por JPA)
     public Message() {}
 
@@ -120,4 +163,28 @@ public class Message {
     public void setCreatedAt(Instant createdAt) {
         this.createdAt = createdAt;
     }
+
+    public Integer getKeyEpoch() {
+        return keyEpoch;
+    }
+
+    public void setKeyEpoch(Integer keyEpoch) {
+        this.keyEpoch = keyEpoch;
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
 }
\ No newline at end of file
@@ -14,7 +14,7 @@ import jakarta.persistence.*;
         },
         indexes = {
                 // Índice compuesto: mensaje + destinatario
-                // Usado en: findByMessage_IdAndRecipientId
+                // Usado en: findKeyViews, findEncryptedKey
                 // Optimiza: Buscar la clave de un mensaje para un usuario específico
                 @Index(
                         name = "idx_message_recipient",
@@ -38,8 +38,11 @@ public class MessageKey {
     /**
      * Relación: Muchas claves pertenecen a Un mensaje.
      * Esta columna es parte del índice idx_message_recipient.
+     *
+     * LAZY: para leer claves uso la proyección MessageKeyView, que solo
+     * trae message_id (sin cargar el Message).
      */
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "message_id", nullable = false)
     private Message message;
 
@@ -0,0 +1,215 @@
+package com.chatprivate.messaging.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Entidad JPA para la tabla 'message_outbox'.
+ *
+ * Un mensaje guardado que falta repartir por WebSocket. Se escribe en la
+ * MISMA transacción que el mensaje: si el mensaje existe, su entrega
+ * pendiente también (ver MessageOutboxRelay).
+ *
+ * Solo guardo IDs: el ciphertext y las claves ya están en messages y
+ * message_keys, y el relay los lee de ahí por lotes.
+ *
+ * Estados de una fila:
+ * - Pendiente: delivered_at y parked_at NULL (y sin reserva vigente). La toma
+ *   su nodo de origen; otro nodo, solo si lleva demasiado tiempo pendiente
+ * - Reservada: un relay la tomó (claimed_by / claimed_until) y la está repartiendo
+ * - Entregada: delivered_at
+ * - Aparcada: falló max-attempts veces (parked_at, con el último error en last_error).
+ *   No se reintenta sola: hay que revisarla a mano
+ */
+@Entity
+@Table(
+        name = "message_outbox",
+        indexes = {
+                // Índice compuesto: entregado + aparcado + ID
+                // Usado en: findPending (WHERE delivered_at IS NULL AND parked_at IS NULL ORDER BY id)
+                // y en la limpieza de las filas ya entregadas
+                @Index(
+                        name = "idx_outbox_pending",
+                        columnList = "delivered_at, parked_at, id"
+                ),
+
+                // Índice simple: reserva
+                // Usado en: findClaimed (las filas que acaba de reservar un relay)
+                @Index(
+                        name = "idx_outbox_claimed_by",
+                        columnList = "claimed_by"
+                )
+        }
+)
+public class MessageOutboxEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * ID del mensaje a repartir. Sin relación JPA (ni clave foránea):
+     * borrar un mensaje no tiene que esperar a que el relay lo procese.
+     */
+    @Column(name = "message_id", nullable = false)
+    private Long messageId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt = Instant.now();
+
+    /**
+     * Nodo que apuntó la entrega (app.messaging.outbox.node-id). Es el que la
+     * reparte: con el broker en memoria, sus usuarios solo le llegan desde él.
+     */
+    @Column(name = "origin_node", length = 64)
+    private String originNode;
+
+    /**
+     * Contexto de la traza del envío (cabecera W3C traceparent), para que el
+     * reparto del relay cuelgue de ella. Null si el envío no se trazaba.
+     */
+    @Column(name = "traceparent", length = 55)
+    private String traceparent;
+
+    /**
+     * Cuándo lo repartió el relay. Null = pendiente.
+     */
+    @Column(name = "delivered_at")
+    private Instant deliveredAt;
+
+    /**
+     * Reserva del relay que la está repartiendo (un token por lote) y hasta
+     * cuándo vale. Con la reserva caducada, otro relay puede volver a tomarla.
+     */
+    @Column(name = "claimed_by", length = 36)
+    private String claimedBy;
+
+    @Column(name = "claimed_until")
+    private Instant claimedUntil;
+
+    /**
+     * Repartos fallidos y el error del último.
+     */
+    @Column(name = "attempts", nullable = false)
+    private int attempts = 0;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    /**
+     * Cuándo se dejó de reintentar (demasiados fallos). Null = se sigue intentando.
+     */
+    @Column(name = "parked_at")
+    private Instant parkedAt;
+
+    // Constructor por defecto (requerido por JPA)
+    public MessageOutboxEntry() {}
+
+    public MessageOutboxEntry(Long messageId, Long conversationId) {
+        this.messageId = messageId;
+        this.conversationId = conversationId;
+    }
+
+    // ============================================
+    // GETTERS Y SETTERS
+    // ============================================
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(Long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public String getOriginNode() {
+        return originNode;
+    }
+
+    public void setOriginNode(String originNode) {
+        this.originNode = originNode;
+    }
+
+    public String getTraceparent() {
+        return traceparent;
+    }
+
+    public void setTraceparent(String traceparent) {
+        this.traceparent = traceparent;
+    }
+
+    public Instant getDeliveredAt() {
+        return deliveredAt;
+    }
+
+    public void setDeliveredAt(Instant deliveredAt) {
+        this.deliveredAt = deliveredAt;
+    }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public Instant getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(Instant claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getParkedAt() {
+        return parkedAt;
+    }
+
+    public void setParkedAt(Instant parkedAt) {
+        this.parkedAt = parkedAt;
+    }
+}
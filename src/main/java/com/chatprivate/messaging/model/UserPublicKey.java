@@ -1,10 +1,19 @@
 package com.chatprivate.messaging.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.time.Instant;
 
+/**
+ * Clave pública de un usuario (tabla 'user_public_keys').
+ * En la caché de segundo nivel (región "user-public-keys").
+ */
 @Entity
 @Table(name = "user_public_keys")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user-public-keys")
 public class UserPublicKey {
     @Id
     private Long userId;
@@ -0,0 +1,35 @@
+package com.chatprivate.messaging.repository;
+
+import com.chatprivate.messaging.model.ConversationEpochKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repositorio para las claves de grupo por época (modo "sender_key").
+ */
+public interface ConversationEpochKeyRepository extends JpaRepository<ConversationEpochKey, Long> {
+
+    /**
+     * ¿Ya se distribuyó la clave de esta época?
+     */
+    boolean existsByConversationIdAndEpoch(Long conversationId, int epoch);
+
+    /**
+     * Todas las claves de época de un usuario en una conversación.
+     * Usado al armar el historial (una query para todas las épocas).
+     */
+    List<ConversationEpochKey> findByConversationIdAndRecipientId(Long conversationId, Long recipientId);
+
+    /**
+     * La clave de una época concreta para un usuario.
+     */
+    Optional<ConversationEpochKey> findByConversationIdAndEpochAndRecipientId(Long conversationId, int epoch, Long recipientId);
+
+    /**
+     * Las claves de época de un usuario en VARIAS conversaciones (lista de chats, una query).
+     */
+    List<ConversationEpochKey> findByConversationIdInAndRecipientId(Collection<Long> conversationIds, Long recipientId);
+}
@@ -2,19 +2,40 @@ package com.chatprivate.messaging.repository;
 
 import com.chatprivate.messaging.model.Conversation;
 import com.chatprivate.messaging.model.ConversationParticipant;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * Repositorio de participantes.
+ *
+ * Las consultas de membresía (¿es participante?, IDs de participantes) se
+ * hacen en cada mensaje, así que van a la caché de consultas de Hibernate
+ * (región "membership"). Hibernate invalida la región sola en cuanto hay
+ * cualquier INSERT/UPDATE/DELETE en conversation_participants.
+ */
 public interface ConversationParticipantRepository extends JpaRepository<ConversationParticipant, Long> {
 
+    String MEMBERSHIP_REGION = "membership";
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = MEMBERSHIP_REGION)
+    })
     List<ConversationParticipant> findByConversation_Id(Long conversationId);
 
     Optional<ConversationParticipant> findByConversation_IdAndUserId(Long conversationId, Long userId);
 
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = MEMBERSHIP_REGION)
+    })
     boolean existsByConversation_IdAndUserId(Long conversationId, Long userId);
 
     List<ConversationParticipant> findByUserId(Long userId);
@@ -28,4 +49,12 @@ public interface ConversationParticipantRepository extends JpaRepository<Convers
     // Busca todos los participantes para una lista de IDs de conversación.
     List<ConversationParticipant> findByConversation_IdIn(List<Long> conversationIds);
 
+    // Solo los IDs de usuario de los participantes (sin cargar entidades).
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = MEMBERSHIP_REGION)
+    })
+    @Query("SELECT cp.userId FROM ConversationParticipant cp WHERE cp.conversation.id = :conversationId")
+    List<Long> findUserIdsByConversationId(@Param("conversationId") Long conversationId);
+
 }
@@ -3,11 +3,11 @@ package com.chatprivate.messaging.repository;
 import com.chatprivate.messaging.model.Conversation;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
 import java.util.Optional;
 
 /**
@@ -34,43 +34,34 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     @EntityGraph(attributePaths = {"participants"})
     Optional<Conversation> findById(Long id);
 
+    // NOTA: findAll() ya NO carga los participantes con @EntityGraph: traía
+    // todas las conversaciones y todos sus participantes a memoria de golpe.
+    // Para recorrer la tabla entera (mantenimiento, archivado...) uso
+    // ConversationBatchReader, que va por lotes en memoria constante.
+
     /**
-     * Busca todas las conversaciones.
+     * Busca la conversación directa (1-a-1) entre dos usuarios.
+     *
+     * OPTIMIZACIÓN: antes era una query con un COUNT y dos EXISTS correlacionados
+     * sobre conversation_participants (un recorrido por cada conversación).
+     * Ahora es una sola búsqueda en el índice único uk_direct_pair.
      *
-     * NOTA: Este método generalmente NO se usa en producción.
-     * Es mejor buscar por usuario con findByUserId.
+     * @param lowUserId  El menor de los dos IDs
+     * @param highUserId El mayor de los dos IDs
      */
-    @EntityGraph(attributePaths = {"participants"})
-    List<Conversation> findAll();
+    Optional<Conversation> findByDirectUserLowAndDirectUserHigh(Long lowUserId, Long highUserId);
+
+    default Optional<Conversation> findDirectConversationBetweenUsers(Long userId1, Long userId2) {
+        return findByDirectUserLowAndDirectUserHigh(Math.min(userId1, userId2), Math.max(userId1, userId2));
+    }
 
     /**
-     * Busca conversaciones directas (1-a-1) entre dos usuarios.
-     *
-     * Esta query es compleja porque necesita:
-     * 1. Conversaciones de tipo 'direct'
-     * 2. Que tengan EXACTAMENTE 2 participantes
-     * 3. Que ambos userIds estén en esos participantes
+     * Incrementa la época de membresía (modo "sender_key").
      *
-     * OPTIMIZACIÓN: Usamos subqueries para evitar traer datos innecesarios.
+     * Uso un UPDATE atómico en lugar de leer-modificar-guardar para que dos
+     * cambios de membresía simultáneos no se pisen (cada uno suma 1).
      */
-    @Query("""
-        SELECT c FROM Conversation c
-        WHERE c.type = 'direct'
-        AND (
-            SELECT COUNT(cp) FROM ConversationParticipant cp
-            WHERE cp.conversation.id = c.id
-        ) = 2
-        AND EXISTS (
-            SELECT 1 FROM ConversationParticipant cp1
-            WHERE cp1.conversation.id = c.id AND cp1.userId = :userId1
-        )
-        AND EXISTS (
-            SELECT 1 FROM ConversationParticipant cp2
-            WHERE cp2.conversation.id = c.id AND cp2.userId = :userId2
-        )
-        """)
-    List<Conversation> findDirectConversationBetweenUsers(
-            @Param("userId1") Long userId1,
-            @Param("userId2") Long userId2
-    );
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Conversation c SET c.keyEpoch = c.keyEpoch + 1 WHERE c.id = :conversationId")
+    int incrementKeyEpoch(@Param("conversationId") Long conversationId);
 }
\ No newline at end of file
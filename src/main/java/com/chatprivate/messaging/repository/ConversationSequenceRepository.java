@@ -0,0 +1,34 @@
+package com.chatprivate.messaging.repository;
+
+import com.chatprivate.messaging.model.ConversationSequence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Repositorio para el contador de secuencia de cada conversación.
+ */
+public interface ConversationSequenceRepository extends JpaRepository<ConversationSequence, Long> {
+
+    /**
+     * Suma 1 al contador de la conversación.
+     *
+     * UPDATE atómico (como ConversationRepository.incrementKeyEpoch): la fila
+     * queda bloqueada hasta el commit, así que dos envíos al MISMO chat se
+     * ordenan y los de chats distintos no se esperan entre sí.
+     *
+     * Sin clearAutomatically: el envío sigue usando sus entidades después.
+     *
+     * @return 0 si la conversación aún no tiene fila
+     */
+    @Modifying
+    @Query("UPDATE ConversationSequence s SET s.lastSeq = s.lastSeq + 1 WHERE s.conversationId = :conversationId")
+    int increment(@Param("conversationId") Long conversationId);
+
+    /**
+     * El valor actual del contador (tras increment, el número recién asignado).
+     */
+    @Query("SELECT s.lastSeq FROM ConversationSequence s WHERE s.conversationId = :conversationId")
+    long findLastSeq(@Param("conversationId") Long conversationId);
+}
@@ -1,7 +1,13 @@
 package com.chatprivate.messaging.repository;
 
+import com.chatprivate.messaging.dto.MessageKeyView;
+import com.chatprivate.messaging.dto.RecipientKeyView;
 import com.chatprivate.messaging.model.MessageKey;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -9,12 +15,31 @@ public interface MessageKeyRepository extends JpaRepository<MessageKey, Long> {
     List<MessageKey> findByRecipientId(Long recipientId);
     List<MessageKey> findByMessageId(Long messageId);
 
-    List<MessageKey> findByMessage_IdInAndRecipientId(List<Long> messageIds, Long recipientId);
+    /**
+     * Claves de un destinatario para varios mensajes (historial), como proyección.
+     *
+     * mk.message.id es la propia columna message_id: no hay JOIN con messages
+     * ni se carga ninguna entidad.
+     */
+    @Query("SELECT new com.chatprivate.messaging.dto.MessageKeyView(mk.message.id, mk.encryptedKey) " +
+            "FROM MessageKey mk WHERE mk.message.id IN :messageIds AND mk.recipientId = :recipientId")
+    List<MessageKeyView> findKeyViews(@Param("messageIds") Collection<Long> messageIds,
+                                      @Param("recipientId") Long recipientId);
 
+    /**
+     * Solo la clave cifrada de un mensaje para un destinatario (último mensaje de la lista de chats).
+     */
+    @Query("SELECT mk.encryptedKey FROM MessageKey mk " +
+            "WHERE mk.message.id = :messageId AND mk.recipientId = :recipientId")
+    Optional<String> findEncryptedKey(@Param("messageId") Long messageId,
+                                      @Param("recipientId") Long recipientId);
 
     /**
-     * Busca la clave específica para un ID de mensaje y un ID de destinatario.
+     * Claves de TODOS los destinatarios de varios mensajes, como proyección
+     * (siembra del buffer de mensajes recientes).
      */
-    Optional<MessageKey> findByMessage_IdAndRecipientId(Long messageId, Long recipientId);
+    @Query("SELECT new com.chatprivate.messaging.dto.RecipientKeyView(mk.message.id, mk.recipientId, mk.encryptedKey) " +
+            "FROM MessageKey mk WHERE mk.message.id IN :messageIds")
+    List<RecipientKeyView> findRecipientKeyViews(@Param("messageIds") Collection<Long> messageIds);
 
 }
\ No newline at end of file
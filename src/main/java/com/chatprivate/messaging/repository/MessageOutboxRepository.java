@@ -0,0 +1,85 @@
+package com.chatprivate.messaging.repository;
+
+import com.chatprivate.messaging.dto.MessageOutboxView;
+import com.chatprivate.messaging.model.MessageOutboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repositorio para las entregas pendientes (outbox) de mensajes.
+ */
+public interface MessageOutboxRepository extends JpaRepository<MessageOutboxEntry, Long> {
+
+    /**
+     * IDs del siguiente lote candidato, en el orden en que se guardaron:
+     * sin entregar, sin aparcar y sin reserva vigente de otro relay.
+     * El tamaño del lote lo pone el Pageable.
+     *
+     * De cada nodo, las suyas; las de otro nodo, solo si se apuntaron antes
+     * de "orphanBefore" (su nodo no las repartió: probablemente cayó).
+     *
+     * Solo son candidatos: hay que reservarlos con claim antes de repartir.
+     */
+    @Query("SELECT o.id FROM MessageOutboxEntry o " +
+            "WHERE o.deliveredAt IS NULL AND o.parkedAt IS NULL " +
+            "AND (o.claimedUntil IS NULL OR o.claimedUntil < :now) " +
+            "AND (o.originNode = :node OR o.createdAt < :orphanBefore) ORDER BY o.id")
+    List<Long> findPending(@Param("now") Instant now, @Param("node") String node,
+                           @Param("orphanBefore") Instant orphanBefore, Pageable pageable);
+
+    /**
+     * Reserva las filas para un relay (token) hasta "until".
+     *
+     * Repite las condiciones de findPending en el UPDATE: si dos relays
+     * leyeron los mismos candidatos, el segundo UPDATE espera al bloqueo de
+     * fila del primero, vuelve a evaluar el WHERE y ya no los toma.
+     *
+     * @return Filas reservadas (las que no, se las quedó otro relay)
+     */
+    @Modifying
+    @Query("UPDATE MessageOutboxEntry o SET o.claimedBy = :token, o.claimedUntil = :until " +
+            "WHERE o.id IN :ids AND o.deliveredAt IS NULL AND o.parkedAt IS NULL " +
+            "AND (o.claimedUntil IS NULL OR o.claimedUntil < :now)")
+    int claim(@Param("ids") Collection<Long> ids, @Param("token") String token,
+              @Param("until") Instant until, @Param("now") Instant now);
+
+    /**
+     * Las filas que reservó un relay con ese token, en orden de guardado.
+     */
+    @Query("SELECT new com.chatprivate.messaging.dto.MessageOutboxView(" +
+            "o.id, o.messageId, o.createdAt, o.attempts, o.traceparent) " +
+            "FROM MessageOutboxEntry o WHERE o.claimedBy = :token AND o.deliveredAt IS NULL ORDER BY o.id")
+    List<MessageOutboxView> findClaimed(@Param("token") String token);
+
+    /**
+     * Marca un lote entero como entregado en UN solo UPDATE.
+     */
+    @Modifying
+    @Query("UPDATE MessageOutboxEntry o SET o.deliveredAt = :deliveredAt WHERE o.id IN :ids")
+    int markDelivered(@Param("ids") Collection<Long> ids, @Param("deliveredAt") Instant deliveredAt);
+
+    /**
+     * Apunta un reparto fallido. La reserva se mantiene: la fila se reintenta
+     * cuando caduca (la reserva hace de espera entre intentos).
+     *
+     * @param parkedAt Ahora si ya no se va a reintentar más; null si sí
+     */
+    @Modifying
+    @Query("UPDATE MessageOutboxEntry o SET o.attempts = o.attempts + 1, o.lastError = :error, " +
+            "o.parkedAt = :parkedAt WHERE o.id = :id")
+    int recordFailure(@Param("id") Long id, @Param("error") String error, @Param("parkedAt") Instant parkedAt);
+
+    /**
+     * Borra las filas entregadas antes de esa fecha (la tabla no crece sin límite).
+     */
+    @Modifying
+    @Query("DELETE FROM MessageOutboxEntry o WHERE o.deliveredAt < :before")
+    int deleteDeliveredBefore(@Param("before") Instant before);
+}
@@ -1,5 +1,7 @@
 package com.chatprivate.messaging.repository;
 
+import com.chatprivate.messaging.dto.MessageCiphertextView;
+import com.chatprivate.messaging.dto.MessageDeliveryView;
 import com.chatprivate.messaging.model.Message;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -9,6 +11,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,15 +22,19 @@ import java.util.Optional;
 public interface MessageRepository extends JpaRepository<Message, Long> {
 
     /**
-     * Busca todos los mensajes de una conversación, ordenados por fecha.
+     * Busca todos los mensajes de una conversación, en el orden del chat (seq).
      *
      * OPTIMIZACIÓN:
-     * - Usa el índice idx_messages_conversation_created (conversation_id, created_at)
+     * - Usa el índice único uk_conversation_seq (conversation_id, seq)
      * - La ordenación es gratis porque el índice ya está ordenado
      *
+     * Los mensajes anteriores a la columna seq (seq NULL) salen primero
+     * (MySQL y H2 ordenan NULL como el valor más bajo), entre ellos por ID.
+     * createdAt no sirve de orden: dos mensajes pueden empatar.
+     *
      * USO TÍPICO: Cargar historial completo (para conversaciones pequeñas)
      */
-    List<Message> findByConversationIdOrderByCreatedAtAsc(Long conversationId);
+    List<Message> findByConversationIdOrderBySeqAscIdAsc(Long conversationId);
 
     /**
      * Busca mensajes de una conversación con PAGINACIÓN.
@@ -39,7 +46,7 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
      *
      * EJEMPLO DE USO:
      * ```java
-     * Pageable pageable = PageRequest.of(0, 50, Sort.by("createdAt").ascending());
+     * Pageable pageable = PageRequest.of(0, 50, Sort.by("seq", "id").descending());
      * Page<Message> page = messageRepository.findByConversationId(convId, pageable);
      * ```
      *
@@ -60,6 +67,28 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
      */
     Optional<Message> findTopByConversationIdOrderByCreatedAtDesc(Long conversationId);
 
+    /**
+     * El último mensaje de VARIAS conversaciones en una sola query.
+     *
+     * OPTIMIZACIÓN:
+     * - Sustituye a un findTopByConversationIdOrderByCreatedAtDesc por chat
+     *   en la lista de conversaciones (N+1)
+     * - El MAX(created_at) por conversación sale del índice
+     *   idx_conversation_created (conversation_id, created_at)
+     *
+     * Si dos mensajes de un chat empatan en createdAt vienen los dos
+     * (ConversationService se queda con el de mayor ID).
+     */
+    @Query("""
+            SELECT m FROM Message m
+            WHERE (m.conversation.id, m.createdAt) IN (
+                SELECT m2.conversation.id, MAX(m2.createdAt) FROM Message m2
+                WHERE m2.conversation.id IN :conversationIds
+                GROUP BY m2.conversation.id
+            )
+            """)
+    List<Message> findLastMessages(@Param("conversationIds") Collection<Long> conversationIds);
+
     /**
      * Busca mensajes por IDs (para cargar claves en batch).
      *
@@ -71,6 +100,26 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
      */
     List<Message> findByIdIn(List<Long> messageIds);
 
+    /**
+     * Solo los ciphertexts de varios mensajes, como proyección.
+     *
+     * USO TÍPICO: Rellenar los huecos de OffHeapCiphertextCache al servir
+     * la primera página del historial desde RecentMessageBuffer
+     */
+    @Query("SELECT new com.chatprivate.messaging.dto.MessageCiphertextView(m.id, m.ciphertext) " +
+            "FROM Message m WHERE m.id IN :messageIds")
+    List<MessageCiphertextView> findCiphertexts(@Param("messageIds") Collection<Long> messageIds);
+
+    /**
+     * Lo necesario para repartir varios mensajes, como proyección.
+     *
+     * USO TÍPICO: Cada lote de MessageOutboxRelay
+     */
+    @Query("SELECT new com.chatprivate.messaging.dto.MessageDeliveryView(" +
+            "m.id, m.conversation.id, m.senderId, m.ciphertext, m.keyEpoch, m.seq) " +
+            "FROM Message m WHERE m.id IN :messageIds")
+    List<MessageDeliveryView> findDeliveryViews(@Param("messageIds") Collection<Long> messageIds);
+
     /**
      * Cuenta cuántos mensajes tiene una conversación.
      *
@@ -83,6 +132,73 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     @Query("SELECT COUNT(m) FROM Message m WHERE m.conversation.id = :conversationId")
     long countByConversationId(@Param("conversationId") Long conversationId);
 
+    /**
+     * Los últimos mensajes de una conversación hasta un ID (incluido).
+     * El Pageable decide cuántos y el orden (por ID, descendente).
+     *
+     * USO TÍPICO: Sembrar RecentMessageBuffer al despertar una conversación
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.id <= :messageId")
+    List<Message> findLatestUpTo(@Param("conversationId") Long conversationId,
+                                 @Param("messageId") Long messageId,
+                                 Pageable pageable);
+
+    /**
+     * Cuenta los mensajes de una conversación hasta un ID (incluido).
+     *
+     * USO TÍPICO: Punto de partida del total de RecentMessageBuffer. Con el
+     * límite por ID no cuento dos veces los mensajes que llegan después.
+     */
+    @Query("SELECT COUNT(m) FROM Message m WHERE m.conversation.id = :conversationId AND m.id <= :messageId")
+    long countByConversationIdUpTo(@Param("conversationId") Long conversationId,
+                                   @Param("messageId") Long messageId);
+
+    /**
+     * El mensaje que un remitente ya guardó con un clientMessageId.
+     *
+     * OPTIMIZACIÓN:
+     * - Usa el índice único uk_sender_client_message (sender_id, client_message_id)
+     *
+     * USO TÍPICO: Resolver un reintento que SendDeduplicator ya no recuerda
+     */
+    Optional<Message> findBySenderIdAndClientMessageId(Long senderId, String clientMessageId);
+
+    /**
+     * La secuencia más alta de una conversación (null si ningún mensaje tiene).
+     *
+     * USO TÍPICO: Arrancar el contador de una conversación que no tenía fila
+     * en conversation_sequences
+     */
+    @Query("SELECT MAX(m.seq) FROM Message m WHERE m.conversation.id = :conversationId")
+    Long findMaxSeq(@Param("conversationId") Long conversationId);
+
+    /**
+     * Los mensajes de una conversación POSTERIORES a una secuencia, en orden.
+     *
+     * OPTIMIZACIÓN:
+     * - Usa el índice único uk_conversation_seq (conversation_id, seq):
+     *   el cursor es exacto aunque dos mensajes compartan createdAt
+     *
+     * USO TÍPICO: Sincronizar un cliente que reconecta ("dame lo que va después del 120")
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.seq > :afterSeq ORDER BY m.seq ASC")
+    List<Message> findAfterSeq(@Param("conversationId") Long conversationId,
+                               @Param("afterSeq") long afterSeq,
+                               Pageable pageable);
+
+    /**
+     * Mensajes anteriores a una secuencia, del más nuevo al más viejo.
+     * El Pageable solo pone el límite (la página es siempre la 0).
+     *
+     * Es el cursor para cargar hacia atrás ("infinite scroll") sin OFFSET:
+     * el coste no crece con lo lejos que esté la página, y un mensaje nuevo
+     * no desplaza las páginas ya leídas.
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.seq < :beforeSeq ORDER BY m.seq DESC")
+    List<Message> findBeforeSeq(@Param("conversationId") Long conversationId,
+                                @Param("beforeSeq") long beforeSeq,
+                                Pageable pageable);
+
     /**
      * Busca mensajes de un usuario en una conversación.
      *
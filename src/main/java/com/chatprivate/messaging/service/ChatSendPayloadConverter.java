@@ -0,0 +1,145 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.RecipientKeys;
+import com.chatprivate.messaging.dto.StompMessagePayload;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversor de entrada de los frames de /app/chat.send (StompMessagePayload).
+ *
+ * PROBLEMA:
+ * Jackson construía el payload entero con un Map<String, String> de hasta 100
+ * entradas (un String por ID), y MessageService lo copiaba a un
+ * Map<Long, String> con Long.parseLong. Todo eso era basura por mensaje.
+ *
+ * SOLUCIÓN:
+ * - Leo el JSON con el parser de streaming de Jackson (sin árbol ni databind)
+ * - encryptedKeys va directo a RecipientKeys: IDs como long y claves en un array
+ * - Los límites se validan MIENTRAS leo: con el destinatario 101 o un ciphertext
+ *   de más de 10KB corto antes de crear más objetos
+ *
+ * Los nombres de campo salen de la tabla de símbolos del JsonFactory de la
+ * app (se reutilizan entre frames), así que parsear el ID no crea un String.
+ *
+ * Solo convierte a StompMessagePayload; el resto de payloads (y todo lo que
+ * sale hacia los clientes) sigue con el conversor de Jackson.
+ */
+@Component
+public class ChatSendPayloadConverter extends AbstractMessageConverter {
+
+    // Mismos límites que las anotaciones de StompMessagePayload
+    static final int MAX_CIPHERTEXT_LENGTH = 10240;
+    static final int MAX_CLIENT_MESSAGE_ID_LENGTH = 64;
+
+    private final JsonFactory jsonFactory;
+
+    public ChatSendPayloadConverter(ObjectMapper objectMapper) {
+        super(MimeTypeUtils.APPLICATION_JSON);
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return StompMessagePayload.class == clazz;
+    }
+
+    @Override
+    protected boolean canConvertTo(Object payload, MessageHeaders headers) {
+        return false; // Solo entrada: las salidas van por StompPayloadEncoder o Jackson
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        Object body = message.getPayload();
+        try (JsonParser parser = body instanceof byte[] bytes
+                ? jsonFactory.createParser(bytes)
+                : jsonFactory.createParser(body.toString().getBytes(StandardCharsets.UTF_8))) {
+            return read(parser);
+        } catch (IOException e) {
+            throw new MessageConversionException(message, "JSON inválido en el mensaje", e);
+        } catch (IllegalArgumentException e) {
+            throw new MessageConversionException(message, e.getMessage());
+        }
+    }
+
+    private StompMessagePayload read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("El mensaje debe ser un objeto JSON");
+        }
+
+        StompMessagePayload payload = new StompMessagePayload();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "conversationId" -> payload.setConversationId(readLong(parser, value));
+                case "senderId" -> payload.setSenderId(readLong(parser, value));
+                case "keyEpoch" -> payload.setKeyEpoch(value == JsonToken.VALUE_NULL ? null : parser.getIntValue());
+                case "ciphertext" -> payload.setCiphertext(readCiphertext(parser, value));
+                case "encryptedKeys" -> payload.setRecipientKeys(readRecipientKeys(parser, value));
+                case "clientMessageId" -> payload.setClientMessageId(readClientMessageId(parser, value));
+                default -> parser.skipChildren(); // Campo desconocido: se ignora, como con Jackson
+            }
+        }
+        return payload;
+    }
+
+    private static Long readLong(JsonParser parser, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : parser.getLongValue();
+    }
+
+    private static String readCiphertext(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        // Compruebo la longitud antes de crear el String
+        if (parser.getTextLength() > MAX_CIPHERTEXT_LENGTH) {
+            throw new IllegalArgumentException("El mensaje es demasiado largo (máximo 10KB)");
+        }
+        return parser.getText();
+    }
+
+    private static String readClientMessageId(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value != JsonToken.VALUE_STRING || parser.getTextLength() > MAX_CLIENT_MESSAGE_ID_LENGTH) {
+            throw new IllegalArgumentException("clientMessageId debe ser un texto de hasta 64 caracteres");
+        }
+        return parser.getText();
+    }
+
+    private static RecipientKeys readRecipientKeys(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("encryptedKeys debe ser un objeto { \"recipientId\": \"clave\" }");
+        }
+
+        RecipientKeys keys = new RecipientKeys(16);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (keys.size() == RecipientKeys.MAX_RECIPIENTS) {
+                throw new IllegalArgumentException("Demasiados destinatarios (máximo " + RecipientKeys.MAX_RECIPIENTS + ")");
+            }
+            long recipientId = RecipientKeys.parseRecipientId(parser.currentName());
+            if (parser.nextToken() != JsonToken.VALUE_STRING) {
+                throw new IllegalArgumentException("La clave del destinatario " + recipientId + " debe ser un texto");
+            }
+            keys.put(recipientId, parser.getText());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,110 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.model.Conversation;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Recorre TODAS las conversaciones por lotes, en memoria constante.
+ *
+ * Pensado para tareas batch (mantenimiento, reindexado, archivado) que antes
+ * usarían conversationRepository.findAll() y cargarían la tabla entera.
+ *
+ * CÓMO:
+ * - Un cursor de Hibernate (ScrollableResults, FORWARD_ONLY): la BD entrega
+ *   las filas poco a poco. En MySQL uso fetchSize = Integer.MIN_VALUE (el
+ *   driver las lee de una en una del socket) SOLO en esta consulta: con
+ *   useCursorFetch=true en la URL, todas las sentencias de la app pasarían a
+ *   ser prepared statements del servidor. En el resto de BDs, fetchSize =
+ *   tamaño del lote
+ * - Tras procesar cada lote hago entityManager.clear(): las conversaciones ya
+ *   procesadas salen del contexto de persistencia y se pueden recolectar
+ * - CacheMode.IGNORE: un recorrido completo no debe llenar (ni vaciar) la
+ *   caché de segundo nivel de las conversaciones que se usan de verdad
+ *
+ * El lote es de solo lectura. Si la tarea necesita los participantes, debe
+ * cargarlos para el lote entero de una vez (findByConversation_IdIn) en lugar
+ * de navegar conv.getParticipants() uno a uno. OJO: en MySQL la conexión está
+ * ocupada hasta cerrar el cursor, así que esas consultas del handler tienen que
+ * ir en su propia transacción (REQUIRES_NEW, que usa otra conexión).
+ */
+@Service
+@Slf4j
+public class ConversationBatchReader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @param chunkSize Conversaciones por lote (y filas por viaje a la BD)
+     * @param chunkHandler Recibe cada lote, ordenado por ID. Las entidades dejan
+     *                     de estar gestionadas al volver del handler
+     * @return Total de conversaciones recorridas
+     */
+    @Transactional(readOnly = true)
+    public long forEachChunk(int chunkSize, Consumer<List<Conversation>> chunkHandler) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("El tamaño de lote debe ser positivo");
+        }
+
+        long total = 0;
+        List<Conversation> chunk = new ArrayList<>(chunkSize);
+
+        try (ScrollableResults<Conversation> results = entityManager.unwrap(Session.class)
+                .createSelectionQuery("FROM Conversation c ORDER BY c.id", Conversation.class)
+                .setFetchSize(fetchSize(dialect(), chunkSize))
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+
+            while (results.next()) {
+                chunk.add(results.get());
+                if (chunk.size() == chunkSize) {
+                    total += process(chunk, chunkHandler);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                total += process(chunk, chunkHandler);
+            }
+        }
+
+        log.info("📦 Recorridas {} conversaciones en lotes de {}", total, chunkSize);
+        return total;
+    }
+
+    /**
+     * Filas por viaje a la BD: en MySQL, Integer.MIN_VALUE activa el streaming
+     * fila a fila del driver (sin cursores del servidor).
+     */
+    static int fetchSize(Dialect dialect, int chunkSize) {
+        return dialect instanceof MySQLDialect ? Integer.MIN_VALUE : chunkSize;
+    }
+
+    private Dialect dialect() {
+        return entityManager.unwrap(SessionImplementor.class).getJdbcServices().getDialect();
+    }
+
+    private int process(List<Conversation> chunk, Consumer<List<Conversation>> chunkHandler) {
+        chunkHandler.accept(List.copyOf(chunk));
+        int size = chunk.size();
+        chunk.clear();
+        entityManager.clear();
+        return size;
+    }
+}
@@ -1,11 +1,18 @@
 package com.chatprivate.messaging.service;
 
+import com.chatprivate.collections.LongArrayList;
+import com.chatprivate.collections.LongObjectHashMap;
+import com.chatprivate.config.Workload;
+import com.chatprivate.config.WorkloadPool;
 import com.chatprivate.messaging.dto.*;
 import com.chatprivate.messaging.model.*;
 import com.chatprivate.messaging.repository.*;
+import com.chatprivate.monitoring.ChatMetrics;
 import com.chatprivate.security.PermissionService;
 import com.chatprivate.user.User;
+import com.chatprivate.user.UserDto;
 import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -15,11 +22,15 @@ import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.function.Function;
 
 /**
  * Servicio para la lógica de negocio de Conversaciones.
@@ -31,70 +42,82 @@ import java.util.function.Function;
  *
  * ACTUALIZADO AHORA:
  * - getUserConversations() ahora ordena los chats por el último mensaje.
+ *
+ * MODO "SENDER_KEY":
+ * - Las conversaciones pueden crearse con una clave de grupo por época de membresía.
+ * - Cada alta/baja de participante incrementa la época (hay que redistribuir la clave).
+ * - El historial resuelve la clave de esos mensajes desde conversation_epoch_keys.
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ConversationService {
 
+    // Orden del historial paginado: por secuencia (el orden real del chat), del
+    // más nuevo al más viejo. El ID desempata los mensajes anteriores a seq
+    // (seq NULL, que en orden descendente van al final). createdAt puede empatar.
+    private static final Sort HISTORY_ORDER = Sort.by("seq", "id").descending();
+
     // Repositorios
     private final ConversationRepository conversationRepository;
     private final ConversationParticipantRepository conversationParticipantRepository;
     private final UserRepository userRepository;
     private final MessageRepository messageRepository;
     private final MessageKeyRepository messageKeyRepository;
+    private final ConversationEpochKeyRepository epochKeyRepository;
+
+    // Versiones para ETag (GET /api/conversations y participantes)
+    private final ConversationVersionTracker versionTracker;
 
     // ¡NUEVO! Servicio de permisos
     private final PermissionService permissionService;
 
+    // Métricas (latencia de lectura del historial)
+    private final ChatMetrics chatMetrics;
+
+    // Últimos mensajes por conversación (lo llena MessageService tras cada commit)
+    private final RecentMessageBuffer recentMessages;
+
+    // Ciphertexts de esos mensajes fuera del heap (si está activa)
+    private final OffHeapCiphertextCache offHeapCiphertexts;
+
+    // Contador de secuencia de cada conversación (se crea junto con ella)
+    private final MessageSequenceAllocator sequenceAllocator;
+
     /**
      * Obtiene el historial completo de mensajes para una conversación.
-     * (Este método no tiene cambios)
+     * Mide la latencia en la métrica chat.history.read (type=full).
      */
     @Transactional(readOnly = true)
     public List<MessageHistoryDto> getMessageHistory(Long conversationId, Long userId) {
+        Timer.Sample sample = chatMetrics.start();
+        try {
+            return loadMessageHistory(conversationId, userId);
+        } finally {
+            chatMetrics.recordHistoryRead(sample, "full");
+        }
+    }
+
+    private List<MessageHistoryDto> loadMessageHistory(Long conversationId, Long userId) {
         log.info("📚 Usuario {} solicitando historial de conversación {}", userId, conversationId);
 
         // 🔒 VALIDACIÓN DE SEGURIDAD
         permissionService.validateCanReadMessages(userId, conversationId);
         log.debug("✅ Usuario {} autorizado para leer conversación {}", userId, conversationId);
 
-        List<Message> messages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId);
+        List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId);
         if (messages.isEmpty()) {
             log.debug("📭 No hay mensajes en conversación {}", conversationId);
             return Collections.emptyList();
         }
 
-        List<Long> messageIds = messages.stream()
-                .map(Message::getId)
-                .collect(Collectors.toList());
-
-        List<MessageKey> userKeys = messageKeyRepository
-                .findByMessage_IdInAndRecipientId(messageIds, userId);
+        // Claves del usuario por ID de mensaje (mapa primitivo, sin un Long por mensaje)
+        LongObjectHashMap<String> keyMap = loadMessageKeys(messages, userId);
 
-        Map<Long, String> keyMap = userKeys.stream()
-                .collect(Collectors.toMap(
-                        mk -> mk.getMessage().getId(),
-                        MessageKey::getEncryptedKey
-                ));
+        // Claves de grupo (modo sender_key): una sola query, y solo si hace falta
+        Map<Integer, String> epochKeyMap = loadEpochKeys(conversationId, userId, messages);
 
-        List<MessageHistoryDto> history = messages.stream()
-                .map(msg -> {
-                    String encryptedKey = keyMap.get(msg.getId());
-                    if (encryptedKey == null) {
-                        log.debug("⚠️ Usuario {} no tiene clave para mensaje {}", userId, msg.getId());
-                        return null;
-                    }
-                    return new MessageHistoryDto(
-                            msg.getId(),
-                            msg.getSenderId(),
-                            msg.getCiphertext(),
-                            encryptedKey,
-                            msg.getCreatedAt()
-                    );
-                })
-                .filter(dto -> dto != null)
-                .collect(Collectors.toList());
+        List<MessageHistoryDto> history = toHistoryDtos(messages, keyMap, epochKeyMap, userId);
 
         log.info("✅ Devueltos {} mensajes para usuario {} en conversación {}",
                 history.size(), userId, conversationId);
@@ -105,10 +128,77 @@ public class ConversationService {
 
     /**
      * Obtiene el historial paginado de mensajes para una conversación.
-     * (Este método no tiene cambios)
+     * Mide la latencia en la métrica chat.history.read (type=paged, o
+     * type=recent si la página salió de RecentMessageBuffer).
+     *
+     * OPTIMIZACIÓN:
+     * La primera página de un chat activo sale del buffer en memoria: sin
+     * leer mensajes, claves ni hacer el COUNT. El permiso se valida igual.
      */
     @Transactional(readOnly = true)
     public Page<MessageHistoryDto> getMessageHistoryPaged(Long conversationId, Long userId, int page, int size) {
+        Timer.Sample sample = chatMetrics.start();
+        Optional<RecentMessageBuffer.Window> recent = page == 0
+                ? recentMessages.newest(conversationId, size)
+                : Optional.empty();
+        try {
+            if (recent.isPresent()) {
+                return recentHistoryPage(conversationId, userId, size, recent.get());
+            }
+            return loadMessageHistoryPaged(conversationId, userId, page, size);
+        } finally {
+            chatMetrics.recordHistoryRead(sample, recent.isPresent() ? "recent" : "paged");
+        }
+    }
+
+    private Page<MessageHistoryDto> recentHistoryPage(Long conversationId, Long userId, int size,
+                                                      RecentMessageBuffer.Window window) {
+        // 🔒 VALIDACIÓN DE SEGURIDAD (igual que desde la BD)
+        permissionService.validateCanReadMessages(userId, conversationId);
+
+        // Claves de grupo (modo sender_key): la única query, y solo si hace falta
+        boolean needsEpochKeys = window.getEntries().stream().anyMatch(entry -> entry.getKeyEpoch() != null);
+        Map<Integer, String> epochKeyMap = needsEpochKeys
+                ? findEpochKeys(conversationId, userId)
+                : Collections.emptyMap();
+
+        List<RecentMessageBuffer.Entry> visible = new ArrayList<>(window.getEntries().size());
+        List<String> encryptedKeys = new ArrayList<>(window.getEntries().size());
+        for (RecentMessageBuffer.Entry entry : window.getEntries()) {
+            String encryptedKey = entry.getKeyEpoch() != null
+                    ? epochKeyMap.get(entry.getKeyEpoch())
+                    : entry.keyFor(userId);
+            if (encryptedKey == null) {
+                continue; // Igual que desde la BD: sin clave, el usuario no ve el mensaje
+            }
+            visible.add(entry);
+            encryptedKeys.add(encryptedKey);
+        }
+
+        LongObjectHashMap<String> ciphertexts = resolveCiphertexts(visible);
+
+        List<MessageHistoryDto> dtos = new ArrayList<>(visible.size());
+        for (int i = 0; i < visible.size(); i++) {
+            RecentMessageBuffer.Entry entry = visible.get(i);
+            dtos.add(new MessageHistoryDto(
+                    entry.getMessageId(),
+                    entry.getSenderId(),
+                    ciphertexts.get(entry.getMessageId()),
+                    encryptedKeys.get(i),
+                    entry.getCreatedAt(),
+                    entry.getKeyEpoch(),
+                    entry.getSeq()
+            ));
+        }
+
+        log.debug("⚡ Primera página de la conversación {} servida desde memoria ({} mensajes)",
+                conversationId, dtos.size());
+
+        Pageable pageable = PageRequest.of(0, size, HISTORY_ORDER);
+        return new org.springframework.data.domain.PageImpl<>(dtos, pageable, window.getTotal());
+    }
+
+    private Page<MessageHistoryDto> loadMessageHistoryPaged(Long conversationId, Long userId, int page, int size) {
         log.info("📚 Usuario {} solicitando historial PAGINADO de conv {} (página: {}, tamaño: {})",
                 userId, conversationId, page, size);
 
@@ -116,7 +206,7 @@ public class ConversationService {
         permissionService.validateCanReadMessages(userId, conversationId);
         log.debug("✅ Usuario {} autorizado para leer conversación {}", userId, conversationId);
 
-        Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
+        Pageable pageable = PageRequest.of(page, size, HISTORY_ORDER);
 
         Page<Message> messagePage = messageRepository.findByConversationId(conversationId, pageable);
 
@@ -125,38 +215,82 @@ public class ConversationService {
             return Page.empty(pageable);
         }
 
-        List<Long> messageIds = messagePage.getContent().stream()
-                .map(Message::getId)
-                .collect(Collectors.toList());
+        LongObjectHashMap<String> keyMap = loadMessageKeys(messagePage.getContent(), userId);
+        Map<Integer, String> epochKeyMap = loadEpochKeys(conversationId, userId, messagePage.getContent());
 
-        List<MessageKey> userKeys = messageKeyRepository
-                .findByMessage_IdInAndRecipientId(messageIds, userId);
+        List<MessageHistoryDto> dtos = toHistoryDtos(messagePage.getContent(), keyMap, epochKeyMap, userId);
 
-        Map<Long, String> keyMap = userKeys.stream()
-                .collect(Collectors.toMap(
-                        mk -> mk.getMessage().getId(),
-                        MessageKey::getEncryptedKey
-                ));
+        return new org.springframework.data.domain.PageImpl<>(dtos, pageable, messagePage.getTotalElements());
+    }
 
-        List<MessageHistoryDto> dtos = messagePage.getContent().stream()
-                .map(msg -> {
-                    String encryptedKey = keyMap.get(msg.getId());
-                    if (encryptedKey == null) {
-                        log.debug("⚠️ Usuario {} no tiene clave para mensaje {}", userId, msg.getId());
-                        return null;
-                    }
-                    return new MessageHistoryDto(
-                            msg.getId(),
-                            msg.getSenderId(),
-                            msg.getCiphertext(),
-                            encryptedKey,
-                            msg.getCreatedAt()
-                    );
-                })
-                .filter(dto -> dto != null)
-                .collect(Collectors.toList());
+    /**
+     * Mensajes posteriores a una secuencia, del más viejo al más nuevo.
+     * Mide la latencia en la métrica chat.history.read (type=sync).
+     *
+     * Es el cursor exacto para un cliente que reconecta o detectó un hueco:
+     * pide lo que va después del último seq que tiene, sin saltarse ni
+     * repetir mensajes aunque compartan createdAt.
+     *
+     * Los mensajes anteriores a la columna seq no salen aquí (usar el historial).
+     *
+     * OJO: igual que el historial, NO devuelve los mensajes sin clave para el
+     * usuario (p. ej. los de antes de unirse al grupo). Sus seq faltan en la
+     * respuesta pero no son un hueco: el cliente avanza su cursor hasta el seq
+     * del último devuelto y no vuelve a pedirlos.
+     */
+    @Transactional(readOnly = true)
+    public List<MessageHistoryDto> getMessagesAfterSeq(Long conversationId, Long userId, long afterSeq, int limit) {
+        Timer.Sample sample = chatMetrics.start();
+        try {
+            permissionService.validateCanReadMessages(userId, conversationId);
+
+            List<Message> messages = messageRepository.findAfterSeq(conversationId, afterSeq, PageRequest.of(0, limit));
+            if (messages.isEmpty()) {
+                return Collections.emptyList();
+            }
 
-        return new org.springframework.data.domain.PageImpl<>(dtos, pageable, messagePage.getTotalElements());
+            LongObjectHashMap<String> keyMap = loadMessageKeys(messages, userId);
+            Map<Integer, String> epochKeyMap = loadEpochKeys(conversationId, userId, messages);
+
+            List<MessageHistoryDto> dtos = toHistoryDtos(messages, keyMap, epochKeyMap, userId);
+            log.debug("🔄 Usuario {} sincronizado en conversación {}: {} mensajes después de seq {}",
+                    userId, conversationId, dtos.size(), afterSeq);
+            return dtos;
+        } finally {
+            chatMetrics.recordHistoryRead(sample, "sync");
+        }
+    }
+
+    /**
+     * Mensajes anteriores a una secuencia, del más nuevo al más viejo.
+     * Mide la latencia en la métrica chat.history.read (type=before).
+     *
+     * Es la paginación hacia atrás por cursor: el cliente pasa el seq del
+     * mensaje más viejo que tiene. A diferencia de getMessageHistoryPaged
+     * (OFFSET), no se salta ni repite mensajes si llegan otros nuevos entre
+     * página y página, y no se vuelve más lenta al ir hacia atrás.
+     *
+     * Como en la sincronización: los mensajes sin clave para el usuario no se
+     * devuelven, y los anteriores a la columna seq no salen (usar el historial).
+     */
+    @Transactional(readOnly = true)
+    public List<MessageHistoryDto> getMessagesBeforeSeq(Long conversationId, Long userId, long beforeSeq, int limit) {
+        Timer.Sample sample = chatMetrics.start();
+        try {
+            permissionService.validateCanReadMessages(userId, conversationId);
+
+            List<Message> messages = messageRepository.findBeforeSeq(conversationId, beforeSeq, PageRequest.of(0, limit));
+            if (messages.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            LongObjectHashMap<String> keyMap = loadMessageKeys(messages, userId);
+            Map<Integer, String> epochKeyMap = loadEpochKeys(conversationId, userId, messages);
+
+            return toHistoryDtos(messages, keyMap, epochKeyMap, userId);
+        } finally {
+            chatMetrics.recordHistoryRead(sample, "before");
+        }
     }
 
     /**
@@ -164,8 +298,14 @@ public class ConversationService {
      *
      * --- ¡¡¡MÉTODO MODIFICADO!!! ---
      * Ahora ordena la lista de conversaciones.
+     *
+     * Lee SIEMPRE de la primaria (pool READ), aunque la réplica esté al día:
+     * el controlador envía esta respuesta con el ETag de la versión actual, y
+     * el cliente la guarda con él. Si saliera de una réplica con retraso, el
+     * cliente se quedaría con la lista vieja (los siguientes polls dan 304).
      */
     @Transactional(readOnly = true)
+    @WorkloadPool(Workload.READ)
     public List<ConversationResponse> getUserConversations(Long userId) {
         log.info("📂 Usuario {} solicitando lista de conversaciones", userId);
 
@@ -178,60 +318,46 @@ public class ConversationService {
             return Collections.emptyList();
         }
 
-        List<Long> conversationIds = conversations.stream()
-                .map(Conversation::getId)
-                .collect(Collectors.toList());
+        // IDs y mapas por ID sobre longs (collections): sin un Long ni un nodo por chat
+        LongArrayList conversationIds = new LongArrayList(conversations.size());
+        for (Conversation conv : conversations) {
+            conversationIds.add(conv.getId());
+        }
 
         // 2. Busco TODOS los participantes de TODAS las conversaciones en UNA query
         List<ConversationParticipant> allParticipants = conversationParticipantRepository
-                .findByConversation_IdIn(conversationIds);
+                .findByConversation_IdIn(conversationIds.asList());
 
-        // 3. Busco los datos de User de TODOS los participantes en UNA query
-        List<Long> allUserIds = allParticipants.stream()
-                .map(ConversationParticipant::getUserId)
-                .distinct()
-                .collect(Collectors.toList());
+        // 3. Busco los usernames de TODOS los participantes en UNA query
+        // (proyección: sin cargar entidades User ni sus columnas de claves)
+        LongArrayList allUserIds = new LongArrayList(allParticipants.size());
+        for (ConversationParticipant p : allParticipants) {
+            allUserIds.add(p.getUserId());
+        }
 
-        Map<Long, User> userMap = userRepository.findAllById(allUserIds).stream()
-                .collect(Collectors.toMap(User::getId, Function.identity()));
+        LongObjectHashMap<String> usernames = loadUsernames(allUserIds.sortDistinct());
 
         // 4. Agrupo los participantes por conversación (en memoria, sin queries)
-        Map<Long, List<ParticipantDto>> participantsByConvId = allParticipants.stream()
-                .collect(Collectors.groupingBy(
-                        p -> p.getConversation().getId(),
-                        Collectors.mapping(p -> toParticipantDto(p, userMap), Collectors.toList())
-                ));
+        LongObjectHashMap<List<ParticipantDto>> participantsByConvId = new LongObjectHashMap<>(conversations.size());
+        for (ConversationParticipant p : allParticipants) {
+            long convId = p.getConversation().getId();
+            List<ParticipantDto> participants = participantsByConvId.get(convId);
+            if (participants == null) {
+                participants = new ArrayList<>();
+                participantsByConvId.put(convId, participants);
+            }
+            participants.add(toParticipantDto(p, usernames));
+        }
+
+        // 5. Último mensaje (con la clave del usuario) de TODAS las conversaciones:
+        // una query para los mensajes y otra para las claves, no dos por chat
+        LongObjectHashMap<LastMessageDto> lastMessages = loadLastMessages(conversationIds, userId);
 
-        // 5. Mapeo las conversaciones a DTOs
+        // 6. Mapeo las conversaciones a DTOs
         List<ConversationResponse> response = conversations.stream()
-                .map(conv -> {
-                    List<ParticipantDto> participants = participantsByConvId
-                            .getOrDefault(conv.getId(), Collections.emptyList());
-
-                    // 6. Obtengo el último mensaje
-                    LastMessageDto lastMessageDto = messageRepository
-                            .findTopByConversationIdOrderByCreatedAtDesc(conv.getId())
-                            .map(msg -> {
-                                String encryptedKey = messageKeyRepository
-                                        .findByMessage_IdAndRecipientId(msg.getId(), userId)
-                                        .map(MessageKey::getEncryptedKey)
-                                        .orElse(null);
-
-                                if (encryptedKey == null) {
-                                    log.debug("⚠️ No hay clave para el último mensaje de conv {} y usuario {}",
-                                            conv.getId(), userId);
-                                }
-
-                                return new LastMessageDto(
-                                        msg.getCiphertext(),
-                                        msg.getCreatedAt(),
-                                        encryptedKey
-                                );
-                            })
-                            .orElse(null);
-
-                    return toResponse(conv, participants, lastMessageDto);
-                })
+                .map(conv -> toResponse(conv,
+                        participantsByConvId.getOrDefault(conv.getId(), Collections.emptyList()),
+                        lastMessages.get(conv.getId())))
                 // --- ¡¡¡INICIO DEL CAMBIO!!! ---
                 // 7. Ordenar la lista de DTOs
                 .sorted((c1, c2) -> {
@@ -259,24 +385,25 @@ public class ConversationService {
 
     /**
      * Crea una nueva conversación.
-     * (Este método no tiene cambios)
+     *
+     * Los chats 1-a-1 no se duplican: si ya existe uno entre la pareja lo
+     * devuelvo (clave direct_user_low/direct_user_high, índice uk_direct_pair).
      */
     @Transactional
     public ConversationResponse createConversation(CreateConversationRequest req, Long creatorId) {
         log.info("➕ Usuario {} creando nueva conversación tipo: {}", creatorId, req.getType());
 
         // --- INICIO LÓGICA MEJORADA: Buscar chat 1-a-1 existente ---
-        // Si es "direct" y solo hay un participante, buscamos si ya existe
-        if ("direct".equalsIgnoreCase(req.getType()) && req.getParticipantIds() != null && req.getParticipantIds().size() == 1) {
-            Long otherUserId = req.getParticipantIds().get(0);
-            if (!otherUserId.equals(creatorId)) { // Asegurarnos de que no es un chat consigo mismo
-                List<Conversation> existing = conversationRepository
-                        .findDirectConversationBetweenUsers(creatorId, otherUserId);
-
-                if (!existing.isEmpty()) {
-                    log.info("↪️ Encontrada conversación 1-a-1 existente (ID: {}). Devolviendo...", existing.get(0).getId());
-                    return getConversationResponseById(existing.get(0).getId());
-                }
+        // Si es "direct" con un solo participante (que no es el creador), buscamos
+        // si ya existe por la clave de la pareja (una búsqueda en uk_direct_pair)
+        Long directPeerId = directPeer(req, creatorId);
+        if (directPeerId != null) {
+            Optional<Conversation> existing = conversationRepository
+                    .findDirectConversationBetweenUsers(creatorId, directPeerId);
+
+            if (existing.isPresent()) {
+                log.info("↪️ Encontrada conversación 1-a-1 existente (ID: {}). Devolviendo...", existing.get().getId());
+                return getConversationResponseById(existing.get().getId());
             }
         }
         // --- FIN LÓGICA MEJORADA ---
@@ -284,6 +411,17 @@ public class ConversationService {
         Conversation conv = new Conversation();
         conv.setType(req.getType() == null ? "direct" : req.getType());
 
+        // Modo de claves: "pairwise" por defecto. En "sender_key" la primera
+        // época (1) corresponde a los miembros iniciales.
+        String keyMode = req.getKeyMode() == null || req.getKeyMode().isEmpty()
+                ? Conversation.KEY_MODE_PAIRWISE
+                : req.getKeyMode().toLowerCase();
+        if (!Conversation.KEY_MODE_PAIRWISE.equals(keyMode) && !Conversation.KEY_MODE_SENDER_KEY.equals(keyMode)) {
+            throw new IllegalArgumentException("Modo de claves no soportado: " + req.getKeyMode());
+        }
+        conv.setKeyMode(keyMode);
+        conv.setKeyEpoch(Conversation.KEY_MODE_SENDER_KEY.equals(keyMode) ? 1 : 0);
+
         if ("direct".equalsIgnoreCase(conv.getType()) &&
                 (req.getTitle() == null || req.getTitle().isEmpty())) {
             if (req.getParticipantIds() != null && req.getParticipantIds().size() == 1) {
@@ -293,7 +431,15 @@ public class ConversationService {
             conv.setTitle(req.getTitle());
         }
 
+        // Chat 1-a-1 con otro usuario que existe: guardo la clave de la pareja.
+        // Si otra petición creó el mismo chat a la vez, el índice único
+        // uk_direct_pair rechaza este INSERT (DataIntegrityViolationException).
+        if (directPeerId != null) {
+            conv.setDirectPair(creatorId, directPeerId);
+        }
+
         final Conversation savedConv = conversationRepository.save(conv);
+        sequenceAllocator.create(savedConv.getId());
         log.debug("💾 Conversación {} creada", savedConv.getId());
 
         ConversationParticipant owner = new ConversationParticipant();
@@ -302,6 +448,9 @@ public class ConversationService {
         owner.setRole("owner");
         conversationParticipantRepository.save(owner);
 
+        List<Long> memberIds = new ArrayList<>();
+        memberIds.add(creatorId);
+
         if (req.getParticipantIds() != null && !req.getParticipantIds().isEmpty()) {
             List<Long> participantIdsToAdd = req.getParticipantIds().stream()
                     .filter(id -> id != null && !id.equals(creatorId))
@@ -323,6 +472,8 @@ public class ConversationService {
                     })
                     .collect(Collectors.toList());
 
+            memberIds.addAll(existingUserIds);
+
             if (!newParticipants.isEmpty()) {
                 conversationParticipantRepository.saveAll(newParticipants);
                 log.debug("👥 Añadidos {} participantes a conversación {}",
@@ -330,10 +481,29 @@ public class ConversationService {
             }
         }
 
+        // El chat nuevo aparece en la lista de todos sus miembros
+        versionTracker.userListsChanged(memberIds);
+
         log.info("✅ Conversación {} creada exitosamente", savedConv.getId());
         return getConversationResponseById(savedConv.getId());
     }
 
+    /**
+     * Si la petición es un chat "direct" con un único usuario distinto del
+     * creador, y ese usuario existe, devuelve su ID. Si no, null.
+     */
+    private Long directPeer(CreateConversationRequest req, Long creatorId) {
+        if (!"direct".equalsIgnoreCase(req.getType())
+                || req.getParticipantIds() == null || req.getParticipantIds().size() != 1) {
+            return null;
+        }
+        Long otherUserId = req.getParticipantIds().get(0);
+        if (otherUserId == null || otherUserId.equals(creatorId) || !userRepository.existsById(otherUserId)) {
+            return null;
+        }
+        return otherUserId;
+    }
+
     /**
      * Añade un participante a una conversación.
      * (Este método no tiene cambios)
@@ -365,6 +535,16 @@ public class ConversationService {
         p.setRole(req.getRole() == null || req.getRole().isEmpty() ? "member" : req.getRole());
         conversationParticipantRepository.save(p);
 
+        List<Long> memberIds = conversationParticipantRepository.findUserIdsByConversationId(conversationId);
+        syncDirectPair(conv, memberIds);
+
+        // En modo sender_key el nuevo miembro abre una época nueva
+        if (conv.isSenderKeyMode()) {
+            advanceKeyEpoch(conversationId);
+        }
+
+        versionTracker.membershipChanged(conversationId, memberIds);
+
         log.info("✅ Participante {} añadido a conversación {}", userId, conversationId);
     }
 
@@ -385,15 +565,136 @@ public class ConversationService {
                         "El participante no se encuentra en esta conversación"
                 ));
 
+        Conversation conv = participant.getConversation();
         conversationParticipantRepository.delete(participant);
+
+        List<Long> memberIds = conversationParticipantRepository.findUserIdsByConversationId(conversationId);
+        syncDirectPair(conv, memberIds);
+
+        // En modo sender_key el miembro eliminado no debe poder leer lo siguiente
+        if (conv.isSenderKeyMode()) {
+            advanceKeyEpoch(conversationId);
+        }
+
+        // Afecta a los que quedan y al que se fue (el chat desaparece de su lista)
+        List<Long> affectedUserIds = new ArrayList<>(memberIds);
+        affectedUserIds.add(userIdToRemove);
+        versionTracker.membershipChanged(conversationId, affectedUserIds);
+
         log.info("✅ Participante {} eliminado de conversación {}", userIdToRemove, conversationId);
     }
 
+    /**
+     * Ajusta la clave de pareja tras un alta o una baja.
+     *
+     * - Un chat "direct" que se queda con exactamente dos miembros ES el chat
+     *   1-a-1 de esa pareja: recupera (o cambia a) su clave
+     * - Con uno o con tres o más, deja de serlo y la pierde
+     *
+     * Si la pareja ya tiene OTRO chat 1-a-1 (se creó mientras este tenía un
+     * tercero), ese se queda la clave: uk_direct_pair no admite dos, y
+     * createConversation seguirá devolviendo el mismo chat.
+     */
+    private void syncDirectPair(Conversation conv, List<Long> memberIds) {
+        if (!"direct".equalsIgnoreCase(conv.getType()) || memberIds.size() != 2) {
+            conv.clearDirectPair();
+            return;
+        }
+
+        Long low = Math.min(memberIds.get(0), memberIds.get(1));
+        Long high = Math.max(memberIds.get(0), memberIds.get(1));
+        if (low.equals(conv.getDirectUserLow()) && high.equals(conv.getDirectUserHigh())) {
+            return;
+        }
+
+        Optional<Conversation> owner = conversationRepository.findDirectConversationBetweenUsers(low, high);
+        if (owner.isPresent() && !owner.get().getId().equals(conv.getId())) {
+            log.info("↪️ La pareja ({}, {}) ya tiene el chat 1-a-1 {}: la conversación {} se queda sin clave",
+                    low, high, owner.get().getId(), conv.getId());
+            conv.clearDirectPair();
+            return;
+        }
+        conv.setDirectPair(low, high);
+    }
+
+    /**
+     * Distribuye la clave de grupo de la época actual (modo "sender_key").
+     *
+     * REGLAS:
+     * - Solo un participante puede distribuirla
+     * - La época debe ser la ACTUAL (no se distribuyen épocas viejas)
+     * - Solo se distribuye una vez por época (el primero gana)
+     * - Debe incluir una clave para CADA participante actual, y solo para ellos
+     */
+    @Transactional
+    public void distributeEpochKeys(Long conversationId, Long distributorId, EpochKeyDistributionRequest req) {
+        log.info("🔑 Usuario {} distribuyendo clave de grupo (época {}) en conversación {}",
+                distributorId, req.getEpoch(), conversationId);
+
+        permissionService.validateIsParticipant(distributorId, conversationId);
+
+        Conversation conv = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new IllegalArgumentException("Conversación no encontrada"));
+
+        if (!conv.isSenderKeyMode()) {
+            throw new IllegalArgumentException("La conversación no usa el modo de clave de grupo (sender_key)");
+        }
+        if (req.getEpoch() != conv.getKeyEpoch()) {
+            throw new IllegalArgumentException(
+                    "Época obsoleta: la época actual es " + conv.getKeyEpoch());
+        }
+        if (epochKeyRepository.existsByConversationIdAndEpoch(conversationId, conv.getKeyEpoch())) {
+            throw new IllegalArgumentException("La clave de esta época ya fue distribuida");
+        }
+
+        Set<Long> participantIds = new HashSet<>(
+                conversationParticipantRepository.findUserIdsByConversationId(conversationId));
+
+        Map<Long, String> keysByRecipient = req.getEncryptedKeys().entrySet().stream()
+                .collect(Collectors.toMap(
+                        entry -> Long.parseLong(entry.getKey()),
+                        Map.Entry::getValue
+                ));
+
+        if (!keysByRecipient.keySet().equals(participantIds)) {
+            throw new IllegalArgumentException(
+                    "Las claves deben cubrir exactamente a los participantes actuales de la conversación");
+        }
+
+        List<ConversationEpochKey> rows = keysByRecipient.entrySet().stream()
+                .map(entry -> {
+                    ConversationEpochKey key = new ConversationEpochKey();
+                    key.setConversationId(conversationId);
+                    key.setEpoch(conv.getKeyEpoch());
+                    key.setRecipientId(entry.getKey());
+                    key.setEncryptedKey(entry.getValue());
+                    key.setDistributorId(distributorId);
+                    return key;
+                })
+                .collect(Collectors.toList());
+
+        epochKeyRepository.saveAll(rows);
+        log.info("✅ Clave de grupo de la época {} distribuida a {} participantes", conv.getKeyEpoch(), rows.size());
+    }
+
+    /**
+     * Devuelve las claves de grupo (todas las épocas) cifradas para un usuario.
+     */
+    @Transactional(readOnly = true)
+    public List<EpochKeyDto> getEpochKeys(Long conversationId, Long userId) {
+        permissionService.validateCanReadMessages(userId, conversationId);
+
+        return epochKeyRepository.findByConversationIdAndRecipientId(conversationId, userId).stream()
+                .map(k -> new EpochKeyDto(k.getEpoch(), k.getEncryptedKey(), k.getDistributorId()))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Obtiene la lista de participantes de una conversación.
-     * (Este método no tiene cambios)
+     * De la primaria, como getUserConversations: también va con ETag.
      */
     @Transactional(readOnly = true)
+    @WorkloadPool(Workload.READ)
     public List<ParticipantDto> getParticipants(Long conversationId) {
         List<ConversationParticipant> participants = conversationParticipantRepository
                 .findByConversation_Id(conversationId);
@@ -402,15 +703,15 @@ public class ConversationService {
             return Collections.emptyList();
         }
 
-        List<Long> userIds = participants.stream()
-                .map(ConversationParticipant::getUserId)
-                .collect(Collectors.toList());
+        LongArrayList userIds = new LongArrayList(participants.size());
+        for (ConversationParticipant p : participants) {
+            userIds.add(p.getUserId());
+        }
 
-        Map<Long, User> userMap = userRepository.findAllById(userIds).stream()
-                .collect(Collectors.toMap(User::getId, Function.identity()));
+        LongObjectHashMap<String> usernames = loadUsernames(userIds);
 
         return participants.stream()
-                .map(p -> toParticipantDto(p, userMap))
+                .map(p -> toParticipantDto(p, usernames))
                 .collect(Collectors.toList());
     }
 
@@ -425,9 +726,173 @@ public class ConversationService {
         r.setCreatedAt(conv.getCreatedAt());
         r.setParticipants(participants);
         r.setLastMessage(lastMessage);
+        r.setKeyMode(conv.getKeyMode());
+        r.setKeyEpoch(conv.getKeyEpoch());
         return r;
     }
 
+    private void advanceKeyEpoch(Long conversationId) {
+        conversationRepository.incrementKeyEpoch(conversationId);
+        log.info("🔄 Nueva época de clave de grupo en conversación {}", conversationId);
+    }
+
+    /**
+     * Carga las claves de grupo del usuario (por época) solo si algún mensaje las necesita.
+     */
+    private Map<Integer, String> loadEpochKeys(Long conversationId, Long userId, List<Message> messages) {
+        boolean needsEpochKeys = messages.stream().anyMatch(msg -> msg.getKeyEpoch() != null);
+        if (!needsEpochKeys) {
+            return Collections.emptyMap();
+        }
+        return findEpochKeys(conversationId, userId);
+    }
+
+    /**
+     * Ciphertext de cada entrada: el que lleva la entrada, si no el de la caché
+     * fuera del heap, y los que falten (slab reciclado) en UNA query a la BD.
+     */
+    private LongObjectHashMap<String> resolveCiphertexts(List<RecentMessageBuffer.Entry> entries) {
+        LongObjectHashMap<String> ciphertexts = new LongObjectHashMap<>(entries.size());
+        LongArrayList missing = new LongArrayList(0);
+        for (RecentMessageBuffer.Entry entry : entries) {
+            String ciphertext = entry.getCiphertext() != null
+                    ? entry.getCiphertext()
+                    : offHeapCiphertexts.get(entry.getMessageId());
+            if (ciphertext != null) {
+                ciphertexts.put(entry.getMessageId(), ciphertext);
+            } else {
+                missing.add(entry.getMessageId());
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (MessageCiphertextView view : messageRepository.findCiphertexts(missing.asList())) {
+                ciphertexts.put(view.getMessageId(), view.getCiphertext());
+                offHeapCiphertexts.put(view.getMessageId(), view.getCiphertext());
+            }
+            log.debug("🧊 {} ciphertexts recuperados de la BD (ya no estaban fuera del heap)", missing.size());
+        }
+        return ciphertexts;
+    }
+
+    private Map<Integer, String> findEpochKeys(Long conversationId, Long userId) {
+        return epochKeyRepository.findByConversationIdAndRecipientId(conversationId, userId).stream()
+                .collect(Collectors.toMap(ConversationEpochKey::getEpoch, ConversationEpochKey::getEncryptedKey));
+    }
+
+    /**
+     * messageId -> clave cifrada del usuario (message_keys) en una query.
+     */
+    private LongObjectHashMap<String> loadMessageKeys(List<Message> messages, Long userId) {
+        LongArrayList messageIds = new LongArrayList(messages.size());
+        for (Message msg : messages) {
+            messageIds.add(msg.getId());
+        }
+
+        List<MessageKeyView> views = messageKeyRepository.findKeyViews(messageIds.asList(), userId);
+        LongObjectHashMap<String> keyMap = new LongObjectHashMap<>(views.size());
+        for (MessageKeyView view : views) {
+            keyMap.put(view.getMessageId(), view.getEncryptedKey());
+        }
+        return keyMap;
+    }
+
+    /**
+     * DTOs del historial, en el orden de los mensajes. Los mensajes sin clave
+     * para el usuario no se devuelven.
+     */
+    private List<MessageHistoryDto> toHistoryDtos(List<Message> messages, LongObjectHashMap<String> keyMap,
+                                                  Map<Integer, String> epochKeyMap, Long userId) {
+        List<MessageHistoryDto> dtos = new ArrayList<>(messages.size());
+        for (Message msg : messages) {
+            String encryptedKey = resolveKey(msg, keyMap, epochKeyMap);
+            if (encryptedKey == null) {
+                log.debug("⚠️ Usuario {} no tiene clave para mensaje {}", userId, msg.getId());
+                continue;
+            }
+            dtos.add(new MessageHistoryDto(
+                    msg.getId(),
+                    msg.getSenderId(),
+                    msg.getCiphertext(),
+                    encryptedKey,
+                    msg.getCreatedAt(),
+                    msg.getKeyEpoch(),
+                    msg.getSeq()
+            ));
+        }
+        return dtos;
+    }
+
+    /**
+     * Clave con la que el usuario descifra un mensaje: la de message_keys (pairwise)
+     * o la clave de grupo de su época (sender_key).
+     */
+    private String resolveKey(Message msg, LongObjectHashMap<String> keyMap, Map<Integer, String> epochKeyMap) {
+        if (msg.getKeyEpoch() != null) {
+            return epochKeyMap.get(msg.getKeyEpoch());
+        }
+        return keyMap.get(msg.getId());
+    }
+
+    /**
+     * Último mensaje de cada conversación con la clave cifrada para el usuario.
+     * Siempre 2-3 queries, tenga el usuario los chats que tenga.
+     */
+    private LongObjectHashMap<LastMessageDto> loadLastMessages(LongArrayList conversationIds, Long userId) {
+        LongObjectHashMap<Message> lastByConv = new LongObjectHashMap<>(conversationIds.size());
+        for (Message msg : messageRepository.findLastMessages(conversationIds.asList())) {
+            // Empate en createdAt: gana el de mayor ID (el último insertado)
+            Message current = lastByConv.get(msg.getConversation().getId());
+            if (current == null || msg.getId() > current.getId()) {
+                lastByConv.put(msg.getConversation().getId(), msg);
+            }
+        }
+        LongObjectHashMap<LastMessageDto> result = new LongObjectHashMap<>(lastByConv.size());
+        if (lastByConv.isEmpty()) {
+            return result;
+        }
+
+        // Claves "pairwise" de todos los últimos mensajes en una query
+        LongArrayList pairwiseIds = new LongArrayList(lastByConv.size());
+        lastByConv.forEach((conversationId, msg) -> {
+            if (msg.getKeyEpoch() == null) {
+                pairwiseIds.add(msg.getId());
+            }
+        });
+        LongObjectHashMap<String> pairwiseKeys = new LongObjectHashMap<>(pairwiseIds.size());
+        if (!pairwiseIds.isEmpty()) {
+            for (MessageKeyView view : messageKeyRepository.findKeyViews(pairwiseIds.asList(), userId)) {
+                pairwiseKeys.put(view.getMessageId(), view.getEncryptedKey());
+            }
+        }
+
+        // Claves de grupo (sender_key), solo si algún último mensaje las usa
+        LongObjectHashMap<Map<Integer, String>> epochKeys = new LongObjectHashMap<>(0);
+        if (pairwiseIds.size() < lastByConv.size()) {
+            for (ConversationEpochKey key : epochKeyRepository.findByConversationIdInAndRecipientId(conversationIds.asList(), userId)) {
+                Map<Integer, String> byEpoch = epochKeys.get(key.getConversationId());
+                if (byEpoch == null) {
+                    byEpoch = new HashMap<>();
+                    epochKeys.put(key.getConversationId(), byEpoch);
+                }
+                byEpoch.put(key.getEpoch(), key.getEncryptedKey());
+            }
+        }
+
+        lastByConv.forEach((conversationId, msg) -> {
+            String encryptedKey = msg.getKeyEpoch() != null
+                    ? epochKeys.getOrDefault(conversationId, Collections.emptyMap()).get(msg.getKeyEpoch())
+                    : pairwiseKeys.get(msg.getId());
+
+            if (encryptedKey == null) {
+                log.debug("⚠️ No hay clave para el último mensaje de conv {} y usuario {}",
+                        conversationId, userId);
+            }
+            result.put(conversationId, new LastMessageDto(msg.getCiphertext(), msg.getCreatedAt(), encryptedKey));
+        });
+        return result;
+    }
+
     private ConversationResponse getConversationResponseById(Long conversationId) {
         Conversation conv = conversationRepository.findById(conversationId)
                 .orElseThrow(() -> new IllegalArgumentException(
@@ -447,19 +912,24 @@ public class ConversationService {
         return toResponse(conv, participants, lastMessageDto);
     }
 
-    private ParticipantDto toParticipantDto(ConversationParticipant p, Map<Long, User> userMap) {
+    private ParticipantDto toParticipantDto(ConversationParticipant p, LongObjectHashMap<String> usernames) {
         ParticipantDto dto = new ParticipantDto();
         dto.setUserId(p.getUserId());
         dto.setRole(p.getRole());
         dto.setJoinedAt(p.getJoinedAt());
+        dto.setUsername(usernames.getOrDefault(p.getUserId(), "Usuario Desconocido"));
+        return dto;
+    }
 
-        User user = userMap.get(p.getUserId());
-        if (user != null) {
-            dto.setUsername(user.getUsername());
-        } else {
-            dto.setUsername("Usuario Desconocido");
+    /**
+     * userId -> username en una query (proyección UserDto, sin cargar entidades User).
+     */
+    private LongObjectHashMap<String> loadUsernames(LongArrayList userIds) {
+        List<UserDto> entries = userRepository.findDirectoryEntriesByIds(userIds.asList());
+        LongObjectHashMap<String> usernames = new LongObjectHashMap<>(entries.size());
+        for (UserDto entry : entries) {
+            usernames.put(entry.getId(), entry.getUsername());
         }
-
-        return dto;
+        return usernames;
     }
 }
\ No newline at end of file
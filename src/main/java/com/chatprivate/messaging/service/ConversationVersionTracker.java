@@ -0,0 +1,100 @@
+package com.chatprivate.messaging.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contadores de versión para las peticiones condicionales (ETag / If-None-Match).
+ *
+ * PROBLEMA:
+ * El cliente hace polling de GET /api/conversations y de los participantes.
+ * Cada poll recalculaba y reserializaba TODO, aunque nada hubiera cambiado.
+ *
+ * SOLUCIÓN:
+ * - Versión por USUARIO: cambia cuando cambia su lista de conversaciones
+ *   (mensaje nuevo, chat nuevo, altas/bajas de participantes)
+ * - Versión por CONVERSACIÓN: cambia cuando cambian sus participantes
+ * - El controller compara el ETag del cliente con la versión actual y
+ *   responde 304 sin llamar a ConversationService.
+ *
+ * Las versiones se incrementan DESPUÉS del commit: si se incrementaran
+ * antes, un poll concurrente podría guardar la versión nueva con datos viejos.
+ *
+ * Los contadores viven en memoria; el ETag incluye un identificador del
+ * arranque para que, tras reiniciar, ningún ETag viejo coincida.
+ */
+@Service
+@Slf4j
+public class ConversationVersionTracker {
+
+    private final String bootId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private final Map<Long, AtomicLong> userVersions = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> conversationVersions = new ConcurrentHashMap<>();
+
+    /**
+     * ETag de la lista de conversaciones de un usuario.
+     */
+    public String userETag(Long userId) {
+        return "\"u" + userId + "-" + bootId + "-" + current(userVersions, userId) + "\"";
+    }
+
+    /**
+     * ETag de la lista de participantes de una conversación.
+     */
+    public String conversationETag(Long conversationId) {
+        return "\"c" + conversationId + "-" + bootId + "-" + current(conversationVersions, conversationId) + "\"";
+    }
+
+    /**
+     * Marca como cambiadas las listas de conversaciones de estos usuarios
+     * (al terminar la transacción actual con commit).
+     */
+    public void userListsChanged(Collection<Long> userIds) {
+        List<Long> ids = List.copyOf(userIds);
+        afterCommit(() -> ids.forEach(id -> bump(userVersions, id)));
+    }
+
+    /**
+     * Marca como cambiados los participantes de una conversación y las listas
+     * de conversaciones de los usuarios afectados.
+     */
+    public void membershipChanged(Long conversationId, Collection<Long> affectedUserIds) {
+        List<Long> ids = List.copyOf(affectedUserIds);
+        afterCommit(() -> {
+            bump(conversationVersions, conversationId);
+            ids.forEach(id -> bump(userVersions, id));
+        });
+    }
+
+    private static long current(Map<Long, AtomicLong> versions, Long id) {
+        AtomicLong version = versions.get(id);
+        return version != null ? version.get() : 0L;
+    }
+
+    private static void bump(Map<Long, AtomicLong> versions, Long id) {
+        versions.computeIfAbsent(id, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,93 @@
+package com.chatprivate.messaging.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Rellena la clave de pareja (direct_user_low, direct_user_high) de los chats
+ * 1-a-1 creados antes de que existiera.
+ *
+ * Solo mira los chats "direct" sin clave, y con exactamente dos
+ * participantes (lo mismo que pedía la query antigua).
+ *
+ * MIGRACIÓN DE UNA SOLA VEZ:
+ * No corre en cada arranque (app.messaging.direct-pair-backfill.enabled=false
+ * por defecto). Se activa en el primer arranque tras actualizar y se vuelve a
+ * apagar:
+ * - La búsqueda es un GROUP BY sobre todos los chats "direct" sin clave
+ * - Un chat que vuelve a quedarse en dos sin clave es porque la pareja ya
+ *   tiene otro chat 1-a-1 (ver ConversationService.syncDirectPair). Repetir
+ *   el relleno se la devolvería (o chocaría con la del chat nuevo).
+ *
+ * DUPLICADOS ANTIGUOS:
+ * Si ya había dos chats 1-a-1 entre la misma pareja, el primero (menor ID) se
+ * queda la clave. El resto sigue existiendo, pero ya no se devuelve al crear.
+ */
+@Component
+@Slf4j
+public class DirectPairBackfill {
+
+    private static final String PENDING_PAIRS_SQL = """
+            SELECT c.id, MIN(cp.user_id), MAX(cp.user_id)
+            FROM conversations c
+            JOIN conversation_participants cp ON cp.conversation_id = c.id
+            WHERE c.type = 'direct' AND c.direct_user_low IS NULL
+            GROUP BY c.id
+            HAVING COUNT(*) = 2
+            ORDER BY c.id
+            """;
+
+    private static final String SET_PAIR_SQL =
+            "UPDATE conversations SET direct_user_low = ?, direct_user_high = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+
+    public DirectPairBackfill(JdbcTemplate jdbcTemplate,
+                              @Value("${app.messaging.direct-pair-backfill.enabled:false}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled) {
+            return;
+        }
+        int updated = backfill();
+        log.warn("🔑 Relleno de claves de pareja terminado ({} chats): desactivar " +
+                "app.messaging.direct-pair-backfill.enabled para los próximos arranques", updated);
+    }
+
+    /**
+     * @return Cuántos chats recibieron su clave
+     */
+    public int backfill() {
+        List<long[]> pending = jdbcTemplate.query(PENDING_PAIRS_SQL,
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)});
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        int updated = 0;
+        int duplicates = 0;
+        for (long[] row : pending) {
+            try {
+                updated += jdbcTemplate.update(SET_PAIR_SQL, row[1], row[2], row[0]);
+            } catch (DuplicateKeyException e) {
+                // Otro chat ya tiene la clave de esta pareja
+                duplicates++;
+            }
+        }
+
+        log.info("🔑 Clave de pareja rellenada en {} chats 1-a-1 ({} duplicados ignorados)", updated, duplicates);
+        return updated;
+    }
+}
@@ -0,0 +1,143 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.collections.LongObjectHashMap;
+import com.chatprivate.messaging.dto.RecipientKeys;
+import com.chatprivate.monitoring.HotPathLogging;
+import com.chatprivate.user.UserDto;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Reparto de un mensaje ya guardado a los destinatarios online (/user/queue/messages).
+ *
+ * Lo usan MessageService (reparto en la misma petición, con el outbox
+ * desactivado) y MessageOutboxRelay (reparto por lotes desde el outbox).
+ * Solo envía: no toca la BD.
+ */
+@Component
+@Slf4j
+public class MessageFanout {
+
+    // Nombre del span de cada envío por WebSocket
+    public static final String DELIVER_OBSERVATION = "chat.stomp.deliver";
+
+    private final SimpMessagingTemplate simpMessagingTemplate;
+    private final SimpUserRegistry simpUserRegistry;
+
+    // Serializa el frame STOMP una sola vez por mensaje (no una por destinatario)
+    private final StompPayloadEncoder stompPayloadEncoder;
+
+    // Trazas: un span por cada envío al socket de un destinatario
+    private final ObservationRegistry observationRegistry;
+
+    // Flag de logs por destinatario
+    private final HotPathLogging hotPathLogging;
+
+    public MessageFanout(SimpMessagingTemplate simpMessagingTemplate,
+                         SimpUserRegistry simpUserRegistry,
+                         StompPayloadEncoder stompPayloadEncoder,
+                         ObservationRegistry observationRegistry,
+                         HotPathLogging hotPathLogging) {
+        this.simpMessagingTemplate = simpMessagingTemplate;
+        this.simpUserRegistry = simpUserRegistry;
+        this.stompPayloadEncoder = stompPayloadEncoder;
+        this.observationRegistry = observationRegistry;
+        this.hotPathLogging = hotPathLogging;
+    }
+
+    /**
+     * Modo "pairwise": a cada destinatario online le llega el frame con SU clave.
+     *
+     * @param keys      Claves de los destinatarios (ya validados)
+     * @param usernames ID -> username de esos destinatarios
+     * @return Cuántos estaban online (frames enviados)
+     */
+    public int deliverPairwise(Long conversationId, Long senderId, String ciphertext, Long seq,
+                               RecipientKeys keys, LongObjectHashMap<String> usernames) {
+        // El frame compartido (con el ciphertext) se serializa solo si hay
+        // al menos un destinatario online, y UNA sola vez para todos
+        StompPayloadEncoder.SharedFrame sharedFrame = null;
+        boolean perRecipientLogs = hotPathLogging.perRecipient();
+        int delivered = 0;
+
+        for (int i = 0; i < keys.size(); i++) {
+            long recipientId = keys.recipientId(i);
+            String recipientUsername = usernames.get(recipientId);
+            if (recipientUsername == null) {
+                continue; // Usuario borrado después de guardar el mensaje
+            }
+
+            // Verifico si el destinatario está ONLINE (conectado a WebSocket)
+            SimpUser user = simpUserRegistry.getUser(recipientUsername);
+
+            if (user != null && user.hasSessions()) {
+                if (perRecipientLogs) {
+                    log.debug(" Enviando mensaje a usuario online: {} (ID: {})", recipientUsername, recipientId);
+                }
+
+                // Solo envío la clave que le pertenece a ESTE destinatario
+                // (el resto del frame ya está serializado en sharedFrame)
+                if (sharedFrame == null) {
+                    sharedFrame = stompPayloadEncoder.encodeShared(conversationId, senderId, ciphertext, null, seq);
+                }
+
+                deliver(recipientUsername, sharedFrame.messageFor(recipientId, keys.key(i)));
+                delivered++;
+            } else if (perRecipientLogs) {
+                // El mensaje YA está guardado en la BD, lo recibirá cuando pida el historial
+                log.debug("📭 Usuario {} está offline. Mensaje guardado para entrega posterior.", recipientUsername);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Modo "sender_key": el MISMO frame (sin claves, con la época) para todos.
+     *
+     * @return Cuántos estaban online (frames enviados)
+     */
+    public int deliverSenderKey(Long conversationId, Long senderId, String ciphertext, Integer keyEpoch, Long seq,
+                                List<UserDto> recipients) {
+        StompPayloadEncoder.SharedFrame sharedFrame = null;
+        boolean perRecipientLogs = hotPathLogging.perRecipient();
+        int delivered = 0;
+
+        for (UserDto recipient : recipients) {
+            SimpUser user = simpUserRegistry.getUser(recipient.getUsername());
+            if (user == null || !user.hasSessions()) {
+                if (perRecipientLogs) {
+                    log.debug("📭 Usuario {} está offline. Mensaje guardado para entrega posterior.", recipient.getUsername());
+                }
+                continue;
+            }
+
+            if (sharedFrame == null) {
+                sharedFrame = stompPayloadEncoder.encodeShared(conversationId, senderId, ciphertext, keyEpoch, seq);
+            }
+
+            deliver(recipient.getUsername(), sharedFrame.keylessMessage());
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Envía un frame ya serializado a la cola de un usuario, dentro de su propio
+     * span (chat.stomp.deliver). La escritura real al socket la hace el canal
+     * de salida en otro hilo, que hereda el contexto de la traza.
+     */
+    private void deliver(String username, org.springframework.messaging.Message<?> frame) {
+        Observation.createNotStarted(DELIVER_OBSERVATION, observationRegistry)
+                .contextualName("stomp deliver /queue/messages")
+                .highCardinalityKeyValue("recipient", username)
+                .observe(() -> simpMessagingTemplate.send(
+                        StompPayloadEncoder.userDestination(username, "/queue/messages"), frame));
+    }
+}
@@ -0,0 +1,563 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.collections.LongObjectHashMap;
+import com.chatprivate.messaging.dto.MessageDeliveryView;
+import com.chatprivate.messaging.dto.MessageOutboxView;
+import com.chatprivate.messaging.dto.RecipientKeyView;
+import com.chatprivate.messaging.dto.RecipientKeys;
+import com.chatprivate.messaging.model.Message;
+import com.chatprivate.messaging.model.MessageOutboxEntry;
+import com.chatprivate.messaging.repository.ConversationParticipantRepository;
+import com.chatprivate.messaging.repository.MessageKeyRepository;
+import com.chatprivate.messaging.repository.MessageOutboxRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.monitoring.ChatMetrics;
+import com.chatprivate.user.UserDto;
+import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reparto por WebSocket de los mensajes guardados, a través de un outbox.
+ *
+ * PROBLEMA:
+ * sendAndStoreMessage enviaba los frames DENTRO de su transacción:
+ * - Si la JVM caía después del commit y antes del envío, los destinatarios
+ *   online no recibían nada hasta pedir el historial
+ * - Si un envío fallaba a mitad del bucle, se revertía el mensaje aunque
+ *   algunos sockets ya tenían el frame
+ * - El remitente esperaba al fan-out entero (grupos grandes = ack lento)
+ *
+ * SOLUCIÓN (outbox transaccional):
+ * 1. El envío solo añade una fila a message_outbox, en SU transacción:
+ *    o se guardan el mensaje y su entrega pendiente, o ninguno de los dos
+ * 2. Un hilo de fondo (message-outbox-relay) RESERVA un lote de filas
+ *    pendientes (claimed_by / claimed_until, en una transacción corta),
+ *    carga mensajes, claves y usernames con pocas queries por lote,
+ *    reparte con MessageFanout FUERA de transacción y marca las entregadas
+ *    con UN UPDATE
+ * 3. El commit del envío despierta al hilo (no espera al siguiente sondeo);
+ *    el sondeo periódico recoge lo que quedó pendiente tras una caída
+ *
+ * FALLOS:
+ * - Cada mensaje se reparte por separado: si uno falla, el resto del lote
+ *   se marca igual. El que falló suma un intento (attempts, last_error) y
+ *   conserva la reserva: se reintenta cuando caduca (app.messaging.outbox.lease)
+ * - A los max-attempts fallos se aparca (parked_at) y no se reintenta más:
+ *   un mensaje "venenoso" no se repite en cada sondeo para siempre
+ * - Si lo que falla es la BD (no un mensaje), no se cuenta intento: el lote
+ *   sigue reservado y se reintenta al caducar la reserva
+ *
+ * VARIAS INSTANCIAS:
+ * Cada relay reparte por su broker, y con el broker simple en memoria solo
+ * llega a los usuarios conectados a ESE nodo. Por eso cada fila guarda el
+ * nodo que la apuntó (origin_node, app.messaging.outbox.node-id) y la reparte
+ * él, como hacía el envío directo. Un nodo solo toma filas ajenas cuando
+ * llevan más de app.messaging.outbox.orphan-after sin entregar (su nodo
+ * cayó). Ese reparto es de mejor esfuerzo: llega a los usuarios conectados
+ * al nodo que la toma; el resto lo recibe con el historial al reconectar.
+ * Que un mensaje llegue a usuarios de OTROS nodos necesita un broker
+ * compartido (relay STOMP a RabbitMQ/ActiveMQ): eso no lo resuelve el outbox.
+ *
+ * La reserva es un UPDATE condicional sobre filas sin reserva vigente, así
+ * que dos relays que leen los mismos candidatos no reparten la misma fila
+ * (el segundo UPDATE no la toma). Funciona igual en MySQL y en H2, sin
+ * SKIP LOCKED.
+ *
+ * TRAZAS:
+ * El relay reparte en otro hilo, sin la traza del frame que envió el mensaje.
+ * Al apuntar la entrega guardo el contexto de esa traza (traceparent, en un
+ * span chat.outbox.enqueue) y el reparto de cada mensaje abre un span
+ * chat.outbox.relay hijo de él: los chat.stomp.deliver quedan en la misma
+ * traza que el envío, aunque salgan segundos después y desde otro nodo.
+ *
+ * La entrega es "al menos una vez": si el nodo cae entre el envío y el
+ * UPDATE (o un reparto tarda más que la reserva), el lote se repite. El
+ * cliente descarta repetidos por messageId/seq.
+ */
+@Component
+@Slf4j
+public class MessageOutboxRelay {
+
+    // Tamaño máximo de last_error (como la columna)
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    // Spans que unen el envío con su reparto (ver TRAZAS)
+    public static final String ENQUEUE_OBSERVATION = "chat.outbox.enqueue";
+    public static final String RELAY_OBSERVATION = "chat.outbox.relay";
+
+    // Cabecera W3C con la que viaja el contexto de la traza
+    private static final String TRACEPARENT = "traceparent";
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pollIntervalNanos;
+    private final Duration retention;
+    private final int maxAttempts;
+    private final Duration lease;
+    private final Duration orphanAfter;
+
+    // Este nodo en origin_node. Por defecto el hostname: tras reiniciar, el nodo
+    // sigue repartiendo sus filas pendientes sin esperar a orphan-after
+    private final String nodeId;
+
+    private final MessageOutboxRepository outboxRepository;
+    private final MessageRepository messageRepository;
+    private final MessageKeyRepository messageKeyRepository;
+    private final ConversationParticipantRepository participantRepository;
+    private final UserRepository userRepository;
+    private final MessageFanout fanout;
+    private final ChatMetrics chatMetrics;
+    private final ObservationRegistry observationRegistry;
+
+    // Transacciones cortas: reservar el lote y apuntar el resultado.
+    // El reparto va fuera (no retiene conexión ni bloqueos mientras envía)
+    private final TransactionTemplate tx;
+
+    // Un solo reparto a la vez en este nodo (hilo de fondo o llamada directa)
+    private final ReentrantLock relayLock = new ReentrantLock();
+
+    private volatile boolean running = false;
+    private volatile Thread relayThread;
+    private long lastPurgeNanos = System.nanoTime();
+
+    public MessageOutboxRelay(@Value("${app.messaging.outbox.enabled:true}") boolean enabled,
+                              @Value("${app.messaging.outbox.batch-size:200}") int batchSize,
+                              @Value("${app.messaging.outbox.poll-interval-ms:1000}") long pollIntervalMs,
+                              @Value("${app.messaging.outbox.retention:PT1H}") Duration retention,
+                              @Value("${app.messaging.outbox.max-attempts:5}") int maxAttempts,
+                              @Value("${app.messaging.outbox.lease:PT30S}") Duration lease,
+                              @Value("${app.messaging.outbox.orphan-after:PT1M}") Duration orphanAfter,
+                              @Value("${app.messaging.outbox.node-id:}") String nodeId,
+                              MessageOutboxRepository outboxRepository,
+                              MessageRepository messageRepository,
+                              MessageKeyRepository messageKeyRepository,
+                              ConversationParticipantRepository participantRepository,
+                              UserRepository userRepository,
+                              MessageFanout fanout,
+                              ChatMetrics chatMetrics,
+                              ObservationRegistry observationRegistry,
+                              PlatformTransactionManager transactionManager) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pollIntervalMs);
+        this.retention = retention;
+        this.maxAttempts = maxAttempts;
+        this.lease = lease;
+        this.orphanAfter = orphanAfter;
+        this.nodeId = nodeId == null || nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.outboxRepository = outboxRepository;
+        this.messageRepository = messageRepository;
+        this.messageKeyRepository = messageKeyRepository;
+        this.participantRepository = participantRepository;
+        this.userRepository = userRepository;
+        this.fanout = fanout;
+        this.chatMetrics = chatMetrics;
+        this.observationRegistry = observationRegistry;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    // ============================================
+    // CICLO DE VIDA DEL HILO
+    // ============================================
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("📤 Outbox de mensajes desactivado: el reparto se hace dentro del envío");
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::runRelay, "message-outbox-relay");
+        thread.setDaemon(true);
+        relayThread = thread;
+        thread.start();
+        log.info("📤 Relay del outbox iniciado: nodo={}, lote={}, sondeo={}ms, reserva={}, intentos={}",
+                nodeId, batchSize, TimeUnit.NANOSECONDS.toMillis(pollIntervalNanos), lease, maxAttempts);
+    }
+
+    /**
+     * Al apagar paro el hilo. Lo que quede pendiente sigue en la tabla
+     * y lo reparte el siguiente arranque.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread thread = relayThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    // ============================================
+    // PRODUCTORES (transacción del envío)
+    // ============================================
+
+    /**
+     * Apunta la entrega del mensaje en la transacción actual y, cuando se
+     * confirme, despierta al relay. Si se revierte, la fila tampoco existe.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(Message message) {
+        MessageOutboxEntry entry = new MessageOutboxEntry(message.getId(), message.getConversation().getId());
+        entry.setOriginNode(nodeId);
+        if (observationRegistry.getCurrentObservation() == null) {
+            // Envío sin traza (fuera de un frame o request): nada que propagar
+            outboxRepository.save(entry);
+        } else {
+            // El span de la entrega inyecta su contexto en el carrier al empezar
+            Map<String, String> carrier = new HashMap<>(4);
+            SenderContext<Map<String, String>> context = new SenderContext<>(Map::put);
+            context.setCarrier(carrier);
+            Observation.createNotStarted(ENQUEUE_OBSERVATION, () -> context, observationRegistry)
+                    .contextualName("outbox enqueue")
+                    .observe(() -> {
+                        entry.setTraceparent(carrier.get(TRACEPARENT));
+                        outboxRepository.save(entry);
+                    });
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wakeUp();
+            }
+        });
+    }
+
+    private void wakeUp() {
+        Thread thread = relayThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // ============================================
+    // RELAY (hilo de fondo)
+    // ============================================
+
+    private void runRelay() {
+        while (running) {
+            try {
+                relayPending();
+                purgeDeliveredIfDue();
+            } catch (RuntimeException e) {
+                // La BD puede no estar disponible: lo reintento en el siguiente sondeo
+                log.error("❌ Error repartiendo el outbox de mensajes", e);
+            }
+            if (running) {
+                // Si el commit de un envío ya llamó a unpark, vuelve enseguida
+                LockSupport.parkNanos(this, pollIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Reparte todo lo pendiente, lote a lote.
+     *
+     * @return Filas entregadas
+     */
+    public int relayPending() {
+        relayLock.lock();
+        try {
+            int total = 0;
+            int candidates;
+            do {
+                String token = UUID.randomUUID().toString();
+                List<MessageOutboxView> claimed = new ArrayList<>(batchSize);
+                candidates = tx.execute(status -> claimBatch(token, claimed));
+                if (!claimed.isEmpty()) {
+                    total += relayClaimed(claimed);
+                }
+            } while (candidates == batchSize);
+            return total;
+        } finally {
+            relayLock.unlock();
+        }
+    }
+
+    /**
+     * Reserva el siguiente lote para este relay (token) durante "lease" y
+     * deja en "claimed" las filas que se llevó.
+     *
+     * @return Candidatos encontrados (no los reservados: si otro relay se llevó
+     *         alguno, igual hay que seguir buscando)
+     */
+    private int claimBatch(String token, List<MessageOutboxView> claimed) {
+        Instant now = Instant.now();
+        List<Long> ids = outboxRepository.findPending(now, nodeId, now.minus(orphanAfter), PageRequest.of(0, batchSize));
+        if (!ids.isEmpty() && outboxRepository.claim(ids, token, now.plus(lease), now) > 0) {
+            claimed.addAll(outboxRepository.findClaimed(token));
+        }
+        return ids.size();
+    }
+
+    /**
+     * Reparte las filas reservadas y apunta el resultado: las entregadas con
+     * UN UPDATE y las fallidas una a una (son raras).
+     *
+     * La carga va en una transacción de escritura a propósito: una de solo
+     * lectura iría al pool READ (o a la réplica), que puede no tener aún el
+     * mensaje recién confirmado y lo daría por borrado.
+     *
+     * @return Filas entregadas
+     */
+    private int relayClaimed(List<MessageOutboxView> batch) {
+        Timer.Sample sample = chatMetrics.start();
+        DeliveryData data = tx.execute(status -> load(batch));
+        BatchResult result = send(batch, data);
+
+        Instant now = Instant.now();
+        tx.executeWithoutResult(status -> {
+            if (!result.deliveredIds.isEmpty()) {
+                outboxRepository.markDelivered(result.deliveredIds, now);
+            }
+            for (Failure failure : result.failures) {
+                outboxRepository.recordFailure(failure.entry.getId(), failure.error,
+                        failure.parked ? now : null);
+            }
+        });
+
+        chatMetrics.recordOutboxBatch(sample, batch.size());
+        for (MessageOutboxView entry : result.deliveredEntries) {
+            chatMetrics.recordOutboxLag(Duration.between(entry.getCreatedAt(), now));
+        }
+        for (Failure failure : result.failures) {
+            chatMetrics.recordOutboxFailure(failure.parked);
+        }
+        log.debug("📤 Lote del outbox repartido: mensajes={}, frames={}, fallidos={}",
+                result.deliveredIds.size(), result.frames, result.failures.size());
+        return result.deliveredIds.size();
+    }
+
+    /**
+     * Carga todo lo que necesita el reparto de un lote:
+     * mensajes como proyección (1 query), claves de los "pairwise" (1), participantes de los
+     * chats "sender_key" (1 por chat, caché de membresía) y usernames (1).
+     *
+     * Si falla, la excepción sale y el lote sigue reservado (se reintenta al
+     * caducar la reserva, sin contar intento: no es culpa de los mensajes).
+     */
+    private DeliveryData load(List<MessageOutboxView> batch) {
+        List<Long> messageIds = new ArrayList<>(batch.size());
+        for (MessageOutboxView entry : batch) {
+            messageIds.add(entry.getMessageId());
+        }
+
+        DeliveryData data = new DeliveryData(batch.size());
+        List<Long> pairwiseIds = new ArrayList<>();
+        Set<Long> userIds = new HashSet<>();
+
+        for (MessageDeliveryView message : messageRepository.findDeliveryViews(messageIds)) {
+            data.messages.put(message.getMessageId(), message);
+            if (message.getKeyEpoch() == null) {
+                pairwiseIds.add(message.getMessageId());
+                continue;
+            }
+            long conversationId = message.getConversationId();
+            if (!data.participantsByConversation.containsKey(conversationId)) {
+                List<Long> participantIds = participantRepository.findUserIdsByConversationId(conversationId);
+                data.participantsByConversation.put(conversationId, participantIds);
+                userIds.addAll(participantIds);
+            }
+        }
+
+        if (!pairwiseIds.isEmpty()) {
+            for (RecipientKeyView key : messageKeyRepository.findRecipientKeyViews(pairwiseIds)) {
+                RecipientKeys keys = data.keysByMessage.get(key.getMessageId());
+                if (keys == null) {
+                    keys = new RecipientKeys(4);
+                    data.keysByMessage.put(key.getMessageId(), keys);
+                }
+                keys.put(key.getRecipientId(), key.getEncryptedKey());
+                userIds.add(key.getRecipientId());
+            }
+        }
+
+        if (!userIds.isEmpty()) {
+            for (UserDto user : userRepository.findDirectoryEntriesByIds(new ArrayList<>(userIds))) {
+                data.users.put(user.getId(), user);
+                data.usernames.put(user.getId(), user.getUsername());
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Envía los frames de un lote, FUERA de transacción. Si falla el reparto
+     * de un mensaje, se apunta y se sigue con el siguiente.
+     */
+    private BatchResult send(List<MessageOutboxView> batch, DeliveryData data) {
+        // En el orden del outbox (el de guardado): cada destinatario ve los mensajes en orden
+        BatchResult result = new BatchResult(batch.size());
+        for (MessageOutboxView entry : batch) {
+            MessageDeliveryView message = data.messages.get(entry.getMessageId());
+            if (message == null) {
+                result.delivered(entry, 0); // Mensaje borrado antes del reparto: nada que enviar
+                continue;
+            }
+            try {
+                result.delivered(entry, sendTraced(entry, message, data));
+            } catch (RuntimeException e) {
+                result.failures.add(failure(entry, e));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reparte un mensaje dentro de un span hijo del que lo apuntó en el outbox
+     * (si el envío se trazaba): sus chat.stomp.deliver cuelgan de él.
+     */
+    private int sendTraced(MessageOutboxView entry, MessageDeliveryView message, DeliveryData data) {
+        if (entry.getTraceparent() == null) {
+            return sendOne(message, data);
+        }
+        ReceiverContext<Map<String, String>> context = new ReceiverContext<>(Map::get);
+        context.setCarrier(Map.of(TRACEPARENT, entry.getTraceparent()));
+        return Observation.createNotStarted(RELAY_OBSERVATION, () -> context, observationRegistry)
+                .contextualName("outbox relay")
+                .observe(() -> sendOne(message, data));
+    }
+
+    private int sendOne(MessageDeliveryView message, DeliveryData data) {
+        Long conversationId = message.getConversationId();
+
+        if (message.getKeyEpoch() == null) {
+            RecipientKeys keys = data.keysByMessage.getOrDefault(message.getMessageId(), new RecipientKeys(0));
+            return fanout.deliverPairwise(conversationId, message.getSenderId(), message.getCiphertext(),
+                    message.getSeq(), keys, data.usernames);
+        }
+
+        List<Long> participantIds = data.participantsByConversation.get(conversationId);
+        List<UserDto> recipients = new ArrayList<>(participantIds.size());
+        for (Long participantId : participantIds) {
+            UserDto user = data.users.get(participantId);
+            if (user != null) {
+                recipients.add(user);
+            }
+        }
+        return fanout.deliverSenderKey(conversationId, message.getSenderId(), message.getCiphertext(),
+                message.getKeyEpoch(), message.getSeq(), recipients);
+    }
+
+    private Failure failure(MessageOutboxView entry, RuntimeException e) {
+        // La causa concreta (el canal del broker envuelve todo en MessageDeliveryException)
+        Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+        String error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        if (error.length() > MAX_ERROR_LENGTH) {
+            error = error.substring(0, MAX_ERROR_LENGTH);
+        }
+        boolean parked = entry.getAttempts() + 1 >= maxAttempts;
+        if (parked) {
+            log.error("☠️ Outbox: mensaje {} aparcado tras {} intentos fallidos ({})",
+                    entry.getMessageId(), entry.getAttempts() + 1, error);
+        } else {
+            log.warn("⚠️ Outbox: falló el reparto del mensaje {} (intento {} de {}), se reintenta en {}: {}",
+                    entry.getMessageId(), entry.getAttempts() + 1, maxAttempts, lease, error);
+        }
+        return new Failure(entry, error, parked);
+    }
+
+    /**
+     * Borra las filas ya entregadas hace más de app.messaging.outbox.retention
+     * (como mucho una vez por intervalo de retención).
+     */
+    private void purgeDeliveredIfDue() {
+        long now = System.nanoTime();
+        if (now - lastPurgeNanos < retention.toNanos()) {
+            return;
+        }
+        lastPurgeNanos = now;
+        Integer purged = tx.execute(status -> outboxRepository.deleteDeliveredBefore(Instant.now().minus(retention)));
+        log.debug("🧹 Outbox: {} filas entregadas borradas", purged);
+    }
+
+    // ============================================
+    // DATOS Y RESULTADO DE UN LOTE
+    // ============================================
+
+    private static final class DeliveryData {
+        private final LongObjectHashMap<MessageDeliveryView> messages;
+        private final LongObjectHashMap<RecipientKeys> keysByMessage;
+        private final LongObjectHashMap<List<Long>> participantsByConversation = new LongObjectHashMap<>(4);
+        private final LongObjectHashMap<UserDto> users = new LongObjectHashMap<>(16);
+        private final LongObjectHashMap<String> usernames = new LongObjectHashMap<>(16);
+
+        private DeliveryData(int size) {
+            this.messages = new LongObjectHashMap<>(size);
+            this.keysByMessage = new LongObjectHashMap<>(size);
+        }
+    }
+
+    private static final class BatchResult {
+        private final List<Long> deliveredIds;
+        private final List<MessageOutboxView> deliveredEntries;
+        private final List<Failure> failures = new ArrayList<>();
+        private int frames;
+
+        private BatchResult(int size) {
+            this.deliveredIds = new ArrayList<>(size);
+            this.deliveredEntries = new ArrayList<>(size);
+        }
+
+        private void delivered(MessageOutboxView entry, int frames) {
+            deliveredIds.add(entry.getId());
+            deliveredEntries.add(entry);
+            this.frames += frames;
+        }
+    }
+
+    private static final class Failure {
+        private final MessageOutboxView entry;
+        private final String error;
+        private final boolean parked;
+
+        private Failure(MessageOutboxView entry, String error, boolean parked) {
+            this.entry = entry;
+            this.error = error;
+            this.parked = parked;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.model.ConversationSequence;
+import com.chatprivate.messaging.repository.ConversationSequenceRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Asigna el número de secuencia (Message.seq) de cada mensaje nuevo.
+ *
+ * PROBLEMA:
+ * El historial se ordenaba por createdAt, que pone la JVM al crear el objeto.
+ * Dos mensajes pueden empatar, y con varios nodos el reloj de cada uno
+ * puede reordenarlos. El cliente tampoco podía saber si le faltaba alguno.
+ *
+ * SOLUCIÓN:
+ * - Un contador por conversación (conversation_sequences) que sube con un
+ *   UPDATE atómico dentro de la transacción del envío
+ * - Solo se bloquea la fila de ESA conversación, y solo hasta el commit:
+ *   no hay lock global ni se esperan chats distintos
+ * - Si el envío se revierte, el contador también: la secuencia no tiene huecos,
+ *   así que un salto (5 -> 7) le dice al cliente que le falta el 6
+ */
+@Component
+@Slf4j
+public class MessageSequenceAllocator {
+
+    private final ConversationSequenceRepository sequenceRepository;
+    private final MessageRepository messageRepository;
+
+    // Para crear la fila de una conversación en su propia transacción
+    private final TransactionTemplate requiresNew;
+
+    public MessageSequenceAllocator(ConversationSequenceRepository sequenceRepository,
+                                    MessageRepository messageRepository,
+                                    PlatformTransactionManager transactionManager) {
+        this.sequenceRepository = sequenceRepository;
+        this.messageRepository = messageRepository;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Reserva el siguiente número de la conversación (SELECT por PK + UPDATE + SELECT).
+     * Debe llamarse dentro de la transacción que guarda el mensaje.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public long next(Long conversationId) {
+        // Conversación sin fila (creada antes de existir la tabla, o sin pasar
+        // por ConversationService): la creo ANTES del UPDATE. Un UPDATE que no
+        // casa ninguna fila deja en InnoDB (REPEATABLE READ) un gap lock, y el
+        // INSERT de initialize, en otra transacción, se quedaría esperándolo
+        // hasta el lock timeout. La lectura de existsById no bloquea nada.
+        if (!sequenceRepository.existsById(conversationId)) {
+            initialize(conversationId);
+        }
+        if (sequenceRepository.increment(conversationId) == 0) {
+            throw new IllegalStateException("La conversación " + conversationId + " no tiene contador de secuencia");
+        }
+        return sequenceRepository.findLastSeq(conversationId);
+    }
+
+    /**
+     * Crea el contador de una conversación nueva (en la transacción actual).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void create(Long conversationId) {
+        sequenceRepository.save(new ConversationSequence(conversationId, 0));
+    }
+
+    /**
+     * Crea la fila en una transacción aparte, para que ya esté confirmada
+     * cuando el envío haga su UPDATE (que la lee aunque sea más nueva que la
+     * foto de REPEATABLE READ: un UPDATE siempre trabaja sobre la última versión). Si otro envío la creó a la vez, el
+     * índice de la clave primaria lo rechaza y uso la suya.
+     */
+    private void initialize(Long conversationId) {
+        try {
+            requiresNew.executeWithoutResult(status -> {
+                Long lastSeq = messageRepository.findMaxSeq(conversationId);
+                sequenceRepository.saveAndFlush(new ConversationSequence(conversationId, lastSeq != null ? lastSeq : 0));
+            });
+            log.debug("🔢 Contador de secuencia creado para la conversación {}", conversationId);
+        } catch (DataIntegrityViolationException e) {
+            log.debug("🔢 El contador de la conversación {} ya lo creó otro envío", conversationId);
+        }
+    }
+}
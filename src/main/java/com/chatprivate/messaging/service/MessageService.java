@@ -1,23 +1,39 @@
 package com.chatprivate.messaging.service;
 
-import com.chatprivate.messaging.dto.StompMessagePayload;
+import com.chatprivate.collections.LongObjectHashMap;
+import com.chatprivate.messaging.dto.MessageReceiptDto;
+import com.chatprivate.messaging.dto.RecipientKeyView;
+import com.chatprivate.messaging.dto.RecipientKeys;
 import com.chatprivate.messaging.model.Conversation;
 import com.chatprivate.messaging.model.Message;
 import com.chatprivate.messaging.model.MessageKey;
+import com.chatprivate.messaging.repository.ConversationEpochKeyRepository;
+import com.chatprivate.messaging.repository.ConversationParticipantRepository;
+import com.chatprivate.messaging.repository.ConversationRepository;
 import com.chatprivate.messaging.repository.MessageKeyRepository;
 import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.monitoring.ChatMetrics;
+import com.chatprivate.monitoring.HotPathLogging;
 import com.chatprivate.security.PermissionService;
-import com.chatprivate.user.User;
+import com.chatprivate.user.UserDto;
 import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.messaging.simp.user.SimpUser;
-import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -30,15 +46,43 @@ import java.util.stream.Collectors;
 @Slf4j
 public class MessageService {
 
+    // "online" de la línea resumen cuando el reparto queda en el outbox
+    private static final int DELIVERY_QUEUED = -1;
+
     private final MessageRepository messageRepository;
     private final MessageKeyRepository messageKeyRepository;
-    private final SimpMessagingTemplate simpMessagingTemplate;
     private final UserRepository userRepository;
-    private final SimpUserRegistry simpUserRegistry;
 
     // ¡NUEVO! Mi servicio de validación de permisos
     private final PermissionService permissionService;
 
+    // Modo "sender_key": época actual de la conversación y claves de grupo
+    private final ConversationRepository conversationRepository;
+    private final ConversationParticipantRepository conversationParticipantRepository;
+    private final ConversationEpochKeyRepository epochKeyRepository;
+
+    // Versiones para ETag: un mensaje nuevo cambia la lista de chats de los participantes
+    private final ConversationVersionTracker versionTracker;
+
+    // Métricas (tiempos por fase, destinatarios, tamaño del ciphertext)
+    private final ChatMetrics chatMetrics;
+
+    // Muestreo de la línea resumen
+    private final HotPathLogging hotPathLogging;
+
+    // Últimos mensajes por conversación (primera página del historial sin BD)
+    private final RecentMessageBuffer recentMessages;
+
+    // Reenvíos del cliente (clientMessageId) que ya están guardados
+    private final SendDeduplicator sendDeduplicator;
+
+    // Número de cada mensaje dentro de su conversación
+    private final MessageSequenceAllocator sequenceAllocator;
+
+    // Reparto por WebSocket: directo (MessageFanout) o por el outbox (MessageOutboxRelay)
+    private final MessageFanout fanout;
+    private final MessageOutboxRelay outboxRelay;
+
     /**
      * Constructor con todas las dependencias.
      * Ya no uso @RequiredArgsConstructor porque tengo muchas dependencias
@@ -47,16 +91,34 @@ public class MessageService {
     @Autowired
     public MessageService(MessageRepository messageRepository,
                           MessageKeyRepository messageKeyRepository,
-                          SimpMessagingTemplate simpMessagingTemplate,
                           UserRepository userRepository,
-                          SimpUserRegistry simpUserRegistry,
-                          PermissionService permissionService) { // <-- NUEVO
+                          PermissionService permissionService, // <-- NUEVO
+                          ConversationRepository conversationRepository,
+                          ConversationParticipantRepository conversationParticipantRepository,
+                          ConversationEpochKeyRepository epochKeyRepository,
+                          ConversationVersionTracker versionTracker,
+                          ChatMetrics chatMetrics,
+                          HotPathLogging hotPathLogging,
+                          RecentMessageBuffer recentMessages,
+                          SendDeduplicator sendDeduplicator,
+                          MessageSequenceAllocator sequenceAllocator,
+                          MessageFanout fanout,
+                          MessageOutboxRelay outboxRelay) {
         this.messageRepository = messageRepository;
         this.messageKeyRepository = messageKeyRepository;
-        this.simpMessagingTemplate = simpMessagingTemplate;
         this.userRepository = userRepository;
-        this.simpUserRegistry = simpUserRegistry;
         this.permissionService = permissionService; // <-- NUEVO
+        this.conversationRepository = conversationRepository;
+        this.conversationParticipantRepository = conversationParticipantRepository;
+        this.epochKeyRepository = epochKeyRepository;
+        this.versionTracker = versionTracker;
+        this.chatMetrics = chatMetrics;
+        this.hotPathLogging = hotPathLogging;
+        this.recentMessages = recentMessages;
+        this.sendDeduplicator = sendDeduplicator;
+        this.sequenceAllocator = sequenceAllocator;
+        this.fanout = fanout;
+        this.outboxRelay = outboxRelay;
     }
 
     /**
@@ -67,27 +129,54 @@ public class MessageService {
      * 2. ✅ Valida que el mapa de claves no esté vacío
      * 3. Guarda el mensaje
      * 4. Guarda las claves cifradas
-     * 5. Envía el mensaje por WebSocket a los destinatarios online
+     * 5. Apunta su entrega en el outbox (MessageOutboxRelay la hace después
+     *    del commit) o, con el outbox desactivado, la envía ya por WebSocket
      *
-     * Es transaccional: si algo falla, se revierte TODO.
+     * Es transaccional: si algo falla, se revierte TODO (también la entrega pendiente).
      *
      * @param senderId      ID del usuario que envía
      * @param conversationId ID de la conversación
      * @param ciphertext    Contenido del mensaje cifrado con AES
      * @param encryptedKeys Mapa de { "recipientId" -> "clave AES cifrada con RSA" }
      *
+     * @return La confirmación para el remitente (ID, hora del servidor)
+     *
      * @throws org.springframework.security.access.AccessDeniedException Si el sender no es participante
      * @throws IllegalArgumentException Si el mapa de claves está vacío o es inválido
      */
     @Transactional
-    public void sendAndStoreMessage(Long senderId, Long conversationId,
-                                    String ciphertext, Map<String, String> encryptedKeys) {
+    public MessageReceiptDto sendAndStoreMessage(Long senderId, Long conversationId,
+                                                 String ciphertext, Map<String, String> encryptedKeys) {
+        return sendAndStoreMessage(senderId, conversationId, ciphertext,
+                encryptedKeys != null ? RecipientKeys.fromMap(encryptedKeys) : null, null);
+    }
+
+    /**
+     * Igual que {@link #sendAndStoreMessage(Long, Long, String, Map)}, con las
+     * claves ya en formato compacto (las que deja ChatSendPayloadConverter).
+     *
+     * @param clientMessageId ID del cliente para el mensaje (opcional). Si ya se
+     *                        guardó un mensaje con él, devuelvo su confirmación
+     *                        sin guardar ni repartir nada.
+     * @throws org.springframework.dao.DataIntegrityViolationException Si otro envío
+     *         con el mismo clientMessageId se guardó sin pasar por SendDeduplicator
+     */
+    @Transactional
+    public MessageReceiptDto sendAndStoreMessage(Long senderId, Long conversationId,
+                                                 String ciphertext, RecipientKeys encryptedKeys,
+                                                 String clientMessageId) {
+
+        MessageReceiptDto duplicate = findRecentDuplicate(senderId, clientMessageId);
+        if (duplicate != null) {
+            return duplicate;
+        }
 
-        log.info("📨 Procesando mensaje de usuario {} para conversación {}", senderId, conversationId);
+        log.debug("📨 Procesando mensaje de usuario {} para conversación {}", senderId, conversationId);
 
         // ============================================
-        // 🔒 VALIDACIONES DE SEGURIDAD (NUEVAS)
+        // 🔒 FASE 1: VALIDACIONES DE SEGURIDAD
         // ============================================
+        Timer.Sample phase = chatMetrics.start();
 
         // VALIDACIÓN #1: El sender DEBE ser participante de la conversación
         // Si no lo es, lanza AccessDeniedException
@@ -104,11 +193,52 @@ public class MessageService {
             );
         }
 
+        // 1. Los IDs ya vienen como long (RecipientKeys): no hay que convertir el mapa del JSON
+
+        // 2. Obtengo los usernames de todos los destinatarios de UNA VEZ
+        // (evito hacer N queries individuales - optimización de rendimiento)
+        List<UserDto> recipients = userRepository.findDirectoryEntriesByIds(encryptedKeys.recipientIdList());
+        LongObjectHashMap<String> userIdToUsernameMap = new LongObjectHashMap<>(recipients.size());
+        for (UserDto recipient : recipients) {
+            userIdToUsernameMap.put(recipient.getId(), recipient.getUsername());
+        }
+
+        // Participantes actuales en UNA query (para validar destinatarios y para el ETag)
+        Set<Long> participantIds = new HashSet<>(
+                conversationParticipantRepository.findUserIdsByConversationId(conversationId));
+
+        // 3. Filtro los destinatarios válidos (existen y son participantes)
+        RecipientKeys validRecipientKeys = new RecipientKeys(encryptedKeys.size());
+        for (int i = 0; i < encryptedKeys.size(); i++) {
+            long recipientId = encryptedKeys.recipientId(i);
+
+            // Valido que el destinatario exista en mi BD
+            if (!userIdToUsernameMap.containsKey(recipientId)) {
+                log.warn(" Destinatario con ID {} no encontrado en la BD. Saltando...", recipientId);
+                continue; // Paso al siguiente destinatario
+            }
+
+            // VALIDACIÓN ADICIONAL: El destinatario también debe ser participante
+            // (esto evita que un atacante agregue claves para usuarios random)
+            if (!participantIds.contains(recipientId)) {
+                log.warn(" INTENTO SOSPECHOSO: El mensaje incluye una clave para el usuario {} " +
+                                "que NO es participante de la conversación {}. Ignorando.",
+                        recipientId, conversationId);
+                continue; // No guardo la clave ni envío el mensaje
+            }
+
+            validRecipientKeys.put(recipientId, encryptedKeys.key(i));
+        }
+
+        long validateNanos = chatMetrics.recordSendPhase(phase, Conversation.KEY_MODE_PAIRWISE, ChatMetrics.PHASE_VALIDATE);
+        chatMetrics.recordMessageShape(validRecipientKeys.size(), ciphertext != null ? ciphertext.length() : 0);
+
         // ============================================
-        // GUARDADO DEL MENSAJE
+        // FASE 2: GUARDADO DEL MENSAJE Y DE LAS CLAVES
         // ============================================
+        phase = chatMetrics.start();
 
-        // 1. Guardo el mensaje principal (el ciphertext)
+        // 4. Guardo el mensaje principal (el ciphertext)
         Conversation conv = new Conversation();
         conv.setId(conversationId); // Solo necesito el ID para la relación JPA
 
@@ -116,88 +246,275 @@ public class MessageService {
         message.setConversation(conv);
         message.setSenderId(senderId);
         message.setCiphertext(ciphertext);
+        message.setClientMessageId(clientMessageId);
+        // Lo más tarde posible: la fila del contador queda bloqueada hasta el commit
+        message.setSeq(sequenceAllocator.next(conversationId));
 
         message = messageRepository.save(message);
         log.debug(" Mensaje {} guardado en BD para conversación {}", message.getId(), conversationId);
 
+        // 5. Guardo la MessageKey de cada destinatario (todas juntas)
+        List<MessageKey> messageKeys = new ArrayList<>(validRecipientKeys.size());
+        for (int i = 0; i < validRecipientKeys.size(); i++) {
+            MessageKey mk = new MessageKey();
+            mk.setMessage(message);
+            mk.setRecipientId(validRecipientKeys.recipientId(i));
+            mk.setEncryptedKey(validRecipientKeys.key(i));
+            messageKeys.add(mk);
+        }
+        messageKeyRepository.saveAll(messageKeys);
+        log.debug(" {} claves guardadas para mensaje {}", messageKeys.size(), message.getId());
+
+        long persistNanos = chatMetrics.recordSendPhase(phase, Conversation.KEY_MODE_PAIRWISE, ChatMetrics.PHASE_PERSIST);
+
         // ============================================
-        //  GUARDADO DE CLAVES Y ENVÍO POR WEBSOCKET
+        // FASE 3: ENVÍO POR WEBSOCKET (FAN-OUT) O AL OUTBOX
         // ============================================
+        phase = chatMetrics.start();
 
-        // 2. Convierto los IDs de String a Long (las claves del mapa vienen como String desde JSON)
-        Map<Long, String> recipientKeysMap = encryptedKeys.entrySet().stream()
-                .collect(Collectors.toMap(
-                        entry -> Long.parseLong(entry.getKey()),
-                        Map.Entry::getValue
-                ));
+        // 6. Con el outbox, la entrega sale del envío: si la JVM cae tras el
+        // commit, la fila sigue pendiente y el relay la reparte al arrancar
+        int delivered = DELIVERY_QUEUED;
+        if (outboxRelay.isEnabled()) {
+            outboxRelay.enqueue(message);
+        } else {
+            delivered = fanout.deliverPairwise(conversationId, senderId, ciphertext, message.getSeq(),
+                    validRecipientKeys, userIdToUsernameMap);
+        }
 
-        // 3. Obtengo los usernames de todos los destinatarios de UNA VEZ
-        // (evito hacer N queries individuales - optimización de rendimiento)
-        Map<Long, String> userIdToUsernameMap = userRepository
-                .findAllById(recipientKeysMap.keySet())
-                .stream()
-                .collect(Collectors.toMap(User::getId, User::getUsername));
+        long fanoutNanos = chatMetrics.recordSendPhase(phase, Conversation.KEY_MODE_PAIRWISE, ChatMetrics.PHASE_FANOUT);
 
-        // 4. Para cada destinatario: guardo su clave y le envío el mensaje (si está online)
-        for (Map.Entry<Long, String> entry : recipientKeysMap.entrySet()) {
-            Long recipientId = entry.getKey();
-            String encryptedKeyForRecipient = entry.getValue();
-            String recipientUsername = userIdToUsernameMap.get(recipientId);
+        // El último mensaje cambió para todos los participantes
+        versionTracker.userListsChanged(participantIds);
 
-            // Valido que el destinatario exista en mi BD
-            if (recipientUsername == null) {
-                log.warn(" Destinatario con ID {} no encontrado en la BD. Saltando...", recipientId);
-                continue; // Paso al siguiente destinatario
-            }
+        // Y el historial reciente de la conversación (después del commit)
+        recentMessages.appendAfterCommit(conversationId, toRecentEntry(message, validRecipientKeys.toMap()),
+                recentSeed(conversationId, message.getId()));
+        MessageReceiptDto receipt = toReceipt(message);
+        sendDeduplicator.recordAfterCommit(senderId, receipt);
 
-            // VALIDACIÓN ADICIONAL: El destinatario también debe ser participante
-            // (esto evita que un atacante agregue claves para usuarios random)
-            try {
-                permissionService.validateIsParticipant(recipientId, conversationId);
-            } catch (Exception e) {
-                log.warn(" INTENTO SOSPECHOSO: El mensaje incluye una clave para el usuario {} " +
-                                "que NO es participante de la conversación {}. Ignorando.",
-                        recipientId, conversationId);
-                continue; // No guardo la clave ni envío el mensaje
-            }
+        logSummary(message.getId(), conversationId, Conversation.KEY_MODE_PAIRWISE,
+                validRecipientKeys.size(), delivered, validateNanos, persistNanos, fanoutNanos);
+        return receipt;
+    }
 
-            // 4a. Guardo la MessageKey específica para este destinatario
-            MessageKey mk = new MessageKey();
-            mk.setMessage(message);
-            mk.setRecipientId(recipientId);
-            mk.setEncryptedKey(encryptedKeyForRecipient);
-            messageKeyRepository.save(mk);
-            log.debug(" Clave guardada para mensaje {} y destinatario {}", message.getId(), recipientId);
-
-            // 4b. Preparo el payload para STOMP
-            StompMessagePayload payload = new StompMessagePayload();
-            payload.setConversationId(conversationId);
-            payload.setCiphertext(ciphertext);
-            payload.setSenderId(senderId);
-            // Solo envío la clave que le pertenece a ESTE destinatario
-            payload.setEncryptedKeys(Map.of(recipientId.toString(), encryptedKeyForRecipient));
-
-            // 4c. Verifico si el destinatario está ONLINE (conectado a WebSocket)
-            SimpUser user = simpUserRegistry.getUser(recipientUsername);
-
-            if (user != null && user.hasSessions()) {
-                // ¡El destinatario está online! Envío el mensaje en tiempo real
-                log.info(" Enviando mensaje a usuario online: {} (ID: {})", recipientUsername, recipientId);
-
-                simpMessagingTemplate.convertAndSendToUser(
-                        recipientUsername,
-                        "/queue/messages",
-                        payload
-                );
-
-                log.debug(" Mensaje entregado exitosamente a {}", recipientUsername);
-            } else {
-                // El destinatario está offline
-                // El mensaje YA está guardado en la BD, lo recibirá cuando pida el historial
-                log.debug("📭 Usuario {} está offline. Mensaje guardado para entrega posterior.", recipientUsername);
-            }
+    /**
+     * Envía y guarda un mensaje de una conversación en modo "sender_key".
+     *
+     * DIFERENCIA CON sendAndStoreMessage:
+     * - El mensaje está cifrado con la clave de grupo de la época actual,
+     *   que cada participante ya recibió (conversation_epoch_keys).
+     * - NO se escribe ninguna fila en message_keys: un mensaje a un grupo
+     *   de 100 personas es 1 INSERT en vez de 101.
+     * - El frame STOMP es idéntico para todos (se serializa una vez).
+     *
+     * @param senderId       ID del usuario que envía
+     * @param conversationId ID de la conversación
+     * @param ciphertext     Contenido del mensaje cifrado con la clave de grupo
+     * @param keyEpoch       Época de la clave de grupo usada por el cliente
+     * @return La confirmación para el remitente (ID, hora del servidor)
+     *
+     * @throws org.springframework.security.access.AccessDeniedException Si el sender no es participante
+     * @throws IllegalArgumentException Si la conversación no es sender_key o la época no es la actual
+     */
+    @Transactional
+    public MessageReceiptDto sendSenderKeyMessage(Long senderId, Long conversationId,
+                                                  String ciphertext, Integer keyEpoch) {
+        return sendSenderKeyMessage(senderId, conversationId, ciphertext, keyEpoch, null);
+    }
+
+    /**
+     * Igual que {@link #sendSenderKeyMessage(Long, Long, String, Integer)}, con
+     * el clientMessageId opcional (ver sendAndStoreMessage).
+     */
+    @Transactional
+    public MessageReceiptDto sendSenderKeyMessage(Long senderId, Long conversationId,
+                                                  String ciphertext, Integer keyEpoch, String clientMessageId) {
+
+        MessageReceiptDto duplicate = findRecentDuplicate(senderId, clientMessageId);
+        if (duplicate != null) {
+            return duplicate;
+        }
+
+        log.debug("📨 Procesando mensaje (sender_key, época {}) de usuario {} para conversación {}",
+                keyEpoch, senderId, conversationId);
+
+        // ============================================
+        // 🔒 FASE 1: VALIDACIONES
+        // ============================================
+        Timer.Sample phase = chatMetrics.start();
+
+        permissionService.validateCanSendMessages(senderId, conversationId);
+
+        Conversation conv = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new IllegalArgumentException("Conversación no encontrada"));
+
+        if (!conv.isSenderKeyMode()) {
+            throw new IllegalArgumentException(
+                    "La conversación no usa clave de grupo: el mensaje debe incluir encryptedKeys");
+        }
+
+        // Un mensaje con una época vieja lo podría leer un miembro ya eliminado
+        if (keyEpoch == null || keyEpoch != conv.getKeyEpoch()) {
+            throw new IllegalArgumentException(
+                    "Época de clave obsoleta: la época actual es " + conv.getKeyEpoch());
         }
 
-        log.info(" Procesamiento de mensaje completado para conversación {}", conversationId);
+        if (!epochKeyRepository.existsByConversationIdAndEpoch(conversationId, keyEpoch)) {
+            throw new IllegalArgumentException(
+                    "La clave de grupo de la época " + keyEpoch + " todavía no fue distribuida");
+        }
+
+        List<Long> participantIds = conversationParticipantRepository.findUserIdsByConversationId(conversationId);
+
+        long validateNanos = chatMetrics.recordSendPhase(phase, Conversation.KEY_MODE_SENDER_KEY, ChatMetrics.PHASE_VALIDATE);
+        chatMetrics.recordMessageShape(participantIds.size(), ciphertext != null ? ciphertext.length() : 0);
+
+        // ============================================
+        // FASE 2: GUARDADO (una sola fila)
+        // ============================================
+        phase = chatMetrics.start();
+
+        Message message = new Message();
+        message.setConversation(conv);
+        message.setSenderId(senderId);
+        message.setCiphertext(ciphertext);
+        message.setKeyEpoch(keyEpoch);
+        message.setClientMessageId(clientMessageId);
+        message.setSeq(sequenceAllocator.next(conversationId));
+        message = messageRepository.save(message);
+        log.debug(" Mensaje {} guardado en BD (sin message_keys)", message.getId());
+
+        long persistNanos = chatMetrics.recordSendPhase(phase, Conversation.KEY_MODE_SENDER_KEY, ChatMetrics.PHASE_PERSIST);
+
+        // ============================================
+        // FASE 3: FAN-OUT (el mismo frame para todos los participantes online) O AL OUTBOX
+        // ============================================
+        phase = chatMetrics.start();
+
+        int delivered = DELIVERY_QUEUED;
+        if (outboxRelay.isEnabled()) {
+            outboxRelay.enqueue(message);
+        } else {
+            delivered = fanout.deliverSenderKey(conversationId, senderId, ciphertext, keyEpoch, message.getSeq(),
+                    userRepository.findDirectoryEntriesByIds(participantIds));
+        }
+
+        long fanoutNanos = chatMetrics.recordSendPhase(phase, Conversation.KEY_MODE_SENDER_KEY, ChatMetrics.PHASE_FANOUT);
+
+        versionTracker.userListsChanged(participantIds);
+
+        recentMessages.appendAfterCommit(conversationId, toRecentEntry(message, Map.of()),
+                recentSeed(conversationId, message.getId()));
+        MessageReceiptDto receipt = toReceipt(message);
+        sendDeduplicator.recordAfterCommit(senderId, receipt);
+
+        logSummary(message.getId(), conversationId, Conversation.KEY_MODE_SENDER_KEY,
+                participantIds.size(), delivered, validateNanos, persistNanos, fanoutNanos);
+        return receipt;
+    }
+
+    // ============================================
+    // REENVÍOS (clientMessageId)
+    // ============================================
+
+    /**
+     * Confirmación del mensaje ya guardado con ese clientMessageId según la
+     * ventana en memoria. Un reenvío reciente cuesta esta búsqueda: ni queries ni fan-out.
+     */
+    private MessageReceiptDto findRecentDuplicate(Long senderId, String clientMessageId) {
+        MessageReceiptDto receipt = sendDeduplicator.find(senderId, clientMessageId);
+        if (receipt != null) {
+            log.debug("🔁 Reenvío ignorado: clientMessageId={} de usuario {} ya es el mensaje {}",
+                    clientMessageId, senderId, receipt.getMessageId());
+            chatMetrics.recordDuplicateSend("memory");
+        }
+        return receipt;
+    }
+
+    /**
+     * Busca en la BD el mensaje de un reenvío que la ventana en memoria ya
+     * no recordaba (el INSERT chocó con uk_sender_client_message). Lo apunto
+     * en la ventana para que el siguiente reenvío no llegue a la BD.
+     *
+     * Se llama FUERA de la transacción del envío (que ya se deshizo). No es
+     * readOnly a propósito: con réplica, el original podría no haber llegado aún.
+     */
+    @Transactional
+    public Optional<MessageReceiptDto> resolveDuplicate(Long senderId, String clientMessageId) {
+        Optional<MessageReceiptDto> receipt = messageRepository
+                .findBySenderIdAndClientMessageId(senderId, clientMessageId)
+                .map(MessageService::toReceipt);
+        receipt.ifPresent(found -> {
+            sendDeduplicator.record(senderId, found);
+            chatMetrics.recordDuplicateSend("database");
+            log.info("🔁 Reenvío resuelto por el índice único: clientMessageId={} de usuario {} ya es el mensaje {}",
+                    clientMessageId, senderId, found.getMessageId());
+        });
+        return receipt;
+    }
+
+    private static MessageReceiptDto toReceipt(Message message) {
+        return new MessageReceiptDto(message.getClientMessageId(), message.getId(),
+                message.getConversation().getId(), message.getCreatedAt(), message.getSeq());
+    }
+
+    // ============================================
+    // BUFFER DE MENSAJES RECIENTES
+    // ============================================
+
+    private static RecentMessageBuffer.Entry toRecentEntry(Message message, Map<Long, String> keys) {
+        return new RecentMessageBuffer.Entry(message.getId(), message.getSenderId(), message.getCiphertext(),
+                message.getCreatedAt(), message.getSeq(), message.getKeyEpoch(), keys);
+    }
+
+    /**
+     * Siembra de una conversación que aún no está en el buffer: sus últimos
+     * mensajes hasta este (incluido), con las claves de todos los destinatarios,
+     * y el total. Son 3 queries, una vez por conversación "despertada".
+     */
+    private Supplier<RecentMessageBuffer.Window> recentSeed(Long conversationId, Long messageId) {
+        return () -> {
+            List<Message> latest = messageRepository.findLatestUpTo(conversationId, messageId,
+                    PageRequest.of(0, recentMessages.getCapacity(), Sort.by("id").descending()));
+
+            List<Long> pairwiseIds = latest.stream()
+                    .filter(msg -> msg.getKeyEpoch() == null)
+                    .map(Message::getId)
+                    .collect(Collectors.toList());
+            Map<Long, Map<Long, String>> keysByMessage = new HashMap<>();
+            if (!pairwiseIds.isEmpty()) {
+                for (RecipientKeyView key : messageKeyRepository.findRecipientKeyViews(pairwiseIds)) {
+                    keysByMessage.computeIfAbsent(key.getMessageId(), id -> new HashMap<>())
+                            .put(key.getRecipientId(), key.getEncryptedKey());
+                }
+            }
+
+            List<RecentMessageBuffer.Entry> entries = latest.stream()
+                    .map(msg -> toRecentEntry(msg, keysByMessage.getOrDefault(msg.getId(), Map.of())))
+                    .collect(Collectors.toList());
+            return new RecentMessageBuffer.Window(entries,
+                    messageRepository.countByConversationIdUpTo(conversationId, messageId));
+        };
+    }
+
+    /**
+     * UNA línea por mensaje (en vez de varias por destinatario), muestreada
+     * con app.logging.message-sample-rate.
+     *
+     * @param delivered Destinatarios online, o DELIVERY_QUEUED si lo reparte el outbox
+     */
+    private void logSummary(Long messageId, Long conversationId, String keyMode, int recipients, int delivered,
+                            long validateNanos, long persistNanos, long fanoutNanos) {
+        if (!log.isInfoEnabled() || !hotPathLogging.sampleMessage()) {
+            return;
+        }
+        log.info("✉️ Mensaje {} procesado: conversación={}, modo={}, destinatarios={}, online={}, " +
+                        "validate={}µs, persist={}µs, fanout={}µs",
+                messageId, conversationId, keyMode, recipients,
+                delivered == DELIVERY_QUEUED ? "outbox" : delivered,
+                TimeUnit.NANOSECONDS.toMicros(validateNanos),
+                TimeUnit.NANOSECONDS.toMicros(persistNanos),
+                TimeUnit.NANOSECONDS.toMicros(fanoutNanos));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,262 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.collections.LongLongHashMap;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Caché de ciphertexts FUERA del heap, por ID de mensaje.
+ *
+ * PROBLEMA:
+ * Con RecentMessageBuffer, los ciphertexts recientes (hasta 10KB cada uno)
+ * vivían en el heap: cientos de MB de Strings que el GC tiene que recorrer,
+ * en el mismo heap que las sesiones WebSocket.
+ *
+ * SOLUCIÓN:
+ * - La memoria son "slabs" de ByteBuffer.allocateDirect (fuera del heap),
+ *   que se reservan según hacen falta hasta el techo configurado
+ * - Cada ciphertext se escribe a continuación del anterior en el slab actual
+ * - Índice primitivo messageId -> (slab, offset, longitud) en un LongLongHashMap
+ * - Expulsión por reloj (CLOCK) a nivel de slab: cuando no hay sitio, la
+ *   manecilla recorre los slabs; uno leído desde la última vuelta tiene una
+ *   segunda oportunidad, el resto se recicla entero
+ *
+ * Al reciclar un slab borro del índice sus IDs (cada slab guarda la lista),
+ * así que una lectura nunca devuelve bytes de otro mensaje.
+ *
+ * Java 17 no tiene MemorySegment/Arena estables (llegan en Java 22): uso
+ * ByteBuffer directos, que además cuentan en -XX:MaxDirectMemorySize.
+ *
+ * Todas las operaciones van con el monitor de la caché: son copias de
+ * pocos KB, mucho menos que la query que evitan.
+ */
+@Component
+@Slf4j
+public class OffHeapCiphertextCache implements MeterBinder {
+
+    // Formato del valor del índice: slab (16 bits) | offset (24 bits) | longitud (24 bits)
+    private static final int FIELD_BITS = 24;
+    private static final long FIELD_MASK = (1L << FIELD_BITS) - 1;
+    static final int MAX_SLAB_BYTES = 1 << FIELD_BITS;
+    private static final int MAX_SLABS = 1 << 15;
+
+    private final boolean enabled;
+    private final int slabBytes;
+    private final ByteBuffer[] slabs;
+
+    // Por slab: IDs guardados, cuántos, y si se leyó desde la última vuelta del reloj
+    private final long[][] slabIds;
+    private final int[] slabIdCount;
+    private final boolean[] referenced;
+
+    private final LongLongHashMap index = new LongLongHashMap(1024);
+
+    private int allocatedSlabs;
+    private int current = -1;
+    private int writeOffset;
+    private int clockHand;
+
+    private long hits;
+    private long misses;
+    private long recycledSlabs;
+
+    public OffHeapCiphertextCache(@Value("${app.history.offheap-cache.enabled:false}") boolean enabled,
+                                  @Value("${app.history.offheap-cache.max-bytes:268435456}") long maxBytes,
+                                  @Value("${app.history.offheap-cache.slab-bytes:1048576}") int slabBytes) {
+        if (slabBytes < 1024 || slabBytes > MAX_SLAB_BYTES) {
+            throw new IllegalArgumentException("slab-bytes debe estar entre 1 KB y 16 MB");
+        }
+        int slabCount = (int) Math.min(MAX_SLABS, maxBytes / slabBytes);
+        if (enabled && slabCount < 2) {
+            throw new IllegalArgumentException("max-bytes debe permitir al menos 2 slabs");
+        }
+        this.enabled = enabled;
+        this.slabBytes = slabBytes;
+        this.slabs = new ByteBuffer[enabled ? slabCount : 0];
+        this.slabIds = new long[slabs.length][];
+        this.slabIdCount = new int[slabs.length];
+        this.referenced = new boolean[slabs.length];
+
+        if (enabled) {
+            log.info("🧊 Caché de ciphertexts fuera del heap: hasta {} slabs de {} bytes ({} MB)",
+                    slabCount, slabBytes, (long) slabCount * slabBytes / (1024 * 1024));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Guarda el ciphertext de un mensaje.
+     *
+     * @return false si la caché está desactivada o el ciphertext no cabe en un slab
+     */
+    public synchronized boolean put(long messageId, String ciphertext) {
+        if (!enabled || ciphertext == null) {
+            return false;
+        }
+        byte[] bytes = ciphertext.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > slabBytes) {
+            return false;
+        }
+        if (index.containsKey(messageId)) {
+            return true; // Un mensaje no cambia: lo que hay ya vale
+        }
+
+        if (current < 0 || writeOffset + bytes.length > slabBytes) {
+            nextSlab();
+        }
+
+        ByteBuffer slab = slabs[current];
+        slab.put(writeOffset, bytes);
+        index.put(messageId, pack(current, writeOffset, bytes.length));
+        addId(current, messageId);
+        writeOffset += bytes.length;
+        return true;
+    }
+
+    /**
+     * @return El ciphertext, o null si no está (nunca se guardó o se recicló su slab)
+     */
+    public synchronized String get(long messageId) {
+        if (!enabled) {
+            return null;
+        }
+        long location = index.get(messageId, -1L);
+        if (location < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+
+        int slabIndex = (int) (location >>> (2 * FIELD_BITS));
+        int offset = (int) ((location >>> FIELD_BITS) & FIELD_MASK);
+        int length = (int) (location & FIELD_MASK);
+
+        referenced[slabIndex] = true;
+        byte[] bytes = new byte[length];
+        slabs[slabIndex].get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized void remove(long messageId) {
+        if (enabled) {
+            // El espacio se recupera cuando se recicle el slab
+            index.remove(messageId);
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Bytes reservados fuera del heap (slabs creados hasta ahora).
+     */
+    public synchronized long reservedBytes() {
+        return (long) allocatedSlabs * slabBytes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("chat.history.offheap.reserved", this, OffHeapCiphertextCache::reservedBytes)
+                .description("Bytes fuera del heap reservados por la caché de ciphertexts")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.history.offheap.entries", this, OffHeapCiphertextCache::size)
+                .description("Ciphertexts en la caché fuera del heap")
+                .register(registry);
+        FunctionCounter.builder("chat.history.offheap.requests", this, cache -> cache.counter(true))
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("chat.history.offheap.requests", this, cache -> cache.counter(false))
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("chat.history.offheap.recycled", this, OffHeapCiphertextCache::recycledSlabs)
+                .description("Slabs reciclados por el reloj (expulsiones)")
+                .register(registry);
+    }
+
+    private synchronized double counter(boolean hit) {
+        return hit ? hits : misses;
+    }
+
+    private synchronized double recycledSlabs() {
+        return recycledSlabs;
+    }
+
+    // ============================================
+    // SLABS Y RELOJ
+    // ============================================
+
+    /**
+     * Pasa al siguiente slab: uno nuevo mientras quede techo, y si no, el que
+     * elija el reloj (que se vacía entero).
+     */
+    private void nextSlab() {
+        if (allocatedSlabs < slabs.length) {
+            current = allocatedSlabs++;
+            slabs[current] = ByteBuffer.allocateDirect(slabBytes);
+            slabIds[current] = new long[64];
+        } else {
+            current = clockVictim();
+            recycle(current);
+        }
+        writeOffset = 0;
+        referenced[current] = false;
+    }
+
+    private int clockVictim() {
+        while (true) {
+            int candidate = clockHand;
+            clockHand = (clockHand + 1) % slabs.length;
+            if (candidate == current) {
+                continue; // El slab en el que escribo no se recicla
+            }
+            if (referenced[candidate]) {
+                referenced[candidate] = false; // Segunda oportunidad
+                continue;
+            }
+            return candidate;
+        }
+    }
+
+    private void recycle(int slabIndex) {
+        long[] ids = slabIds[slabIndex];
+        for (int i = 0; i < slabIdCount[slabIndex]; i++) {
+            // Solo si la entrada sigue apuntando a este slab
+            long location = index.get(ids[i], -1L);
+            if (location >= 0 && (int) (location >>> (2 * FIELD_BITS)) == slabIndex) {
+                index.remove(ids[i]);
+            }
+        }
+        slabIdCount[slabIndex] = 0;
+        recycledSlabs++;
+    }
+
+    private void addId(int slabIndex, long messageId) {
+        long[] ids = slabIds[slabIndex];
+        if (slabIdCount[slabIndex] == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            slabIds[slabIndex] = ids;
+        }
+        ids[slabIdCount[slabIndex]++] = messageId;
+    }
+
+    private static long pack(int slabIndex, int offset, int length) {
+        return ((long) slabIndex << (2 * FIELD_BITS)) | ((long) offset << FIELD_BITS) | length;
+    }
+}
@@ -0,0 +1,170 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.PublicKeyDto;
+import com.chatprivate.messaging.model.UserPublicKey;
+import com.chatprivate.messaging.repository.UserPublicKeyRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directorio de claves públicas con caché en memoria.
+ *
+ * PROBLEMA:
+ * Antes de enviar a un grupo de 50 personas el cliente pedía 50 claves
+ * públicas, una por una: 50 requests HTTP y 50 lecturas de user_public_keys.
+ *
+ * SOLUCIÓN:
+ * - Caché en memoria (userId -> clave + versión), compartida por todos los requests
+ * - Lookup por lotes: los aciertos salen de la caché y los fallos en UNA query
+ * - UserService invalida la entrada cuando el usuario sube una clave nueva
+ *
+ * VERSIÓN:
+ * Uso updatedAt (en milisegundos) como versión de cada clave. El cliente
+ * la guarda y así sabe si una clave cambió sin volver a descargarla.
+ *
+ * NOTA: La caché es local a cada instancia. Con varias instancias, una clave
+ * actualizada en otra instancia no se ve aquí hasta que la entrada salga de la caché.
+ */
+@Service
+@Slf4j
+public class PublicKeyDirectory {
+
+    // Límite de entradas para que la caché no crezca sin control
+    static final int MAX_ENTRIES = 10_000;
+
+    private final UserPublicKeyRepository userPublicKeyRepository;
+
+    private final Map<Long, PublicKeyDto> cache = new ConcurrentHashMap<>();
+
+    // Se incrementa en cada invalidación. Una carga que empezó antes de una
+    // invalidación no guarda su resultado (podría ser la clave vieja).
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public PublicKeyDirectory(UserPublicKeyRepository userPublicKeyRepository) {
+        this.userPublicKeyRepository = userPublicKeyRepository;
+    }
+
+    /**
+     * Clave pública de un usuario (desde la caché si está).
+     */
+    public Optional<PublicKeyDto> getKey(Long userId) {
+        PublicKeyDto cached = cache.get(userId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        long generation = invalidations.get();
+        Optional<PublicKeyDto> loaded = userPublicKeyRepository.findById(userId).map(PublicKeyDirectory::toDto);
+        loaded.ifPresent(dto -> put(dto, generation));
+        return loaded;
+    }
+
+    /**
+     * Claves públicas de varios usuarios.
+     * Los usuarios sin clave simplemente no aparecen en el resultado.
+     *
+     * @return Las claves encontradas, en el orden de los IDs pedidos
+     */
+    public List<PublicKeyDto> getKeys(Collection<Long> userIds) {
+        Set<Long> requested = new LinkedHashSet<>(userIds);
+        Map<Long, PublicKeyDto> found = new HashMap<>(requested.size() * 2);
+        Set<Long> misses = new HashSet<>();
+
+        for (Long userId : requested) {
+            PublicKeyDto cached = cache.get(userId);
+            if (cached != null) {
+                found.put(userId, cached);
+            } else {
+                misses.add(userId);
+            }
+        }
+
+        // Todos los fallos de caché en UNA sola query. Los usuarios sin clave
+        // no vuelven en el resultado y no cuestan nada más.
+        if (!misses.isEmpty()) {
+            long generation = invalidations.get();
+            List<UserPublicKey> loaded = userPublicKeyRepository.findAllById(misses);
+
+            if (invalidations.get() != generation) {
+                // Se invalidó alguna clave mientras cargaba: vuelvo a leer el lote
+                // (una query) y no lo guardo en la caché
+                loaded = userPublicKeyRepository.findAllById(misses);
+            }
+            for (UserPublicKey upk : loaded) {
+                PublicKeyDto dto = toDto(upk);
+                put(dto, generation); // No hace nada si hubo una invalidación
+                found.put(dto.getUserId(), dto);
+            }
+            log.debug("🔑 Directorio de claves: {} aciertos, {} cargadas de BD",
+                    requested.size() - misses.size(), misses.size());
+        }
+
+        List<PublicKeyDto> result = new ArrayList<>(found.size());
+        for (Long userId : requested) {
+            PublicKeyDto dto = found.get(userId);
+            if (dto != null) {
+                result.add(dto);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invalida la clave de un usuario.
+     *
+     * Si hay una transacción activa, vuelvo a invalidar cuando termina
+     * (commit o rollback): así ningún request que leyó la clave vieja
+     * (o una nueva que se revirtió) la deja en la caché.
+     */
+    public void evict(Long userId) {
+        invalidate(userId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidate(userId);
+                }
+            });
+        }
+    }
+
+    private void invalidate(Long userId) {
+        invalidations.incrementAndGet();
+        cache.remove(userId);
+    }
+
+    private void put(PublicKeyDto dto, long generation) {
+        if (invalidations.get() != generation) {
+            return;
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            // Caché llena: saco una entrada cualquiera (no necesito LRU exacto)
+            Iterator<Long> it = cache.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        cache.put(dto.getUserId(), dto);
+    }
+
+    private static PublicKeyDto toDto(UserPublicKey upk) {
+        return new PublicKeyDto(upk.getUserId(), upk.getPublicKeyPem(), upk.getUpdatedAt().toEpochMilli());
+    }
+}
@@ -0,0 +1,367 @@
+package com.chatprivate.messaging.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Últimos mensajes de cada conversación activa, en memoria.
+ *
+ * PROBLEMA:
+ * Casi todas las lecturas del historial piden la página 0 (los 50 más
+ * recientes) de getMessageHistoryPaged, y cada una iba a MySQL: mensajes,
+ * claves y un COUNT para el total.
+ *
+ * SOLUCIÓN:
+ * - Un buffer circular por conversación con los últimos N mensajes
+ *   (ciphertext + la clave de cada destinatario, o la época en sender_key)
+ * - MessageService lo llena DESPUÉS del commit (nunca contiene un mensaje revertido)
+ * - Presupuesto global de memoria: si se supera, saco las conversaciones
+ *   usadas hace más tiempo (LRU)
+ * - Con OffHeapCiphertextCache activa, el ciphertext va fuera del heap y la
+ *   entrada solo guarda metadatos y claves (getCiphertext() devuelve null)
+ *
+ * CUÁNDO PUEDE RESPONDER:
+ * El buffer de una conversación nace con su primer mensaje tras el arranque
+ * (o tras ser expulsado): en ese momento se siembra desde la BD con los N
+ * anteriores y el total (una sola vez por conversación "despertada").
+ * Responde a la primera página si tiene al menos "size" mensajes, o si
+ * contiene la conversación entera. Si no, el servicio va a la BD.
+ *
+ * Los commits pueden llegar fuera de orden: cada mensaje se coloca por ID y
+ * los repetidos (ya sembrados) se ignoran.
+ *
+ * NOTA: Como ConversationVersionTracker y PublicKeyDirectory, es local a cada
+ * instancia: con varias instancias hay que desactivarlo (mensajes enviados
+ * en otra instancia no llegarían aquí).
+ */
+@Component
+@Slf4j
+public class RecentMessageBuffer {
+
+    // Coste aproximado de una entrada y de cada clave, sin contar los strings
+    static final int ENTRY_OVERHEAD_BYTES = 96;
+    static final int KEY_OVERHEAD_BYTES = 64;
+
+    private final boolean enabled;
+    private final int capacity;
+    private final long maxBytes;
+    private final OffHeapCiphertextCache offHeap;
+
+    // Orden de ACCESO: la primera entrada es la conversación usada hace más tiempo.
+    // Todo el estado (mapa, buffers y bytes) se protege con el monitor del mapa;
+    // las operaciones son cortas (como mucho copiar "capacity" referencias).
+    private final LinkedHashMap<Long, Ring> rings = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+
+    public RecentMessageBuffer(@Value("${app.history.recent-buffer.enabled:true}") boolean enabled,
+                               @Value("${app.history.recent-buffer.messages-per-conversation:50}") int capacity,
+                               @Value("${app.history.recent-buffer.max-bytes:67108864}") long maxBytes,
+                               OffHeapCiphertextCache offHeap) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("messages-per-conversation debe ser mayor que 0");
+        }
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        log.info("🧠 Buffer de mensajes recientes: {} (últimos {} por conversación, máximo {} bytes)",
+                enabled ? "activado" : "desactivado", capacity, maxBytes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Añade el mensaje cuando la transacción actual hace commit
+     * (o ya mismo, si no hay transacción).
+     *
+     * @param seed Últimos mensajes de la conversación hasta este (incluido) y su
+     *             total. Solo se llama si la conversación no tenía buffer, ya
+     *             después del commit.
+     */
+    public void appendAfterCommit(Long conversationId, Entry entry, Supplier<Window> seed) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            append(conversationId, entry, seed);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    append(conversationId, entry, seed);
+                } catch (RuntimeException e) {
+                    // El mensaje ya está guardado: sin buffer, el historial sale de la BD
+                    log.warn("⚠️ No pude añadir el mensaje {} al buffer de la conversación {}: {}",
+                            entry.getMessageId(), conversationId, e.getMessage());
+                    evict(conversationId);
+                }
+            }
+        });
+    }
+
+    void append(Long conversationId, Entry entry, Supplier<Window> seed) {
+        entry = moveOffHeap(entry);
+        synchronized (rings) {
+            if (rings.containsKey(conversationId)) {
+                usedBytes += rings.get(conversationId).add(entry);
+                evictColdest();
+                return;
+            }
+        }
+
+        // La siembra va a la BD: fuera del monitor, para no frenar a los demás
+        Window seeded = seed.get();
+
+        synchronized (rings) {
+            Ring ring = rings.get(conversationId);
+            if (ring == null) {
+                // Cada add suma uno: parto del total sin los mensajes sembrados
+                ring = new Ring(capacity, seeded.getTotal() - seeded.getEntries().size());
+                rings.put(conversationId, ring);
+            }
+            for (Entry older : seeded.getEntries()) {
+                usedBytes += ring.add(moveOffHeap(older));
+            }
+            usedBytes += ring.add(entry);
+            evictColdest();
+        }
+    }
+
+    /**
+     * Los "size" mensajes más recientes (el más nuevo primero), si el buffer
+     * los tiene todos. Vacío si la conversación no está o no alcanza.
+     */
+    public Optional<Window> newest(Long conversationId, int size) {
+        if (!enabled || size > capacity) {
+            return Optional.empty();
+        }
+        synchronized (rings) {
+            Ring ring = rings.get(conversationId);
+            if (ring == null || (ring.size < size && ring.size < ring.total)) {
+                return Optional.empty();
+            }
+            return Optional.of(new Window(ring.newest(size), ring.total));
+        }
+    }
+
+    /**
+     * Olvida una conversación (la próxima lectura irá a la BD).
+     */
+    public void evict(Long conversationId) {
+        synchronized (rings) {
+            Ring ring = rings.remove(conversationId);
+            if (ring != null) {
+                usedBytes -= ring.bytes;
+            }
+        }
+    }
+
+    public int conversationCount() {
+        synchronized (rings) {
+            return rings.size();
+        }
+    }
+
+    public long usedBytes() {
+        synchronized (rings) {
+            return usedBytes;
+        }
+    }
+
+    /**
+     * Copia el ciphertext fuera del heap (si se puede) y devuelve la entrada sin él.
+     */
+    private Entry moveOffHeap(Entry entry) {
+        if (entry.getCiphertext() != null && offHeap.put(entry.getMessageId(), entry.getCiphertext())) {
+            return entry.withoutCiphertext();
+        }
+        return entry;
+    }
+
+    private void evictColdest() {
+        Iterator<Map.Entry<Long, Ring>> it = rings.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Ring coldest = it.next().getValue();
+            usedBytes -= coldest.bytes;
+            it.remove();
+        }
+    }
+
+    // ============================================
+    // ENTRADAS
+    // ============================================
+
+    /**
+     * Un mensaje tal como lo necesita el historial. Inmutable.
+     */
+    public static final class Entry {
+
+        private final Long messageId;
+        private final Long senderId;
+        // null si está en OffHeapCiphertextCache
+        private final String ciphertext;
+        private final Instant createdAt;
+        private final Long seq;
+        private final Integer keyEpoch;
+
+        // recipientId -> clave cifrada (vacío en modo sender_key)
+        private final Map<Long, String> keys;
+
+        private final long bytes;
+
+        public Entry(Long messageId, Long senderId, String ciphertext, Instant createdAt,
+                     Long seq, Integer keyEpoch, Map<Long, String> keys) {
+            this.messageId = messageId;
+            this.senderId = senderId;
+            this.ciphertext = ciphertext;
+            this.createdAt = createdAt;
+            this.seq = seq;
+            this.keyEpoch = keyEpoch;
+            this.keys = Map.copyOf(keys);
+            this.bytes = estimateBytes(ciphertext, this.keys);
+        }
+
+        /**
+         * La misma entrada sin el ciphertext (ya guardado fuera del heap).
+         */
+        Entry withoutCiphertext() {
+            return new Entry(messageId, senderId, null, createdAt, seq, keyEpoch, keys);
+        }
+
+        public Long getMessageId() { return messageId; }
+        public Long getSenderId() { return senderId; }
+        public String getCiphertext() { return ciphertext; }
+        public Instant getCreatedAt() { return createdAt; }
+        public Long getSeq() { return seq; }
+        public Integer getKeyEpoch() { return keyEpoch; }
+
+        /**
+         * Clave cifrada para un destinatario (null si no tiene).
+         */
+        public String keyFor(Long recipientId) {
+            return keys.get(recipientId);
+        }
+
+        /**
+         * Ciphertext y claves van en Base64: un byte por carácter (compact strings).
+         */
+        private static long estimateBytes(String ciphertext, Map<Long, String> keys) {
+            long bytes = ENTRY_OVERHEAD_BYTES + (ciphertext != null ? ciphertext.length() : 0);
+            for (String key : keys.values()) {
+                bytes += KEY_OVERHEAD_BYTES + key.length();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Los mensajes más recientes de una conversación y su total.
+     * Es el resultado de una lectura y también la siembra de un buffer nuevo.
+     */
+    public static final class Window {
+
+        private final List<Entry> entries;
+        private final long total;
+
+        public Window(List<Entry> entries, long total) {
+            this.entries = entries;
+            this.total = total;
+        }
+
+        public List<Entry> getEntries() { return entries; }
+        public long getTotal() { return total; }
+    }
+
+    /**
+     * Buffer circular de una conversación, ordenado por ID (el más viejo en head).
+     * Solo se usa con el monitor de "rings".
+     */
+    private static final class Ring {
+
+        private final Entry[] slots;
+        private int head;
+        private int size;
+        private long total;
+        private long bytes;
+
+        private Ring(int capacity, long initialTotal) {
+            this.slots = new Entry[capacity];
+            this.total = initialTotal;
+        }
+
+        /**
+         * @return Variación de bytes
+         */
+        private long add(Entry entry) {
+            for (int i = 0; i < size; i++) {
+                if (slot(i).getMessageId().equals(entry.getMessageId())) {
+                    return 0; // Ya estaba
+                }
+            }
+            long delta = 0;
+            if (size == slots.length) {
+                if (entry.getMessageId() < slot(0).getMessageId()) {
+                    // Más viejo que todo lo que guardo: no entra en la ventana, y
+                    // tampoco cuenta (llegó tarde: la siembra ya lo incluía en el total)
+                    return 0;
+                }
+                delta -= slot(0).bytes;
+                slots[head] = null;
+                head = (head + 1) % slots.length;
+                size--;
+            }
+
+            total++;
+
+            // Casi siempre es el más nuevo. Si un commit llegó fuera de orden,
+            // lo muevo hacia atrás hasta su sitio.
+            int pos = size++;
+            while (pos > 0 && slot(pos - 1).getMessageId() > entry.getMessageId()) {
+                setSlot(pos, slot(pos - 1));
+                pos--;
+            }
+            setSlot(pos, entry);
+
+            delta += entry.bytes;
+            bytes += delta;
+            return delta;
+        }
+
+        private List<Entry> newest(int count) {
+            int n = Math.min(count, size);
+            List<Entry> result = new ArrayList<>(n);
+            for (int i = size - 1; i >= size - n; i--) {
+                result.add(slot(i));
+            }
+            return result;
+        }
+
+        private Entry slot(int index) {
+            return slots[(head + index) % slots.length];
+        }
+
+        private void setSlot(int index, Entry entry) {
+            slots[(head + index) % slots.length] = entry;
+        }
+    }
+}
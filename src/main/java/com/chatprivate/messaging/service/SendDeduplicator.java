@@ -0,0 +1,194 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.MessageReceiptDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Ventana de deduplicación de envíos: clientMessageId -> confirmación, por remitente.
+ *
+ * PROBLEMA:
+ * Con redes móviles inestables, el cliente reenvía /app/chat.send después de
+ * reconectar. Cada reenvío insertaba OTRO Message con todas sus MessageKey
+ * y repetía el fan-out.
+ *
+ * SOLUCIÓN:
+ * - El cliente manda un clientMessageId (opcional) con cada mensaje
+ * - Guardo los últimos N por remitente (LRU acotado) tras el commit: un
+ *   reintento cuesta una búsqueda en memoria y no toca la BD
+ * - Guardo la confirmación entera: el reenvío recibe el mismo receipt que el original
+ * - Si la ventana ya no lo tiene (reinicio, otra instancia), el índice único
+ *   uk_sender_client_message de messages rechaza el duplicado y
+ *   StompChatController lo resuelve buscando el mensaje original
+ *
+ * Solo guardo envíos confirmados (afterCommit, como RecentMessageBuffer):
+ * un mensaje revertido se puede volver a mandar con el mismo ID.
+ *
+ * MEMORIA:
+ * per-sender x max-senders no es un límite real (256 x 100.000 = varios GB).
+ * El límite de verdad es max-entries, contando TODAS las ventanas: al pasarlo
+ * salen enteras las ventanas de los remitentes menos activos. Además cada ID
+ * caduca a los ttl (un reenvío llega segundos o minutos después, no horas);
+ * lo que sobreviva a eso lo sigue parando el índice único.
+ */
+@Component
+@Slf4j
+public class SendDeduplicator {
+
+    private final boolean enabled;
+    private final int perSender;
+    private final int maxSenders;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    // senderId -> su ventana. Orden de acceso: al pasar de maxSenders (o de
+    // maxEntries en total) sale el remitente menos activo
+    private final LinkedHashMap<Long, LinkedHashMap<String, Entry>> windows;
+
+    // IDs guardados en todas las ventanas (protegido por el lock de windows)
+    private int entryCount;
+
+    @Autowired
+    public SendDeduplicator(@Value("${app.messaging.dedup.enabled:true}") boolean enabled,
+                            @Value("${app.messaging.dedup.per-sender:256}") int perSender,
+                            @Value("${app.messaging.dedup.max-senders:100000}") int maxSenders,
+                            @Value("${app.messaging.dedup.max-entries:100000}") int maxEntries,
+                            @Value("${app.messaging.dedup.ttl:10m}") Duration ttl) {
+        this(enabled, perSender, maxSenders, maxEntries, ttl, System::currentTimeMillis);
+    }
+
+    // Para los tests: reloj controlable
+    SendDeduplicator(boolean enabled, int perSender, int maxSenders, int maxEntries, Duration ttl,
+                     LongSupplier clock) {
+        this.enabled = enabled;
+        this.perSender = perSender;
+        this.maxSenders = maxSenders;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.windows = new LinkedHashMap<>(1024, 0.75f, true);
+
+        if (enabled) {
+            log.info("🔁 Deduplicación de envíos: {} IDs por remitente, hasta {} remitentes y {} IDs en total (caducan a los {})",
+                    perSender, maxSenders, maxEntries, ttl);
+        }
+    }
+
+    /**
+     * @return La confirmación del mensaje ya guardado con ese clientMessageId, o null
+     */
+    public MessageReceiptDto find(Long senderId, String clientMessageId) {
+        if (!enabled || clientMessageId == null) {
+            return null;
+        }
+        synchronized (windows) {
+            LinkedHashMap<String, Entry> window = windows.get(senderId);
+            if (window == null) {
+                return null;
+            }
+            Entry entry = window.get(clientMessageId);
+            if (entry == null) {
+                return null;
+            }
+            if (expired(entry, clock.getAsLong())) {
+                window.remove(clientMessageId);
+                entryCount--;
+                return null;
+            }
+            return entry.receipt;
+        }
+    }
+
+    /**
+     * Apunta el envío cuando la transacción actual confirme (o ya, si no hay).
+     */
+    public void recordAfterCommit(Long senderId, MessageReceiptDto receipt) {
+        if (!enabled || receipt.getClientMessageId() == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(senderId, receipt);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(senderId, receipt);
+            }
+        });
+    }
+
+    public void record(Long senderId, MessageReceiptDto receipt) {
+        if (!enabled || receipt.getClientMessageId() == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        synchronized (windows) {
+            LinkedHashMap<String, Entry> window = windows.computeIfAbsent(senderId, id -> new LinkedHashMap<>());
+
+            // La ventana va en orden de llegada: lo caducado (o lo que sobra) está al principio
+            Iterator<Entry> oldest = window.values().iterator();
+            while (oldest.hasNext()) {
+                Entry entry = oldest.next();
+                if (!expired(entry, now) && window.size() < perSender) {
+                    break;
+                }
+                oldest.remove();
+                entryCount--;
+            }
+
+            if (window.put(receipt.getClientMessageId(), new Entry(receipt, now)) == null) {
+                entryCount++;
+            }
+
+            // Límites globales: fuera los remitentes menos activos (nunca el actual)
+            Iterator<LinkedHashMap<String, Entry>> leastActive = windows.values().iterator();
+            while ((windows.size() > maxSenders || entryCount > maxEntries) && leastActive.hasNext()) {
+                LinkedHashMap<String, Entry> evicted = leastActive.next();
+                if (evicted == window) {
+                    break;
+                }
+                entryCount -= evicted.size();
+                leastActive.remove();
+            }
+        }
+    }
+
+    public int senderCount() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    public int entryCount() {
+        synchronized (windows) {
+            return entryCount;
+        }
+    }
+
+    private boolean expired(Entry entry, long now) {
+        return now - entry.recordedAt >= ttlMillis;
+    }
+
+    // Confirmación + cuándo se guardó (para la caducidad)
+    private static final class Entry {
+        private final MessageReceiptDto receipt;
+        private final long recordedAt;
+
+        private Entry(MessageReceiptDto receipt, long recordedAt) {
+            this.receipt = receipt;
+            this.recordedAt = recordedAt;
+        }
+    }
+}
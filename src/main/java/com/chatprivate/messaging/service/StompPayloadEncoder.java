@@ -0,0 +1,201 @@
+package com.chatprivate.messaging.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codificador de frames STOMP para el fan-out de mensajes.
+ *
+ * PROBLEMA:
+ * Antes, por cada destinatario construía un StompMessagePayload nuevo con el
+ * MISMO ciphertext (hasta 10KB) y Jackson lo serializaba otra vez. Un mensaje
+ * a un grupo de 100 personas serializaba el ciphertext 100 veces.
+ *
+ * SOLUCIÓN:
+ * - La parte común del JSON (conversationId, ciphertext, senderId, seq) se serializa
+ *   UNA sola vez a un buffer de bytes (el "prefijo").
+ * - Por cada destinatario solo escribo su entrada de encryptedKeys
+ *   ({"recipientId":"clave"}) y la pego entre el prefijo y el cierre.
+ *
+ * El JSON resultante es idéntico (en contenido) al que generaba Jackson
+ * con un StompMessagePayload, así que el cliente no nota el cambio.
+ *
+ * En modo "sender_key" no hay claves por destinatario: el MISMO frame
+ * (con encryptedKeys vacío y keyEpoch) se envía a todos.
+ */
+@Component
+public class StompPayloadEncoder {
+
+    // Cierre del mapa encryptedKeys y del objeto raíz
+    private static final byte[] FRAME_SUFFIX = "}}".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonFactory jsonFactory;
+
+    public StompPayloadEncoder(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Serializa la parte compartida del frame (todo menos la clave del destinatario).
+     *
+     * @param conversationId ID de la conversación
+     * @param senderId       ID del remitente
+     * @param ciphertext     Mensaje cifrado (común a todos los destinatarios)
+     * @return Un frame pre-serializado reutilizable para todo el fan-out
+     */
+    public SharedFrame encodeShared(Long conversationId, Long senderId, String ciphertext) {
+        return encodeShared(conversationId, senderId, ciphertext, null);
+    }
+
+    /**
+     * Igual que {@link #encodeShared(Long, Long, String)} pero indicando la época
+     * de la clave de grupo (modo "sender_key"). null en modo "pairwise".
+     */
+    public SharedFrame encodeShared(Long conversationId, Long senderId, String ciphertext, Integer keyEpoch) {
+        return encodeShared(conversationId, senderId, ciphertext, keyEpoch, null);
+    }
+
+    /**
+     * Frame completo: con la secuencia del mensaje en la conversación
+     * (null = sin el campo, como Jackson con StompMessagePayload.seq).
+     */
+    public SharedFrame encodeShared(Long conversationId, Long senderId, String ciphertext,
+                                    Integer keyEpoch, Long seq) {
+        ByteArrayBuilder buffer = new ByteArrayBuilder(ciphertext != null ? ciphertext.length() + 128 : 128);
+
+        try (JsonGenerator gen = jsonFactory.createGenerator(buffer)) {
+            // Sin esto, close() cerraría los objetos abiertos y rompería el prefijo
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            gen.writeStartObject();
+            writeNumberOrNull(gen, "conversationId", conversationId);
+            gen.writeStringField("ciphertext", ciphertext);
+            writeNumberOrNull(gen, "senderId", senderId);
+            if (keyEpoch == null) {
+                gen.writeNullField("keyEpoch");
+            } else {
+                gen.writeNumberField("keyEpoch", keyEpoch);
+            }
+            if (seq != null) {
+                gen.writeNumberField("seq", seq);
+            }
+            gen.writeFieldName("encryptedKeys");
+            gen.writeStartObject();
+            // No cierro los objetos: el cierre lo pongo yo en cada frame
+            gen.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo serializar el frame STOMP", e);
+        }
+
+        return new SharedFrame(buffer.toByteArray());
+    }
+
+    /**
+     * Destino de usuario equivalente al que usa convertAndSendToUser().
+     * Lo replico porque aquí envío con send() (el payload ya está serializado).
+     */
+    public static String userDestination(String username, String destination) {
+        return "/user/" + username.replace("/", "%2F") + destination;
+    }
+
+    private static void writeNumberOrNull(JsonGenerator gen, String field, Long value) throws IOException {
+        if (value == null) {
+            gen.writeNullField(field);
+        } else {
+            gen.writeNumberField(field, value);
+        }
+    }
+
+    /**
+     * Frame pre-serializado. Es inmutable y se puede usar para todos los destinatarios.
+     */
+    public static final class SharedFrame {
+
+        private final byte[] prefix;
+
+        // Cuerpo sin claves (modo sender_key). Se calcula una vez y se comparte.
+        private byte[] keylessBody;
+
+        private SharedFrame(byte[] prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * Cuerpo JSON con encryptedKeys vacío, idéntico para todos los destinatarios.
+         */
+        public byte[] keylessBody() {
+            if (keylessBody == null) {
+                byte[] body = new byte[prefix.length + FRAME_SUFFIX.length];
+                System.arraycopy(prefix, 0, body, 0, prefix.length);
+                System.arraycopy(FRAME_SUFFIX, 0, body, prefix.length, FRAME_SUFFIX.length);
+                keylessBody = body;
+            }
+            return keylessBody;
+        }
+
+        /**
+         * Message de Spring sin claves por destinatario (modo sender_key).
+         * El array de bytes es el mismo para todos; solo los headers son nuevos.
+         */
+        public Message<byte[]> keylessMessage() {
+            return createMessage(keylessBody());
+        }
+
+        /**
+         * Construye el cuerpo JSON completo para un destinatario.
+         * Solo se copia el prefijo (una copia de bytes, sin volver a serializar).
+         */
+        public byte[] bodyFor(long recipientId, String encryptedKey) {
+            byte[] id = Long.toString(recipientId).getBytes(StandardCharsets.US_ASCII);
+            byte[] key = JsonStringEncoder.getInstance().quoteAsUTF8(encryptedKey);
+
+            // prefijo + "id":"clave" + }}
+            byte[] body = new byte[prefix.length + id.length + key.length + 5 + FRAME_SUFFIX.length];
+            int pos = 0;
+
+            System.arraycopy(prefix, 0, body, pos, prefix.length);
+            pos += prefix.length;
+
+            body[pos++] = '"';
+            System.arraycopy(id, 0, body, pos, id.length);
+            pos += id.length;
+            body[pos++] = '"';
+            body[pos++] = ':';
+            body[pos++] = '"';
+            System.arraycopy(key, 0, body, pos, key.length);
+            pos += key.length;
+            body[pos++] = '"';
+
+            System.arraycopy(FRAME_SUFFIX, 0, body, pos, FRAME_SUFFIX.length);
+            return body;
+        }
+
+        /**
+         * Construye el Message de Spring listo para SimpMessagingTemplate.send().
+         * Lleva content-type JSON, igual que lo que producía el conversor de Jackson.
+         */
+        public Message<byte[]> messageFor(long recipientId, String encryptedKey) {
+            return createMessage(bodyFor(recipientId, encryptedKey));
+        }
+
+        private static Message<byte[]> createMessage(byte[] body) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            // Lo dejo mutable para que SimpMessagingTemplate ponga el destino sin copiar headers
+            accessor.setLeaveMutable(true);
+            return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+        }
+    }
+}
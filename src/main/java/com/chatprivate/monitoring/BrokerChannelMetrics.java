@@ -0,0 +1,75 @@
+package com.chatprivate.monitoring;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Métricas de las colas del broker STOMP (SimpleBroker).
+ *
+ * Spring crea un executor por canal. Si la cola de alguno crece, los
+ * mensajes se están encolando más rápido de lo que se procesan:
+ *
+ * - clientInboundChannel:  frames que llegan de los clientes (/app/chat.send)
+ * - clientOutboundChannel: frames que se escriben a los sockets
+ * - brokerChannel:         mensajes enviados con SimpMessagingTemplate
+ *
+ * Gauges: chat.broker.queue.depth y chat.broker.active.threads (tag "channel").
+ */
+@Component
+public class BrokerChannelMetrics implements MeterBinder {
+
+    private static final Map<String, String> CHANNEL_EXECUTORS = Map.of(
+            "inbound", "clientInboundChannelExecutor",
+            "outbound", "clientOutboundChannelExecutor",
+            "broker", "brokerChannelExecutor"
+    );
+
+    private final BeanFactory beanFactory;
+
+    public BrokerChannelMetrics(BeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CHANNEL_EXECUTORS.forEach((channel, beanName) -> {
+            if (!beanFactory.containsBean(beanName)) {
+                return;
+            }
+            ThreadPoolTaskExecutor executor = beanFactory.getBean(beanName, ThreadPoolTaskExecutor.class);
+
+            Gauge.builder("chat.broker.queue.depth", executor, poolValue(pool -> pool.getQueue().size()))
+                    .description("Tareas en cola en el executor del canal STOMP")
+                    .tag("channel", channel)
+                    .strongReference(true)
+                    .register(registry);
+
+            Gauge.builder("chat.broker.active.threads", executor, poolValue(ThreadPoolExecutor::getActiveCount))
+                    .description("Hilos ocupados en el executor del canal STOMP")
+                    .tag("channel", channel)
+                    .strongReference(true)
+                    .register(registry);
+        });
+    }
+
+    /**
+     * El executor puede no estar inicializado todavía (o ya cerrado): en ese caso reporto 0.
+     */
+    private static ToDoubleFunction<ThreadPoolTaskExecutor> poolValue(ToDoubleFunction<ThreadPoolExecutor> fn) {
+        return executor -> {
+            try {
+                return fn.applyAsDouble(executor.getThreadPoolExecutor());
+            } catch (IllegalStateException e) {
+                return 0;
+            }
+        };
+    }
+}
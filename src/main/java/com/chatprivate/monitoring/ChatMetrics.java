@@ -0,0 +1,193 @@
+package com.chatprivate.monitoring;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Punto central de métricas de la aplicación (Micrometer).
+ *
+ * Antes mi única visibilidad eran los logs. Ahora cada fase importante
+ * publica una métrica que se puede consultar en /actuator/prometheus:
+ *
+ * - chat.message.send         Timer por fase (validate, persist, fanout) y modo de claves
+ * - chat.message.recipients   Destinatarios por mensaje (histograma)
+ * - chat.message.ciphertext   Tamaño del ciphertext en bytes (histograma)
+ * - chat.message.duplicates  Reenvíos descartados por clientMessageId (memory / database)
+ * - chat.message.ack         Desde que llega el frame hasta la confirmación al remitente (histograma)
+ * - chat.outbox.batch        Duración de cada lote del relay del outbox (y mensajes por lote)
+ * - chat.outbox.lag          Desde que se guarda un mensaje hasta que el relay lo reparte
+ * - chat.outbox.failures     Repartos fallidos del outbox (retry / parked)
+ * - chat.history.read         Latencia de lectura del historial (full / paged)
+ * - chat.ratelimit.rejections Peticiones rechazadas por rate limit (login / register)
+ * - chat.jwt.validation       Tiempo de validación del JWT (http / websocket, valid / invalid)
+ *
+ * Las métricas del pool de Hikari (hikaricp.connections.*) las publica
+ * Spring Boot automáticamente; las colas del broker las publica BrokerChannelMetrics.
+ */
+@Component
+public class ChatMetrics {
+
+    public static final String PHASE_VALIDATE = "validate";
+    public static final String PHASE_PERSIST = "persist";
+    public static final String PHASE_FANOUT = "fanout";
+
+    private final MeterRegistry registry;
+
+    private final DistributionSummary recipientsPerMessage;
+    private final DistributionSummary ciphertextSize;
+    private final DistributionSummary outboxBatchSize;
+
+    // Cache de timers/counters con tags: evito el lookup en el registry en cada mensaje
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public ChatMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        this.recipientsPerMessage = DistributionSummary.builder("chat.message.recipients")
+                .description("Destinatarios por mensaje enviado")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        this.ciphertextSize = DistributionSummary.builder("chat.message.ciphertext")
+                .description("Tamaño del ciphertext de cada mensaje")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        this.outboxBatchSize = DistributionSummary.builder("chat.outbox.batch.size")
+                .description("Mensajes repartidos en cada lote del outbox")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Empieza a medir (el tiempo se registra con alguno de los record*).
+     */
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Registra la duración de una fase del envío de un mensaje.
+     *
+     * @param keyMode "pairwise" o "sender_key"
+     * @param phase   PHASE_VALIDATE, PHASE_PERSIST o PHASE_FANOUT
+     * @return La duración de la fase en nanosegundos (para la línea resumen del log)
+     */
+    public long recordSendPhase(Timer.Sample sample, String keyMode, String phase) {
+        return sample.stop(timer("chat.message.send", "Duración de cada fase del envío de un mensaje",
+                "mode", keyMode, "phase", phase));
+    }
+
+    /**
+     * Registra la "forma" de un mensaje: número de destinatarios y tamaño del ciphertext.
+     */
+    public void recordMessageShape(int recipients, int ciphertextLength) {
+        recipientsPerMessage.record(recipients);
+        ciphertextSize.record(ciphertextLength);
+    }
+
+    /**
+     * Registra la latencia de un envío vista por el cliente: desde que el frame
+     * llegó del socket hasta que se le mandó la confirmación (ya guardado).
+     *
+     * @param keyMode "pairwise" o "sender_key"
+     */
+    public void recordSendAck(String keyMode, long nanos) {
+        timer("chat.message.ack", "Desde que llega el frame hasta la confirmación al remitente",
+                "mode", keyMode).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cuenta un reenvío que no se volvió a guardar.
+     *
+     * @param source "memory" (SendDeduplicator) o "database" (índice único)
+     */
+    public void recordDuplicateSend(String source) {
+        counters.computeIfAbsent("duplicates:" + source, k -> Counter.builder("chat.message.duplicates")
+                .description("Mensajes reenviados por el cliente que ya estaban guardados")
+                .tag("source", source)
+                .register(registry)).increment();
+    }
+
+    /**
+     * Registra un lote repartido por MessageOutboxRelay (duración y tamaño).
+     */
+    public void recordOutboxBatch(Timer.Sample sample, int messages) {
+        sample.stop(timer("chat.outbox.batch", "Duración de cada lote del relay del outbox"));
+        outboxBatchSize.record(messages);
+    }
+
+    /**
+     * Registra cuánto esperó un mensaje en el outbox hasta repartirse.
+     */
+    public void recordOutboxLag(Duration lag) {
+        timer("chat.outbox.lag", "Desde que se guarda un mensaje hasta que el relay lo reparte")
+                .record(lag);
+    }
+
+    /**
+     * Cuenta un reparto fallido del outbox.
+     *
+     * @param parked true si ya no se va a reintentar (fila aparcada)
+     */
+    public void recordOutboxFailure(boolean parked) {
+        String outcome = parked ? "parked" : "retry";
+        counters.computeIfAbsent("outbox-failures:" + outcome, k -> Counter.builder("chat.outbox.failures")
+                .description("Repartos del outbox que fallaron")
+                .tag("outcome", outcome)
+                .register(registry)).increment();
+    }
+
+    /**
+     * Registra la latencia de una lectura del historial.
+     *
+     * @param type "full", "paged", "recent" (primera página desde RecentMessageBuffer),
+     *             "sync" (mensajes después de una secuencia) o "before" (antes de una secuencia)
+     */
+    public void recordHistoryRead(Timer.Sample sample, String type) {
+        sample.stop(timer("chat.history.read", "Latencia de lectura del historial de mensajes",
+                "type", type));
+    }
+
+    /**
+     * Cuenta una petición rechazada por el rate limit.
+     *
+     * @param endpoint "login" o "register"
+     */
+    public void recordRateLimitRejection(String endpoint) {
+        counters.computeIfAbsent("ratelimit:" + endpoint, k -> Counter.builder("chat.ratelimit.rejections")
+                .description("Peticiones rechazadas por rate limiting")
+                .tag("endpoint", endpoint)
+                .register(registry)).increment();
+    }
+
+    /**
+     * Registra el tiempo de validación de un JWT (incluye cargar el usuario).
+     *
+     * @param transport "http" o "websocket"
+     * @param valid     Si el token resultó válido
+     */
+    public void recordJwtValidation(Timer.Sample sample, String transport, boolean valid) {
+        sample.stop(timer("chat.jwt.validation", "Tiempo de validación del token JWT",
+                "transport", transport, "outcome", valid ? "valid" : "invalid"));
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        String key = name + ":" + String.join(":", tags);
+        return timers.computeIfAbsent(key, k -> Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
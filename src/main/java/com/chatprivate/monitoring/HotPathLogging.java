@@ -0,0 +1,50 @@
+package com.chatprivate.monitoring;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decide cuánto se loguea en el camino caliente (envío de mensajes).
+ *
+ * PROBLEMA:
+ * Con carga, escribir varias líneas INFO por destinatario y por mensaje
+ * se comía más CPU que el propio envío.
+ *
+ * SOLUCIÓN:
+ * - app.logging.message-sample-rate: fracción de mensajes que escriben su
+ *   línea resumen (1.0 = todos, 0.01 = uno de cada cien)
+ * - app.logging.per-recipient: activa/desactiva las líneas por destinatario
+ *
+ * Los avisos de seguridad (WARN) NO se muestrean nunca.
+ */
+@Component
+public class HotPathLogging {
+
+    private final double messageSampleRate;
+    private final boolean perRecipient;
+
+    public HotPathLogging(@Value("${app.logging.message-sample-rate:1.0}") double messageSampleRate,
+                          @Value("${app.logging.per-recipient:true}") boolean perRecipient) {
+        this.messageSampleRate = messageSampleRate;
+        this.perRecipient = perRecipient;
+    }
+
+    /**
+     * ¿Este mensaje escribe su línea resumen?
+     */
+    public boolean sampleMessage() {
+        if (messageSampleRate >= 1.0) {
+            return true;
+        }
+        return messageSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < messageSampleRate;
+    }
+
+    /**
+     * ¿Se escriben las líneas por destinatario? (además hace falta nivel DEBUG)
+     */
+    public boolean perRecipient() {
+        return perRecipient;
+    }
+}
@@ -0,0 +1,98 @@
+package com.chatprivate.monitoring;
+
+import com.chatprivate.messaging.repository.ConversationParticipantRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * Métricas de la caché de segundo nivel de Hibernate, por región.
+ *
+ * - chat.hibernate.cache.requests (tags region, result=hit|miss)
+ * - chat.hibernate.cache.puts     (tag region)
+ * - chat.hibernate.cache.hit.ratio (tag region): aciertos / (aciertos + fallos)
+ *   desde el arranque
+ *
+ * Las regiones son las de ehcache.xml (entidades, colecciones y la caché de
+ * consultas "membership"). Necesita hibernate.generate_statistics=true; si
+ * las estadísticas están apagadas no registro nada.
+ */
+@Component
+public class SecondLevelCacheMetrics implements MeterBinder {
+
+    // Regiones de la caché de consultas (se crean en la primera consulta)
+    private static final List<String> QUERY_REGIONS = List.of(
+            ConversationParticipantRepository.MEMBERSHIP_REGION,
+            "default-query-results-region"
+    );
+
+    private final Statistics statistics;
+
+    public SecondLevelCacheMetrics(EntityManagerFactory entityManagerFactory) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!statistics.isStatisticsEnabled()) {
+            return;
+        }
+
+        Set<String> regions = new TreeSet<>(List.of(statistics.getSecondLevelCacheRegionNames()));
+        regions.addAll(QUERY_REGIONS);
+
+        for (String region : regions) {
+            counter("chat.hibernate.cache.requests", region, CacheRegionStatistics::getHitCount)
+                    .tag("result", "hit")
+                    .register(registry);
+
+            counter("chat.hibernate.cache.requests", region, CacheRegionStatistics::getMissCount)
+                    .tag("result", "miss")
+                    .register(registry);
+
+            counter("chat.hibernate.cache.puts", region, CacheRegionStatistics::getPutCount)
+                    .register(registry);
+
+            Gauge.builder("chat.hibernate.cache.hit.ratio", statistics, stats -> hitRatio(stats.getCacheRegionStatistics(region)))
+                    .description("Proporción de aciertos de la región desde el arranque")
+                    .tag("region", region)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Aciertos / (aciertos + fallos). 0 si la región aún no se ha consultado.
+     */
+    public static double hitRatio(CacheRegionStatistics regionStats) {
+        if (regionStats == null) {
+            return 0.0;
+        }
+        long hits = regionStats.getHitCount();
+        long total = hits + regionStats.getMissCount();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * Las estadísticas de la región se buscan en cada lectura: las regiones de
+     * consultas no existen hasta que se ejecuta la primera consulta cacheable.
+     */
+    private FunctionCounter.Builder<Statistics> counter(String name, String region,
+                                                        ToLongFunction<CacheRegionStatistics> count) {
+        return FunctionCounter.builder(name, statistics, stats -> {
+                    CacheRegionStatistics regionStats = stats.getCacheRegionStatistics(region);
+                    return regionStats == null ? 0 : count.applyAsLong(regionStats);
+                })
+                .tag("region", region);
+    }
+}
@@ -0,0 +1,88 @@
+package com.chatprivate.monitoring;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spans hijos para las piezas que más pesan en el envío de un mensaje.
+ *
+ * - chat.permission.check: cada llamada a PermissionService
+ * - chat.repository:       cada llamada a un repositorio de Spring Data
+ *
+ * Solo creo el span si ya hay una observación en curso (el frame STOMP
+ * o la petición HTTP): así no genero trazas sueltas al arrancar o en
+ * tareas de fondo, y cada query queda colgando de su request.
+ */
+@Aspect
+@Component
+public class TracingAspect {
+
+    public static final String PERMISSION_CHECK = "chat.permission.check";
+    public static final String REPOSITORY_CALL = "chat.repository";
+
+    private final ObservationRegistry observationRegistry;
+
+    // Nombre del repositorio (UserRepository, ...) por clase de proxy
+    private final Map<Class<?>, String> repositoryNames = new ConcurrentHashMap<>();
+
+    public TracingAspect(ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry;
+    }
+
+    @Around("execution(public * com.chatprivate.security.PermissionService.*(..))")
+    public Object tracePermissionCheck(ProceedingJoinPoint pjp) throws Throwable {
+        return observeIfTracing(pjp, PERMISSION_CHECK,
+                "PermissionService." + pjp.getSignature().getName(),
+                "PermissionService");
+    }
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object traceRepositoryCall(ProceedingJoinPoint pjp) throws Throwable {
+        String repository = repositoryNames.computeIfAbsent(pjp.getThis().getClass(), k -> repositoryName(pjp.getThis()));
+        return observeIfTracing(pjp, REPOSITORY_CALL,
+                repository + "." + pjp.getSignature().getName(),
+                repository);
+    }
+
+    private Object observeIfTracing(ProceedingJoinPoint pjp, String name, String contextualName,
+                                    String component) throws Throwable {
+        if (observationRegistry.getCurrentObservation() == null) {
+            return pjp.proceed();
+        }
+
+        Observation observation = Observation.createNotStarted(name, observationRegistry)
+                .contextualName(contextualName)
+                .lowCardinalityKeyValue("component", component)
+                .lowCardinalityKeyValue("method", pjp.getSignature().getName())
+                .start();
+
+        try (Observation.Scope scope = observation.openScope()) {
+            return pjp.proceed();
+        } catch (Throwable e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * Los repositorios son proxies: busco la interfaz que declaré yo (com.chatprivate...).
+     */
+    private static String repositoryName(Object proxy) {
+        for (Class<?> iface : AopProxyUtils.proxiedUserInterfaces(proxy)) {
+            if (iface.getName().startsWith("com.chatprivate.")) {
+                return iface.getSimpleName();
+            }
+        }
+        return proxy.getClass().getSimpleName();
+    }
+}
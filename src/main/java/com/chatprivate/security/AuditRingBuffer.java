@@ -0,0 +1,120 @@
+package com.chatprivate.security;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cola circular acotada y SIN LOCKS (varios productores, varios consumidores).
+ *
+ * Es el algoritmo de Dmitry Vyukov: cada hueco tiene un número de secuencia
+ * que dice si está libre para escribir o listo para leer. Productores y
+ * consumidores solo compiten con un compareAndSet sobre tail/head.
+ *
+ * - offer() nunca bloquea: si está llena devuelve false (la política de
+ *   desbordamiento la decide SecurityAuditPipeline)
+ * - poll() nunca bloquea: si está vacía devuelve null
+ *
+ * La capacidad se redondea a la siguiente potencia de 2.
+ */
+class AuditRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+
+    // Siguiente posición a leer (consumidores) y a escribir (productores)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    AuditRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("La capacidad mínima es 2");
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Intenta encolar. Devuelve false si la cola está llena.
+     */
+    boolean offer(E element) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                // Hueco libre en mi posición: intento reservarlo
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(index, element);
+                    sequences.set(index, pos + 1); // Publicado para los consumidores
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // El hueco todavía tiene un elemento de la vuelta anterior: llena
+                return false;
+            } else {
+                // Otro productor se adelantó
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Saca el elemento más antiguo, o null si está vacía.
+     */
+    E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E element = slots.get(index);
+                    slots.set(index, null);
+                    sequences.set(index, pos + mask + 1); // Libre para la siguiente vuelta
+                    return element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Saca hasta max elementos y los añade a sink. Devuelve cuántos sacó.
+     */
+    int drainTo(Collection<? super E> sink, int max) {
+        int drained = 0;
+        E element;
+        while (drained < max && (element = poll()) != null) {
+            sink.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Tamaño aproximado (puede estar desfasado si hay productores/consumidores activos).
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
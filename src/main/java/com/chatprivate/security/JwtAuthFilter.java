@@ -1,5 +1,8 @@
 package com.chatprivate.security;
 
+import com.chatprivate.monitoring.ChatMetrics;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -30,6 +33,9 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     @Autowired
     private UserDetailsService userDetailsService; // Mi CustomUserDetailsService
 
+    @Autowired
+    private ChatMetrics chatMetrics; // Tiempo de validación del JWT
+
     @Override
     protected void doFilterInternal(HttpServletRequest request,
                                     HttpServletResponse response,
@@ -51,8 +57,20 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         // 3. Extraigo el token (quitando "Bearer ")
         jwt = authHeader.substring(7);
 
-        // 4. Extraigo el username del token
-        username = jwtService.extractUsername(jwt);
+        // Mido parseo + carga del usuario + validación (es el coste del JWT por request)
+        Timer.Sample sample = chatMetrics.start();
+
+        // 4. Extraigo el username del token.
+        // Un token caducado, mal formado o con firma falsa lanza al parsearlo:
+        // lo cuento como inválido y la petición sigue SIN autenticar
+        // (la rechaza la regla authenticated(), no un 500).
+        try {
+            username = jwtService.extractUsername(jwt);
+        } catch (JwtException | IllegalArgumentException ex) {
+            chatMetrics.recordJwtValidation(sample, "http", false);
+            filterChain.doFilter(request, response);
+            return;
+        }
 
         // 5. Si tengo username y NO hay ya una autenticación en el contexto
         if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
@@ -61,7 +79,10 @@ public class JwtAuthFilter extends OncePerRequestFilter {
             UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
 
             // 6. Valido el token (compruebo firma, expiración y que coincida el usuario)
-            if (jwtService.isTokenValid(jwt, userDetails)) {
+            boolean valid = jwtService.isTokenValid(jwt, userDetails);
+            chatMetrics.recordJwtValidation(sample, "http", valid);
+
+            if (valid) {
 
                 // 7. Si es válido, creo el token de autenticación de Spring
                 UsernamePasswordAuthenticationToken authToken =
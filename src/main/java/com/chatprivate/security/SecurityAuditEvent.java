@@ -0,0 +1,77 @@
+package com.chatprivate.security;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Evento de seguridad tipado (lo que antes era una línea de log).
+ *
+ * Se crea en el hilo de la petición con los datos "en crudo" (sin formatear);
+ * el formateo (fecha ISO, JSON) lo hace el hilo escritor de SecurityAuditPipeline.
+ */
+@Getter
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SecurityAuditEvent {
+
+    public enum Type {
+        LOGIN_SUCCESS(false),
+        LOGIN_FAILED(true),
+        REGISTRATION_SUCCESS(false),
+        REGISTRATION_FAILED(true),
+        ACCESS_DENIED(true),
+        RATE_LIMIT_EXCEEDED(true),
+        CONVERSATION_MODIFICATION(false),
+        SUSPICIOUS_ACTIVITY(true),
+        SECURITY_ERROR(true);
+
+        private final boolean warning;
+
+        Type(boolean warning) {
+            this.warning = warning;
+        }
+
+        public boolean isWarning() {
+            return warning;
+        }
+    }
+
+    private final Type type;
+
+    // Milisegundos epoch: tomarlos es barato, formatearlos no (se hace al escribir)
+    @Builder.Default
+    private final long timestamp = System.currentTimeMillis();
+
+    // Quién: username, userId o identificador del rate limit
+    private final String actor;
+
+    private final String email;
+    private final String ip;
+
+    // Sobre qué y qué: recurso (conversación, endpoint...) y acción
+    private final String resource;
+    private final String action;
+
+    private final String details;
+
+    @JsonIgnore
+    private final Throwable exception;
+
+    /**
+     * Fecha en ISO-8601 (solo para el JSON / la API de consulta).
+     */
+    public String getTime() {
+        return Instant.ofEpochMilli(timestamp).toString();
+    }
+
+    /**
+     * Excepción resumida (clase + mensaje) para el JSON.
+     */
+    public String getError() {
+        return exception != null ? exception.toString() : null;
+    }
+}
@@ -1,10 +1,8 @@
 package com.chatprivate.security;
 
-import lombok.extern.slf4j.Slf4j;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
-import java.time.Instant;
-
 /**
  * Logger especializado para eventos de seguridad.
  *
@@ -12,19 +10,21 @@ import java.time.Instant;
  * Centralizar el logging de eventos críticos de seguridad en un formato
  * estructurado y consistente, facilitando el análisis y auditoría.
  *
- * En producción, estos logs deberían:
- * 1. Ir a un archivo separado (security.log)
- * 2. Ser enviados a un SIEM (Security Information and Event Management)
- *    como Splunk, ELK Stack, o Datadog
- * 3. Generar alertas automáticas en caso de patrones sospechosos
- *
- * FORMATO DE LOG:
+ * Desde el pipeline de auditoría, cada método solo crea un SecurityAuditEvent
+ * y lo publica en SecurityAuditPipeline: no formatea ni escribe nada en el
+ * hilo de la petición. El escritor de fondo lo guarda en el archivo de
+ * auditoría (JSON Lines) y hace eco en el log con el formato de siempre:
  * [SECURITY] [EVENTO] timestamp | userId | acción | resultado | detalles
+ *
+ * En producción, el archivo de auditoría debería enviarse a un SIEM
+ * (Splunk, ELK Stack, Datadog) y generar alertas ante patrones sospechosos.
  */
 @Component
-@Slf4j
+@RequiredArgsConstructor
 public class SecurityAuditLogger {
 
+    private final SecurityAuditPipeline pipeline;
+
     /**
      * Loguea un intento de login (exitoso o fallido).
      *
@@ -34,29 +34,24 @@ public class SecurityAuditLogger {
      * @param reason Razón del fallo (si aplica)
      */
     public void logLoginAttempt(String username, boolean success, String ip, String reason) {
-        String status = success ? "SUCCESS" : "FAILED";
-        String details = reason != null ? reason : "N/A";
-
-        if (success) {
-            log.info("[SECURITY] [LOGIN_SUCCESS] {} | user={} | ip={}",
-                    Instant.now(), username, ip);
-        } else {
-            log.warn("[SECURITY] [LOGIN_FAILED] {} | user={} | ip={} | reason={}",
-                    Instant.now(), username, ip, details);
-        }
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(success ? SecurityAuditEvent.Type.LOGIN_SUCCESS : SecurityAuditEvent.Type.LOGIN_FAILED)
+                .actor(username)
+                .ip(ip)
+                .details(success ? null : (reason != null ? reason : "N/A"))
+                .build());
     }
 
     /**
      * Loguea un intento de registro.
      */
     public void logRegistration(String username, String email, boolean success, String ip) {
-        if (success) {
-            log.info("[SECURITY] [REGISTRATION_SUCCESS] {} | user={} | email={} | ip={}",
-                    Instant.now(), username, email, ip);
-        } else {
-            log.warn("[SECURITY] [REGISTRATION_FAILED] {} | user={} | email={} | ip={}",
-                    Instant.now(), username, email, ip);
-        }
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(success ? SecurityAuditEvent.Type.REGISTRATION_SUCCESS : SecurityAuditEvent.Type.REGISTRATION_FAILED)
+                .actor(username)
+                .email(email)
+                .ip(ip)
+                .build());
     }
 
     /**
@@ -65,8 +60,12 @@ public class SecurityAuditLogger {
      * Esto es CRÍTICO: indica que alguien intentó acceder a algo que no debería.
      */
     public void logAccessDenied(Long userId, String resource, String action) {
-        log.warn("[SECURITY] [ACCESS_DENIED] {} | userId={} | resource={} | action={}",
-                Instant.now(), userId, resource, action);
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(SecurityAuditEvent.Type.ACCESS_DENIED)
+                .actor(String.valueOf(userId))
+                .resource(resource)
+                .action(action)
+                .build());
     }
 
     /**
@@ -75,31 +74,46 @@ public class SecurityAuditLogger {
      * Múltiples eventos de este tipo desde la misma IP pueden indicar un ataque.
      */
     public void logRateLimitExceeded(String identifier, String endpoint, int attempts) {
-        log.warn("[SECURITY] [RATE_LIMIT_EXCEEDED] {} | identifier={} | endpoint={} | attempts={}",
-                Instant.now(), identifier, endpoint, attempts);
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(SecurityAuditEvent.Type.RATE_LIMIT_EXCEEDED)
+                .actor(identifier)
+                .resource(endpoint)
+                .details("attempts=" + attempts)
+                .build());
     }
 
     /**
      * Loguea cambios en conversaciones (añadir/eliminar participantes).
      */
     public void logConversationModification(Long userId, Long conversationId, String action, Long targetUserId) {
-        log.info("[SECURITY] [CONVERSATION_MODIFICATION] {} | userId={} | conversationId={} | action={} | targetUserId={}",
-                Instant.now(), userId, conversationId, action, targetUserId);
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(SecurityAuditEvent.Type.CONVERSATION_MODIFICATION)
+                .actor(String.valueOf(userId))
+                .resource("conversation:" + conversationId)
+                .action(action)
+                .details("targetUserId=" + targetUserId)
+                .build());
     }
 
     /**
      * Loguea intentos sospechosos o comportamientos anómalos.
      */
     public void logSuspiciousActivity(String description, String details) {
-        log.warn("[SECURITY] [SUSPICIOUS_ACTIVITY] {} | description={} | details={}",
-                Instant.now(), description, details);
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(SecurityAuditEvent.Type.SUSPICIOUS_ACTIVITY)
+                .action(description)
+                .details(details)
+                .build());
     }
 
     /**
      * Loguea errores críticos de seguridad (ej. fallos de cifrado).
      */
     public void logSecurityError(String error, Exception exception) {
-        log.error("[SECURITY] [SECURITY_ERROR] {} | error={}",
-                Instant.now(), error, exception);
+        pipeline.publish(SecurityAuditEvent.builder()
+                .type(SecurityAuditEvent.Type.SECURITY_ERROR)
+                .details(error)
+                .exception(exception)
+                .build());
     }
-}
\ No newline at end of file
+}
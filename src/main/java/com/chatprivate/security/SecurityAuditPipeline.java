@@ -0,0 +1,318 @@
+package com.chatprivate.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pipeline asíncrono de eventos de auditoría.
+ *
+ * PROBLEMA:
+ * SecurityAuditLogger escribía con SLF4J en el hilo de la petición y
+ * formateaba Instant.now() en cada llamada. En ráfagas de logins eso se
+ * notaba en la latencia.
+ *
+ * SOLUCIÓN:
+ * 1. El hilo de la petición solo crea un SecurityAuditEvent y lo mete en una
+ *    cola circular sin locks (AuditRingBuffer)
+ * 2. Un hilo escritor de fondo los saca por lotes y los añade (append-only) a
+ *    un archivo JSON Lines dedicado (app.security-audit.file)
+ * 3. Los últimos N eventos se guardan en memoria para consultarlos
+ *    (recentEvents, endpoint /actuator/securityevents)
+ *
+ * POLÍTICAS DE DESBORDAMIENTO (app.security-audit.overflow-policy):
+ * - DROP_NEWEST: si la cola está llena, descarto el evento nuevo (por defecto)
+ * - DROP_OLDEST: descarto el más antiguo para hacerle sitio al nuevo
+ * - CALLER_RUNS: lo escribe el propio hilo de la petición (no se pierde nada,
+ *   pero la petición paga la escritura)
+ *
+ * Los descartes se cuentan en la métrica chat.audit.dropped.
+ */
+@Component
+@Slf4j
+public class SecurityAuditPipeline implements MeterBinder {
+
+    public enum OverflowPolicy { DROP_NEWEST, DROP_OLDEST, CALLER_RUNS }
+
+    // Logger propio para el eco de los eventos (mismo formato que antes: [SECURITY] [TIPO] ...)
+    private static final Logger AUDIT_LOG = LoggerFactory.getLogger(SecurityAuditLogger.class);
+
+    // Cuánto duerme el escritor cuando no hay eventos
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final AuditRingBuffer<SecurityAuditEvent> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final Path file;
+    private final int batchSize;
+    private final int recentCapacity;
+    private final boolean echoToLog;
+    private final ObjectMapper objectMapper;
+
+    // Últimos eventos escritos (para la API de consulta)
+    private final Deque<SecurityAuditEvent> recent = new ArrayDeque<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    // Protege el archivo: lo usan el escritor y, con CALLER_RUNS, los hilos de petición
+    private final Object writeLock = new Object();
+    private BufferedWriter out;
+
+    private volatile boolean running = false;
+    private Thread writerThread;
+
+    public SecurityAuditPipeline(@Value("${app.security-audit.buffer-size:8192}") int bufferSize,
+                                 @Value("${app.security-audit.overflow-policy:DROP_NEWEST}") OverflowPolicy overflowPolicy,
+                                 @Value("${app.security-audit.file:logs/security-audit.log}") Path file,
+                                 @Value("${app.security-audit.batch-size:256}") int batchSize,
+                                 @Value("${app.security-audit.recent-events:500}") int recentCapacity,
+                                 @Value("${app.security-audit.echo-to-log:true}") boolean echoToLog,
+                                 ObjectMapper objectMapper) {
+        this.buffer = new AuditRingBuffer<>(bufferSize);
+        this.overflowPolicy = overflowPolicy;
+        this.file = file;
+        this.batchSize = batchSize;
+        this.recentCapacity = recentCapacity;
+        this.echoToLog = echoToLog;
+        this.objectMapper = objectMapper;
+    }
+
+    // ============================================
+    // CICLO DE VIDA DEL ESCRITOR
+    // ============================================
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::runWriter, "security-audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("🛡️ Pipeline de auditoría iniciado: archivo={}, capacidad={}, política={}",
+                file, buffer.capacity(), overflowPolicy);
+    }
+
+    /**
+     * Al apagar: paro el escritor, vacío lo que quede en la cola y cierro el archivo.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (writeLock) {
+            closeQuietly();
+        }
+    }
+
+    // ============================================
+    // PRODUCTORES (hilos de petición)
+    // ============================================
+
+    /**
+     * Publica un evento. Nunca bloquea (salvo con CALLER_RUNS y la cola llena).
+     */
+    public void publish(SecurityAuditEvent event) {
+        if (buffer.offer(event)) {
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case DROP_NEWEST -> dropped.incrementAndGet();
+            case DROP_OLDEST -> {
+                do {
+                    if (buffer.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                } while (!buffer.offer(event));
+            }
+            case CALLER_RUNS -> write(List.of(event));
+        }
+    }
+
+    // ============================================
+    // CONSULTA
+    // ============================================
+
+    /**
+     * Eventos recientes (del más nuevo al más antiguo).
+     *
+     * @param type  Filtrar por tipo (null = todos)
+     * @param limit Máximo de eventos
+     */
+    public List<SecurityAuditEvent> recentEvents(SecurityAuditEvent.Type type, int limit) {
+        List<SecurityAuditEvent> result = new ArrayList<>(Math.min(limit, recentCapacity));
+        synchronized (recent) {
+            Iterator<SecurityAuditEvent> it = recent.descendingIterator();
+            while (it.hasNext() && result.size() < limit) {
+                SecurityAuditEvent event = it.next();
+                if (type == null || event.getType() == type) {
+                    result.add(event);
+                }
+            }
+        }
+        return result;
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long writtenCount() {
+        return written.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("chat.audit.dropped", dropped, AtomicLong::get)
+                .description("Eventos de auditoría descartados por cola llena")
+                .tag("policy", overflowPolicy.name())
+                .register(registry);
+
+        Gauge.builder("chat.audit.queue.depth", buffer, AuditRingBuffer::size)
+                .description("Eventos de auditoría pendientes de escribir")
+                .register(registry);
+    }
+
+    // ============================================
+    // ESCRITOR (hilo de fondo)
+    // ============================================
+
+    private void runWriter() {
+        List<SecurityAuditEvent> batch = new ArrayList<>(batchSize);
+        while (true) {
+            batch.clear();
+            buffer.drainTo(batch, batchSize);
+
+            if (!batch.isEmpty()) {
+                write(batch);
+            } else if (running) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            } else {
+                return; // Parado y sin nada pendiente
+            }
+        }
+    }
+
+    /**
+     * Escribe un lote: una línea JSON por evento y un solo flush por lote.
+     */
+    private void write(List<SecurityAuditEvent> batch) {
+        synchronized (writeLock) {
+            try {
+                BufferedWriter writer = writer();
+                for (SecurityAuditEvent event : batch) {
+                    writer.write(objectMapper.writeValueAsString(event));
+                    writer.newLine();
+                }
+                writer.flush();
+            } catch (JsonProcessingException e) {
+                log.error("❌ No se pudo serializar un evento de auditoría", e);
+            } catch (IOException e) {
+                log.error("❌ Error escribiendo el archivo de auditoría {}", file, e);
+                closeQuietly(); // Lo reabro en el siguiente lote
+            }
+        }
+
+        written.addAndGet(batch.size());
+        remember(batch);
+
+        if (echoToLog) {
+            batch.forEach(SecurityAuditPipeline::echo);
+        }
+    }
+
+    private BufferedWriter writer() throws IOException {
+        if (out == null) {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        }
+        return out;
+    }
+
+    private void closeQuietly() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("⚠️ Error cerrando el archivo de auditoría", e);
+        }
+        out = null;
+    }
+
+    private void remember(List<SecurityAuditEvent> batch) {
+        synchronized (recent) {
+            for (SecurityAuditEvent event : batch) {
+                if (recent.size() == recentCapacity) {
+                    recent.removeFirst();
+                }
+                recent.addLast(event);
+            }
+        }
+    }
+
+    /**
+     * Eco en el log de la aplicación con el formato de siempre
+     * ([SECURITY] [TIPO] fecha | campos), ya fuera del hilo de la petición.
+     */
+    private static void echo(SecurityAuditEvent event) {
+        StringBuilder line = new StringBuilder(128)
+                .append("[SECURITY] [").append(event.getType()).append("] ").append(event.getTime());
+        appendField(line, "user", event.getActor());
+        appendField(line, "email", event.getEmail());
+        appendField(line, "ip", event.getIp());
+        appendField(line, "resource", event.getResource());
+        appendField(line, "action", event.getAction());
+        appendField(line, "details", event.getDetails());
+
+        if (event.getException() != null) {
+            AUDIT_LOG.error(line.toString(), event.getException());
+        } else if (event.getType().isWarning()) {
+            AUDIT_LOG.warn(line.toString());
+        } else {
+            AUDIT_LOG.info(line.toString());
+        }
+    }
+
+    private static void appendField(StringBuilder line, String name, String value) {
+        if (value != null) {
+            line.append(" | ").append(name).append('=').append(value);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.chatprivate.security;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Consulta de eventos de seguridad recientes (Actuator).
+ *
+ * USO:
+ * GET /actuator/securityevents?type=LOGIN_FAILED&limit=50
+ *
+ * NO está expuesto por defecto (management.endpoints.web.exposure.include).
+ * Si se expone, que sea en el puerto de management y solo para la red interna:
+ * cualquier usuario autenticado podría leerlo.
+ */
+@Component
+@Endpoint(id = "securityevents")
+@RequiredArgsConstructor
+public class SecurityEventsEndpoint {
+
+    static final int DEFAULT_LIMIT = 100;
+
+    private final SecurityAuditPipeline pipeline;
+
+    @ReadOperation
+    public List<SecurityAuditEvent> events(@Nullable SecurityAuditEvent.Type type, @Nullable Integer limit) {
+        return pipeline.recentEvents(type, limit != null && limit > 0 ? limit : DEFAULT_LIMIT);
+    }
+}
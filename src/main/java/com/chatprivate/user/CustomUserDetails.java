@@ -5,16 +5,29 @@ import org.springframework.security.core.userdetails.UserDetails;
 import java.util.Collection;
 import java.util.Collections;
 
+/**
+ * Principal de Spring Security.
+ *
+ * Guarda solo la proyección mínima (UserAuthView), no la entidad User:
+ * se crea en CADA request autenticado y no necesita la clave privada cifrada.
+ */
 public class CustomUserDetails implements UserDetails {
 
-    private final User user;
+    private final UserAuthView user;
 
-    public CustomUserDetails(User user) {
+    public CustomUserDetails(UserAuthView user) {
         this.user = user;
     }
 
-    public User getUser() {
-        return user;
+    public CustomUserDetails(User user) {
+        this(new UserAuthView(user.getId(), user.getUsername(), user.getPassword()));
+    }
+
+    /**
+     * ID del usuario autenticado (sin ir a la BD).
+     */
+    public Long getUserId() {
+        return user.getId();
     }
 
 
@@ -49,4 +62,4 @@ public class CustomUserDetails implements UserDetails {
     @Override public boolean isAccountNonLocked() { return true; }
     @Override public boolean isCredentialsNonExpired() { return true; }
     @Override public boolean isEnabled() { return true; }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package com.chatprivate.user;
 
+import com.chatprivate.config.Workload;
+import com.chatprivate.config.WorkloadPool;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -15,8 +17,10 @@ public class CustomUserDetailsService implements UserDetailsService {
     }
 
     @Override
+    @WorkloadPool(Workload.AUTH) // Pool propio: los historiales lentos no frenan la autenticación
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username)
+        // Proyección mínima: este método se llama en CADA request con JWT
+        UserAuthView user = userRepository.findAuthViewByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado " + username));
         return new CustomUserDetails(user);
     }
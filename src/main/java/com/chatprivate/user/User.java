@@ -4,15 +4,22 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.time.Instant;
 
 /**
  * Mi entidad JPA para la tabla 'users'.
  * Representa a un usuario en la base de datos.
+ *
+ * Está en la caché de segundo nivel (región "users"), así las cargas por ID
+ * no vuelven a la BD mientras el usuario no cambie.
  */
 @Entity
 @Table(name = "users")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
 @Getter
 @Setter
 @NoArgsConstructor
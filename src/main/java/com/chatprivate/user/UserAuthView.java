@@ -0,0 +1,19 @@
+package com.chatprivate.user;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Proyección mínima de un usuario para autenticación.
+ *
+ * Solo lo que necesita Spring Security (id, username y hash de la contraseña).
+ * No incluye las columnas de recuperación de clave (kekSalt, encryptedPrivateKey,
+ * kekIv), que pesan varios KB y solo hacen falta en el login.
+ */
+@Data
+@AllArgsConstructor
+public class UserAuthView {
+    private Long id;
+    private String username;
+    private String password;
+}
@@ -0,0 +1,19 @@
+package com.chatprivate.user;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Una página del directorio de usuarios.
+ *
+ * nextCursor es el username del último usuario de la página; se manda
+ * como "after" para pedir la siguiente. Es null cuando no hay más.
+ */
+@Data
+@AllArgsConstructor
+public class UserDirectoryPage {
+    private List<UserDto> users;
+    private String nextCursor;
+}
@@ -0,0 +1,160 @@
+package com.chatprivate.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Directorio de usuarios paginado y con búsqueda por prefijo.
+ *
+ * PROBLEMA:
+ * Al abrir "nuevo chat", GET /api/users hacía findAll(): recorría la tabla
+ * entera y cargaba cada User con su clave privada cifrada, para devolver
+ * solo id y username.
+ *
+ * SOLUCIÓN:
+ * - Query con proyección (id, username) y paginación por cursor (username)
+ * - Índice de prefijos OPCIONAL en memoria (app.user-directory.prefix-index.enabled):
+ *   un mapa ordenado de usernames que se construye al arrancar y se actualiza
+ *   con cada registro. Con el índice, la búsqueda no toca la BD.
+ *
+ * NOTA: El índice busca sin distinguir mayúsculas (como la collation de MySQL).
+ * Es local a cada instancia: con varias instancias, un usuario registrado en
+ * otra aparece aquí tras el siguiente reinicio.
+ */
+@Service
+@Slf4j
+public class UserDirectoryService {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 100;
+
+    private final UserRepository userRepository;
+    private final boolean prefixIndexEnabled;
+
+    // Clave: username en minúsculas + '\0' + username (ordenado y único)
+    private final NavigableMap<String, UserDto> prefixIndex = new ConcurrentSkipListMap<>();
+    private volatile boolean prefixIndexReady = false;
+
+    public UserDirectoryService(UserRepository userRepository,
+                                @Value("${app.user-directory.prefix-index.enabled:false}") boolean prefixIndexEnabled) {
+        this.userRepository = userRepository;
+        this.prefixIndexEnabled = prefixIndexEnabled;
+    }
+
+    /**
+     * Busca usuarios cuyo username empieza por el prefijo.
+     *
+     * @param prefix        Prefijo a buscar (null o vacío = todos)
+     * @param after         Cursor: username del último de la página anterior (null = primera página)
+     * @param limit         Tamaño de página (se limita a MAX_LIMIT)
+     * @param excludeUserId Usuario que no debe aparecer (el que busca)
+     */
+    public UserDirectoryPage search(String prefix, String after, int limit, Long excludeUserId) {
+        String safePrefix = prefix == null ? "" : prefix.trim();
+        int safeLimit = limit < 1 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+
+        List<UserDto> users = prefixIndexReady
+                ? searchIndex(safePrefix, after, safeLimit, excludeUserId)
+                : userRepository.findDirectoryPage(
+                        escapeLike(safePrefix) + "%",
+                        after == null ? "" : after,
+                        excludeUserId,
+                        PageRequest.of(0, safeLimit));
+
+        String nextCursor = users.size() == safeLimit ? users.get(users.size() - 1).getUsername() : null;
+        return new UserDirectoryPage(users, nextCursor);
+    }
+
+    /**
+     * Listado completo (id, username), sin cargar entidades.
+     * Lo sigue usando GET /api/users por compatibilidad.
+     */
+    public List<UserDto> listAll(Long excludeUserId) {
+        return userRepository.findAllDirectoryEntries().stream()
+                .filter(u -> !u.getId().equals(excludeUserId))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Añade un usuario recién registrado al índice (después del commit).
+     */
+    public void onUserRegistered(Long userId, String username) {
+        if (!prefixIndexEnabled) {
+            return;
+        }
+        Runnable add = () -> prefixIndex.put(indexKey(username), new UserDto(userId, username));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    add.run();
+                }
+            });
+        } else {
+            add.run();
+        }
+    }
+
+    /**
+     * Construye el índice de prefijos al arrancar (si está activado).
+     * Hasta que termina, las búsquedas van a la BD.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildPrefixIndex() {
+        if (!prefixIndexEnabled) {
+            return;
+        }
+        for (UserDto user : userRepository.findAllDirectoryEntries()) {
+            prefixIndex.put(indexKey(user.getUsername()), user);
+        }
+        prefixIndexReady = true;
+        log.info("📇 Índice de prefijos del directorio construido con {} usuarios", prefixIndex.size());
+    }
+
+    private List<UserDto> searchIndex(String prefix, String after, int limit, Long excludeUserId) {
+        String lowerPrefix = prefix.toLowerCase(Locale.ROOT);
+
+        // Rango [prefijo, prefijo + Character.MAX_VALUE), empezando después del cursor
+        NavigableMap<String, UserDto> range = prefixIndex.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false);
+        if (after != null && !after.isEmpty()) {
+            range = range.tailMap(indexKey(after), false);
+        }
+
+        List<UserDto> users = new ArrayList<>(limit);
+        for (UserDto user : range.values()) {
+            if (user.getId().equals(excludeUserId)) {
+                continue;
+            }
+            users.add(user);
+            if (users.size() == limit) {
+                break;
+            }
+        }
+        return users;
+    }
+
+    private static String indexKey(String username) {
+        return username.toLowerCase(Locale.ROOT) + '\0' + username;
+    }
+
+    /**
+     * Escapa los comodines de LIKE (el carácter de escape es '!').
+     */
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+}
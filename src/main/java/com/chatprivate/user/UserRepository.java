@@ -1,10 +1,72 @@
 package com.chatprivate.user;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
+    /**
+     * Carga la entidad COMPLETA (incluye la clave privada cifrada).
+     * Solo la uso en el login, que devuelve esos datos al cliente.
+     */
     Optional<User> findByUsername(String username);
+
+    /**
+     * Proyección mínima para autenticación (JWT por HTTP y por WebSocket).
+     * Evita leer encryptedPrivateKey (TEXT) en cada request.
+     */
+    @Query("SELECT new com.chatprivate.user.UserAuthView(u.id, u.username, u.password) " +
+            "FROM User u WHERE u.username = :username")
+    Optional<UserAuthView> findAuthViewByUsername(@Param("username") String username);
+
+    /**
+     * Solo el ID de un usuario a partir de su username.
+     */
+    @Query("SELECT u.id FROM User u WHERE u.username = :username")
+    Optional<Long> findIdByUsername(@Param("username") String username);
+
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
-}
\ No newline at end of file
+
+    /**
+     * Página del directorio de usuarios (solo id y username).
+     *
+     * OPTIMIZACIÓN:
+     * - Proyección a UserDto: NO carga la entidad completa (ni encryptedPrivateKey)
+     * - Paginación por cursor (username > :after) sobre el índice único de username,
+     *   en vez de OFFSET (que recorre todas las filas anteriores)
+     *
+     * @param pattern   Prefijo ya escapado + '%' (el carácter de escape es '!')
+     * @param after     Último username de la página anterior ("" para la primera)
+     * @param excludeId Usuario que no debe aparecer (el que hace la búsqueda), o null
+     * @param pageable  Solo se usa el tamaño (limit)
+     */
+    @Query("SELECT new com.chatprivate.user.UserDto(u.id, u.username) FROM User u " +
+            "WHERE u.username LIKE :pattern ESCAPE '!' " +
+            "AND u.username > :after " +
+            "AND (:excludeId IS NULL OR u.id <> :excludeId) " +
+            "ORDER BY u.username ASC")
+    List<UserDto> findDirectoryPage(@Param("pattern") String pattern,
+                                    @Param("after") String after,
+                                    @Param("excludeId") Long excludeId,
+                                    Pageable pageable);
+
+    /**
+     * Todos los usuarios como (id, username), ordenados por username.
+     * Usado para construir el índice de prefijos y por el listado antiguo.
+     */
+    @Query("SELECT new com.chatprivate.user.UserDto(u.id, u.username) FROM User u ORDER BY u.username ASC")
+    List<UserDto> findAllDirectoryEntries();
+
+    /**
+     * (id, username) de varios usuarios, sin cargar la entidad completa.
+     * Usado en el fan-out de mensajes (solo necesito el username para el destino STOMP).
+     */
+    @Query("SELECT new com.chatprivate.user.UserDto(u.id, u.username) FROM User u WHERE u.id IN :ids")
+    List<UserDto> findDirectoryEntriesByIds(@Param("ids") Collection<Long> ids);
+}
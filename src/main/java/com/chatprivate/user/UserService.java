@@ -3,8 +3,11 @@ package com.chatprivate.user;
 import com.chatprivate.auth.AuthResponse;
 import com.chatprivate.auth.LoginRequest;
 import com.chatprivate.auth.RegisterRequest;
+import com.chatprivate.config.Workload;
+import com.chatprivate.config.WorkloadPool;
 import com.chatprivate.messaging.model.UserPublicKey;
 import com.chatprivate.messaging.repository.UserPublicKeyRepository;
+import com.chatprivate.messaging.service.PublicKeyDirectory;
 import com.chatprivate.security.JwtService;
 import com.chatprivate.security.SecurityAuditLogger;
 import lombok.RequiredArgsConstructor;
@@ -14,6 +17,8 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+
 /**
  * Servicio principal para la lógica de negocio de Usuarios.
  *
@@ -31,6 +36,8 @@ public class UserService {
     private final JwtService jwtService;
     private final UserPublicKeyRepository userPublicKeyRepository;
     private final SecurityAuditLogger auditLogger; // <-- NUEVO
+    private final PublicKeyDirectory publicKeyDirectory;
+    private final UserDirectoryService userDirectoryService;
 
     /**
      * Registra un nuevo usuario en el sistema.
@@ -45,14 +52,6 @@ public class UserService {
      */
     @Transactional
     public AuthResponse register(RegisterRequest request) {
-        // Logueo el intento de registro
-        auditLogger.logRegistration(
-                request.getUsername(),
-                request.getEmail(),
-                false, // Aún no sabemos si será exitoso
-                "N/A" // La IP se loguea en el controller
-        );
-
         // Validaciones de negocio
         if (userRepository.existsByUsername(request.getUsername())) {
             auditLogger.logRegistration(request.getUsername(), request.getEmail(), false, "N/A");
@@ -80,12 +79,16 @@ public class UserService {
         // Guardo el usuario
         User savedUser = userRepository.save(user);
 
+        // Lo añado al índice del directorio (solo si el registro hace commit)
+        userDirectoryService.onUserRegistered(savedUser.getId(), savedUser.getUsername());
+
         // Guardo la clave pública
         if (request.getPublicKey() != null && !request.getPublicKey().isEmpty()) {
             UserPublicKey upk = new UserPublicKey();
             upk.setUserId(savedUser.getId());
             upk.setPublicKeyPem(request.getPublicKey());
             userPublicKeyRepository.save(upk);
+            publicKeyDirectory.evict(savedUser.getId());
         } else {
             auditLogger.logSuspiciousActivity(
                     "Registro sin clave pública",
@@ -118,6 +121,7 @@ public class UserService {
      * 3. Genera token JWT
      * 4. Loguea el evento de seguridad
      */
+    @WorkloadPool(Workload.AUTH)
     public AuthResponse login(LoginRequest request) {
         // Busco el usuario
         User user = userRepository.findByUsername(request.getUsername())
@@ -182,21 +186,26 @@ public class UserService {
      */
     @Transactional
     public void uploadPublicKey(String username, String publicKeyPem) {
-        User user = userRepository.findByUsername(username)
+        Long userId = userRepository.findIdByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
 
-        UserPublicKey upk = userPublicKeyRepository.findByUserId(user.getId())
+        UserPublicKey upk = userPublicKeyRepository.findByUserId(userId)
                 .orElse(new UserPublicKey());
 
-        upk.setUserId(user.getId());
+        upk.setUserId(userId);
         upk.setPublicKeyPem(publicKeyPem);
+        // La versión de la clave (ETag) sale de updatedAt: tiene que cambiar
+        upk.setUpdatedAt(Instant.now());
 
         userPublicKeyRepository.save(upk);
 
+        // Invalido la caché del directorio de claves (y otra vez al terminar la transacción)
+        publicKeyDirectory.evict(userId);
+
         // Logueo el evento de seguridad
         auditLogger.logSuspiciousActivity(
                 "Actualización de clave pública",
-                "Usuario: " + username + ", userId: " + user.getId()
+                "Usuario: " + username + ", userId: " + userId
         );
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.chatprivate.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios del mapa long -> long.
+ */
+class LongLongHashMapTest {
+
+    @Test
+    void putGetRemove_ShouldBehaveLikeAHashMap_UnderRandomOperations() {
+        // ARRANGE
+        LongLongHashMap map = new LongLongHashMap(4); // Pequeño: obliga a crecer
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        // ACT: claves en un rango pequeño para que haya colisiones y borrados
+        for (int i = 0; i < 50_000; i++) {
+            long key = 1 + random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                map.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+
+        // ASSERT
+        assertEquals(expected.size(), map.size());
+        for (long key = 1; key <= 2_000; key++) {
+            assertEquals(expected.getOrDefault(key, -1L), map.get(key, -1L));
+        }
+    }
+
+    @Test
+    void removeIfValue_ShouldOnlyRemove_WhenTheValueMatches() {
+        // ARRANGE
+        LongLongHashMap map = new LongLongHashMap(16);
+        map.put(7, 100);
+
+        // ACT & ASSERT
+        assertFalse(map.remove(7, 99));
+        assertTrue(map.containsKey(7));
+        assertTrue(map.remove(7, 100));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void zeroKey_ShouldBeRejected() {
+        // ACT & ASSERT
+        assertThrows(IllegalArgumentException.class, () -> new LongLongHashMap(4).put(0, 1));
+    }
+}
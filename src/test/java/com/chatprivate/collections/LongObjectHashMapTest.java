@@ -0,0 +1,73 @@
+package com.chatprivate.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios del mapa long -> objeto y de LongArrayList.
+ */
+class LongObjectHashMapTest {
+
+    @Test
+    void putGetRemove_ShouldBehaveLikeAHashMap_UnderRandomOperations() {
+        // ARRANGE
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(0); // Obliga a crecer
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        // ACT
+        for (int i = 0; i < 50_000; i++) {
+            long key = 1 + random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+            }
+        }
+
+        // ASSERT
+        assertEquals(expected.size(), map.size());
+        for (long key = 1; key <= 2_000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<Long, String> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void getOrDefault_ShouldReturnTheDefault_ForMissingKeys() {
+        // ARRANGE
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(4);
+        map.put(1, "uno");
+
+        // ACT & ASSERT
+        assertEquals("uno", map.getOrDefault(1, "?"));
+        assertEquals("?", map.getOrDefault(2, "?"));
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, "cero"));
+        assertThrows(IllegalArgumentException.class, () -> map.put(3, null));
+    }
+
+    @Test
+    void longArrayList_ShouldSortDistinct_AndExposeABoxedView() {
+        // ARRANGE
+        LongArrayList list = new LongArrayList(0);
+        for (long value : new long[]{5, 3, 5, 1, 3, 9}) {
+            list.add(value);
+        }
+
+        // ACT
+        list.sortDistinct();
+
+        // ASSERT
+        assertArrayEquals(new long[]{1, 3, 5, 9}, list.toArray());
+        assertEquals(java.util.List.of(1L, 3L, 5L, 9L), list.asList());
+        assertThrows(UnsupportedOperationException.class, () -> list.asList().add(2L));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(4));
+    }
+}
@@ -0,0 +1,99 @@
+package com.chatprivate.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios del ajuste adaptativo de pools (con un Hikari real sobre H2).
+ */
+class PoolAutoSizerTest {
+
+    private HikariDataSource dataSource;
+    private final List<Connection> held = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:autosizer;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPoolName("test");
+        dataSource.setMaximumPoolSize(2);
+        dataSource.setMinimumIdle(1);
+        dataSource.setConnectionTimeout(5000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (Connection connection : held) {
+            connection.close();
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void resize_ShouldGrowPool_WhenThreadsAreWaiting() throws Exception {
+        // ARRANGE: ocupo las 2 conexiones y dejo un hilo esperando
+        PoolAutoSizer sizer = new PoolAutoSizer(List.of(new PoolAutoSizer.ManagedPool("test", dataSource, 4)));
+        held.add(dataSource.getConnection());
+        held.add(dataSource.getConnection());
+
+        CompletableFuture<Connection> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return dataSource.getConnection();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        awaitWaitingThreads(1);
+
+        // ACT
+        sizer.resize();
+
+        // ASSERT
+        assertEquals(3, dataSource.getHikariConfigMXBean().getMaximumPoolSize());
+
+        // El hilo que esperaba obtiene la conexión nueva sin que se libere ninguna
+        held.add(waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(3, dataSource.getHikariPoolMXBean().getActiveConnections());
+    }
+
+    @Test
+    void resize_ShouldShrinkBackToFloor_AfterIdleCycles() {
+        // ARRANGE: el pool había crecido a 4 y ahora no se usa
+        PoolAutoSizer sizer = new PoolAutoSizer(List.of(new PoolAutoSizer.ManagedPool("test", dataSource, 4)));
+        dataSource.getHikariConfigMXBean().setMaximumPoolSize(4);
+        try (Connection ignored = dataSource.getConnection()) {
+            // Arranco el pool
+        } catch (Exception e) {
+            fail(e);
+        }
+
+        // ACT
+        for (int i = 0; i < PoolAutoSizer.SHRINK_AFTER_CYCLES * 5; i++) {
+            sizer.resize();
+        }
+
+        // ASSERT: baja de uno en uno, pero nunca por debajo del tamaño configurado (2)
+        assertEquals(2, dataSource.getHikariConfigMXBean().getMaximumPoolSize());
+    }
+
+    private void awaitWaitingThreads(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Ningún hilo llegó a esperar conexión");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
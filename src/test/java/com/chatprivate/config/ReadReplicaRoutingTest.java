@@ -0,0 +1,167 @@
+package com.chatprivate.config;
+
+import com.chatprivate.messaging.service.ConversationService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración del enrutado primaria / réplica.
+ *
+ * Uso DOS H2 en memoria: la de siempre (testdb) hace de primaria y
+ * "replica" hace de réplica. No hay replicación real: el test escribe a
+ * mano en cada una una tabla routing_probe con su nombre, y el latido de
+ * la réplica, para simular réplica al día o con retraso.
+ */
+@SpringBootTest(properties = {
+        "app.datasource.replica.enabled=true",
+        "app.datasource.replica.url=jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1",
+        "app.datasource.replica.username=sa",
+        "app.datasource.replica.password=",
+        "app.datasource.replica.driver-class-name=org.h2.Driver",
+        "app.datasource.replica.max-lag-ms=5000",
+        // El latido lo controla el test (refresh() a mano)
+        "app.datasource.replica.heartbeat-interval-ms=3600000"
+})
+@ActiveProfiles("test")
+class ReadReplicaRoutingTest {
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replicaDataSource;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(replicaDataSource);
+
+        for (var db : new Object[][]{{primary, "primary"}, {replica, "replica"}}) {
+            JdbcTemplate jdbc = (JdbcTemplate) db[0];
+            jdbc.execute("CREATE TABLE IF NOT EXISTS routing_probe (name VARCHAR(20))");
+            jdbc.update("DELETE FROM routing_probe");
+            jdbc.update("INSERT INTO routing_probe (name) VALUES (?)", db[1]);
+        }
+
+        replica.execute("CREATE TABLE IF NOT EXISTS " + ReplicaLagMonitor.HEARTBEAT_TABLE +
+                " (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)");
+    }
+
+    @Test
+    void readOnlyTransaction_ShouldUseReplica_WhenReplicaIsUpToDate() {
+        // ARRANGE
+        replicateHeartbeat(System.currentTimeMillis());
+
+        // ACT & ASSERT
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+        assertEquals("replica", probe(true));
+        assertEquals("primary", probe(false)); // Las escrituras siempre a la primaria
+    }
+
+    @Test
+    void readOnlyTransaction_ShouldFallBackToPrimary_WhenReplicaLags() {
+        // ARRANGE: el último latido que llegó a la réplica es de hace 1 minuto
+        replicateHeartbeat(System.currentTimeMillis() - 60_000);
+
+        // ACT & ASSERT
+        assertFalse(replicaLagMonitor.isReplicaUsable());
+        assertTrue(replicaLagMonitor.getLastLagMs() >= 60_000);
+        assertEquals("primary", probe(true));
+    }
+
+    @Test
+    void readOnlyTransaction_ShouldFallBackToPrimary_WhenReplicaHasNoHeartbeat() {
+        // ARRANGE: la réplica no tiene latido (p. ej. replicación rota)
+        replica.update("DELETE FROM " + ReplicaLagMonitor.HEARTBEAT_TABLE);
+        replicaLagMonitor.refresh();
+
+        // ACT & ASSERT
+        assertFalse(replicaLagMonitor.isReplicaUsable());
+        assertEquals("primary", probe(true));
+
+        // Y vuelve a la réplica cuando se pone al día
+        replicateHeartbeat(System.currentTimeMillis());
+        assertEquals("replica", probe(true));
+    }
+
+    @Test
+    void readOnlyTransaction_ShouldFallBackToPrimary_WhenReplicaIsUnreachable() {
+        // ARRANGE: una réplica que no acepta conexiones (nada escucha en el puerto 1)
+        DriverManagerDataSource deadReplica = new DriverManagerDataSource(
+                "jdbc:h2:tcp://127.0.0.1:1/mem:nowhere", "sa", "");
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(primaryDataSource, deadReplica, 5000);
+        WorkloadRoutingDataSource routing = new WorkloadRoutingDataSource(monitor);
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        // ACT
+        monitor.refresh();
+
+        // ASSERT: sin réplica, la lectura readOnly va al pool READ de la primaria
+        assertFalse(monitor.isReplicaUsable());
+        assertEquals(-1, monitor.getLastLagMs());
+        assertEquals(Workload.READ, readOnly.execute(status -> routing.currentTarget()));
+    }
+
+    @Test
+    void eTagBackedReads_ShouldUsePrimary_EvenWhenReplicaIsUpToDate() {
+        // ARRANGE: la réplica de este test no tiene las tablas de la app;
+        // una consulta que fuera a ella fallaría
+        replicateHeartbeat(System.currentTimeMillis());
+        assertEquals("replica", probe(true));
+
+        // ACT & ASSERT: las lecturas que se sirven con ETag van a la primaria
+        assertDoesNotThrow(() -> conversationService.getUserConversations(-1L));
+        assertDoesNotThrow(() -> conversationService.getParticipants(-1L));
+    }
+
+    /**
+     * Simula que la replicación copió el latido de la primaria y lo comprueba.
+     */
+    private void replicateHeartbeat(long beatAt) {
+        replica.update("DELETE FROM " + ReplicaLagMonitor.HEARTBEAT_TABLE);
+        replica.update("INSERT INTO " + ReplicaLagMonitor.HEARTBEAT_TABLE + " (id, beat_at) VALUES (1, ?)", beatAt);
+        replicaLagMonitor.refresh();
+    }
+
+    /**
+     * Ejecuta una query por JPA (como los servicios) y devuelve qué BD respondió.
+     */
+    private String probe(boolean readOnly) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(readOnly);
+        return tx.execute(status -> (String) entityManager
+                .createNativeQuery("SELECT name FROM routing_probe")
+                .getSingleResult());
+    }
+}
@@ -0,0 +1,138 @@
+package com.chatprivate.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración de los pools por tipo de tráfico.
+ *
+ * COBERTURA:
+ * - Sin transacción o con escritura -> WRITE
+ * - Transacción readOnly -> READ
+ * - Métodos marcados con @WorkloadPool(AUTH) -> AUTH (aunque sean readOnly)
+ * - Sin Open Session In View (una petición no retiene la conexión de su primer pool)
+ */
+@SpringBootTest(properties = "app.datasource.workload-pools.enabled=true")
+@ActiveProfiles("test")
+class WorkloadRoutingTest {
+
+    /**
+     * Bean de prueba con un método marcado, como CustomUserDetailsService.
+     */
+    static class AuthLookup {
+        private final WorkloadRoutingDataSource routing;
+
+        AuthLookup(WorkloadRoutingDataSource routing) {
+            this.routing = routing;
+        }
+
+        @WorkloadPool(Workload.AUTH)
+        public Object currentTarget() {
+            return routing.currentTarget();
+        }
+    }
+
+    @TestConfiguration
+    static class AuthLookupConfig {
+        @Bean
+        AuthLookup authLookup(DataSource dataSource) {
+            return new AuthLookup(routing(dataSource));
+        }
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private AuthLookup authLookup;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Test
+    void currentTarget_ShouldBeWrite_WithoutTransactionOrInReadWriteTransaction() {
+        // ARRANGE
+        WorkloadRoutingDataSource routing = routing(dataSource);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        // ACT & ASSERT
+        assertEquals(Workload.WRITE, routing.currentTarget());
+        assertEquals(Workload.WRITE, tx.execute(status -> routing.currentTarget()));
+    }
+
+    @Test
+    void currentTarget_ShouldBeRead_InReadOnlyTransaction() {
+        // ARRANGE
+        WorkloadRoutingDataSource routing = routing(dataSource);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+
+        // ACT & ASSERT
+        assertEquals(Workload.READ, tx.execute(status -> routing.currentTarget()));
+    }
+
+    @Test
+    void currentTarget_ShouldBeAuth_ForMarkedMethods_EvenInReadOnlyTransaction() {
+        // ARRANGE
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+
+        // ACT & ASSERT
+        assertEquals(Workload.AUTH, authLookup.currentTarget());
+        assertEquals(Workload.AUTH, tx.execute(status -> authLookup.currentTarget()));
+
+        // Al salir del método marcado, el hilo vuelve a su tipo normal
+        assertNull(WorkloadContext.current());
+    }
+
+    @Test
+    void authPool_ShouldServeConnections_Independently() throws Exception {
+        // ARRANGE
+        DataSource authPool = routing(dataSource).getResolvedDataSources().get(Workload.AUTH);
+        DataSource writePool = routing(dataSource).getResolvedDataSources().get(Workload.WRITE);
+
+        // ACT & ASSERT
+        // Son pools distintos (bulkheads), cada uno con su nombre
+        assertNotSame(authPool, writePool);
+        try (var connection = authPool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+    }
+
+    @Test
+    void openInView_ShouldBeDisabled_SoEachTransactionPicksItsOwnPool() {
+        // ARRANGE
+        WorkloadRoutingDataSource routing = routing(dataSource);
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+
+        // ACT & ASSERT: sin el interceptor de OSIV no hay EntityManager por petición...
+        assertEquals(0, applicationContext.getBeanNamesForType(OpenEntityManagerInViewInterceptor.class).length);
+
+        // ...así que una lectura seguida de una escritura (como en una petición)
+        // usa READ y luego WRITE, no la conexión de la primera
+        assertEquals(Workload.READ, readOnly.execute(status -> routing.currentTarget()));
+        assertEquals(Workload.WRITE, readWrite.execute(status -> routing.currentTarget()));
+    }
+
+    private static WorkloadRoutingDataSource routing(DataSource dataSource) {
+        return (WorkloadRoutingDataSource) ((LazyConnectionDataSourceProxy) dataSource).getTargetDataSource();
+    }
+}
@@ -1,14 +1,19 @@
 package com.chatprivate.messaging.controller;
 
+import com.chatprivate.messaging.dto.MessageReceiptDto;
+import com.chatprivate.messaging.dto.RecipientKeys;
 import com.chatprivate.messaging.dto.StompMessagePayload;
 import com.chatprivate.messaging.service.MessageService;
 import com.chatprivate.security.JwtService;
 import com.chatprivate.user.User;
 import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.*;
@@ -25,6 +30,7 @@ import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 import org.springframework.web.socket.messaging.WebSocketStompClient;
 
 import java.lang.reflect.Type;
+import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
@@ -33,8 +39,9 @@ import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
 
@@ -65,6 +72,12 @@ class StompChatControllerTest {
     // Una "cola" para recibir mensajes de error del WebSocket
     private BlockingQueue<String> errorQueue;
 
+    // Y otra para las confirmaciones de envío (/user/queue/receipts)
+    private BlockingQueue<Map<String, Object>> receiptQueue;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @BeforeEach
     void setUp() {
         // ARRANGE (Preparar)
@@ -73,6 +86,7 @@ class StompChatControllerTest {
         this.stompClient.setMessageConverter(new MappingJackson2MessageConverter());
         this.wsUrl = String.format("ws://localhost:%d/ws", port);
         this.errorQueue = new LinkedBlockingDeque<>(1);
+        this.receiptQueue = new LinkedBlockingDeque<>();
 
         // 2. Creamos un usuario de prueba en la BD
         testUser = userRepository.save(User.builder()
@@ -85,9 +99,10 @@ class StompChatControllerTest {
         jwtToken = jwtService.generateToken(testUser);
 
         // 4. Le decimos a nuestro "espía" que cuando se llame
-        // a 'sendAndStoreMessage', no haga nada (para no
-        // complicar el test), solo queremos saber que *fue llamado*.
-        doNothing().when(messageService).sendAndStoreMessage(any(), any(), any(), any());
+        // a 'sendAndStoreMessage', no guarde nada (para no
+        // complicar el test), solo devuelva una confirmación fija.
+        doReturn(new MessageReceiptDto("cm-test", 42L, 1L, Instant.now(), null))
+                .when(messageService).sendAndStoreMessage(any(), any(), any(), any(RecipientKeys.class), any());
     }
 
     @AfterEach
@@ -112,6 +127,8 @@ class StompChatControllerTest {
                 testUser.getId(),
                 Map.of("1", "key-para-1")
         );
+        payload.setClientMessageId("cm-test");
+        double acksBefore = ackCount();
 
         // ACT
         // 3. Nos conectamos al WebSocket
@@ -133,6 +150,17 @@ class StompChatControllerTest {
                 boolean ignored = errorQueue.offer((String) payload);
             }
         });
+        stompSession.subscribe("/user/queue/receipts", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleFrame(StompHeaders headers, Object payload) {
+                boolean ignored = receiptQueue.offer((Map<String, Object>) payload);
+            }
+        });
 
         // 5. Enviamos el mensaje al endpoint del controlador
         stompSession.send("/app/chat.send", payload);
@@ -148,13 +176,27 @@ class StompChatControllerTest {
                 eq(testUser.getId()),
                 eq(1L),
                 eq("ciphertext-de-prueba"),
-                any(Map.class)
+                argThat((RecipientKeys keys) -> keys.size() == 1 && keys.recipientId(0) == 1L
+                        && "key-para-1".equals(keys.key(0))),
+                eq("cm-test")
         );
 
-        // 8. Verificamos que no hubo errores
+        // 8. El remitente recibe la confirmación con el ID del mensaje
+        Map<String, Object> receipt = receiptQueue.poll(5, TimeUnit.SECONDS);
+        assertNotNull(receipt, "No llegó la confirmación a /user/queue/receipts");
+        assertEquals("cm-test", receipt.get("clientMessageId"));
+        assertEquals(42, ((Number) receipt.get("messageId")).intValue());
+        assertEquals(acksBefore + 1, ackCount());
+
+        // 9. Verificamos que no hubo errores
         String error = errorQueue.poll(500, TimeUnit.MILLISECONDS);
         assertNull(error, "Se recibió un error inesperado del WebSocket: " + error);
 
         stompSession.disconnect();
     }
+
+    private double ackCount() {
+        Timer timer = meterRegistry.find("chat.message.ack").timer();
+        return timer != null ? timer.count() : 0;
+    }
 }
\ No newline at end of file
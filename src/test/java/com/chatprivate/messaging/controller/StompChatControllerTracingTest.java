@@ -0,0 +1,194 @@
+package com.chatprivate.messaging.controller;
+
+import com.chatprivate.messaging.dto.StompMessagePayload;
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationParticipant;
+import com.chatprivate.messaging.repository.ConversationParticipantRepository;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import com.chatprivate.messaging.service.MessageOutboxRelay;
+import com.chatprivate.user.CustomUserDetails;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests de trazas del envío por STOMP.
+ *
+ * Uso un exportador EN MEMORIA (InMemorySpanExporter) y muestreo al 100%
+ * para comprobar que cada frame produce una traza con:
+ * - span raíz chat.stomp.receive
+ * - spans hijos de PermissionService, de los repositorios y del apunte en el outbox
+ * - el reparto del relay (y cada envío al socket) en la MISMA traza, colgando
+ *   del apunte en el outbox
+ *
+ * El test llama al relay en su hilo (como el sondeo) para no depender del hilo
+ * de fondo: con @Transactional, el commit que lo despertaría no llega a ocurrir.
+ *
+ * NOTA: Micrometer pasa los nombres de span a minúsculas con guiones y los
+ * recorta a 50 caracteres (MessageRepository.save -> message-repository.save).
+ */
+@SpringBootTest(properties = "management.tracing.sampling.probability=1.0")
+@AutoConfigureObservability
+@ActiveProfiles("test")
+@Transactional
+class StompChatControllerTracingTest {
+
+    private static final InMemorySpanExporter SPAN_EXPORTER = InMemorySpanExporter.create();
+
+    @TestConfiguration
+    static class InMemoryTracingConfig {
+        // Exporto cada span al terminar (sin el batch del exportador real)
+        @Bean
+        SpanProcessor inMemorySpanProcessor() {
+            return SimpleSpanProcessor.create(SPAN_EXPORTER);
+        }
+    }
+
+    @Autowired
+    private StompChatController stompChatController;
+
+    @Autowired
+    private MessageOutboxRelay outboxRelay;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private ConversationParticipantRepository participantRepository;
+
+    // El destinatario tiene que estar "online" para que haya envío al socket
+    @MockitoBean
+    private SimpUserRegistry simpUserRegistry;
+
+    private User sender;
+    private User recipient;
+    private Conversation conversation;
+
+    @BeforeEach
+    void setUp() {
+        sender = userRepository.save(User.builder()
+                .username("traceSender")
+                .email("trace-sender@test.com")
+                .password("pass")
+                .build());
+
+        recipient = userRepository.save(User.builder()
+                .username("traceRecipient")
+                .email("trace-recipient@test.com")
+                .password("pass")
+                .build());
+
+        conversation = new Conversation();
+        conversation.setType("direct");
+        conversation = conversationRepository.save(conversation);
+
+        for (User user : List.of(sender, recipient)) {
+            ConversationParticipant participant = new ConversationParticipant();
+            participant.setConversation(conversation);
+            participant.setUserId(user.getId());
+            participant.setRole("member");
+            participantRepository.save(participant);
+        }
+
+        SimpUser onlineRecipient = mock(SimpUser.class);
+        when(onlineRecipient.hasSessions()).thenReturn(true);
+        when(simpUserRegistry.getUser("traceRecipient")).thenReturn(onlineRecipient);
+
+        SPAN_EXPORTER.reset();
+    }
+
+    @Test
+    void receiveMessage_ShouldProduceOneTrace_WithChildSpansForEachStage() {
+        // ARRANGE
+        StompMessagePayload payload = new StompMessagePayload(
+                conversation.getId(),
+                "ciphertext-trazado",
+                sender.getId(),
+                Map.of(recipient.getId().toString(), "clave")
+        );
+        CustomUserDetails principal = new CustomUserDetails(sender);
+        var authentication = new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+
+        // ACT: el frame apunta la entrega y el relay la reparte después, fuera del frame
+        stompChatController.receiveMessage(payload, authentication, null, null);
+        outboxRelay.relayPending();
+
+        // ASSERT
+        List<SpanData> spans = SPAN_EXPORTER.getFinishedSpanItems();
+        SpanData root = findSpan(spans, "stomp /app/chat.send");
+
+        // El span raíz no tiene padre
+        assertFalse(root.getParentSpanContext().isValid());
+
+        // Permisos, INSERT del mensaje y apunte en el outbox cuelgan del raíz
+        SpanData permission = findSpan(spans, "permission-service.validate-can-send-messages");
+        SpanData insert = findSpan(spans, "message-repository.save");
+        SpanData enqueue = findSpan(spans, "outbox enqueue");
+
+        for (SpanData child : List.of(permission, insert, enqueue)) {
+            assertEquals(root.getTraceId(), child.getTraceId());
+            assertEquals(root.getSpanId(), child.getParentSpanId());
+        }
+
+        // El reparto del relay sigue la misma traza: outbox enqueue -> outbox relay -> envío al socket
+        SpanData relay = findSpan(spans, "outbox relay");
+        SpanData deliver = findSpan(spans, "stomp deliver /queue/messages");
+        assertEquals(root.getTraceId(), relay.getTraceId());
+        assertEquals(enqueue.getSpanId(), relay.getParentSpanId());
+        assertEquals(root.getTraceId(), deliver.getTraceId());
+        assertEquals(relay.getSpanId(), deliver.getParentSpanId());
+
+        // La consulta de PermissionService cuelga de su propio span
+        SpanData permissionQuery = findSpan(spans, "conversation-participant-repository.exists-by-conv");
+        assertEquals(permission.getSpanId(), permissionQuery.getParentSpanId());
+
+        // Todos los spans del envío pertenecen a la misma traza
+        assertTrue(spans.stream()
+                .filter(span -> span.getName().startsWith("conversation-participant-repository."))
+                .allMatch(span -> span.getTraceId().equals(root.getTraceId())));
+    }
+
+    @Test
+    void repositoryCall_ShouldNotStartTrace_WhenNoObservationIsActive() {
+        // ACT
+        userRepository.findById(sender.getId());
+
+        // ASSERT
+        // Fuera de un frame/request no se crean trazas sueltas
+        assertTrue(SPAN_EXPORTER.getFinishedSpanItems().isEmpty());
+    }
+
+    private static SpanData findSpan(List<SpanData> spans, String name) {
+        return spans.stream()
+                .filter(span -> span.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No se encontró el span '" + name + "' en " +
+                        spans.stream().map(SpanData::getName).toList()));
+    }
+}
@@ -0,0 +1,183 @@
+package com.chatprivate.messaging.repository;
+
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationParticipant;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración de la caché de segundo nivel.
+ *
+ * Cada "petición" es una transacción (y una sesión de Hibernate) distinta,
+ * igual que en la app. Por eso el test NO es @Transactional: los datos se
+ * confirman (la caché solo se llena tras el commit) y los borro al final.
+ *
+ * Uso las estadísticas de Hibernate para contar aciertos y sentencias SQL.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class SecondLevelCacheTest {
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private ConversationParticipantRepository participantRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Statistics statistics;
+    private TransactionTemplate tx;
+
+    private Long userA;
+    private Long userB;
+    private Long userC;
+    private Long conversationId;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        tx = new TransactionTemplate(transactionManager);
+
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        userA = createUser("l2a-" + suffix);
+        userB = createUser("l2b-" + suffix);
+        userC = createUser("l2c-" + suffix);
+
+        conversationId = tx.execute(status -> {
+            Conversation conv = new Conversation();
+            conv.setType("direct");
+            conv.getParticipants().add(participant(conv, userA, "owner"));
+            conv.getParticipants().add(participant(conv, userB, "member"));
+            return conversationRepository.save(conv).getId();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        tx.executeWithoutResult(status -> {
+            conversationRepository.deleteById(conversationId);
+            userRepository.deleteAllById(List.of(userA, userB, userC));
+        });
+    }
+
+    @Test
+    void findById_ShouldServeConversationAndParticipantsFromCache_OnSecondRead() {
+        // ARRANGE: primera lectura (llena la caché)
+        loadParticipantCount();
+        statistics.clear();
+
+        // ACT
+        int participants = loadParticipantCount();
+
+        // ASSERT: ni una sola sentencia SQL, todo sale de la caché
+        assertEquals(2, participants);
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertTrue(statistics.getCacheRegionStatistics("conversations").getHitCount() >= 1);
+        assertTrue(statistics.getCacheRegionStatistics("conversations.participants").getHitCount() >= 1);
+        assertTrue(statistics.getCacheRegionStatistics("conversation-participants").getHitCount() >= 2);
+    }
+
+    @Test
+    void membershipQueries_ShouldHitQueryCache_AndBeInvalidatedByMembershipChanges() {
+        // ARRANGE
+        assertTrue(isParticipant(userA));
+        statistics.clear();
+
+        // ACT: misma consulta en otra transacción
+        assertTrue(isParticipant(userA));
+
+        // ASSERT
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+
+        // ACT: entra un participante nuevo -> la región "membership" queda invalidada
+        tx.executeWithoutResult(status -> {
+            Conversation conv = conversationRepository.getReferenceById(conversationId);
+            participantRepository.save(participant(conv, userC, "member"));
+        });
+        statistics.clear();
+
+        // ASSERT: la siguiente consulta va a la BD y ve el cambio
+        assertEquals(3, tx.execute(status ->
+                participantRepository.findUserIdsByConversationId(conversationId)).size());
+        assertEquals(0, statistics.getQueryCacheHitCount());
+        assertEquals(1, statistics.getQueryCacheMissCount());
+    }
+
+    @Test
+    void hitRatioMetric_ShouldBeRegisteredPerRegion() {
+        // ARRANGE
+        loadParticipantCount();
+        loadParticipantCount();
+        isParticipant(userA);
+        isParticipant(userA);
+
+        // ACT
+        Double ratio = meterRegistry.find("chat.hibernate.cache.hit.ratio")
+                .tag("region", "conversations")
+                .gauge()
+                .value();
+
+        // ASSERT
+        assertTrue(ratio > 0.0);
+        assertTrue(meterRegistry.get("chat.hibernate.cache.requests")
+                .tags("region", ConversationParticipantRepository.MEMBERSHIP_REGION, "result", "hit")
+                .functionCounter()
+                .count() >= 1);
+    }
+
+    private int loadParticipantCount() {
+        return tx.execute(status -> conversationRepository.findById(conversationId)
+                .orElseThrow()
+                .getParticipants()
+                .size());
+    }
+
+    private boolean isParticipant(Long userId) {
+        return tx.execute(status -> participantRepository.existsByConversation_IdAndUserId(conversationId, userId));
+    }
+
+    private Long createUser(String username) {
+        return tx.execute(status -> userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@test.com")
+                .password("pass")
+                .build()).getId());
+    }
+
+    private static ConversationParticipant participant(Conversation conv, Long userId, String role) {
+        ConversationParticipant participant = new ConversationParticipant();
+        participant.setConversation(conv);
+        participant.setUserId(userId);
+        participant.setRole(role);
+        return participant;
+    }
+}
@@ -0,0 +1,162 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.RecipientKeys;
+import com.chatprivate.messaging.dto.StompMessagePayload;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios para ChatSendPayloadConverter.
+ *
+ * COBERTURA:
+ * - Lee el mismo frame que Jackson, con las claves directas a RecipientKeys
+ * - Límites validados al leer (destinatarios, tamaño del ciphertext, IDs, clientMessageId)
+ * - Benchmark de asignación: bytes por frame (conversor vs Jackson + copia a Map<Long, String>)
+ */
+class ChatSendPayloadConverterTest {
+
+    private static final int RECIPIENTS = 100;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ChatSendPayloadConverter converter = new ChatSendPayloadConverter(objectMapper);
+
+    @Test
+    void fromMessage_ShouldReadTheFrame_WithCompactRecipientKeys() throws Exception {
+        // ARRANGE: el JSON que manda el cliente (con un campo que no conozco)
+        StompMessagePayload sent = new StompMessagePayload(5L, "Y2lwaGVydGV4dA==", 7L,
+                Map.of("9", "a2V5", "12", "b3Rya2V5"));
+        Map<String, Object> json = objectMapper.convertValue(sent, new TypeReference<Map<String, Object>>() {});
+        json.put("clientVersion", Map.of("major", 2));
+        json.put("clientMessageId", "cm-7");
+
+        // ACT
+        StompMessagePayload read = convert(objectMapper.writeValueAsBytes(json));
+
+        // ASSERT
+        assertEquals(5L, read.getConversationId());
+        assertEquals(7L, read.getSenderId());
+        assertEquals("Y2lwaGVydGV4dA==", read.getCiphertext());
+        assertNull(read.getKeyEpoch());
+        assertNull(read.getEncryptedKeys());
+        assertEquals("cm-7", read.getClientMessageId());
+        assertEquals(Map.of(9L, "a2V5", 12L, "b3Rya2V5"), read.getRecipientKeys().toMap());
+        assertTrue(read.isKeyMaterialPresent());
+    }
+
+    @Test
+    void fromMessage_ShouldReadSenderKeyFrames_WithoutKeys() {
+        // ACT
+        StompMessagePayload read = convert(
+                "{\"conversationId\":5,\"ciphertext\":\"abc\",\"keyEpoch\":3,\"encryptedKeys\":null}"
+                        .getBytes(StandardCharsets.UTF_8));
+
+        // ASSERT
+        assertEquals(3, read.getKeyEpoch());
+        assertNull(read.getRecipientKeys());
+    }
+
+    @Test
+    void fromMessage_ShouldRejectTooManyRecipients() {
+        // ARRANGE
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (int i = 1; i <= RecipientKeys.MAX_RECIPIENTS + 1; i++) {
+            keys.put(Integer.toString(i), "k");
+        }
+
+        // ACT & ASSERT
+        MessageConversionException ex = assertThrows(MessageConversionException.class,
+                () -> convert(frame("abc", keys)));
+        assertTrue(ex.getMessage().contains("Demasiados destinatarios"));
+    }
+
+    @Test
+    void fromMessage_ShouldRejectOversizedCiphertext_AndInvalidRecipientIds() {
+        // ACT & ASSERT
+        String tooLong = "A".repeat(ChatSendPayloadConverter.MAX_CIPHERTEXT_LENGTH + 1);
+        assertThrows(MessageConversionException.class, () -> convert(frame(tooLong, Map.of("1", "k"))));
+        assertThrows(MessageConversionException.class, () -> convert(frame("abc", Map.of("no-es-un-id", "k"))));
+        assertThrows(MessageConversionException.class, () -> convert(frame("abc", Map.of("-4", "k"))));
+        assertThrows(MessageConversionException.class,
+                () -> convert("{\"ciphertext\":".getBytes(StandardCharsets.UTF_8)));
+        String longClientId = "c".repeat(ChatSendPayloadConverter.MAX_CLIENT_MESSAGE_ID_LENGTH + 1);
+        assertThrows(MessageConversionException.class,
+                () -> convert(("{\"clientMessageId\":\"" + longClientId + "\"}").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Benchmark de asignación de memoria al recibir un frame con 100
+     * destinatarios y un ciphertext de 10KB (el máximo permitido).
+     *
+     * Compara el camino anterior (MappingJackson2MessageConverter + la copia a
+     * Map<Long, String> que hacía MessageService) con el conversor.
+     */
+    @Test
+    void fromMessage_ShouldAllocateFewerBytesThanJackson() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        org.junit.jupiter.api.Assumptions.assumeTrue(
+                threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled(),
+                "La JVM no soporta medir memoria asignada por hilo");
+
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (long recipientId = 1_000; recipientId < 1_000 + RECIPIENTS; recipientId++) {
+            keys.put(Long.toString(recipientId), "K".repeat(344)); // RSA-2048 en Base64
+        }
+        Message<byte[]> message = MessageBuilder.withPayload(frame("A".repeat(10240), keys)).build();
+        MappingJackson2MessageConverter jackson = new MappingJackson2MessageConverter();
+        jackson.setObjectMapper(objectMapper);
+
+        for (int i = 0; i < 200; i++) {
+            jacksonPath(jackson, message);
+            converter.fromMessage(message, StompMessagePayload.class);
+        }
+
+        long jacksonBytes = measure(threadMXBean, () -> jacksonPath(jackson, message));
+        long converterBytes = measure(threadMXBean, () -> converter.fromMessage(message, StompMessagePayload.class));
+
+        assertTrue(converterBytes < jacksonBytes,
+                "El conversor debería asignar menos bytes que Jackson con " + RECIPIENTS
+                        + " destinatarios (" + converterBytes + " vs " + jacksonBytes + ")");
+    }
+
+    private static void jacksonPath(MappingJackson2MessageConverter jackson, Message<byte[]> message) {
+        StompMessagePayload payload = (StompMessagePayload) jackson.fromMessage(message, StompMessagePayload.class);
+        Map<Long, String> copy = new java.util.HashMap<>();
+        payload.getEncryptedKeys().forEach((id, key) -> copy.put(Long.parseLong(id), key));
+        assertEquals(RECIPIENTS, copy.size());
+    }
+
+    private StompMessagePayload convert(byte[] json) {
+        return (StompMessagePayload) converter.fromMessage(MessageBuilder.withPayload(json).build(),
+                StompMessagePayload.class);
+    }
+
+    private byte[] frame(String ciphertext, Map<String, String> keys) {
+        try {
+            return objectMapper.writeValueAsBytes(new StompMessagePayload(1L, ciphertext, 2L, keys));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threadMXBean, Runnable operation) {
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100; i++) {
+            operation.run();
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - before) / 100;
+    }
+}
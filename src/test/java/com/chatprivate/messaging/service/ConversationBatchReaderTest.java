@@ -0,0 +1,97 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración del recorrido por lotes de conversaciones.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class ConversationBatchReaderTest {
+
+    @Autowired
+    private ConversationBatchReader batchReader;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Test
+    void forEachChunk_ShouldVisitEveryConversation_InBoundedChunks_ClearingTheContext() {
+        // ARRANGE
+        List<Long> createdIds = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Conversation conv = new Conversation();
+            conv.setType("group");
+            conv.setTitle("lote-" + i);
+            createdIds.add(conversationRepository.save(conv).getId());
+        }
+        entityManager.flush();
+        entityManager.clear(); // Empiezo con el contexto vacío, como una tarea batch
+
+        List<Long> visitedIds = new ArrayList<>();
+        List<Conversation> previousChunk = new ArrayList<>();
+
+        // ACT
+        long total = batchReader.forEachChunk(10, chunk -> {
+            assertTrue(chunk.size() <= 10);
+            // Del lote anterior no queda nada en el contexto de persistencia
+            previousChunk.forEach(conv -> assertFalse(entityManager.contains(conv)));
+            assertEquals(chunk.size(), managedConversations());
+
+            chunk.forEach(conv -> visitedIds.add(conv.getId()));
+            previousChunk.clear();
+            previousChunk.addAll(chunk);
+        });
+
+        // ASSERT
+        assertEquals(visitedIds.size(), total);
+        assertTrue(visitedIds.containsAll(createdIds));
+        assertEquals(visitedIds.stream().sorted().toList(), visitedIds); // Ordenado por ID
+    }
+
+    @Test
+    void forEachChunk_ShouldRejectNonPositiveChunkSize() {
+        // ACT & ASSERT
+        assertThrows(IllegalArgumentException.class, () -> batchReader.forEachChunk(0, chunk -> { }));
+    }
+
+    @Test
+    void fetchSize_ShouldStreamRowByRow_OnlyOnMySQL() {
+        // ACT & ASSERT: el streaming es de esta consulta, no un flag global de la URL
+        assertEquals(Integer.MIN_VALUE, ConversationBatchReader.fetchSize(new MySQLDialect(), 500));
+        assertEquals(500, ConversationBatchReader.fetchSize(new H2Dialect(), 500));
+    }
+
+    /**
+     * Entidades Conversation gestionadas ahora mismo por el contexto de persistencia.
+     */
+    private long managedConversations() {
+        return entityManager.unwrap(org.hibernate.Session.class)
+                .unwrap(org.hibernate.engine.spi.SessionImplementor.class)
+                .getPersistenceContext()
+                .getEntitiesByKey()
+                .keySet()
+                .stream()
+                .filter(key -> key.getEntityName().equals(Conversation.class.getName()))
+                .count();
+    }
+}
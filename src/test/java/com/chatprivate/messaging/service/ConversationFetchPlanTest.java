@@ -0,0 +1,176 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.ConversationResponse;
+import com.chatprivate.messaging.dto.MessageHistoryDto;
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationParticipant;
+import com.chatprivate.messaging.model.Message;
+import com.chatprivate.messaging.model.MessageKey;
+import com.chatprivate.messaging.repository.ConversationParticipantRepository;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import com.chatprivate.messaging.repository.MessageKeyRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests del plan de carga (fetch plan) con las estadísticas de Hibernate.
+ *
+ * Cuento cuántas entidades de cada tipo se cargan desde la BD en las lecturas
+ * más frecuentes. Antes, con Message.conversation y MessageKey.message EAGER
+ * y sin proyecciones, el historial cargaba además una MessageKey por mensaje
+ * (con su Message), y la lista de chats cargaba las MessageKey de los últimos
+ * mensajes y todas las entidades User de los participantes.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class ConversationFetchPlanTest {
+
+    private static final int MESSAGES = 5;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private ConversationParticipantRepository participantRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageKeyRepository messageKeyRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+    private User userA;
+    private Conversation chatAB;
+
+    @BeforeEach
+    void setUp() {
+        // ARRANGE
+        userA = createUser("fetchA");
+        User userB = createUser("fetchB");
+        User userC = createUser("fetchC");
+
+        chatAB = createConversation(userA, userB);
+        for (int i = 0; i < MESSAGES; i++) {
+            addMessage(chatAB, userB, userA, userB);
+        }
+        Conversation chatAC = createConversation(userA, userC);
+        addMessage(chatAC, userC, userA, userC);
+
+        // Empiezo cada lectura con el contexto vacío, como una petición nueva
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void getMessageHistory_ShouldLoadOnlyMessages() {
+        // ACT
+        List<MessageHistoryDto> history = conversationService.getMessageHistory(chatAB.getId(), userA.getId());
+
+        // ASSERT
+        assertEquals(MESSAGES, history.size());
+        assertEquals(MESSAGES, loads(Message.class));
+        assertEquals(0, loads(MessageKey.class));   // Proyección MessageKeyView
+        assertEquals(0, loads(Conversation.class)); // Message.conversation es LAZY
+        assertEquals(MESSAGES, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void getMessageHistoryPaged_ShouldLoadOnlyThePage() {
+        // ACT
+        var page = conversationService.getMessageHistoryPaged(chatAB.getId(), userA.getId(), 0, 2);
+
+        // ASSERT
+        assertEquals(2, page.getContent().size());
+        assertEquals(2, statistics.getEntityLoadCount());
+        assertEquals(0, loads(MessageKey.class));
+    }
+
+    @Test
+    void getUserConversations_ShouldNotLoadKeysOrUsers() {
+        // ACT
+        List<ConversationResponse> conversations = conversationService.getUserConversations(userA.getId());
+
+        // ASSERT
+        assertEquals(2, conversations.size());
+        assertTrue(conversations.stream().allMatch(c -> c.getLastMessage().getEncryptedKey() != null));
+
+        assertEquals(0, loads(MessageKey.class)); // Solo la columna encryptedKey
+        assertEquals(0, loads(User.class));       // Proyección UserDto (id, username)
+        assertEquals(2, loads(Message.class));    // El último mensaje de cada chat
+    }
+
+    private long loads(Class<?> entity) {
+        return statistics.getEntityStatistics(entity.getName()).getLoadCount();
+    }
+
+    private User createUser(String username) {
+        return userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@test.com")
+                .password("pass")
+                .build());
+    }
+
+    private Conversation createConversation(User owner, User member) {
+        Conversation conv = new Conversation();
+        conv.setType("direct");
+        conv = conversationRepository.save(conv);
+        for (User user : List.of(owner, member)) {
+            ConversationParticipant participant = new ConversationParticipant();
+            participant.setConversation(conv);
+            participant.setUserId(user.getId());
+            participant.setRole(user == owner ? "owner" : "member");
+            participantRepository.save(participant);
+        }
+        return conv;
+    }
+
+    private void addMessage(Conversation conv, User sender, User... recipients) {
+        Message msg = new Message();
+        msg.setConversation(conv);
+        msg.setSenderId(sender.getId());
+        msg.setCiphertext("ciphertext");
+        msg = messageRepository.save(msg);
+
+        for (User recipient : recipients) {
+            MessageKey key = new MessageKey();
+            key.setMessage(msg);
+            key.setRecipientId(recipient.getId());
+            key.setEncryptedKey("key-" + recipient.getId());
+            messageKeyRepository.save(key);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.AddParticipantRequest;
+import com.chatprivate.messaging.dto.CreateConversationRequest;
+import com.chatprivate.messaging.dto.EpochKeyDistributionRequest;
+import com.chatprivate.messaging.model.Message;
+import com.chatprivate.messaging.model.MessageKey;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import com.chatprivate.messaging.repository.MessageKeyRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.support.OperationCost;
+import com.chatprivate.support.PerformanceProbe;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Presupuestos de rendimiento de ConversationService: sentencias SQL,
+ * entidades cargadas y memoria reservada por cada método público.
+ *
+ * Si un cambio introduce un N+1 o carga entidades de más, el presupuesto
+ * salta aunque el resultado siga siendo correcto. Los límites son los valores
+ * medidos con H2; si un cambio los sube A PROPÓSITO, se actualizan aquí.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class ConversationServicePerformanceTest {
+
+    // La memoria depende de la JVM: el límite es holgado, solo detecta saltos grandes
+    private static final long ALLOCATION_BUDGET = 2 * 1024 * 1024;
+
+    // Por mensaje del historial: entidad, DTO y su entrada en el mapa de claves
+    // (medido ~2 KB con H2; un mapa o una lista con boxing por mensaje lo dispara)
+    private static final long ALLOCATION_PER_MESSAGE_BUDGET = 4 * 1024;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageKeyRepository messageKeyRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private PerformanceProbe probe;
+    private User userA;
+    private User userB;
+    private User userC;
+    private Long chatAB;
+
+    @BeforeEach
+    void setUp() {
+        // ARRANGE
+        probe = new PerformanceProbe(entityManagerFactory, entityManager);
+        userA = createUser("perfA");
+        userB = createUser("perfB");
+        userC = createUser("perfC");
+
+        chatAB = conversationService.createConversation(request("direct", null, userB), userA.getId()).getId();
+        for (int i = 0; i < 5; i++) {
+            addMessage(chatAB, userB, userA, userB);
+        }
+    }
+
+    // ============================================
+    // LECTURAS
+    // ============================================
+
+    @Test
+    void getMessageHistory_Budget() {
+        // ACT & ASSERT
+        probe.measure("getMessageHistory", () -> conversationService.getMessageHistory(chatAB, userA.getId()))
+                .assertStatementsAtMost(3)
+                .assertEntityLoadsAtMost(Message.class, 5)
+                .assertEntityLoadsAtMost(5);
+    }
+
+    @Test
+    void getMessageHistoryPaged_Budget() {
+        // ACT & ASSERT
+        probe.measure("getMessageHistoryPaged", () -> conversationService.getMessageHistoryPaged(chatAB, userA.getId(), 0, 2))
+                .assertStatementsAtMost(4)
+                .assertEntityLoadsAtMost(2);
+    }
+
+    @Test
+    void getUserConversations_Budget() {
+        // ACT & ASSERT
+        probe.measure("getUserConversations", () -> conversationService.getUserConversations(userA.getId()))
+                .assertStatementsAtMost(5)
+                .assertEntityLoadsAtMost(MessageKey.class, 0)
+                .assertEntityLoadsAtMost(User.class, 0)
+                .assertEntityLoadsAtMost(4);
+    }
+
+    @Test
+    void getUserConversations_StatementCount_ShouldNotGrowWithConversations() {
+        // ARRANGE
+        OperationCost oneChat = probe.measure("getUserConversations (1 chat)",
+                () -> conversationService.getUserConversations(userA.getId()));
+
+        User[] others = {userC, createUser("perfD"), createUser("perfE"), createUser("perfF")};
+        for (User other : others) {
+            Long chat = conversationService.createConversation(request("direct", null, other), userA.getId()).getId();
+            addMessage(chat, other, userA, other);
+        }
+
+        // ACT
+        OperationCost fiveChats = probe.measure("getUserConversations (5 chats)",
+                () -> assertEquals(5, conversationService.getUserConversations(userA.getId()).size()));
+
+        // ASSERT: sin N+1, las sentencias no dependen del número de chats
+        assertEquals(oneChat.getStatements(), fiveChats.getStatements(), fiveChats::toString);
+    }
+
+    @Test
+    void getParticipants_Budget() {
+        // ACT & ASSERT
+        probe.measure("getParticipants", () -> conversationService.getParticipants(chatAB))
+                .assertStatementsAtMost(2)
+                .assertEntityLoadsAtMost(User.class, 0);
+    }
+
+    @Test
+    void getEpochKeys_Budget() {
+        // ARRANGE
+        Long group = createSenderKeyGroup();
+        conversationService.distributeEpochKeys(group, userA.getId(), epochKeys(1, userA, userB, userC));
+
+        // ACT & ASSERT
+        probe.measure("getEpochKeys", () -> assertEquals(1, conversationService.getEpochKeys(group, userB.getId()).size()))
+                .assertStatementsAtMost(2)
+                .assertEntityLoadsAtMost(1);
+    }
+
+    // ============================================
+    // ESCRITURAS
+    // ============================================
+
+    @Test
+    void createConversation_Budget() {
+        // ACT & ASSERT: incluye el INSERT del contador de secuencia
+        probe.measure("createConversation", () -> conversationService.createConversation(
+                        request("group", "perf", userB, userC), userA.getId()))
+                .assertStatementsAtMost(9)
+                .assertEntityLoadsAtMost(2);
+    }
+
+    @Test
+    void addParticipant_Budget() {
+        // ARRANGE
+        Long group = conversationService.createConversation(request("group", "perf", userB), userA.getId()).getId();
+        AddParticipantRequest req = new AddParticipantRequest();
+        req.setUserId(userC.getId());
+
+        // ACT & ASSERT
+        probe.measure("addParticipant", () -> conversationService.addParticipant(group, userA.getId(), req))
+                .assertStatementsAtMost(6)
+                .assertEntityLoadsAtMost(3);
+    }
+
+    @Test
+    void removeParticipant_Budget() {
+        // ARRANGE
+        Long group = conversationService.createConversation(request("group", "perf", userB, userC), userA.getId()).getId();
+
+        // ACT & ASSERT
+        probe.measure("removeParticipant", () -> conversationService.removeParticipant(group, userA.getId(), userC.getId()))
+                .assertStatementsAtMost(6)
+                .assertEntityLoadsAtMost(3);
+    }
+
+    @Test
+    void distributeEpochKeys_Budget() {
+        // ARRANGE
+        Long group = createSenderKeyGroup();
+        EpochKeyDistributionRequest req = epochKeys(1, userA, userB, userC);
+
+        // ACT & ASSERT
+        probe.measure("distributeEpochKeys", () -> conversationService.distributeEpochKeys(group, userA.getId(), req))
+                .assertStatementsAtMost(7)
+                .assertEntityLoadsAtMost(4);
+    }
+
+    // ============================================
+    // MEMORIA
+    // ============================================
+
+    @Test
+    void readPaths_AllocationBudget() {
+        // ACT & ASSERT (con calentamiento: sin carga de clases ni compilación de consultas)
+        probe.measureWarm("getMessageHistory", 3, () -> conversationService.getMessageHistory(chatAB, userA.getId()))
+                .assertAllocatedAtMost(ALLOCATION_BUDGET);
+        probe.measureWarm("getUserConversations", 3, () -> conversationService.getUserConversations(userA.getId()))
+                .assertAllocatedAtMost(ALLOCATION_BUDGET);
+    }
+
+    @Test
+    void getMessageHistory_AllocationPerMessage_ShouldStayBounded() {
+        // ARRANGE: la primera medición paga inicializaciones que no son del servicio; la descarto
+        probe.measureWarm("getMessageHistory (calentamiento)", 20,
+                () -> conversationService.getMessageHistory(chatAB, userA.getId()));
+        OperationCost small = probe.measureWarm("getMessageHistory (5)", 20,
+                () -> conversationService.getMessageHistory(chatAB, userA.getId()));
+        // La misma conversación con 100 mensajes más
+        for (int i = 0; i < 100; i++) {
+            addMessage(chatAB, userB, userA, userB);
+        }
+
+        // ACT
+        OperationCost large = probe.measureWarm("getMessageHistory (105)", 20,
+                () -> conversationService.getMessageHistory(chatAB, userA.getId()));
+
+        // ASSERT
+        if (small.getAllocatedBytes() >= 0) {
+            long perMessage = (large.getAllocatedBytes() - small.getAllocatedBytes()) / 100;
+            assertTrue(perMessage <= ALLOCATION_PER_MESSAGE_BUDGET,
+                    () -> "Demasiada memoria por mensaje (" + perMessage + " bytes): " + small + " / " + large);
+        }
+    }
+
+    // ============================================
+    // HELPERS
+    // ============================================
+
+    private Long createSenderKeyGroup() {
+        CreateConversationRequest req = request("group", "perf", userB, userC);
+        req.setKeyMode("sender_key");
+        return conversationService.createConversation(req, userA.getId()).getId();
+    }
+
+    private static CreateConversationRequest request(String type, String title, User... members) {
+        CreateConversationRequest req = new CreateConversationRequest();
+        req.setType(type);
+        req.setTitle(title);
+        req.setParticipantIds(Arrays.stream(members).map(User::getId).toList());
+        return req;
+    }
+
+    private static EpochKeyDistributionRequest epochKeys(int epoch, User... recipients) {
+        EpochKeyDistributionRequest req = new EpochKeyDistributionRequest();
+        req.setEpoch(epoch);
+        req.setEncryptedKeys(Arrays.stream(recipients)
+                .collect(Collectors.toMap(u -> u.getId().toString(), u -> "groupKey-" + u.getId())));
+        return req;
+    }
+
+    private User createUser(String username) {
+        return userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@test.com")
+                .password("pass")
+                .build());
+    }
+
+    private void addMessage(Long conversationId, User sender, User... recipients) {
+        Message msg = new Message();
+        msg.setConversation(conversationRepository.getReferenceById(conversationId));
+        msg.setSenderId(sender.getId());
+        msg.setCiphertext("ciphertext");
+        msg = messageRepository.save(msg);
+
+        for (User recipient : recipients) {
+            MessageKey key = new MessageKey();
+            key.setMessage(msg);
+            key.setRecipientId(recipient.getId());
+            key.setEncryptedKey("key-" + recipient.getId());
+            messageKeyRepository.save(key);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.chatprivate.messaging.service;
 
 import com.chatprivate.messaging.dto.AddParticipantRequest;
 import com.chatprivate.messaging.dto.CreateConversationRequest;
+import com.chatprivate.messaging.dto.EpochKeyDistributionRequest;
 import com.chatprivate.messaging.dto.ConversationResponse;
 import com.chatprivate.messaging.dto.MessageHistoryDto;
 import com.chatprivate.messaging.model.Conversation;
@@ -18,6 +19,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
@@ -57,6 +59,9 @@ class ConversationServiceTest {
     @Autowired
     private MessageKeyRepository messageKeyRepository;
 
+    @Autowired
+    private DirectPairBackfill directPairBackfill;
+
     private User userC;
     private Conversation conv1; // Chat entre A y B
     private Conversation conv2; // Chat entre A y C
@@ -144,6 +149,158 @@ class ConversationServiceTest {
     }
 
 
+    // --- TESTS DE LA CLAVE DE PAREJA (CHATS 1-A-1) ---
+    @Test
+    void createConversation_ShouldReturnSameDirectChat_WhicheverUserCreatesIt() {
+        // ARRANGE
+        ConversationResponse first = conversationService.createConversation(directRequest(userC), userB.getId());
+
+        // ACT: el otro usuario lo "crea" en sentido contrario
+        ConversationResponse second = conversationService.createConversation(directRequest(userB), userC.getId());
+
+        // ASSERT
+        assertEquals(first.getId(), second.getId());
+        Conversation conv = conversationRepository.findById(first.getId()).orElseThrow();
+        assertEquals(Math.min(userB.getId(), userC.getId()), conv.getDirectUserLow());
+        assertEquals(Math.max(userB.getId(), userC.getId()), conv.getDirectUserHigh());
+    }
+
+    @Test
+    void directPair_ShouldBeUnique_ForTheSamePairOfUsers() {
+        // ARRANGE
+        Conversation existing = new Conversation();
+        existing.setType("direct");
+        existing.setDirectPair(userB.getId(), userC.getId());
+        conversationRepository.saveAndFlush(existing);
+
+        Conversation duplicate = new Conversation();
+        duplicate.setType("direct");
+        duplicate.setDirectPair(userC.getId(), userB.getId());
+
+        // ACT & ASSERT: el índice único rechaza un segundo chat entre la misma pareja
+        assertThrows(DataIntegrityViolationException.class, () -> conversationRepository.saveAndFlush(duplicate));
+    }
+
+    @Test
+    void addParticipant_ShouldClearDirectPair_SoThePairGetsANewDirectChat() {
+        // ARRANGE
+        ConversationResponse direct = conversationService.createConversation(directRequest(userC), userB.getId());
+        AddParticipantRequest req = new AddParticipantRequest();
+        req.setUserId(userA.getId());
+
+        // ACT: con un tercer miembro deja de ser el chat 1-a-1 de B y C
+        conversationService.addParticipant(direct.getId(), userB.getId(), req);
+        ConversationResponse again = conversationService.createConversation(directRequest(userC), userB.getId());
+
+        // ASSERT
+        assertNotEquals(direct.getId(), again.getId());
+        assertFalse(conversationRepository.findById(direct.getId()).orElseThrow().hasDirectPair());
+    }
+
+    @Test
+    void removeParticipant_ShouldRestoreDirectPair_WhenTheChatIsBackToTwo() {
+        // ARRANGE
+        ConversationResponse direct = conversationService.createConversation(directRequest(userC), userB.getId());
+        AddParticipantRequest req = new AddParticipantRequest();
+        req.setUserId(userA.getId());
+        conversationService.addParticipant(direct.getId(), userB.getId(), req);
+
+        // ACT: sin el tercero vuelve a ser el chat 1-a-1 de B y C
+        conversationService.removeParticipant(direct.getId(), userB.getId(), userA.getId());
+        ConversationResponse again = conversationService.createConversation(directRequest(userC), userB.getId());
+
+        // ASSERT
+        assertEquals(direct.getId(), again.getId());
+    }
+
+    @Test
+    void removeParticipant_ShouldNotRestoreDirectPair_WhenThePairAlreadyHasAnotherDirectChat() {
+        // ARRANGE: mientras el primer chat tenía un tercero, B y C abrieron otro 1-a-1
+        ConversationResponse first = conversationService.createConversation(directRequest(userC), userB.getId());
+        AddParticipantRequest req = new AddParticipantRequest();
+        req.setUserId(userA.getId());
+        conversationService.addParticipant(first.getId(), userB.getId(), req);
+        ConversationResponse second = conversationService.createConversation(directRequest(userC), userB.getId());
+
+        // ACT
+        conversationService.removeParticipant(first.getId(), userB.getId(), userA.getId());
+
+        // ASSERT: el chat nuevo conserva la clave (uk_direct_pair no admite dos)
+        assertFalse(conversationRepository.findById(first.getId()).orElseThrow().hasDirectPair());
+        assertEquals(second.getId(), conversationService.createConversation(directRequest(userC), userB.getId()).getId());
+    }
+
+    @Test
+    void directPairBackfill_ShouldKeyOldDirectChats_KeepingTheOldestPerPair() {
+        // ARRANGE: conv1 (A-B) se creó sin clave; añado otro chat A-B posterior (duplicado)
+        Conversation laterDuplicate = createTestConversation("direct", userB, userA);
+
+        // ACT
+        directPairBackfill.backfill();
+
+        // ASSERT: conv1 (menor ID) se queda la clave; conv2 (A-C) también recibe la suya
+        assertEquals(conv1.getId(), conversationRepository
+                .findDirectConversationBetweenUsers(userB.getId(), userA.getId()).orElseThrow().getId());
+        assertEquals(conv2.getId(), conversationRepository
+                .findDirectConversationBetweenUsers(userA.getId(), userC.getId()).orElseThrow().getId());
+        assertTrue(laterDuplicate.getId() > conv1.getId());
+    }
+
+    @Test
+    void directPairBackfill_ShouldNotRunOnStartup_UnlessEnabled() {
+        // ACT: el arranque con la migración apagada (el valor por defecto)
+        directPairBackfill.onReady();
+
+        // ASSERT: los chats antiguos siguen sin clave
+        assertTrue(conversationRepository.findDirectConversationBetweenUsers(userA.getId(), userB.getId()).isEmpty());
+    }
+
+    private static CreateConversationRequest directRequest(User other) {
+        CreateConversationRequest req = new CreateConversationRequest();
+        req.setType("direct");
+        req.setParticipantIds(List.of(other.getId()));
+        return req;
+    }
+
+    // --- TESTS DEL MODO SENDER_KEY ---
+    @Test
+    void addParticipant_ShouldAdvanceKeyEpoch_WhenConversationUsesSenderKey() {
+        // ARRANGE
+        CreateConversationRequest createReq = new CreateConversationRequest();
+        createReq.setType("group");
+        createReq.setKeyMode("sender_key");
+        createReq.setParticipantIds(List.of(userB.getId()));
+        ConversationResponse created = conversationService.createConversation(createReq, userA.getId());
+        assertEquals(1, created.getKeyEpoch());
+
+        AddParticipantRequest req = new AddParticipantRequest();
+        req.setUserId(userC.getId());
+
+        // ACT
+        conversationService.addParticipant(created.getId(), userA.getId(), req);
+
+        // ASSERT: la nueva época obliga a redistribuir la clave de grupo
+        assertEquals(2, conversationRepository.findById(created.getId()).orElseThrow().getKeyEpoch());
+    }
+
+    @Test
+    void distributeEpochKeys_ShouldRejectKeys_ThatDoNotCoverAllParticipants() {
+        // ARRANGE
+        CreateConversationRequest createReq = new CreateConversationRequest();
+        createReq.setType("group");
+        createReq.setKeyMode("sender_key");
+        createReq.setParticipantIds(List.of(userB.getId()));
+        ConversationResponse created = conversationService.createConversation(createReq, userA.getId());
+
+        EpochKeyDistributionRequest req = new EpochKeyDistributionRequest();
+        req.setEpoch(1);
+        req.setEncryptedKeys(Map.of(userA.getId().toString(), "groupKeyForA")); // Falta userB
+
+        // ACT & ASSERT
+        assertThrows(IllegalArgumentException.class,
+                () -> conversationService.distributeEpochKeys(created.getId(), userA.getId(), req));
+    }
+
     /**
      * Helper para crear una conversación y sus participantes en la BD
      */
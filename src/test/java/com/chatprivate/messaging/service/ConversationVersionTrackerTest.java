@@ -0,0 +1,77 @@
+package com.chatprivate.messaging.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios para ConversationVersionTracker.
+ *
+ * COBERTURA:
+ * - El ETag cambia cuando cambian las conversaciones del usuario
+ * - Dentro de una transacción, el cambio solo se ve después del commit
+ * - Un rollback no cambia el ETag
+ */
+class ConversationVersionTrackerTest {
+
+    private final ConversationVersionTracker tracker = new ConversationVersionTracker();
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void userETag_ShouldChange_WhenUserListChanges() {
+        // ARRANGE
+        String before = tracker.userETag(1L);
+
+        // ACT
+        tracker.userListsChanged(List.of(1L));
+
+        // ASSERT
+        assertNotEquals(before, tracker.userETag(1L));
+        assertEquals(tracker.userETag(2L), tracker.userETag(2L)); // Otro usuario no cambia
+    }
+
+    @Test
+    void membershipChanged_ShouldOnlyBeVisible_AfterCommit() {
+        // ARRANGE: simulo una transacción activa
+        TransactionSynchronizationManager.initSynchronization();
+        String conversationBefore = tracker.conversationETag(10L);
+        String userBefore = tracker.userETag(1L);
+
+        // ACT
+        tracker.membershipChanged(10L, List.of(1L));
+
+        // ASSERT: antes del commit el ETag no cambia (un poll concurrente vería datos viejos)
+        assertEquals(conversationBefore, tracker.conversationETag(10L));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertNotEquals(conversationBefore, tracker.conversationETag(10L));
+        assertNotEquals(userBefore, tracker.userETag(1L));
+    }
+
+    @Test
+    void userListsChanged_ShouldNotChangeETag_WhenTransactionRollsBack() {
+        // ARRANGE
+        TransactionSynchronizationManager.initSynchronization();
+        String before = tracker.userETag(1L);
+
+        // ACT: se registra el cambio pero la transacción nunca hace commit
+        tracker.userListsChanged(List.of(1L));
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        // ASSERT
+        assertEquals(before, tracker.userETag(1L));
+    }
+}
@@ -0,0 +1,423 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.RecipientKeys;
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationParticipant;
+import com.chatprivate.messaging.model.Message;
+import com.chatprivate.messaging.model.MessageKey;
+import com.chatprivate.messaging.model.MessageOutboxEntry;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import com.chatprivate.messaging.repository.MessageKeyRepository;
+import com.chatprivate.messaging.repository.MessageOutboxRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración del outbox de mensajes (MessageOutboxRelay).
+ *
+ * NO es @Transactional: el relay solo ve lo que ya está confirmado.
+ * Los datos se borran al final.
+ *
+ * Los fallos de reparto se simulan con un interceptor que lanza en el canal
+ * del broker (lo que vería el relay si el envío al socket falla).
+ *
+ * Sin mocks (mismo contexto que el resto de tests): el destinatario se
+ * "conecta" con un SessionConnectedEvent en el registro de usuarios real,
+ * y los frames se capturan con un interceptor en el canal del broker.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class MessageOutboxRelayTest {
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private MessageOutboxRelay outboxRelay;
+
+    @Autowired
+    private MessageOutboxRepository outboxRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageKeyRepository messageKeyRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    @Qualifier("brokerChannel")
+    private AbstractSubscribableChannel brokerChannel;
+
+    private TransactionTemplate tx;
+
+    // Destinos de los frames que pasan por el broker
+    private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+    private final ChannelInterceptor capture = new ChannelInterceptor() {
+        @Override
+        public org.springframework.messaging.Message<?> preSend(org.springframework.messaging.Message<?> message,
+                                                                 MessageChannel channel) {
+            String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            if (destination != null) {
+                sent.add(destination);
+            }
+            return message;
+        }
+    };
+
+    // Interceptor que hace fallar los envíos (se quita al terminar cada test)
+    private ChannelInterceptor failure;
+
+    private String sessionId;
+
+    private Long alice;
+    private User bob;
+    private Long conversationId;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        alice = tx.execute(status -> userRepository.save(User.builder()
+                .username("oba-" + suffix)
+                .email("oba-" + suffix + "@test.com")
+                .password("pass")
+                .build()).getId());
+        bob = tx.execute(status -> userRepository.save(User.builder()
+                .username("obb-" + suffix)
+                .email("obb-" + suffix + "@test.com")
+                .password("pass")
+                .build()));
+
+        conversationId = tx.execute(status -> {
+            Conversation conv = new Conversation();
+            conv.setType("direct");
+            conv.getParticipants().add(participant(conv, alice, "owner"));
+            conv.getParticipants().add(participant(conv, bob.getId(), "member"));
+            return conversationRepository.save(conv).getId();
+        });
+
+        // El destinatario tiene que estar "online" para que haya envío al socket
+        sessionId = "outbox-" + suffix;
+        eventPublisher.publishEvent(new SessionConnectedEvent(this, connectFrame(), bobPrincipal()));
+        brokerChannel.addInterceptor(capture);
+    }
+
+    @AfterEach
+    void tearDown() {
+        brokerChannel.removeInterceptor(capture);
+        if (failure != null) {
+            brokerChannel.removeInterceptor(failure);
+        }
+        eventPublisher.publishEvent(new SessionDisconnectEvent(this, connectFrame(), sessionId,
+                CloseStatus.NORMAL, bobPrincipal()));
+
+        tx.executeWithoutResult(status -> {
+            outboxRepository.deleteAll(outboxEntries());
+            List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId);
+            for (Message msg : messages) {
+                messageKeyRepository.deleteAll(messageKeyRepository.findByMessageId(msg.getId()));
+            }
+            messageRepository.deleteAll(messages);
+            conversationRepository.deleteById(conversationId);
+            userRepository.deleteAllById(List.of(alice, bob.getId()));
+        });
+    }
+
+    @Test
+    void send_ShouldBeDeliveredByTheRelay_AfterCommit() throws InterruptedException {
+        // ACT
+        Long messageId = messageService.sendAndStoreMessage(alice, conversationId, "hola", keys(), null)
+                .getMessageId();
+
+        // ASSERT: el commit despierta al relay, que reparte y marca la fila
+        assertEquals(bobQueue(), sent.poll(5, TimeUnit.SECONDS));
+        assertTrue(awaitDelivered(messageId), "La fila del outbox sigue pendiente");
+    }
+
+    @Test
+    void pendingEntry_ShouldBeDelivered_WhenTheNodeCrashedBeforeTheRelay() {
+        // ARRANGE: mensaje y fila confirmados, pero nadie despertó al relay (la JVM cayó)
+        Long messageId = pendingMessage("hola", 0);
+
+        // ACT: el sondeo tras el arranque
+        outboxRelay.relayPending();
+
+        // ASSERT
+        assertTrue(sent.contains(bobQueue()));
+        assertTrue(awaitDelivered(messageId));
+    }
+
+    @Test
+    void rolledBackSend_ShouldLeaveNothingToDeliver() {
+        // ARRANGE
+        assertThrows(IllegalStateException.class, () -> tx.executeWithoutResult(status -> {
+            messageService.sendAndStoreMessage(alice, conversationId, "hola", keys(), null);
+            throw new IllegalStateException("rollback");
+        }));
+
+        // ACT
+        outboxRelay.relayPending();
+
+        // ASSERT: ni mensaje ni entrega pendiente, y nada salió por el socket
+        assertTrue(outboxEntries().isEmpty());
+        assertFalse(sent.contains(bobQueue()));
+    }
+
+    @Test
+    void failingMessage_ShouldNotBlockTheRestOfTheBatch() {
+        // ARRANGE: el primer frame del lote revienta (p. ej. el broker lo rechaza)
+        Long failing = pendingMessage("uno", 0);
+        Long ok = pendingMessage("dos", 0);
+        failure = failFirstFrame();
+        brokerChannel.addInterceptor(0, failure);
+
+        // ACT
+        int delivered = outboxRelay.relayPending();
+        int again = outboxRelay.relayPending();
+
+        // ASSERT: el segundo se entrega; el primero suma un intento y espera a que caduque su reserva
+        assertEquals(1, delivered);
+        assertEquals(0, again);
+        assertNotNull(entry(ok).getDeliveredAt());
+        MessageOutboxEntry failed = entry(failing);
+        assertNull(failed.getDeliveredAt());
+        assertNull(failed.getParkedAt());
+        assertEquals(1, failed.getAttempts());
+        assertTrue(failed.getLastError().contains("socket caído"));
+    }
+
+    @Test
+    void failingMessage_ShouldBeParked_AfterMaxAttempts() {
+        // ARRANGE: ya falló 4 veces (max-attempts = 5) y el reparto sigue fallando
+        Long messageId = pendingMessage("hola", 4);
+        failure = failEveryFrame();
+        brokerChannel.addInterceptor(0, failure);
+
+        // ACT: quinto fallo
+        outboxRelay.relayPending();
+
+        // ... y aunque caduque la reserva y el socket vuelva, no se reintenta
+        brokerChannel.removeInterceptor(failure);
+        failure = null;
+        tx.executeWithoutResult(status -> {
+            MessageOutboxEntry entry = outboxRepository.findById(entry(messageId).getId()).orElseThrow();
+            entry.setClaimedUntil(null);
+        });
+        outboxRelay.relayPending();
+
+        // ASSERT
+        MessageOutboxEntry parked = entry(messageId);
+        assertEquals(5, parked.getAttempts());
+        assertNotNull(parked.getParkedAt());
+        assertNull(parked.getDeliveredAt());
+        assertFalse(sent.contains(bobQueue()));
+    }
+
+    @Test
+    void claim_ShouldGiveEachRowToOnlyOneRelay() {
+        // ARRANGE: dos relays leyeron los mismos candidatos
+        Long messageId = pendingMessage("hola", 0);
+        Long rowId = entry(messageId).getId();
+        Instant now = Instant.now();
+        Instant until = now.plusSeconds(30);
+
+        // ACT
+        Integer first = tx.execute(status -> outboxRepository.claim(List.of(rowId), "relay-a", until, now));
+        Integer second = tx.execute(status -> outboxRepository.claim(List.of(rowId), "relay-b", until, now));
+
+        // ASSERT: solo el primero se la lleva, y ya no es candidata para nadie
+        assertEquals(1, first);
+        assertEquals(0, second);
+        assertEquals(1, outboxRepository.findClaimed("relay-a").size());
+        assertTrue(outboxRepository.findClaimed("relay-b").isEmpty());
+        assertFalse(outboxRepository.findPending(now, outboxRelay.getNodeId(), now, PageRequest.of(0, 10))
+                .contains(rowId));
+    }
+
+    @Test
+    void otherNodesRow_ShouldOnlyBeTaken_OnceItIsOrphaned() {
+        // ARRANGE: la fila la apuntó otro nodo (sus destinatarios están conectados a él)
+        Long messageId = pendingMessage("hola", 0, "otro-nodo");
+
+        // ACT: mientras ese nodo puede repartirla, este no la toca
+        int whileOwnerIsAlive = outboxRelay.relayPending();
+
+        // ... pero si sigue pendiente pasado orphan-after (el otro nodo cayó), sí
+        tx.executeWithoutResult(status -> {
+            MessageOutboxEntry entry = outboxRepository.findById(entry(messageId).getId()).orElseThrow();
+            entry.setCreatedAt(Instant.now().minus(Duration.ofMinutes(5)));
+        });
+        int afterOwnerDied = outboxRelay.relayPending();
+
+        // ASSERT
+        assertEquals(0, whileOwnerIsAlive);
+        assertEquals(1, afterOwnerDied);
+        assertNotNull(entry(messageId).getDeliveredAt());
+    }
+
+    @Test
+    void enqueue_ShouldRecordThisNodeAsOrigin() {
+        // ACT
+        Long messageId = messageService.sendAndStoreMessage(alice, conversationId, "hola", keys(), null)
+                .getMessageId();
+
+        // ASSERT
+        assertEquals(outboxRelay.getNodeId(), entry(messageId).getOriginNode());
+    }
+
+    /**
+     * Mensaje y fila del outbox confirmados, sin despertar al relay.
+     */
+    private Long pendingMessage(String ciphertext, int previousAttempts) {
+        return pendingMessage(ciphertext, previousAttempts, outboxRelay.getNodeId());
+    }
+
+    private Long pendingMessage(String ciphertext, int previousAttempts, String originNode) {
+        return tx.execute(status -> {
+            Message msg = new Message();
+            msg.setConversation(conversationRepository.getReferenceById(conversationId));
+            msg.setSenderId(alice);
+            msg.setCiphertext(ciphertext);
+            msg = messageRepository.save(msg);
+
+            MessageKey key = new MessageKey();
+            key.setMessage(msg);
+            key.setRecipientId(bob.getId());
+            key.setEncryptedKey("key-bob");
+            messageKeyRepository.save(key);
+
+            MessageOutboxEntry entry = new MessageOutboxEntry(msg.getId(), conversationId);
+            entry.setOriginNode(originNode);
+            entry.setAttempts(previousAttempts);
+            outboxRepository.save(entry);
+            return msg.getId();
+        });
+    }
+
+    private MessageOutboxEntry entry(Long messageId) {
+        return outboxEntries().stream()
+                .filter(entry -> entry.getMessageId().equals(messageId))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private ChannelInterceptor failFirstFrame() {
+        AtomicBoolean failed = new AtomicBoolean();
+        return new ChannelInterceptor() {
+            @Override
+            public org.springframework.messaging.Message<?> preSend(org.springframework.messaging.Message<?> message,
+                                                                     MessageChannel channel) {
+                if (bobQueue().equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+                        && failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("socket caído");
+                }
+                return message;
+            }
+        };
+    }
+
+    private ChannelInterceptor failEveryFrame() {
+        return new ChannelInterceptor() {
+            @Override
+            public org.springframework.messaging.Message<?> preSend(org.springframework.messaging.Message<?> message,
+                                                                     MessageChannel channel) {
+                throw new IllegalStateException("socket caído");
+            }
+        };
+    }
+
+    private boolean awaitDelivered(Long messageId) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean delivered = outboxEntries().stream()
+                    .anyMatch(entry -> entry.getMessageId().equals(messageId) && entry.getDeliveredAt() != null);
+            if (delivered) {
+                return true;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        return false;
+    }
+
+    private List<MessageOutboxEntry> outboxEntries() {
+        return outboxRepository.findAll().stream()
+                .filter(entry -> entry.getConversationId().equals(conversationId))
+                .toList();
+    }
+
+    private org.springframework.messaging.Message<byte[]> connectFrame() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+        accessor.setSessionId(sessionId);
+        accessor.setUser(bobPrincipal());
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private Principal bobPrincipal() {
+        return new UsernamePasswordAuthenticationToken(bob.getUsername(), null, List.of());
+    }
+
+    private String bobQueue() {
+        return StompPayloadEncoder.userDestination(bob.getUsername(), "/queue/messages");
+    }
+
+    private RecipientKeys keys() {
+        return RecipientKeys.fromMap(Map.of(alice.toString(), "key-alice", bob.getId().toString(), "key-bob"));
+    }
+
+    private static ConversationParticipant participant(Conversation conv, Long userId, String role) {
+        ConversationParticipant participant = new ConversationParticipant();
+        participant.setConversation(conv);
+        participant.setUserId(userId);
+        participant.setRole(role);
+        return participant;
+    }
+}
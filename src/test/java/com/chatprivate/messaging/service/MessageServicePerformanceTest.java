@@ -0,0 +1,184 @@
+package com.chatprivate.messaging.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.chatprivate.messaging.dto.CreateConversationRequest;
+import com.chatprivate.messaging.dto.EpochKeyDistributionRequest;
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.support.OperationCost;
+import com.chatprivate.support.PerformanceProbe;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Presupuestos de rendimiento de MessageService (ver ConversationServicePerformanceTest).
+ *
+ * En modo pairwise hay un INSERT por clave (IDENTITY no admite lotes), así que
+ * solo compruebo que lo que crece con los destinatarios son esas filas y nada más.
+ * Lo mismo con los logs: el envío escribe una sola línea INFO, no una por destinatario.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class MessageServicePerformanceTest {
+
+    private static final long ALLOCATION_BUDGET = 2 * 1024 * 1024;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private PerformanceProbe probe;
+    private ListAppender<ILoggingEvent> sendLogs;
+    private User sender;
+    private User recipient;
+    private User third;
+
+    @BeforeEach
+    void setUp() {
+        // ARRANGE
+        probe = new PerformanceProbe(entityManagerFactory, entityManager);
+        sender = createUser("perfSender");
+        recipient = createUser("perfRecipient");
+        third = createUser("perfThird");
+
+        sendLogs = new ListAppender<>();
+        sendLogs.start();
+        sendLogger().addAppender(sendLogs);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sendLogger().detachAppender(sendLogs);
+    }
+
+    @Test
+    void sendAndStoreMessage_Budget() {
+        // ARRANGE
+        Long chat = createConversation(null, recipient);
+        Map<String, String> keys = keysFor(sender, recipient);
+
+        // ACT & ASSERT: incluye el SELECT de existencia + UPDATE + SELECT de la secuencia
+        // de la conversación y el INSERT en message_outbox (el reparto ya no consulta nada en el envío)
+        probe.measure("sendAndStoreMessage", () -> messageService.sendAndStoreMessage(sender.getId(), chat, "ciphertext", keys))
+                .assertStatementsAtMost(10)
+                .assertEntityLoadsAtMost(0);
+    }
+
+    @Test
+    void sendAndStoreMessage_ExtraRecipient_ShouldCostOnlyItsKeyRow() {
+        // ARRANGE
+        Long small = createConversation(null, recipient);
+        Long large = createConversation(null, recipient, third);
+
+        // ACT
+        OperationCost twoMembers = probe.measure("sendAndStoreMessage (2)",
+                () -> messageService.sendAndStoreMessage(sender.getId(), small, "ciphertext", keysFor(sender, recipient)));
+        OperationCost threeMembers = probe.measure("sendAndStoreMessage (3)",
+                () -> messageService.sendAndStoreMessage(sender.getId(), large, "ciphertext", keysFor(sender, recipient, third)));
+
+        // ASSERT
+        assertEquals(twoMembers.getStatements() + 1, threeMembers.getStatements(), threeMembers::toString);
+    }
+
+    @Test
+    void sendSenderKeyMessage_Budget() {
+        // ARRANGE
+        Long group = createConversation(Conversation.KEY_MODE_SENDER_KEY, recipient, third);
+        EpochKeyDistributionRequest req = new EpochKeyDistributionRequest();
+        req.setEpoch(1);
+        req.setEncryptedKeys(keysFor(sender, recipient, third));
+        conversationService.distributeEpochKeys(group, sender.getId(), req);
+
+        // ACT & ASSERT: una sola fila (más la secuencia y el outbox), sin importar el número de participantes.
+        // Los usernames de los participantes ya no se cargan en el envío: los carga el relay
+        probe.measure("sendSenderKeyMessage", () -> messageService.sendSenderKeyMessage(sender.getId(), group, "ciphertext", 1))
+                .assertStatementsAtMost(9)
+                .assertEntityLoadsAtMost(4);
+    }
+
+    @Test
+    void sendAndStoreMessage_AllocationBudget() {
+        // ARRANGE
+        Long chat = createConversation(null, recipient);
+        Map<String, String> keys = keysFor(sender, recipient);
+
+        // ACT & ASSERT
+        probe.measureWarm("sendAndStoreMessage", 3,
+                        () -> messageService.sendAndStoreMessage(sender.getId(), chat, "ciphertext", keys))
+                .assertAllocatedAtMost(ALLOCATION_BUDGET);
+    }
+
+    @Test
+    void sendAndStoreMessage_ShouldWriteOneInfoLine_WhateverTheRecipients() {
+        // ARRANGE: en test se loguea el 100% de los mensajes (app.logging.message-sample-rate)
+        Long group = createConversation(null, recipient, third);
+
+        // ACT
+        messageService.sendAndStoreMessage(sender.getId(), group, "ciphertext", keysFor(sender, recipient, third));
+
+        // ASSERT: solo la línea resumen (cuenta las 3 claves, la del emisor incluida)
+        List<ILoggingEvent> infoOrAbove = sendLogs.list.stream()
+                .filter(event -> event.getLevel().isGreaterOrEqual(Level.INFO))
+                .toList();
+        assertEquals(1, infoOrAbove.size(), infoOrAbove::toString);
+        assertTrue(infoOrAbove.get(0).getFormattedMessage().contains("destinatarios=3"),
+                infoOrAbove.get(0)::getFormattedMessage);
+    }
+
+    private static Logger sendLogger() {
+        return (Logger) LoggerFactory.getLogger(MessageService.class);
+    }
+
+    private Long createConversation(String keyMode, User... members) {
+        CreateConversationRequest req = new CreateConversationRequest();
+        req.setType(members.length == 1 ? "direct" : "group");
+        req.setKeyMode(keyMode);
+        req.setParticipantIds(Arrays.stream(members).map(User::getId).toList());
+        return conversationService.createConversation(req, sender.getId()).getId();
+    }
+
+    private static Map<String, String> keysFor(User... recipients) {
+        return Arrays.stream(recipients)
+                .collect(Collectors.toMap(u -> u.getId().toString(), u -> "key-" + u.getId()));
+    }
+
+    private User createUser(String username) {
+        return userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@test.com")
+                .password("pass")
+                .build());
+    }
+}
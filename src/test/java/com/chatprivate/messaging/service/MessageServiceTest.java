@@ -1,15 +1,21 @@
 package com.chatprivate.messaging.service;
 
+import com.chatprivate.messaging.dto.MessageHistoryDto;
 import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationEpochKey;
 import com.chatprivate.messaging.model.ConversationParticipant;
 import com.chatprivate.messaging.model.Message;
 import com.chatprivate.messaging.model.MessageKey;
+import com.chatprivate.messaging.repository.ConversationEpochKeyRepository;
 import com.chatprivate.messaging.repository.MessageKeyRepository;
 import com.chatprivate.messaging.repository.MessageRepository;
 import com.chatprivate.messaging.repository.ConversationParticipantRepository;
+import com.chatprivate.monitoring.ChatMetrics;
 import com.chatprivate.security.PermissionService;
 import com.chatprivate.user.User;
 import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +24,7 @@ import org.springframework.security.access.AccessDeniedException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +37,10 @@ import static org.junit.jupiter.api.Assertions.*;
  * - Validación de permisos al enviar mensajes
  * - Guardado de mensajes y claves cifradas
  * - Validación de mapa de claves
+ * - Modo sender_key (sin filas en message_keys)
+ * - Métricas por fase del envío (chat.message.send)
+ * - Secuencia por conversación y sincronización por cursor (afterSeq)
+ * - Historial ordenado por seq y paginación hacia atrás (beforeSeq)
  */
 @SpringBootTest
 @ActiveProfiles("test")
@@ -54,6 +65,15 @@ class MessageServiceTest {
     @Autowired
     private com.chatprivate.messaging.repository.ConversationRepository conversationRepository;
 
+    @Autowired
+    private ConversationEpochKeyRepository epochKeyRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ConversationService conversationService;
+
     private User sender;
     private User recipient;
     private User outsider;
@@ -117,7 +137,7 @@ class MessageServiceTest {
 
         // ASSERT
         // Verificar que el mensaje se guardó
-        List<Message> messages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversation.getId());
+        List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversation.getId());
         assertEquals(1, messages.size());
         assertEquals(ciphertext, messages.get(0).getCiphertext());
         assertEquals(sender.getId(), messages.get(0).getSenderId());
@@ -129,6 +149,24 @@ class MessageServiceTest {
         assertEquals("clave_para_recipient", keys.get(0).getEncryptedKey());
     }
 
+    @Test
+    void sendAndStoreMessage_ShouldRecordPhaseTimers() {
+        // ARRANGE
+        long before = sendPhaseCount(ChatMetrics.PHASE_PERSIST);
+        Map<String, String> encryptedKeys = Map.of(
+                recipient.getId().toString(), "clave_para_recipient"
+        );
+
+        // ACT
+        messageService.sendAndStoreMessage(sender.getId(), conversation.getId(), "medido", encryptedKeys);
+
+        // ASSERT
+        // Cada fase registra una muestra en chat.message.send
+        assertEquals(before + 1, sendPhaseCount(ChatMetrics.PHASE_PERSIST));
+        assertTrue(sendPhaseCount(ChatMetrics.PHASE_VALIDATE) > 0);
+        assertTrue(sendPhaseCount(ChatMetrics.PHASE_FANOUT) > 0);
+    }
+
     @Test
     void sendAndStoreMessage_ShouldThrowAccessDenied_WhenSenderIsNotParticipant() {
         // ARRANGE
@@ -149,7 +187,7 @@ class MessageServiceTest {
         });
 
         // Verificar que NO se guardó ningún mensaje
-        List<Message> messages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversation.getId());
+        List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversation.getId());
         assertEquals(0, messages.size());
     }
 
@@ -188,7 +226,7 @@ class MessageServiceTest {
         );
 
         // ASSERT
-        List<Message> messages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversation.getId());
+        List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversation.getId());
         assertEquals(1, messages.size());
 
         // Solo debe haber guardado 1 clave (la del recipient válido)
@@ -196,4 +234,140 @@ class MessageServiceTest {
         assertEquals(1, keys.size());
         assertEquals(recipient.getId(), keys.get(0).getRecipientId());
     }
-}
\ No newline at end of file
+
+    @Test
+    void sendSenderKeyMessage_ShouldStoreNoMessageKeys_WhenEpochKeyWasDistributed() {
+        // ARRANGE: conversación en modo sender_key con la clave de la época 1 distribuida
+        conversation.setKeyMode(Conversation.KEY_MODE_SENDER_KEY);
+        conversation.setKeyEpoch(1);
+        conversationRepository.save(conversation);
+        saveEpochKey(sender.getId(), "groupKeyForSender");
+        saveEpochKey(recipient.getId(), "groupKeyForRecipient");
+
+        // ACT
+        messageService.sendSenderKeyMessage(sender.getId(), conversation.getId(), "mensaje de grupo", 1);
+
+        // ASSERT
+        List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversation.getId());
+        assertEquals(1, messages.size());
+        assertEquals(1, messages.get(0).getKeyEpoch());
+        assertTrue(messageKeyRepository.findByMessageId(messages.get(0).getId()).isEmpty());
+    }
+
+    @Test
+    void sendSenderKeyMessage_ShouldThrowException_WhenEpochIsStale() {
+        // ARRANGE: la época actual es 2 (alguien entró o salió)
+        conversation.setKeyMode(Conversation.KEY_MODE_SENDER_KEY);
+        conversation.setKeyEpoch(2);
+        conversationRepository.save(conversation);
+
+        // ACT & ASSERT
+        assertThrows(IllegalArgumentException.class, () ->
+                messageService.sendSenderKeyMessage(sender.getId(), conversation.getId(), "mensaje viejo", 1));
+    }
+
+    @Test
+    void sendAndStoreMessage_ShouldNumberMessagesPerConversation() {
+        // ARRANGE: otra conversación con los mismos usuarios
+        Conversation other = new Conversation();
+        other.setType("group");
+        other = conversationRepository.save(other);
+        for (User user : List.of(sender, recipient)) {
+            ConversationParticipant participant = new ConversationParticipant();
+            participant.setConversation(other);
+            participant.setUserId(user.getId());
+            participant.setRole("member");
+            participantRepository.save(participant);
+        }
+        Map<String, String> keys = Map.of(recipient.getId().toString(), "k");
+
+        // ACT
+        Long first = messageService.sendAndStoreMessage(sender.getId(), conversation.getId(), "1", keys).getSequence();
+        Long second = messageService.sendAndStoreMessage(sender.getId(), conversation.getId(), "2", keys).getSequence();
+        Long otherFirst = messageService.sendAndStoreMessage(sender.getId(), other.getId(), "a", keys).getSequence();
+        Long third = messageService.sendAndStoreMessage(sender.getId(), conversation.getId(), "3", keys).getSequence();
+
+        // ASSERT: cada conversación cuenta por su lado, sin huecos
+        assertEquals(List.of(1L, 2L, 3L), List.of(first, second, third));
+        assertEquals(1L, otherFirst);
+        assertEquals(List.of(1L, 2L, 3L), messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversation.getId())
+                .stream().map(Message::getSeq).toList());
+    }
+
+    @Test
+    void getMessagesAfterSeq_ShouldReturnOnlyLaterMessages_InOrder() {
+        // ARRANGE
+        Map<String, String> keys = Map.of(recipient.getId().toString(), "k");
+        for (String text : List.of("uno", "dos", "tres", "cuatro")) {
+            messageService.sendAndStoreMessage(sender.getId(), conversation.getId(), text, keys);
+        }
+
+        // ACT: el cliente tiene hasta el 1 y pide de 2 en 2
+        List<MessageHistoryDto> page = conversationService.getMessagesAfterSeq(conversation.getId(), recipient.getId(), 1, 2);
+        List<MessageHistoryDto> rest = conversationService.getMessagesAfterSeq(conversation.getId(), recipient.getId(),
+                page.get(page.size() - 1).getSeq(), 2);
+
+        // ASSERT
+        assertEquals(List.of("dos", "tres"), page.stream().map(MessageHistoryDto::getCiphertext).toList());
+        assertEquals(List.of(4L), rest.stream().map(MessageHistoryDto::getSeq).toList());
+        assertThrows(AccessDeniedException.class,
+                () -> conversationService.getMessagesAfterSeq(conversation.getId(), outsider.getId(), 0, 10));
+    }
+
+    @Test
+    void history_ShouldFollowSeq_WithOlderUnsequencedMessagesFirst() {
+        // ARRANGE: un mensaje de antes de la columna seq con la MISMA fecha que los nuevos
+        Instant sameInstant = Instant.now();
+        Message legacy = new Message();
+        legacy.setConversation(conversation);
+        legacy.setSenderId(sender.getId());
+        legacy.setCiphertext("antiguo");
+        legacy.setCreatedAt(sameInstant);
+        legacy = messageRepository.save(legacy);
+        MessageKey legacyKey = new MessageKey();
+        legacyKey.setMessage(legacy);
+        legacyKey.setRecipientId(recipient.getId());
+        legacyKey.setEncryptedKey("k");
+        messageKeyRepository.save(legacyKey);
+
+        Map<String, String> keys = Map.of(recipient.getId().toString(), "k");
+        for (String text : List.of("uno", "dos", "tres")) {
+            messageService.sendAndStoreMessage(sender.getId(), conversation.getId(), text, keys);
+        }
+        messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversation.getId())
+                .forEach(msg -> msg.setCreatedAt(sameInstant));
+        messageRepository.flush();
+
+        // ACT
+        List<MessageHistoryDto> full = conversationService.getMessageHistory(conversation.getId(), recipient.getId());
+        List<MessageHistoryDto> paged = conversationService.getMessageHistoryPaged(
+                conversation.getId(), recipient.getId(), 0, 10).getContent();
+        List<MessageHistoryDto> before = conversationService.getMessagesBeforeSeq(
+                conversation.getId(), recipient.getId(), 3, 10);
+
+        // ASSERT: con createdAt empatado manda seq; el mensaje sin seq va el primero
+        assertEquals(List.of("antiguo", "uno", "dos", "tres"),
+                full.stream().map(MessageHistoryDto::getCiphertext).toList());
+        assertEquals(List.of("tres", "dos", "uno", "antiguo"),
+                paged.stream().map(MessageHistoryDto::getCiphertext).toList());
+        assertEquals(List.of(2L, 1L), before.stream().map(MessageHistoryDto::getSeq).toList());
+    }
+
+    private void saveEpochKey(Long recipientId, String encryptedKey) {
+        ConversationEpochKey key = new ConversationEpochKey();
+        key.setConversationId(conversation.getId());
+        key.setEpoch(1);
+        key.setRecipientId(recipientId);
+        key.setEncryptedKey(encryptedKey);
+        key.setDistributorId(sender.getId());
+        epochKeyRepository.save(key);
+    }
+
+    private long sendPhaseCount(String phase) {
+        Timer timer = meterRegistry.find("chat.message.send")
+                .tag("mode", "pairwise")
+                .tag("phase", phase)
+                .timer();
+        return timer != null ? timer.count() : 0;
+    }
+}
@@ -0,0 +1,98 @@
+package com.chatprivate.messaging.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios de la caché de ciphertexts fuera del heap.
+ *
+ * COBERTURA:
+ * - Lectura y escritura por ID de mensaje
+ * - Techo de memoria y reciclado de slabs por reloj (con segunda oportunidad)
+ * - Ciphertexts que no caben en un slab
+ */
+class OffHeapCiphertextCacheTest {
+
+    private static final int SLAB = 1024;
+
+    @Test
+    void putAndGet_ShouldRoundTripTheCiphertext() {
+        // ARRANGE
+        OffHeapCiphertextCache cache = new OffHeapCiphertextCache(true, 4 * SLAB, SLAB);
+
+        // ACT
+        cache.put(1, "primer-ciphertext");
+        cache.put(2, "segundo-ciphertext-ñ");
+
+        // ASSERT
+        assertEquals("primer-ciphertext", cache.get(1));
+        assertEquals("segundo-ciphertext-ñ", cache.get(2));
+        assertNull(cache.get(3));
+        assertEquals(SLAB, cache.reservedBytes()); // Un solo slab hasta ahora
+    }
+
+    @Test
+    void put_ShouldNeverReserveMoreThanTheCeiling_AndRecycleOldSlabs() {
+        // ARRANGE: 4 slabs de 1 KB, ciphertexts de 500 bytes (2 por slab)
+        OffHeapCiphertextCache cache = new OffHeapCiphertextCache(true, 4 * SLAB, SLAB);
+
+        // ACT
+        for (long id = 1; id <= 20; id++) {
+            assertTrue(cache.put(id, ciphertext(id)));
+        }
+
+        // ASSERT
+        assertEquals(4 * SLAB, cache.reservedBytes());
+        assertNull(cache.get(1));                      // Reciclado
+        assertEquals(ciphertext(20), cache.get(20));  // Los últimos siguen
+        assertEquals(ciphertext(19), cache.get(19));
+        assertTrue(cache.size() <= 8);
+    }
+
+    @Test
+    void clock_ShouldGiveASecondChance_ToSlabsReadSinceTheLastSweep() {
+        // ARRANGE: llenos los 4 slabs (IDs 1..8)
+        OffHeapCiphertextCache cache = new OffHeapCiphertextCache(true, 4 * SLAB, SLAB);
+        for (long id = 1; id <= 8; id++) {
+            cache.put(id, ciphertext(id));
+        }
+        cache.get(1); // El slab de 1 y 2 se leyó
+
+        // ACT: hace falta un slab -> el reloj salta el leído y recicla el de 3 y 4
+        cache.put(9, ciphertext(9));
+
+        // ASSERT
+        assertEquals(ciphertext(1), cache.get(1));
+        assertEquals(ciphertext(2), cache.get(2));
+        assertNull(cache.get(3));
+        assertNull(cache.get(4));
+        assertEquals(ciphertext(9), cache.get(9));
+    }
+
+    @Test
+    void put_ShouldRejectCiphertexts_LargerThanASlab() {
+        // ARRANGE
+        OffHeapCiphertextCache cache = new OffHeapCiphertextCache(true, 4 * SLAB, SLAB);
+
+        // ACT & ASSERT
+        assertFalse(cache.put(1, "x".repeat(SLAB + 1)));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    void disabledCache_ShouldStoreNothing() {
+        // ARRANGE
+        OffHeapCiphertextCache cache = new OffHeapCiphertextCache(false, 4 * SLAB, SLAB);
+
+        // ACT & ASSERT
+        assertFalse(cache.put(1, "ciphertext"));
+        assertNull(cache.get(1));
+        assertEquals(0, cache.reservedBytes());
+    }
+
+    private static String ciphertext(long id) {
+        String prefix = id + ":";
+        return prefix + "c".repeat(500 - prefix.length());
+    }
+}
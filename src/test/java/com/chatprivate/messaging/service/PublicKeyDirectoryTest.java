@@ -0,0 +1,117 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.PublicKeyDto;
+import com.chatprivate.messaging.model.UserPublicKey;
+import com.chatprivate.messaging.repository.UserPublicKeyRepository;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import com.chatprivate.user.UserService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración para PublicKeyDirectory.
+ *
+ * COBERTURA:
+ * - Lookup por lotes (los usuarios sin clave no aparecen)
+ * - Los usuarios sin clave no cuestan queries extra
+ * - La caché devuelve la clave nueva después de uploadPublicKey
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class PublicKeyDirectoryTest {
+
+    @Autowired
+    private PublicKeyDirectory publicKeyDirectory;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserPublicKeyRepository userPublicKeyRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private User alice;
+    private User bob;
+    private User withoutKey;
+
+    @BeforeEach
+    void setUp() {
+        alice = userRepository.save(User.builder().username("alice").email("alice@test.com").password("pass").build());
+        bob = userRepository.save(User.builder().username("bob").email("bob@test.com").password("pass").build());
+        withoutKey = userRepository.save(User.builder().username("nokey").email("nokey@test.com").password("pass").build());
+
+        savePublicKey(alice, "PEM_ALICE");
+        savePublicKey(bob, "PEM_BOB");
+    }
+
+    @Test
+    void getKeys_ShouldReturnOnlyUsersWithKeys_InRequestedOrder() {
+        // ACT
+        List<PublicKeyDto> keys = publicKeyDirectory.getKeys(List.of(bob.getId(), withoutKey.getId(), alice.getId()));
+
+        // ASSERT
+        assertEquals(2, keys.size());
+        assertEquals(bob.getId(), keys.get(0).getUserId());
+        assertEquals("PEM_BOB", keys.get(0).getPublicKeyPem());
+        assertEquals(alice.getId(), keys.get(1).getUserId());
+    }
+
+    @Test
+    void getKeys_ShouldLoadKeylessUsers_InTheSingleBatchQuery() {
+        // ARRANGE
+        User otherWithoutKey = userRepository.save(User.builder()
+                .username("nokey2").email("nokey2@test.com").password("pass").build());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // ACT
+        List<PublicKeyDto> keys = publicKeyDirectory.getKeys(
+                List.of(withoutKey.getId(), alice.getId(), otherWithoutKey.getId()));
+
+        // ASSERT: un solo SELECT ... IN para todo el lote (antes, uno más por usuario sin clave)
+        assertEquals(1, keys.size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void getKey_ShouldReturnNewKey_AfterUploadPublicKey() {
+        // ARRANGE: la clave vieja queda en caché
+        PublicKeyDto before = publicKeyDirectory.getKey(alice.getId()).orElseThrow();
+        assertEquals("PEM_ALICE", before.getPublicKeyPem());
+
+        // ACT
+        userService.uploadPublicKey(alice.getUsername(), "PEM_ALICE_V2");
+
+        // ASSERT: la caché se invalidó y la versión cambió
+        PublicKeyDto after = publicKeyDirectory.getKey(alice.getId()).orElseThrow();
+        assertEquals("PEM_ALICE_V2", after.getPublicKeyPem());
+        assertTrue(after.getVersion() > before.getVersion());
+    }
+
+    private void savePublicKey(User user, String pem) {
+        UserPublicKey upk = new UserPublicKey();
+        upk.setUserId(user.getId());
+        upk.setPublicKeyPem(pem);
+        upk.setUpdatedAt(Instant.now().minusSeconds(60));
+        userPublicKeyRepository.save(upk);
+    }
+}
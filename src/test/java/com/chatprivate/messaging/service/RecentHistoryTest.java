@@ -0,0 +1,240 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.MessageHistoryDto;
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationParticipant;
+import com.chatprivate.messaging.model.Message;
+import com.chatprivate.messaging.model.MessageKey;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import com.chatprivate.messaging.repository.MessageKeyRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración de la primera página del historial desde memoria.
+ *
+ * Como SecondLevelCacheTest, NO es @Transactional: el buffer solo se llena
+ * después del commit. Los datos se borran al final.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class RecentHistoryTest {
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private RecentMessageBuffer recentMessages;
+
+    @Autowired
+    private OffHeapCiphertextCache offHeapCiphertexts;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageKeyRepository messageKeyRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Statistics statistics;
+    private TransactionTemplate tx;
+
+    private Long alice;
+    private Long bob;
+    private Long conversationId;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        tx = new TransactionTemplate(transactionManager);
+
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        alice = createUser("rha-" + suffix);
+        bob = createUser("rhb-" + suffix);
+
+        conversationId = tx.execute(status -> {
+            Conversation conv = new Conversation();
+            conv.setType("direct");
+            conv.getParticipants().add(participant(conv, alice, "owner"));
+            conv.getParticipants().add(participant(conv, bob, "member"));
+            return conversationRepository.save(conv).getId();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        recentMessages.evict(conversationId);
+        tx.executeWithoutResult(status -> {
+            List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId);
+            for (Message msg : messages) {
+                messageKeyRepository.deleteAll(messageKeyRepository.findByMessageId(msg.getId()));
+            }
+            messageRepository.deleteAll(messages);
+            conversationRepository.deleteById(conversationId);
+            userRepository.deleteAllById(List.of(alice, bob));
+        });
+    }
+
+    @Test
+    void firstPage_ShouldComeFromMemory_AndMatchTheDatabase() {
+        // ARRANGE: 2 mensajes ya guardados antes (la siembra los trae) + 3 enviados
+        insertMessage("antiguo-1");
+        insertMessage("antiguo-2");
+        for (int i = 0; i < 3; i++) {
+            send("nuevo-" + i);
+        }
+
+        statistics.clear();
+
+        // ACT
+        Page<MessageHistoryDto> fromMemory = conversationService.getMessageHistoryPaged(conversationId, bob, 0, 50);
+        long messageLoads = statistics.getEntityStatistics(Message.class.getName()).getLoadCount();
+        long keyLoads = statistics.getEntityStatistics(MessageKey.class.getName()).getLoadCount();
+
+        recentMessages.evict(conversationId);
+        Page<MessageHistoryDto> fromDatabase = conversationService.getMessageHistoryPaged(conversationId, bob, 0, 50);
+
+        // ASSERT: mismo contenido, sin leer mensajes ni claves de la BD
+        assertEquals(0, messageLoads);
+        assertEquals(0, keyLoads);
+        assertEquals(5, fromMemory.getTotalElements());
+        assertEquals(fromDatabase.getTotalElements(), fromMemory.getTotalElements());
+        assertEquals(ids(fromDatabase), ids(fromMemory));
+        assertEquals("nuevo-2", fromMemory.getContent().get(0).getCiphertext());
+        assertEquals("key-bob", fromMemory.getContent().get(0).getEncryptedKey());
+        assertEquals("key-bob-antiguo-1", fromMemory.getContent().get(4).getEncryptedKey());
+    }
+
+    @Test
+    void rolledBackMessage_ShouldNeverReachTheBuffer() {
+        // ARRANGE
+        send("confirmado");
+
+        // ACT
+        tx.executeWithoutResult(status -> {
+            messageService.sendAndStoreMessage(alice, conversationId, "revertido", keys());
+            status.setRollbackOnly();
+        });
+
+        // ASSERT
+        Page<MessageHistoryDto> page = conversationService.getMessageHistoryPaged(conversationId, bob, 0, 50);
+        assertEquals(1, page.getTotalElements());
+        assertEquals("confirmado", page.getContent().get(0).getCiphertext());
+    }
+
+    @Test
+    void laterPages_ShouldStillGoToTheDatabase() {
+        // ARRANGE
+        for (int i = 0; i < 3; i++) {
+            send("m-" + i);
+        }
+        statistics.clear();
+
+        // ACT
+        Page<MessageHistoryDto> second = conversationService.getMessageHistoryPaged(conversationId, bob, 1, 2);
+
+        // ASSERT
+        assertEquals(1, second.getContent().size());
+        assertEquals(1, statistics.getEntityStatistics(Message.class.getName()).getLoadCount());
+    }
+
+    @Test
+    void recycledCiphertext_ShouldBeReadFromTheDatabase_WithoutLoadingMessages() {
+        // ARRANGE: el perfil de test activa la caché fuera del heap
+        send("primero");
+        send("segundo");
+        Long newest = conversationService.getMessageHistoryPaged(conversationId, bob, 0, 50)
+                .getContent().get(0).getMessageId();
+        offHeapCiphertexts.remove(newest); // Como si el reloj hubiera reciclado su slab
+        statistics.clear();
+
+        // ACT
+        Page<MessageHistoryDto> page = conversationService.getMessageHistoryPaged(conversationId, bob, 0, 50);
+
+        // ASSERT: una proyección rellena el hueco y vuelve a la caché
+        assertEquals(List.of("segundo", "primero"),
+                page.getContent().stream().map(MessageHistoryDto::getCiphertext).toList());
+        assertEquals(0, statistics.getEntityStatistics(Message.class.getName()).getLoadCount());
+        assertEquals("segundo", offHeapCiphertexts.get(newest));
+    }
+
+    private void send(String ciphertext) {
+        messageService.sendAndStoreMessage(alice, conversationId, ciphertext, keys());
+    }
+
+    private Map<String, String> keys() {
+        return Map.of(alice.toString(), "key-alice", bob.toString(), "key-bob");
+    }
+
+    /**
+     * Un mensaje que no pasó por MessageService (como los anteriores al arranque).
+     */
+    private void insertMessage(String ciphertext) {
+        tx.executeWithoutResult(status -> {
+            Message msg = new Message();
+            msg.setConversation(conversationRepository.getReferenceById(conversationId));
+            msg.setSenderId(alice);
+            msg.setCiphertext(ciphertext);
+            msg = messageRepository.save(msg);
+
+            MessageKey key = new MessageKey();
+            key.setMessage(msg);
+            key.setRecipientId(bob);
+            key.setEncryptedKey("key-bob-" + ciphertext);
+            messageKeyRepository.save(key);
+        });
+    }
+
+    private static List<Long> ids(Page<MessageHistoryDto> page) {
+        return page.getContent().stream().map(MessageHistoryDto::getMessageId).toList();
+    }
+
+    private Long createUser(String username) {
+        return tx.execute(status -> userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@test.com")
+                .password("pass")
+                .build()).getId());
+    }
+
+    private static ConversationParticipant participant(Conversation conv, Long userId, String role) {
+        ConversationParticipant participant = new ConversationParticipant();
+        participant.setConversation(conv);
+        participant.setUserId(userId);
+        participant.setRole(role);
+        return participant;
+    }
+}
@@ -0,0 +1,159 @@
+package com.chatprivate.messaging.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios del buffer de mensajes recientes.
+ *
+ * COBERTURA:
+ * - Siembra al crear el buffer y total de la conversación
+ * - Orden por ID con commits fuera de orden, sin duplicados
+ * - Cuándo puede responder (ventana completa o conversación entera)
+ * - Presupuesto de memoria con expulsión LRU
+ * - Ciphertexts fuera del heap (OffHeapCiphertextCache)
+ */
+class RecentMessageBufferTest {
+
+    // Caché fuera del heap desactivada: el ciphertext se queda en la entrada
+    private static final OffHeapCiphertextCache ON_HEAP = new OffHeapCiphertextCache(false, 0, 1024 * 1024);
+
+    private static final Supplier<RecentMessageBuffer.Window> NO_SEED =
+            () -> new RecentMessageBuffer.Window(List.of(), 0);
+
+    @Test
+    void append_ShouldSeedOnce_AndServeNewestFirst() {
+        // ARRANGE: la conversación ya tenía 3 mensajes en BD (el 3 es el nuevo)
+        RecentMessageBuffer buffer = new RecentMessageBuffer(true, 5, Long.MAX_VALUE, ON_HEAP);
+        int[] seeds = {0};
+        Supplier<RecentMessageBuffer.Window> seed = () -> {
+            seeds[0]++;
+            return new RecentMessageBuffer.Window(List.of(entry(3), entry(2), entry(1)), 3);
+        };
+
+        // ACT
+        buffer.append(7L, entry(3), seed);
+        buffer.append(7L, entry(4), seed);
+
+        // ASSERT
+        assertEquals(1, seeds[0]);
+        RecentMessageBuffer.Window window = buffer.newest(7L, 3).orElseThrow();
+        assertEquals(List.of(4L, 3L, 2L), ids(window));
+        assertEquals(4, window.getTotal());
+    }
+
+    @Test
+    void append_ShouldKeepIdOrder_WhenCommitsArriveOutOfOrder() {
+        // ARRANGE
+        RecentMessageBuffer buffer = new RecentMessageBuffer(true, 3, Long.MAX_VALUE, ON_HEAP);
+        buffer.append(7L, entry(10), NO_SEED);
+
+        // ACT
+        buffer.append(7L, entry(12), NO_SEED);
+        buffer.append(7L, entry(11), NO_SEED); // Llegó tarde
+        buffer.append(7L, entry(11), NO_SEED); // Repetido
+        buffer.append(7L, entry(13), NO_SEED); // Saca al 10 (capacidad 3)
+
+        // ASSERT
+        RecentMessageBuffer.Window window = buffer.newest(7L, 3).orElseThrow();
+        assertEquals(List.of(13L, 12L, 11L), ids(window));
+        assertEquals(4, window.getTotal());
+    }
+
+    @Test
+    void append_ShouldNotCountAgain_ALateCommitOlderThanTheWindow() {
+        // ARRANGE: la siembra ya contó el 3 (estaba en BD), pero su afterCommit llega después
+        RecentMessageBuffer buffer = new RecentMessageBuffer(true, 2, Long.MAX_VALUE, ON_HEAP);
+        buffer.append(7L, entry(5), () -> new RecentMessageBuffer.Window(List.of(entry(5), entry(4)), 5));
+
+        // ACT
+        buffer.append(7L, entry(3), NO_SEED);
+
+        // ASSERT
+        RecentMessageBuffer.Window window = buffer.newest(7L, 2).orElseThrow();
+        assertEquals(List.of(5L, 4L), ids(window));
+        assertEquals(5, window.getTotal());
+    }
+
+    @Test
+    void newest_ShouldAnswer_OnlyWhenItHasTheWholeWindow() {
+        // ARRANGE: la BD tiene 10 mensajes, pero la siembra solo trajo los 2 últimos
+        RecentMessageBuffer buffer = new RecentMessageBuffer(true, 50, Long.MAX_VALUE, ON_HEAP);
+        buffer.append(7L, entry(10), () -> new RecentMessageBuffer.Window(List.of(entry(10), entry(9)), 10));
+        buffer.append(8L, entry(1), () -> new RecentMessageBuffer.Window(List.of(entry(1)), 1));
+
+        // ACT & ASSERT
+        assertTrue(buffer.newest(7L, 2).isPresent());
+        assertTrue(buffer.newest(7L, 3).isEmpty());   // Faltarían mensajes más viejos
+        assertTrue(buffer.newest(8L, 50).isPresent()); // Tiene la conversación entera
+        assertTrue(buffer.newest(7L, 51).isEmpty());  // Más grande que la capacidad
+        assertTrue(buffer.newest(99L, 1).isEmpty());  // Conversación desconocida
+    }
+
+    @Test
+    void append_ShouldEvictLeastRecentlyUsedConversation_WhenOverBudget() {
+        // ARRANGE: sitio para unas 2 conversaciones de un mensaje
+        long entryBytes = RecentMessageBuffer.ENTRY_OVERHEAD_BYTES + 10
+                + RecentMessageBuffer.KEY_OVERHEAD_BYTES + 3;
+        RecentMessageBuffer buffer = new RecentMessageBuffer(true, 50, entryBytes * 2, ON_HEAP);
+        buffer.append(1L, entry(1), NO_SEED);
+        buffer.append(2L, entry(2), NO_SEED);
+        buffer.newest(1L, 1); // La 1 se usó hace menos que la 2
+
+        // ACT
+        buffer.append(3L, entry(3), NO_SEED);
+
+        // ASSERT
+        assertEquals(2, buffer.conversationCount());
+        assertTrue(buffer.newest(1L, 1).isPresent());
+        assertTrue(buffer.newest(2L, 1).isEmpty());
+        assertTrue(buffer.newest(3L, 1).isPresent());
+        assertEquals(entryBytes * 2, buffer.usedBytes());
+    }
+
+    @Test
+    void append_ShouldMoveCiphertextOffHeap_WhenTheCacheIsEnabled() {
+        // ARRANGE
+        OffHeapCiphertextCache offHeap = new OffHeapCiphertextCache(true, 4 * 1024, 1024);
+        RecentMessageBuffer buffer = new RecentMessageBuffer(true, 50, Long.MAX_VALUE, offHeap);
+
+        // ACT
+        buffer.append(7L, entry(1), NO_SEED);
+
+        // ASSERT: la entrada solo guarda metadatos y claves
+        RecentMessageBuffer.Entry stored = buffer.newest(7L, 1).orElseThrow().getEntries().get(0);
+        assertNull(stored.getCiphertext());
+        assertEquals("ciphertext", offHeap.get(1L));
+        assertEquals("key", stored.keyFor(2L));
+        assertEquals(RecentMessageBuffer.ENTRY_OVERHEAD_BYTES + RecentMessageBuffer.KEY_OVERHEAD_BYTES + 3,
+                buffer.usedBytes());
+    }
+
+    @Test
+    void disabledBuffer_ShouldNeverAnswer() {
+        // ARRANGE
+        RecentMessageBuffer buffer = new RecentMessageBuffer(false, 50, Long.MAX_VALUE, ON_HEAP);
+
+        // ACT
+        buffer.appendAfterCommit(7L, entry(1), NO_SEED);
+
+        // ASSERT
+        assertTrue(buffer.newest(7L, 1).isEmpty());
+        assertEquals(0, buffer.conversationCount());
+    }
+
+    private static RecentMessageBuffer.Entry entry(long id) {
+        // ciphertext de 10 caracteres y una clave de 3
+        return new RecentMessageBuffer.Entry(id, 1L, "ciphertext", Instant.now(), id, null, Map.of(2L, "key"));
+    }
+
+    private static List<Long> ids(RecentMessageBuffer.Window window) {
+        return window.getEntries().stream().map(RecentMessageBuffer.Entry::getMessageId).toList();
+    }
+}
@@ -0,0 +1,197 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.controller.StompChatController;
+import com.chatprivate.messaging.dto.RecipientKeys;
+import com.chatprivate.messaging.dto.StompMessagePayload;
+import com.chatprivate.messaging.model.Conversation;
+import com.chatprivate.messaging.model.ConversationParticipant;
+import com.chatprivate.messaging.model.Message;
+import com.chatprivate.messaging.repository.ConversationRepository;
+import com.chatprivate.messaging.repository.MessageKeyRepository;
+import com.chatprivate.messaging.repository.MessageRepository;
+import com.chatprivate.user.CustomUserDetails;
+import com.chatprivate.user.User;
+import com.chatprivate.user.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración de los reenvíos con clientMessageId.
+ *
+ * NO es @Transactional: la ventana de SendDeduplicator solo se llena después
+ * del commit. Los datos se borran al final.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class SendDeduplicationTest {
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private StompChatController stompChatController;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageKeyRepository messageKeyRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate tx;
+
+    private User alice;
+    private Long bob;
+    private Long conversationId;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        alice = tx.execute(status -> userRepository.save(User.builder()
+                .username("dda-" + suffix)
+                .email("dda-" + suffix + "@test.com")
+                .password("pass")
+                .build()));
+        bob = tx.execute(status -> userRepository.save(User.builder()
+                .username("ddb-" + suffix)
+                .email("ddb-" + suffix + "@test.com")
+                .password("pass")
+                .build()).getId());
+
+        conversationId = tx.execute(status -> {
+            Conversation conv = new Conversation();
+            conv.setType("direct");
+            conv.getParticipants().add(participant(conv, alice.getId(), "owner"));
+            conv.getParticipants().add(participant(conv, bob, "member"));
+            return conversationRepository.save(conv).getId();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        tx.executeWithoutResult(status -> {
+            List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId);
+            for (Message msg : messages) {
+                messageKeyRepository.deleteAll(messageKeyRepository.findByMessageId(msg.getId()));
+            }
+            messageRepository.deleteAll(messages);
+            conversationRepository.deleteById(conversationId);
+            userRepository.deleteAllById(List.of(alice.getId(), bob));
+        });
+    }
+
+    @Test
+    void resend_ShouldReturnTheOriginalMessage_WithoutStoringItAgain() {
+        // ARRANGE
+        double before = duplicates("memory");
+        Long original = messageService.sendAndStoreMessage(alice.getId(), conversationId, "hola", keys(), "cm-1")
+                .getMessageId();
+
+        // ACT: el cliente reconecta y reenvía el mismo frame
+        Long resent = messageService.sendAndStoreMessage(alice.getId(), conversationId, "hola", keys(), "cm-1")
+                .getMessageId();
+
+        // ASSERT: un solo mensaje con un solo juego de claves
+        assertEquals(original, resent);
+        assertEquals(1, messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId).size());
+        assertEquals(2, messageKeyRepository.findByMessageId(original).size());
+        assertEquals(before + 1, duplicates("memory"));
+    }
+
+    @Test
+    void resend_ShouldBeResolvedByTheUniqueIndex_WhenTheWindowForgotIt() {
+        // ARRANGE: mensaje guardado antes del arranque (la ventana no lo conoce)
+        Long original = tx.execute(status -> {
+            Message msg = new Message();
+            msg.setConversation(conversationRepository.getReferenceById(conversationId));
+            msg.setSenderId(alice.getId());
+            msg.setCiphertext("hola");
+            msg.setClientMessageId("cm-restart");
+            return messageRepository.save(msg).getId();
+        });
+        double before = duplicates("database");
+
+        StompMessagePayload payload = new StompMessagePayload(conversationId, "hola", alice.getId(),
+                Map.of(alice.getId().toString(), "key-alice", bob.toString(), "key-bob"));
+        payload.setClientMessageId("cm-restart");
+
+        // ACT
+        stompChatController.receiveMessage(payload, authentication(), null, null);
+
+        // ASSERT: el INSERT se deshizo y el siguiente reenvío ya se resuelve en memoria
+        assertEquals(1, messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId).size());
+        assertTrue(messageKeyRepository.findByMessageId(original).isEmpty());
+        assertEquals(before + 1, duplicates("database"));
+        assertEquals(original, messageService.sendAndStoreMessage(alice.getId(), conversationId, "hola",
+                keys(), "cm-restart").getMessageId());
+    }
+
+    @Test
+    void rolledBackSend_ShouldNotBeRemembered() {
+        // ARRANGE: el primer intento se deshace junto con la transacción que lo contiene
+        assertThrows(IllegalStateException.class, () -> tx.executeWithoutResult(status -> {
+            messageService.sendAndStoreMessage(alice.getId(), conversationId, "hola", keys(), "cm-rollback");
+            throw new IllegalStateException("rollback");
+        }));
+
+        // ACT: el reenvío sí se guarda
+        Long resent = messageService.sendAndStoreMessage(alice.getId(), conversationId, "hola", keys(), "cm-rollback")
+                .getMessageId();
+
+        // ASSERT
+        List<Message> messages = messageRepository.findByConversationIdOrderBySeqAscIdAsc(conversationId);
+        assertEquals(1, messages.size());
+        assertEquals(resent, messages.get(0).getId());
+    }
+
+    private RecipientKeys keys() {
+        return RecipientKeys.fromMap(Map.of(alice.getId().toString(), "key-alice", bob.toString(), "key-bob"));
+    }
+
+    private Authentication authentication() {
+        CustomUserDetails principal = new CustomUserDetails(alice);
+        return new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    }
+
+    private double duplicates(String source) {
+        Counter counter = meterRegistry.find("chat.message.duplicates").tag("source", source).counter();
+        return counter != null ? counter.count() : 0;
+    }
+
+    private static ConversationParticipant participant(Conversation conv, Long userId, String role) {
+        ConversationParticipant participant = new ConversationParticipant();
+        participant.setConversation(conv);
+        participant.setUserId(userId);
+        participant.setRole(role);
+        return participant;
+    }
+}
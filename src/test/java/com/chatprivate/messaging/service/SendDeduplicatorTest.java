@@ -0,0 +1,121 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.MessageReceiptDto;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios para SendDeduplicator.
+ *
+ * COBERTURA:
+ * - Ventana acotada por remitente (salen los IDs más antiguos)
+ * - LRU de remitentes
+ * - Límite global de IDs y caducidad
+ * - Sin clientMessageId o desactivado no guarda nada
+ */
+class SendDeduplicatorTest {
+
+    @Test
+    void find_ShouldRememberTheLastIdsOfEachSender() {
+        // ARRANGE
+        SendDeduplicator deduplicator = deduplicator(2, 10, 100);
+
+        // ACT
+        deduplicator.record(1L, receipt("a", 100L));
+        deduplicator.record(1L, receipt("b", 101L));
+        deduplicator.record(1L, receipt("c", 102L));
+        deduplicator.record(2L, receipt("a", 200L));
+
+        // ASSERT: "a" del remitente 1 ya salió; el mismo ID de otro remitente no choca
+        assertNull(deduplicator.find(1L, "a"));
+        assertEquals(101L, deduplicator.find(1L, "b").getMessageId());
+        assertEquals(102L, deduplicator.find(1L, "c").getMessageId());
+        assertEquals(200L, deduplicator.find(2L, "a").getMessageId());
+    }
+
+    @Test
+    void record_ShouldEvictTheLeastActiveSender() {
+        // ARRANGE
+        SendDeduplicator deduplicator = deduplicator(4, 2, 100);
+        deduplicator.record(1L, receipt("a", 100L));
+        deduplicator.record(2L, receipt("a", 200L));
+
+        // ACT: el remitente 1 vuelve a usarse, así que el menos activo es el 2
+        deduplicator.find(1L, "a");
+        deduplicator.record(3L, receipt("a", 300L));
+
+        // ASSERT
+        assertEquals(2, deduplicator.senderCount());
+        assertEquals(100L, deduplicator.find(1L, "a").getMessageId());
+        assertNull(deduplicator.find(2L, "a"));
+        assertEquals(300L, deduplicator.find(3L, "a").getMessageId());
+    }
+
+    @Test
+    void record_ShouldIgnoreSendsWithoutId_AndDisabledWindow() {
+        // ARRANGE
+        SendDeduplicator enabled = deduplicator(4, 4, 100);
+        SendDeduplicator disabled = new SendDeduplicator(false, 4, 4, 100, Duration.ofMinutes(10));
+
+        // ACT
+        enabled.recordAfterCommit(1L, receipt(null, 100L));
+        disabled.recordAfterCommit(1L, receipt("a", 100L));
+
+        // ASSERT
+        assertEquals(0, enabled.senderCount());
+        assertNull(enabled.find(1L, null));
+        assertNull(disabled.find(1L, "a"));
+    }
+
+    @Test
+    void record_ShouldCapTheEntriesAcrossAllSenders() {
+        // ARRANGE: sitio para muchos remitentes, pero solo 5 IDs en total
+        SendDeduplicator deduplicator = deduplicator(4, 100, 5);
+        deduplicator.record(1L, receipt("a", 100L));
+        deduplicator.record(1L, receipt("b", 101L));
+        deduplicator.record(2L, receipt("a", 200L));
+        deduplicator.record(2L, receipt("b", 201L));
+
+        // ACT: el remitente 3 pasa el límite
+        deduplicator.record(3L, receipt("a", 300L));
+        deduplicator.record(3L, receipt("b", 301L));
+
+        // ASSERT: sale entera la ventana del menos activo (1)
+        assertEquals(4, deduplicator.entryCount());
+        assertNull(deduplicator.find(1L, "a"));
+        assertEquals(201L, deduplicator.find(2L, "b").getMessageId());
+        assertEquals(301L, deduplicator.find(3L, "b").getMessageId());
+    }
+
+    @Test
+    void find_ShouldForgetIdsOlderThanTheTtl() {
+        // ARRANGE
+        AtomicLong now = new AtomicLong(0);
+        SendDeduplicator deduplicator = new SendDeduplicator(true, 4, 10, 100, Duration.ofMinutes(10), now::get);
+        deduplicator.record(1L, receipt("a", 100L));
+
+        // ACT
+        now.set(Duration.ofMinutes(9).toMillis());
+        MessageReceiptDto retry = deduplicator.find(1L, "a");
+        now.set(Duration.ofMinutes(10).toMillis());
+        MessageReceiptDto late = deduplicator.find(1L, "a");
+
+        // ASSERT: el reintento tardío ya no está en memoria (lo para el índice único)
+        assertEquals(100L, retry.getMessageId());
+        assertNull(late);
+        assertEquals(0, deduplicator.entryCount());
+    }
+
+    private static SendDeduplicator deduplicator(int perSender, int maxSenders, int maxEntries) {
+        return new SendDeduplicator(true, perSender, maxSenders, maxEntries, Duration.ofMinutes(10));
+    }
+
+    private static MessageReceiptDto receipt(String clientMessageId, long messageId) {
+        return new MessageReceiptDto(clientMessageId, messageId, 1L, Instant.now(), null);
+    }
+}
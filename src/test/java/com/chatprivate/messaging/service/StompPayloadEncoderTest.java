@@ -0,0 +1,154 @@
+package com.chatprivate.messaging.service;
+
+import com.chatprivate.messaging.dto.StompMessagePayload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.util.MimeTypeUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios para StompPayloadEncoder.
+ *
+ * COBERTURA:
+ * - El JSON generado es equivalente al que producía Jackson con StompMessagePayload
+ * - Escapado correcto de claves con caracteres especiales
+ * - Benchmark de asignación: bytes asignados por fan-out (encoder vs Jackson)
+ */
+class StompPayloadEncoderTest {
+
+    private static final int RECIPIENTS = 100;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StompPayloadEncoder encoder = new StompPayloadEncoder(objectMapper);
+
+    @Test
+    void bodyFor_ShouldProduceSameJsonAsJackson() throws Exception {
+        // ARRANGE
+        StompMessagePayload payload = new StompMessagePayload(5L, "Y2lwaGVydGV4dA==", 7L, Map.of("9", "a2V5"));
+
+        // ACT
+        byte[] body = encoder.encodeShared(5L, 7L, "Y2lwaGVydGV4dA==").bodyFor(9L, "a2V5");
+
+        // ASSERT
+        JsonNode expected = objectMapper.readTree(objectMapper.writeValueAsBytes(payload));
+        assertEquals(expected, objectMapper.readTree(body));
+    }
+
+    @Test
+    void bodyFor_ShouldCarryTheSequence_LikeJackson() throws Exception {
+        // ARRANGE
+        StompMessagePayload payload = new StompMessagePayload(5L, "abc", 7L, Map.of("9", "k"));
+        payload.setSeq(42L);
+
+        // ACT
+        byte[] body = encoder.encodeShared(5L, 7L, "abc", null, 42L).bodyFor(9L, "k");
+
+        // ASSERT
+        JsonNode expected = objectMapper.readTree(objectMapper.writeValueAsBytes(payload));
+        assertEquals(expected, objectMapper.readTree(body));
+        assertEquals(42L, objectMapper.readTree(body).get("seq").asLong());
+    }
+
+    @Test
+    void bodyFor_ShouldEscapeSpecialCharacters() throws Exception {
+        // ARRANGE: un ciphertext y una clave que necesitan escapado JSON
+        String ciphertext = "línea1\n\"comillas\"\\";
+        String key = "clave\"rara\t";
+
+        // ACT
+        JsonNode node = objectMapper.readTree(encoder.encodeShared(1L, 2L, ciphertext).bodyFor(3L, key));
+
+        // ASSERT
+        assertEquals(ciphertext, node.get("ciphertext").asText());
+        assertEquals(key, node.get("encryptedKeys").get("3").asText());
+        assertEquals(1, node.get("encryptedKeys").size());
+    }
+
+    @Test
+    void messageFor_ShouldCarryJsonContentType() {
+        Message<byte[]> message = encoder.encodeShared(1L, 2L, "abc").messageFor(3L, "k");
+
+        assertEquals(MimeTypeUtils.APPLICATION_JSON,
+                message.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+    }
+
+    /**
+     * Benchmark de asignación de memoria para un fan-out de 100 destinatarios
+     * con un ciphertext de 10KB (el máximo permitido).
+     *
+     * Compara el camino anterior (un StompMessagePayload por destinatario,
+     * serializado por el MappingJackson2MessageConverter de SimpMessagingTemplate)
+     * con el encoder. Uso ThreadMXBean para medir los bytes asignados por el hilo.
+     */
+    @Test
+    void fanOut_ShouldAllocateFewerBytesThanJacksonPerRecipient() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeAllocationTracking(threadMXBean);
+
+        String ciphertext = "A".repeat(10240);
+        String encryptedKey = "K".repeat(344); // RSA-2048 en Base64
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+
+        // Calentamiento (JIT + buffers reciclados de Jackson)
+        for (int i = 0; i < 20; i++) {
+            jacksonFanOut(converter, ciphertext, encryptedKey);
+            encoderFanOut(ciphertext, encryptedKey);
+        }
+
+        long jacksonBytes = measure(threadMXBean, () -> jacksonFanOut(converter, ciphertext, encryptedKey));
+        long encoderBytes = measure(threadMXBean, () -> encoderFanOut(ciphertext, encryptedKey));
+
+        long jacksonPerRecipient = jacksonBytes / RECIPIENTS;
+        long encoderPerRecipient = encoderBytes / RECIPIENTS;
+        String measured = "Jackson=" + jacksonPerRecipient + " bytes/destinatario, encoder="
+                + encoderPerRecipient + " bytes/destinatario";
+
+        // El encoder copia el ciphertext UNA vez por destinatario (el cuerpo del frame);
+        // Jackson además lo pasa por String/char[] intermedios
+        assertTrue(encoderPerRecipient < 2L * ciphertext.length(),
+                "El encoder debería copiar el ciphertext una sola vez por destinatario (" + measured + ")");
+        assertTrue(2 * encoderBytes < jacksonBytes,
+                "El encoder debería asignar menos de la mitad que Jackson (" + measured + ")");
+    }
+
+    private void jacksonFanOut(MappingJackson2MessageConverter converter, String ciphertext, String key) {
+        for (long recipientId = 1; recipientId <= RECIPIENTS; recipientId++) {
+            StompMessagePayload payload = new StompMessagePayload();
+            payload.setConversationId(1L);
+            payload.setCiphertext(ciphertext);
+            payload.setSenderId(2L);
+            payload.setEncryptedKeys(Map.of(Long.toString(recipientId), key));
+            assertNotNull(converter.toMessage(payload, new MessageHeaders(null)));
+        }
+    }
+
+    private void encoderFanOut(String ciphertext, String key) {
+        StompPayloadEncoder.SharedFrame frame = encoder.encodeShared(1L, 2L, ciphertext);
+        for (long recipientId = 1; recipientId <= RECIPIENTS; recipientId++) {
+            assertNotNull(frame.messageFor(recipientId, key));
+        }
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threadMXBean, Runnable fanOut) {
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        fanOut.run();
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static void assumeAllocationTracking(com.sun.management.ThreadMXBean threadMXBean) {
+        org.junit.jupiter.api.Assumptions.assumeTrue(
+                threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled(),
+                "La JVM no soporta medir memoria asignada por hilo");
+    }
+}
@@ -0,0 +1,52 @@
+package com.chatprivate.monitoring;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios del muestreo de logs del camino caliente.
+ */
+class HotPathLoggingTest {
+
+    @Test
+    void sampleMessage_ShouldAlwaysLog_WhenRateIsOne() {
+        // ARRANGE
+        HotPathLogging logging = new HotPathLogging(1.0, true);
+
+        // ACT & ASSERT
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(logging.sampleMessage());
+        }
+        assertTrue(logging.perRecipient());
+    }
+
+    @Test
+    void sampleMessage_ShouldNeverLog_WhenRateIsZero() {
+        // ARRANGE
+        HotPathLogging logging = new HotPathLogging(0.0, false);
+
+        // ACT & ASSERT
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(logging.sampleMessage());
+        }
+        assertFalse(logging.perRecipient());
+    }
+
+    @Test
+    void sampleMessage_ShouldLogRoughlyTheConfiguredFraction() {
+        // ARRANGE
+        HotPathLogging logging = new HotPathLogging(0.1, false);
+
+        // ACT
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (logging.sampleMessage()) {
+                sampled++;
+            }
+        }
+
+        // ASSERT (10% con margen amplio)
+        assertTrue(sampled > 8_000 && sampled < 12_000, "Muestreados: " + sampled);
+    }
+}
@@ -0,0 +1,57 @@
+package com.chatprivate.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests del filtro JWT (JwtAuthFilter) y de lo que se sirve en el puerto de la API.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class JwtAuthFilterTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void forgedToken_ShouldBeRejected_AndCountedAsInvalid() throws Exception {
+        // ARRANGE
+        long before = invalidValidations();
+
+        // ACT + ASSERT: un token que ni se puede parsear no revienta la petición (no es un 500)
+        mockMvc.perform(get("/api/conversations")
+                        .header("Authorization", "Bearer esto.no.es-un-jwt"))
+                .andExpect(status().is4xxClientError());
+
+        assertEquals(before + 1, invalidValidations());
+    }
+
+    @Test
+    void prometheus_ShouldNotBeServed_OnTheApiPort() throws Exception {
+        // Actuator va en management.server.port: en el puerto de la API
+        // la regla pública no casa y, sin token, se rechaza como cualquier otra
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().is4xxClientError());
+    }
+
+    private long invalidValidations() {
+        Timer timer = meterRegistry.find("chat.jwt.validation")
+                .tags("transport", "http", "outcome", "invalid")
+                .timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
@@ -0,0 +1,173 @@
+package com.chatprivate.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests unitarios del pipeline de auditoría.
+ *
+ * COBERTURA:
+ * - Escritura por lotes en el archivo (JSON Lines) y API de consulta
+ * - Políticas de desbordamiento (DROP_NEWEST, DROP_OLDEST, CALLER_RUNS)
+ * - Varios productores a la vez sin perder eventos
+ */
+class SecurityAuditPipelineTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void publish_ShouldWriteJsonLines_AndKeepRecentEvents() throws Exception {
+        // ARRANGE
+        Path file = tempDir.resolve("audit/security-audit.log");
+        SecurityAuditPipeline pipeline = pipeline(16, SecurityAuditPipeline.OverflowPolicy.DROP_NEWEST, file);
+        pipeline.start();
+
+        // ACT
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "alice"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_SUCCESS, "alice"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "bob"));
+        pipeline.stop(); // Vacía la cola y cierra el archivo
+
+        // ASSERT
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(3, lines.size());
+
+        JsonNode first = objectMapper.readTree(lines.get(0));
+        assertEquals("LOGIN_FAILED", first.get("type").asText());
+        assertEquals("alice", first.get("actor").asText());
+        assertTrue(first.has("time"));
+        assertFalse(first.has("email")); // Los campos null no se escriben
+
+        // Los más recientes primero, filtrando por tipo
+        List<SecurityAuditEvent> failed = pipeline.recentEvents(SecurityAuditEvent.Type.LOGIN_FAILED, 10);
+        assertEquals(List.of("bob", "alice"), failed.stream().map(SecurityAuditEvent::getActor).toList());
+        assertEquals(1, pipeline.recentEvents(null, 1).size());
+    }
+
+    @Test
+    void publish_ShouldDropNewest_WhenBufferIsFull() throws Exception {
+        // ARRANGE (sin arrancar el escritor: la cola se llena)
+        Path file = tempDir.resolve("drop-newest.log");
+        SecurityAuditPipeline pipeline = pipeline(2, SecurityAuditPipeline.OverflowPolicy.DROP_NEWEST, file);
+
+        // ACT
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "a"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "b"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "c"));
+        pipeline.start();
+        pipeline.stop();
+
+        // ASSERT
+        assertEquals(1, pipeline.droppedCount());
+        assertEquals(List.of("a", "b"), actors(file));
+    }
+
+    @Test
+    void publish_ShouldDropOldest_WhenBufferIsFull() throws Exception {
+        // ARRANGE
+        Path file = tempDir.resolve("drop-oldest.log");
+        SecurityAuditPipeline pipeline = pipeline(2, SecurityAuditPipeline.OverflowPolicy.DROP_OLDEST, file);
+
+        // ACT
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "a"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "b"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "c"));
+        pipeline.start();
+        pipeline.stop();
+
+        // ASSERT
+        assertEquals(1, pipeline.droppedCount());
+        assertEquals(List.of("b", "c"), actors(file));
+    }
+
+    @Test
+    void publish_ShouldWriteOnCallerThread_WhenBufferIsFullAndPolicyIsCallerRuns() throws Exception {
+        // ARRANGE
+        Path file = tempDir.resolve("caller-runs.log");
+        SecurityAuditPipeline pipeline = pipeline(2, SecurityAuditPipeline.OverflowPolicy.CALLER_RUNS, file);
+
+        // ACT
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "a"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "b"));
+        pipeline.publish(event(SecurityAuditEvent.Type.LOGIN_FAILED, "c"));
+
+        // ASSERT
+        // El tercero se escribió ya, en este hilo; nada se descarta
+        assertEquals(1, pipeline.writtenCount());
+        assertEquals(0, pipeline.droppedCount());
+
+        pipeline.start();
+        pipeline.stop();
+        assertEquals(3, actors(file).size());
+    }
+
+    @Test
+    void publish_ShouldNotLoseEvents_WithConcurrentProducers() throws Exception {
+        // ARRANGE
+        Path file = tempDir.resolve("concurrent.log");
+        SecurityAuditPipeline pipeline = pipeline(8192, SecurityAuditPipeline.OverflowPolicy.DROP_NEWEST, file);
+        pipeline.start();
+
+        int producers = 4;
+        int perProducer = 1000;
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            String actor = "producer-" + p;
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    pipeline.publish(event(SecurityAuditEvent.Type.ACCESS_DENIED, actor));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        // ACT
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipeline.stop();
+
+        // ASSERT
+        assertEquals(0, pipeline.droppedCount());
+        assertEquals(producers * perProducer, pipeline.writtenCount());
+        assertEquals(producers * perProducer, Files.readAllLines(file).size());
+    }
+
+    private SecurityAuditPipeline pipeline(int capacity, SecurityAuditPipeline.OverflowPolicy policy, Path file) {
+        return new SecurityAuditPipeline(capacity, policy, file, 64, 100, false, objectMapper);
+    }
+
+    private static SecurityAuditEvent event(SecurityAuditEvent.Type type, String actor) {
+        return SecurityAuditEvent.builder().type(type).actor(actor).ip("127.0.0.1").build();
+    }
+
+    private List<String> actors(Path file) throws Exception {
+        List<String> actors = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            actors.add(objectMapper.readTree(line).get("actor").asText());
+        }
+        return actors;
+    }
+}
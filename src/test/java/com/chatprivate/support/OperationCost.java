@@ -0,0 +1,94 @@
+package com.chatprivate.support;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Coste medido de UNA operación de servicio (ver {@link PerformanceProbe}).
+ *
+ * - statements:     sentencias JDBC preparadas por Hibernate (SELECT, INSERT, UPDATE, DELETE)
+ * - queries:        consultas HQL/JPQL/SQL nativas ejecutadas
+ * - entityLoads:    entidades cargadas desde la BD (no cuenta las proyecciones a DTO)
+ * - allocatedBytes: bytes reservados en el heap por el hilo del test (-1 si la JVM no lo soporta)
+ *
+ * Los assert* devuelven la propia instancia para encadenarlos:
+ * <pre>
+ * probe.measure(() -> service.getUserConversations(userId))
+ *      .assertStatementsAtMost(4)
+ *      .assertEntityLoadsAtMost(2);
+ * </pre>
+ */
+public class OperationCost {
+
+    private final String operation;
+    private final long statements;
+    private final long queries;
+    private final long entityLoads;
+    private final long allocatedBytes;
+    private final Map<String, Long> loadsByEntity;
+
+    OperationCost(String operation, long statements, long queries, long entityLoads,
+                  long allocatedBytes, Map<String, Long> loadsByEntity) {
+        this.operation = operation;
+        this.statements = statements;
+        this.queries = queries;
+        this.entityLoads = entityLoads;
+        this.allocatedBytes = allocatedBytes;
+        this.loadsByEntity = loadsByEntity;
+    }
+
+    public long getStatements() { return statements; }
+    public long getQueries() { return queries; }
+    public long getEntityLoads() { return entityLoads; }
+    public long getAllocatedBytes() { return allocatedBytes; }
+
+    /**
+     * Entidades de un tipo concreto cargadas desde la BD.
+     */
+    public long getEntityLoads(Class<?> entity) {
+        return loadsByEntity.getOrDefault(entity.getName(), 0L);
+    }
+
+    // ============================================
+    // ASERCIONES
+    // ============================================
+
+    public OperationCost assertStatementsAtMost(long max) {
+        assertTrue(statements <= max,
+                () -> "Demasiadas sentencias SQL (máximo " + max + "): " + this);
+        return this;
+    }
+
+    public OperationCost assertEntityLoadsAtMost(long max) {
+        assertTrue(entityLoads <= max,
+                () -> "Demasiadas entidades cargadas (máximo " + max + "): " + this);
+        return this;
+    }
+
+    public OperationCost assertEntityLoadsAtMost(Class<?> entity, long max) {
+        long loads = getEntityLoads(entity);
+        assertTrue(loads <= max,
+                () -> "Demasiadas entidades " + entity.getSimpleName() + " cargadas (máximo " + max + "): " + this);
+        return this;
+    }
+
+    /**
+     * Si la JVM no sabe medir las reservas del hilo, no compruebo nada.
+     */
+    public OperationCost assertAllocatedAtMost(long maxBytes) {
+        if (allocatedBytes >= 0) {
+            assertTrue(allocatedBytes <= maxBytes,
+                    () -> "Demasiada memoria reservada (máximo " + maxBytes + " bytes): " + this);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return operation + " [statements=" + statements
+                + ", queries=" + queries
+                + ", entityLoads=" + entityLoads + " " + loadsByEntity
+                + ", allocatedBytes=" + allocatedBytes + "]";
+    }
+}
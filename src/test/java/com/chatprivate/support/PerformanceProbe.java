@@ -0,0 +1,111 @@
+package com.chatprivate.support;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mide el coste de una operación de servicio contra la BD de test (H2):
+ * sentencias SQL, consultas, entidades cargadas y bytes reservados.
+ *
+ * PROBLEMA:
+ * Los tests de servicio solo comprueban resultados. Un N+1 (como el que tenía
+ * getUserConversations) devuelve lo mismo y pasa todos los tests.
+ *
+ * SOLUCIÓN:
+ * Uso las estadísticas de Hibernate (hibernate.generate_statistics=true) y el
+ * contador de reservas por hilo de la JVM (com.sun.management.ThreadMXBean).
+ * Cada medición:
+ * 1. Hace flush + clear del contexto de persistencia (como una petición nueva)
+ * 2. Vacía la caché de segundo nivel (los números no dependen del orden de los tests)
+ * 3. Ejecuta la operación y hace flush, para contar también los INSERT/UPDATE pendientes
+ *
+ * Solo mide el hilo del test: las operaciones tienen que ser síncronas. No es
+ * un componente de Spring (lo escanearía la app); cada test crea el suyo.
+ */
+public class PerformanceProbe {
+
+    private final EntityManager entityManager;
+    private final SessionFactory sessionFactory;
+    private final Statistics statistics;
+    private final com.sun.management.ThreadMXBean threads;
+
+    public PerformanceProbe(EntityManagerFactory entityManagerFactory, EntityManager entityManager) {
+        this.entityManager = entityManager;
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.statistics = sessionFactory.getStatistics();
+        this.threads = allocationCounter();
+        if (!statistics.isStatisticsEnabled()) {
+            throw new IllegalStateException("Las estadísticas de Hibernate están apagadas (hibernate.generate_statistics)");
+        }
+    }
+
+    public OperationCost measure(Runnable operation) {
+        return measure("operation", operation);
+    }
+
+    /**
+     * Mide una operación partiendo de un contexto de persistencia y una caché
+     * de segundo nivel vacíos.
+     */
+    public OperationCost measure(String name, Runnable operation) {
+        entityManager.flush();
+        entityManager.clear();
+        sessionFactory.getCache().evictAllRegions();
+        statistics.clear();
+
+        long allocatedBefore = allocatedBytes();
+        operation.run();
+        entityManager.flush();
+        long allocatedAfter = allocatedBytes();
+
+        Map<String, Long> loadsByEntity = new TreeMap<>();
+        for (String entityName : statistics.getEntityNames()) {
+            long loads = statistics.getEntityStatistics(entityName).getLoadCount();
+            if (loads > 0) {
+                loadsByEntity.put(entityName, loads);
+            }
+        }
+
+        return new OperationCost(
+                name,
+                statistics.getPrepareStatementCount(),
+                statistics.getQueryExecutionCount(),
+                statistics.getEntityLoadCount(),
+                allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore,
+                loadsByEntity
+        );
+    }
+
+    /**
+     * Mide la operación después de ejecutarla {@code warmUps} veces.
+     * Para los presupuestos de memoria: la primera llamada incluye la carga de
+     * clases y la compilación de las consultas HQL, que no son del servicio.
+     */
+    public OperationCost measureWarm(String name, int warmUps, Runnable operation) {
+        for (int i = 0; i < warmUps; i++) {
+            operation.run();
+        }
+        return measure(name, operation);
+    }
+
+    private long allocatedBytes() {
+        return threads == null ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean
+                && sunBean.isThreadAllocatedMemorySupported()
+                && sunBean.isThreadAllocatedMemoryEnabled()) {
+            return sunBean;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package com.chatprivate.user;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests de integración para UserDirectoryService.
+ *
+ * COBERTURA:
+ * - Búsqueda por prefijo con paginación por cursor (query a la BD)
+ * - Los comodines de LIKE en el prefijo se tratan como texto
+ * - El índice de prefijos en memoria devuelve lo mismo e incluye nuevos registros
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class UserDirectoryServiceTest {
+
+    @Autowired
+    private UserDirectoryService userDirectoryService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User me;
+
+    @BeforeEach
+    void setUp() {
+        me = saveUser("ana_me");
+        saveUser("ana1");
+        saveUser("ana2");
+        saveUser("ana3");
+        saveUser("anabel");
+        saveUser("bruno");
+    }
+
+    @Test
+    void search_ShouldPageByCursor_AndExcludeCurrentUser() {
+        // ACT: primera página
+        UserDirectoryPage page1 = userDirectoryService.search("ana", null, 2, me.getId());
+
+        // ASSERT
+        assertEquals(List.of("ana1", "ana2"), usernames(page1));
+        assertEquals("ana2", page1.getNextCursor());
+
+        // ACT: siguiente página con el cursor
+        UserDirectoryPage page2 = userDirectoryService.search("ana", page1.getNextCursor(), 2, me.getId());
+        assertEquals(List.of("ana3", "anabel"), usernames(page2));
+
+        // La última página viene incompleta y sin cursor
+        UserDirectoryPage page3 = userDirectoryService.search("ana", page2.getNextCursor(), 2, me.getId());
+        assertTrue(page3.getUsers().isEmpty());
+        assertNull(page3.getNextCursor());
+    }
+
+    @Test
+    void search_ShouldTreatLikeWildcardsAsText() {
+        // "ana_" solo debe encontrar usernames que empiezan literalmente por "ana_"
+        UserDirectoryPage page = userDirectoryService.search("ana_", null, 10, null);
+
+        assertEquals(List.of("ana_me"), usernames(page));
+    }
+
+    @Test
+    void prefixIndex_ShouldMatchDatabase_AndIncludeNewRegistrations() {
+        // ARRANGE: un directorio con el índice activado
+        UserDirectoryService indexed = new UserDirectoryService(userRepository, true);
+        indexed.buildPrefixIndex();
+
+        // ACT
+        User nuevo = saveUser("ana4");
+        indexed.onUserRegistered(nuevo.getId(), nuevo.getUsername());
+        // El test corre en una transacción que nunca hace commit: disparo el afterCommit a mano
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        // ASSERT
+        UserDirectoryPage page = indexed.search("ANA", "ana2", 10, me.getId());
+        assertEquals(List.of("ana3", "ana4", "anabel"), usernames(page));
+    }
+
+    private User saveUser(String username) {
+        return userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@test.com")
+                .password("pass")
+                .encryptedPrivateKey("K".repeat(2000))
+                .build());
+    }
+
+    private static List<String> usernames(UserDirectoryPage page) {
+        return page.getUsers().stream().map(UserDto::getUsername).collect(Collectors.toList());
+    }
+}
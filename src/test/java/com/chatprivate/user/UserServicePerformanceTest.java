@@ -0,0 +1,86 @@
+package com.chatprivate.user;
+
+import com.chatprivate.auth.LoginRequest;
+import com.chatprivate.auth.RegisterRequest;
+import com.chatprivate.support.PerformanceProbe;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Presupuestos de rendimiento de UserService contra H2
+ * (UserServiceTest usa mocks y no ve las consultas).
+ *
+ * Sin presupuesto de memoria: BCrypt domina las reservas de register y login.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class UserServicePerformanceTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private PerformanceProbe probe;
+
+    @BeforeEach
+    void setUp() {
+        probe = new PerformanceProbe(entityManagerFactory, entityManager);
+    }
+
+    @Test
+    void register_Budget() {
+        // ACT & ASSERT: comprobaciones de unicidad + INSERT del usuario y de su clave pública
+        probe.measure("register", () -> userService.register(registerRequest("perfReg")))
+                .assertStatementsAtMost(5)
+                .assertEntityLoadsAtMost(0);
+    }
+
+    @Test
+    void login_Budget() {
+        // ARRANGE
+        userService.register(registerRequest("perfLogin"));
+
+        // ACT & ASSERT
+        probe.measure("login", () -> assertNotNull(userService.login(new LoginRequest("perfLogin", "password123")).getToken()))
+                .assertStatementsAtMost(1)
+                .assertEntityLoadsAtMost(1);
+    }
+
+    @Test
+    void uploadPublicKey_Budget() {
+        // ARRANGE
+        userService.register(registerRequest("perfKey"));
+
+        // ACT & ASSERT
+        probe.measure("uploadPublicKey", () -> userService.uploadPublicKey("perfKey", "-----BEGIN PUBLIC KEY-----nueva"))
+                .assertStatementsAtMost(3)
+                .assertEntityLoadsAtMost(1);
+    }
+
+    private static RegisterRequest registerRequest(String username) {
+        RegisterRequest req = new RegisterRequest();
+        req.setUsername(username);
+        req.setEmail(username + "@test.com");
+        req.setPassword("password123");
+        req.setPublicKey("-----BEGIN PUBLIC KEY-----" + username);
+        req.setKekSalt("salt");
+        req.setEncryptedPrivateKey("encrypted");
+        req.setKekIv("iv");
+        return req;
+    }
+}
@@ -2,7 +2,9 @@ package com.chatprivate.user;
 
 import com.chatprivate.auth.AuthResponse;
 import com.chatprivate.auth.LoginRequest;
+import com.chatprivate.messaging.model.UserPublicKey;
 import com.chatprivate.messaging.repository.UserPublicKeyRepository;
+import com.chatprivate.messaging.service.PublicKeyDirectory;
 import com.chatprivate.security.JwtService;
 import com.chatprivate.security.SecurityAuditLogger;
 import org.junit.jupiter.api.BeforeEach;
@@ -36,6 +38,10 @@ class UserServiceTest {
     private UserPublicKeyRepository userPublicKeyRepository;
     @Mock
     private SecurityAuditLogger auditLogger;
+    @Mock
+    private PublicKeyDirectory publicKeyDirectory;
+    @Mock
+    private UserDirectoryService userDirectoryService;
 
     // --- La Clase Real que Estamos Probando ---
     @InjectMocks
@@ -139,4 +145,23 @@ class UserServiceTest {
         // Verifica que el log de auditoría de FALLO fue llamado
         verify(auditLogger).logLoginAttempt("nonExistentUser", false, "N/A", "Usuario no encontrado");
     }
-}
\ No newline at end of file
+
+    // --- TEST 4: Subir clave pública (sin cargar la entidad User completa) ---
+    @Test
+    void uploadPublicKey_ShouldUseIdLookup_AndEvictDirectoryCache() {
+        // ARRANGE
+        when(userRepository.findIdByUsername("testuser")).thenReturn(Optional.of(1L));
+        when(userPublicKeyRepository.findByUserId(1L)).thenReturn(Optional.empty());
+
+        // ACT
+        userService.uploadPublicKey("testuser", "---NEW PUBLIC KEY---");
+
+        // ASSERT
+        verify(userPublicKeyRepository).save(argThat((UserPublicKey upk) ->
+                upk.getUserId().equals(1L) && upk.getPublicKeyPem().equals("---NEW PUBLIC KEY---")));
+        verify(publicKeyDirectory).evict(1L);
+
+        // Nunca se hidrata el User completo (con la clave privada cifrada)
+        verify(userRepository, never()).findByUsername(anyString());
+    }
+}